@@ -1,4 +1,7 @@
 import backend.Controller;
+import backend.pmanagement.IProgressListener;
+import backend.pmanagement.ProgressAggregator;
+import backend.rasterio.FootprintCache;
 import frontend.*;
 import java.io.IOException;
 import java.io.InputStream;
@@ -8,11 +11,16 @@ import java.util.logging.Logger;
 public class Main {
 
     private static Logger log = Logger.getLogger(Main.class.getName());
-    private static Controller backend;
     private static UI ui;
 
     static class CmdPipe implements UI_Command_receiver {
 
+        private final Controller backend;
+
+        CmdPipe(Controller backend) {
+            this.backend = backend;
+        }
+
         @Override
         public void add_file(String s) throws IOException {
             backend.add_file(s);
@@ -28,11 +36,91 @@ public class Main {
             backend.set_process_count(n);
         }
 
+        @Override
+        public void set_output_path(String path) {
+            backend.set_output_path(path);
+        }
+
+        @Override
+        public void set_journal_path(String path) {
+            backend.set_journal_path(path);
+        }
+
+        @Override
+        public void set_grouping(String type, String value) throws IOException {
+            backend.set_grouping(type,value);
+        }
+
+        @Override
+        public void set_min_overlap(double pixels) {
+            backend.set_min_overlap(pixels);
+        }
+
+        @Override
+        public void set_task_ordering(String name) {
+            backend.set_task_ordering(name);
+        }
+
+        @Override
+        public void set_resource_limits(int io_per_device, long memory_bytes) {
+            backend.set_resource_limits(io_per_device,memory_bytes);
+        }
+
+        @Override
+        public void set_device_policy(String path, int concurrency, int window) {
+            backend.set_device_policy(path,concurrency,window);
+        }
+
+        @Override
+        public void set_child_jvms(int heap_mb, int gdal_cache_mb, int tasks_per_child) {
+            backend.set_child_jvms(heap_mb, gdal_cache_mb, tasks_per_child);
+        }
+
+        @Override
+        public void set_task_timeout(double seconds) {
+            backend.set_task_timeout(seconds);
+        }
+
+        @Override
+        public void set_thread_mode(String name) {
+            backend.set_thread_mode(name);
+        }
+
+        @Override
+        public void set_split_pixels(double pixels) {
+            backend.set_split_pixels(pixels);
+        }
+
+        @Override
+        public void set_cluster(String bind_address, int port, String token) {
+            backend.set_cluster(bind_address, port, token);
+        }
+
+        @Override
+        public void set_partitions(int k) {
+            backend.set_partitions(k);
+        }
+
         @Override
         public void save_graph(String filename) {
             backend.save_graph(filename);
         }
 
+        @Override
+        public void save_plan(String filename) throws IOException {
+            backend.save_plan(filename);
+        }
+
+        @Override
+        public void add_progress_listener(final UI_Progress_listener listener) {
+            backend.add_progress_listener(new IProgressListener() {
+                @Override
+                public void on_progress(ProgressAggregator.Snapshot s) {
+                    listener.on_progress(s.progress(),s.pixels_per_second,s.eta_seconds,s.finished);
+                }
+            });
+        }
+
         @Override
         public boolean is_running() {
             return backend.is_running();
@@ -47,6 +135,27 @@ public class Main {
         public void join() {
             backend.join();
         }
+
+        @Override
+        public void cancel(String reason) {
+            backend.cancel(reason);
+        }
+    }
+
+    /**
+     * Creates controllers of daemon jobs, they share footprints and keep child JVMs warm
+     */
+    static class DaemonPipes implements UI_Command_receiver_factory {
+
+        private FootprintCache footprints;
+
+        @Override
+        public synchronized UI_Command_receiver create() {
+            if (footprints == null) {
+                footprints = new FootprintCache(Runtime.getRuntime().availableProcessors(), FootprintCache.DEFAULT_SIZE);
+            }
+            return new CmdPipe(new Controller(footprints, true));
+        }
     }
 
     public static void main(String [] args) {
@@ -71,14 +180,15 @@ public class Main {
 
         log.fine("Setting up backend...");
         //Setup backend
-        backend = new Controller();
+        Controller backend = new Controller();
 
         log.fine("Setting up frontend...");
         //Setup frontend
 
         ui = new UI();
-        CmdPipe pipe = new CmdPipe();
+        CmdPipe pipe = new CmdPipe(backend);
         ui.setReciever(pipe);
+        ui.setRecieverFactory(new DaemonPipes());
 
         // Process arguments
         ui.processArguments(args);
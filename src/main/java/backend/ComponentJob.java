@@ -0,0 +1,729 @@
+package backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import backend.cluster.PartitionPlan;
+import backend.graph.GraphBuilder;
+import backend.graph.GraphPartitioner;
+import backend.graph.RasterGroup;
+import backend.pipeline.Channel;
+import backend.pipeline.IStage;
+import backend.pipeline.Pipeline;
+import backend.pmanagement.TaskScheduler;
+import backend.processes.IRRNProcess;
+import backend.processes.ProcessFactory;
+import backend.rasterio.FileFingerprint;
+import backend.rasterio.ImageNormalizer;
+import backend.rasterio.RasterDataset;
+import backend.rrn.CoefficientPropagator;
+import backend.rrn.RRN;
+import backend.rrn.RRNResult;
+import backend.tasks.*;
+import backend.utils.TypeUtils;
+import org.gdal.gdal.Dataset;
+
+/**
+ * Independent sub-job for single connected component of overlap graph.
+ * Has it's own reference image, tasks, task provider, processes and output,
+ * so it can be executed concurrently with other components and finish on it's own
+ */
+public class ComponentJob {
+
+    private static Logger log = Logger.getLogger(ComponentJob.class.getName());
+
+    // Threads writing normalized images, and groups waiting for them
+    private static final int WRITE_THREADS = 2;
+    private static final int WRITE_QUEUE = 4;
+    // Item of finished edges channel, that emits groups final from the start
+    private static final int INITIAL_EDGES = -1;
+
+    // Allowed excess of part cost over average, when partitioning
+    private static final double PARTITION_IMBALANCE = 0.1;
+
+    private final int id;
+    private final GraphBuilder graph;
+    private final String output_path;
+
+    private List<IRRNTask> tasks;
+    // Child and parent group of each task, in depth-first order from reference
+    private RasterGroup[] task_children;
+    private RasterGroup[] task_parents;
+    // Tasks without result in journal
+    private Collection<IRRNTask> pending_tasks;
+    private ResultJournal journal;
+    private final List<ITaskListener> listeners = new ArrayList<>();
+    // Tasks are served to remote workers, no local processes are run
+    private boolean remote;
+    private Collection<IRRNProcess> processes;
+    private ITaskProvider task_provider;
+    private LeasingTaskProvider leasing;
+    private long min_lease_millis;
+    private double split_pixels;
+    private int process_count;
+    // Owner of CPU permits of processes, see ResourceGovernor
+    private Object cpu_owner;
+    private TaskScheduler task_scheduler;
+    private TaskOrdering.POLICY task_ordering;
+    private final CostModel cost_model;
+    private double predicted_makespan;
+    // Writes outputs while tasks run, see start_outputs
+    private Pipeline output_pipeline;
+    private Channel<Integer> finished_edges;
+    private OutputManifest output_manifest;
+    private final AtomicInteger images_written = new AtomicInteger();
+    private volatile boolean cancelled;
+
+    public ComponentJob(int id, GraphBuilder component, String output_path) {
+        this(id, component, output_path, new CostModel());
+    }
+
+    /**
+     * @param cost_model model of task durations, refined while job runs
+     */
+    public ComponentJob(int id, GraphBuilder component, String output_path, CostModel cost_model) {
+        this.id = id;
+        this.graph = component;
+        this.output_path = output_path;
+        this.process_count = 1;
+        this.task_ordering = TaskOrdering.POLICY.LARGEST_FIRST;
+        this.cost_model = cost_model;
+        this.min_lease_millis = LeasingTaskProvider.DEFAULT_MIN_LEASE_MILLIS;
+        this.split_pixels = SplittingTaskProvider.DEFAULT_SPLIT_PIXELS;
+    }
+
+    public int get_id() {
+        return id;
+    }
+
+    public RasterGroup get_reference() {
+        return graph.get_reference();
+    }
+
+    public String get_output_path() {
+        return output_path;
+    }
+
+    public int get_image_count() {
+        return graph.vertices_count();
+    }
+
+    public int get_file_count() {
+        return graph.file_count();
+    }
+
+    // ###################################### TASKS ######################################
+
+    private boolean tasks_valid() {
+        return tasks != null;
+    }
+
+    /**
+     * Initialize tasks here
+     */
+    private void validate_tasks() {
+        int task_num = graph.get_results_size();
+        RasterGroup[] source = new RasterGroup[task_num];
+        RasterGroup[] target = new RasterGroup[task_num];
+        double[] weights = new double[task_num];
+        graph.get_results(source,target,weights);
+        tasks = new ArrayList<IRRNTask>();
+        task_children = source;
+        task_parents = target;
+
+        // One task for each pair of adjacent groups, statistics of all
+        // overlapping tiles between them are pooled
+        for (int i = 0; i != task_num; ++i) {
+            IRRNTask t = TaskFactory.get_task();
+            t.set_name(source[i]+" -> "+target[i]);
+            t.set_overlap_pixels(weights[i]);
+            for (RasterDataset[] pair : graph.get_pairs(source[i],target[i])) {
+                t.add_pair(pair[0],pair[1]);
+            }
+            tasks.add(t);
+        }
+        cost_model.assign(tasks);
+        restore_results();
+    }
+
+    /**
+     * Take results of tasks, finished by previous run, from journal
+     */
+    private void restore_results() {
+        pending_tasks = new ArrayList<>();
+        for (IRRNTask t : tasks) {
+            if (journal != null) {
+                try {
+                    t.set_key(ResultJournal.task_key(t, RRN.PARAMETERS));
+                } catch (IOException ex) {
+                    log.log(Level.WARNING,"Could not fingerprint "+t+", it will not be journaled",ex);
+                }
+            }
+
+            RRNResult res = t.get_key() == null ? null : journal.get(t.get_key());
+            if (res != null) {
+                t.set_result(res);
+            } else {
+                pending_tasks.add(t);
+            }
+        }
+
+        if (pending_tasks.size() != tasks.size()) {
+            log.info(String.format("Component %d: %d of %d tasks restored from %s",
+                    id, tasks.size()-pending_tasks.size(), tasks.size(), journal.get_path()));
+        }
+    }
+
+    /**
+     * Set journal, results of tasks are restored from and written to. Null to disable
+     */
+    public void set_journal(ResultJournal journal) {
+        this.journal = journal;
+        tasks = null;
+        task_provider = null;
+        invalidate_processes();
+    }
+
+    public Collection<IRRNTask> get_tasks() {
+        if (!tasks_valid()) validate_tasks();
+        return tasks;
+    }
+
+    // ################################## Task Provider ###################################
+
+    /**
+     * Initialize task provider here
+     */
+    private void validate_task_provider() {
+        get_tasks();
+        task_provider = new WorkStealingTaskProvider(process_count, task_ordering);
+        if (journal != null) task_provider = new JournalingTaskProvider(task_provider, journal);
+        // Strips are leased and retried on their own, only converged tasks are journaled
+        task_provider = new SplittingTaskProvider(task_provider, split_pixels);
+        // Coordinator leases tasks to remote workers on it's own
+        leasing = null;
+        if (!remote) {
+            leasing = new LeasingTaskProvider(task_provider);
+            leasing.set_min_lease_millis(min_lease_millis);
+            task_provider = leasing;
+        }
+        for (ITaskListener l : listeners) task_provider.add_listener(l);
+        task_provider.set_tasks(pending_tasks);
+        task_provider.set_cost_model(cost_model);
+    }
+
+    public void set_task_ordering(TaskOrdering.POLICY ordering) {
+        task_ordering = ordering;
+        task_provider = null;
+        invalidate_processes();
+    }
+
+    /**
+     * Shortest time task may run before it is abandoned and retried, see {@link LeasingTaskProvider}
+     */
+    public void set_min_lease_millis(long millis) {
+        min_lease_millis = millis;
+        task_provider = null;
+        invalidate_processes();
+    }
+
+    /**
+     * Overlap, tasks are split into strips at, see {@link SplittingTaskProvider}
+     */
+    public void set_split_pixels(double pixels) {
+        split_pixels = pixels;
+        task_provider = null;
+        invalidate_processes();
+    }
+
+    private boolean task_provider_valid() {
+        return task_provider != null;
+    }
+
+    public ITaskProvider get_task_provider() {
+        if (!task_provider_valid()) validate_task_provider();
+        return task_provider;
+    }
+
+    // ##################################### PROCESSES #####################################
+
+    private boolean processes_valid() {
+        return processes != null;
+    }
+
+    private void invalidate_processes() {
+        processes = null;
+        // task scheduler depends on processes, so invalidate it
+        task_scheduler = null;
+    }
+
+    private void validate_processes() {
+        processes = new ArrayList<>();
+
+        for (int i = 0; i != process_count; ++i) {
+            IRRNProcess new_proc = ProcessFactory.get_process();
+            new_proc.set_task_provider(get_task_provider());
+            new_proc.set_cpu_owner(cpu_owner);
+            for (ITaskListener l : listeners) new_proc.add_listener(l);
+            processes.add(new_proc);
+        }
+    }
+
+    private Collection<IRRNProcess> get_processes() {
+        if (!processes_valid()) validate_processes();
+        return processes;
+    }
+
+    public void set_process_count(int n) {
+        // Work-stealing provider has a deque per process
+        task_provider = null;
+        invalidate_processes();
+        process_count = n;
+    }
+
+    /**
+     * Owner, CPU permits of processes are acquired on behalf of, see {@link IRRNProcess#set_cpu_owner(Object)}
+     */
+    public void set_cpu_owner(Object owner) {
+        cpu_owner = owner;
+        invalidate_processes();
+    }
+
+    public int get_process_count() {
+        return process_count;
+    }
+
+    // ################################ PROCESSES MANAGEMENT ###############################
+
+    private void validate_task_scheduler() {
+        task_scheduler = new TaskScheduler();
+        task_scheduler.set_processes( get_processes() );
+    }
+
+    private boolean task_scheduler_valid() {
+        return task_scheduler != null;
+    }
+
+    private TaskScheduler get_task_scheduler() {
+        if (!task_scheduler_valid()) validate_task_scheduler();
+        return task_scheduler;
+    }
+
+    /**
+     * Subscribe to events of task provider and processes of this job
+     */
+    public void add_listener(ITaskListener listener) {
+        listeners.add(listener);
+        if (task_provider_valid()) task_provider.add_listener(listener);
+        if (processes_valid()) {
+            for (IRRNProcess p : processes) p.add_listener(listener);
+        }
+    }
+
+    /**
+     * Serve tasks to remote workers through {@link backend.cluster.Coordinator} instead of running local processes.
+     * Coordinator takes tasks from {@link #get_task_provider()}
+     */
+    public void set_remote(boolean remote) {
+        if (this.remote == remote) return;
+        this.remote = remote;
+        task_provider = null;
+        invalidate_processes();
+    }
+
+    /**
+     * Split groups of component into k parts with fewest cut tasks and balanced cost, see {@link GraphPartitioner}.
+     * Tasks are added to plan, component with fewer groups than k gets fewer parts
+     */
+    public void partition(int k, PartitionPlan plan) {
+        get_tasks();
+        Map<RasterGroup,Integer> index = new HashMap<>();
+        for (RasterGroup g : graph.vertices()) index.put(g, index.size());
+
+        int n = index.size();
+        double[] vwgt = new double[n];
+        int[] eu = new int[tasks.size()];
+        int[] ev = new int[tasks.size()];
+        double[] ewgt = new double[tasks.size()];
+        for (int i = 0; i != tasks.size(); ++i) {
+            eu[i] = index.get(task_children[i]);
+            ev[i] = index.get(task_parents[i]);
+            ewgt[i] = tasks.get(i).get_overlap_pixels();
+            // Cost of task is shared by both of it's groups
+            vwgt[eu[i]] += tasks.get(i).get_cost()/2;
+            vwgt[ev[i]] += tasks.get(i).get_cost()/2;
+        }
+
+        int n_parts = Math.max(1, Math.min(k, n));
+        int[] part = GraphPartitioner.partition(n, vwgt, eu, ev, ewgt, n_parts, PARTITION_IMBALANCE);
+        int first = plan.add_parts(n_parts);
+        for (int i = 0; i != tasks.size(); ++i) {
+            plan.put(tasks.get(i), first+part[eu[i]], first+part[ev[i]]);
+        }
+        log.info(String.format("Component %d: %d parts, %.0f of %.0f overlap pixels cut",
+                id, n_parts, GraphPartitioner.cut(part, eu, ev, ewgt), sum(ewgt)));
+    }
+
+    private static double sum(double[] values) {
+        double ret = 0;
+        for (double v : values) ret += v;
+        return ret;
+    }
+
+    // ####################################### PLAN #######################################
+
+    public CostModel get_cost_model() {
+        return cost_model;
+    }
+
+    /**
+     * Add all tasks of job to plan. Only headers of images are read
+     */
+    public void plan(RunPlan plan) {
+        get_tasks();
+        List<IRRNTask> all = tasks;
+        for (int i = 0; i != all.size(); ++i) {
+            IRRNTask t = all.get(i);
+            int n_bands = Integer.MAX_VALUE;
+            int bytes_per_pixel = 0;
+            long block_pixels = 0;
+            for (int p = 0; p != t.n_pairs(); ++p) {
+                RasterDataset[] pair = {t.get_source(p), t.get_target(p)};
+                int pair_bytes = 0;
+                for (RasterDataset rd : pair) {
+                    Dataset ds = rd.dataset();
+                    n_bands = Math.min(n_bands, ds.GetRasterCount());
+                    for (int b = 1; b <= ds.GetRasterCount(); ++b) {
+                        pair_bytes += TypeUtils.get_size(ds.GetRasterBand(b).getDataType());
+                    }
+                    block_pixels = Math.max(block_pixels, (long)rd.block_width()*rd.block_height());
+                }
+                bytes_per_pixel = Math.max(bytes_per_pixel, pair_bytes);
+            }
+            if (n_bands == Integer.MAX_VALUE) n_bands = 0;
+            plan.add_task(new RunPlan.TaskPlan(id, t.get_name(),
+                    task_children[i].toString(), task_parents[i].toString(), t.n_pairs(), n_bands,
+                    t.get_overlap_pixels(), bytes_per_pixel, block_pixels,
+                    SplittingTaskProvider.strip_count(t.get_overlap_pixels(), split_pixels),
+                    cost_model.get_expected_iterations(), cost_model.estimate(t)));
+        }
+    }
+
+    // ##################################### INTERFACE #####################################
+
+    public void execute() {
+        cancelled = false;
+        log.info(String.format("Component %d: %d groups of %d images, %d tasks, %d processes, reference %s",
+                id, get_image_count(), graph.file_count(), get_tasks().size(), process_count, get_reference()));
+        get_task_provider();
+        predicted_makespan = cost_model.predict_makespan(pending_tasks,process_count);
+        start_outputs();
+        if (!remote) get_task_scheduler().execute();
+    }
+
+    public boolean is_running() {
+        if (remote) {
+            ITaskProvider p = get_task_provider();
+            return p.num_tasks_queued()+p.num_tasks_processing() > 0;
+        }
+        return get_task_scheduler().is_running();
+    }
+
+    /**
+     * Wait for processes and for remaining outputs to be written. Remote job must be finished by coordinator before
+     */
+    public void join() {
+        if (!remote) get_task_scheduler().join();
+        log.info(String.format("Component %d finished, locality hit rate %.2f",
+                id, get_task_provider().locality_hit_rate()));
+        // Refined model tells how much of the error came from throughput guess, rest is scheduling
+        log.info(String.format("Component %d makespan: predicted %.2fs, refined %.2fs, actual %.2fs",
+                id, predicted_makespan, cost_model.predict_makespan(pending_tasks,process_count),
+                get_task_provider().makespan()));
+        if (leasing != null && leasing.num_retried()+leasing.num_speculated()+leasing.num_given_up() > 0) {
+            log.info(String.format("Component %d: %d retries, %d expired leases, %d speculative duplicates, %d tasks failed",
+                    id, leasing.num_retried(), leasing.num_expired(), leasing.num_speculated(), leasing.num_given_up()));
+        }
+        finish_outputs();
+    }
+
+    /**
+     * Stop processes and writing of outputs. {@link #join()} returns promptly then, finished tasks stay journaled
+     * and written images are kept in manifest, so next run resumes from them
+     */
+    public void cancel() {
+        cancelled = true;
+        if (task_scheduler_valid()) task_scheduler.cancel();
+        Pipeline p = output_pipeline;
+        if (p != null) p.cancel();
+    }
+
+    public boolean is_cancelled() {
+        return cancelled;
+    }
+
+    // ###################################### OUTPUTS ######################################
+
+    /**
+     * Coefficients of group, which became final
+     */
+    private static class FinalGroup {
+        final RasterGroup group;
+        final RRNResult coefs;
+
+        FinalGroup(RasterGroup group, RRNResult coefs) {
+            this.group = group;
+            this.coefs = coefs;
+        }
+
+        @Override
+        public String toString() {
+            return group.toString();
+        }
+    }
+
+    /**
+     * Start pipeline, that propagates coefficients to reference and writes normalized images
+     * into output directory as soon as their coefficients are final, while other tasks are still running:
+     * finished task -> propagation -> write.
+     *
+     * Coefficients of subtrees, not touched by recomputed edges, are taken from manifest of previous run,
+     * and only images, which coefficients or content changed, are rewritten
+     */
+    private void start_outputs() {
+        output_pipeline = null;
+        if (output_path == null) return;
+
+        final File out_dir = new File(output_path);
+        if (!out_dir.isDirectory() && !out_dir.mkdirs()) {
+            log.severe("Could not create output directory "+output_path);
+            return;
+        }
+
+        final OutputManifest manifest = OutputManifest.load(output_path+".manifest");
+        output_manifest = manifest;
+        final RasterGroup reference = get_reference();
+        boolean same_reference = reference.get_key().equals(manifest.get_reference());
+        manifest.set_reference(reference.get_key());
+
+        // Previous coefficients of groups, which images all have unchanged content
+        Map<RasterGroup,RRNResult> previous = new HashMap<>();
+        Map<RasterGroup,String> previous_edges = new HashMap<>();
+        if (same_reference) {
+            for (RasterGroup g : graph.vertices()) {
+                OutputManifest.Entry e = unchanged_entry(manifest,g);
+                if (e == null) continue;
+                previous.put(g,e.coefficients);
+                previous_edges.put(g,e.edge_key);
+            }
+        }
+
+        Set<IRRNTask> pending = new HashSet<>(pending_tasks);
+        final Map<IRRNTask,Integer> edge_index = new HashMap<>();
+        boolean[] changed = new boolean[tasks.size()];
+        final Map<RasterGroup,String> edge_keys = new HashMap<>();
+        for (int i = 0; i != tasks.size(); ++i) {
+            IRRNTask t = tasks.get(i);
+            edge_index.put(t,i);
+            String key = t.get_key() == null ? "-" : t.get_key();
+            edge_keys.put(task_children[i],key);
+            // New tree edge counts as changed, even if it's result was stored
+            changed[i] = pending.contains(t) || t.get_key() == null ||
+                    !key.equals(previous_edges.get(task_children[i]));
+        }
+
+        int n_bands = reference.get_datasets().get(0).dataset().GetRasterCount();
+        final CoefficientPropagator<RasterGroup> coefs = CoefficientPropagator.start(
+                reference, n_bands, task_children, task_parents, changed, previous);
+        final Set<RasterGroup> repropagated = coefs.get_repropagated();
+        images_written.set(0);
+
+        output_pipeline = new Pipeline("Component "+id);
+        // Never full, so processes releasing tasks are not held back
+        finished_edges = output_pipeline.channel("finished edges", tasks.size()+1);
+        Channel<FinalGroup> final_groups = output_pipeline.channel("final coefficients", WRITE_QUEUE);
+
+        output_pipeline.stage("propagation", finished_edges, final_groups, 1, new IStage<Integer,FinalGroup>() {
+            @Override
+            public void process(Integer edge, Channel<FinalGroup> out) throws InterruptedException {
+                if (edge == INITIAL_EDGES) {
+                    for (RasterGroup g : graph.vertices()) {
+                        if (coefs.get(g) != null) out.put(new FinalGroup(g,coefs.get(g)));
+                    }
+                    return;
+                }
+                for (RasterGroup g : coefs.resolve(edge,tasks.get(edge).get_result())) {
+                    out.put(new FinalGroup(g,coefs.get(g)));
+                }
+            }
+
+            @Override
+            public void finish(Channel<FinalGroup> out) {
+                int missing = 0;
+                for (RasterGroup g : graph.vertices()) {
+                    if (coefs.get(g) == null) missing += g.size();
+                }
+                if (missing > 0) log.warning(String.format("Component %d: %d images without coefficients", id, missing));
+            }
+        });
+
+        output_pipeline.stage("write", final_groups, null, WRITE_THREADS, new IStage<FinalGroup,Void>() {
+            @Override
+            public void process(FinalGroup item, Channel<Void> out) throws InterruptedException {
+                RasterGroup g = item.group;
+                for (RasterDataset ds : g.get_datasets()) {
+                    if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+                    File file = new File(out_dir,new File(ds.get_filename()).getName());
+                    if (!repropagated.contains(g) && file.exists()) continue;
+                    try {
+                        ImageNormalizer.write(ds, item.coefs.coefs_source, item.coefs.intercept_source, file.getPath());
+                        String edge_key = g.equals(reference) ? "-" : edge_keys.get(g);
+                        OutputManifest.Entry entry =
+                                new OutputManifest.Entry(FileFingerprint.of(ds.get_filename()),edge_key,item.coefs);
+                        synchronized (manifest) {
+                            manifest.put(ds.get_filename(),entry);
+                        }
+                        images_written.incrementAndGet();
+                    } catch (InterruptedIOException ex) {
+                        throw new InterruptedException(ex.getMessage());
+                    } catch (IOException ex) {
+                        log.log(Level.SEVERE,"Could not write "+file,ex);
+                    }
+                }
+            }
+
+            @Override
+            public void finish(Channel<Void> out) {
+                save_manifest();
+                log.info(String.format("Component %d: %d groups re-propagated, %d of %d images written",
+                        id, repropagated.size(), images_written.get(), graph.file_count()));
+            }
+        });
+
+        finished_edges.open();
+        output_pipeline.start();
+        try {
+            // Groups, final from the start, and edges restored from journal
+            finished_edges.put(INITIAL_EDGES);
+            for (int i = 0; i != tasks.size(); ++i) {
+                if (!pending.contains(tasks.get(i))) finished_edges.put(i);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        get_task_provider().add_listener(new ITaskListener() {
+            @Override
+            public void task_started(IRRNTask task) {
+            }
+
+            @Override
+            public void block_processed(IRRNTask task, long pixels) {
+            }
+
+            @Override
+            public void task_finished(IRRNTask task) {
+                Integer edge = edge_index.get(task);
+                if (edge == null) return;
+                try {
+                    finished_edges.put(edge);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait until all outputs are written. Cancelled pipeline does not finish, so images written so far
+     * are saved to manifest here
+     */
+    private void finish_outputs() {
+        if (output_pipeline == null) return;
+        try {
+            if (cancelled) output_pipeline.cancel();
+            finished_edges.close();
+            output_pipeline.join();
+        } catch (InterruptedException ex) {
+            output_pipeline.cancel();
+            Thread.currentThread().interrupt();
+        }
+        if (cancelled) {
+            save_manifest();
+            log.warning(String.format("Component %d cancelled, %d of %d images written",
+                    id, images_written.get(), graph.file_count()));
+        }
+        output_pipeline = null;
+    }
+
+    private void save_manifest() {
+        synchronized (output_manifest) {
+            try {
+                output_manifest.save();
+            } catch (IOException ex) {
+                log.log(Level.SEVERE,"Could not save manifest of "+output_path,ex);
+            }
+        }
+    }
+
+    /**
+     * Manifest entry of group, if all it's images were written before and have not changed since
+     */
+    private static OutputManifest.Entry unchanged_entry(OutputManifest manifest, RasterGroup g) {
+        OutputManifest.Entry ret = null;
+        for (RasterDataset ds : g.get_datasets()) {
+            OutputManifest.Entry e = manifest.get(ds.get_filename());
+            if (e == null) return null;
+            try {
+                if (!e.fingerprint.equals(FileFingerprint.of(ds.get_filename()))) return null;
+            } catch (IOException ex) {
+                return null;
+            }
+            ret = e;
+        }
+        return ret;
+    }
+
+    public int num_tasks_total() {
+        return get_task_provider().num_tasks_total()+num_tasks_restored();
+    }
+
+    public int num_tasks_processed() {
+        return get_task_provider().num_tasks_processed()+num_tasks_restored();
+    }
+
+    /**
+     * Number of normalized images written by last execution
+     */
+    public int num_images_written() {
+        return images_written.get();
+    }
+
+    /**
+     * Number of tasks, which results were taken from journal
+     */
+    public int num_tasks_restored() {
+        get_tasks();
+        return tasks.size()-pending_tasks.size();
+    }
+
+    /**
+     * Return execution progress of this component as fraction from 0 to 1
+     */
+    public double get_progress() {
+        int total_tasks = num_tasks_total();
+        if (total_tasks == 0) return 1;
+        return (double)num_tasks_processed()/total_tasks;
+    }
+}
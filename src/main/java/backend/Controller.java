@@ -1,25 +1,68 @@
 package backend;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
+import backend.cluster.Coordinator;
+import backend.cluster.PartitionPlan;
 import backend.graph.*;
-import backend.pmanagement.TaskScheduler;
-import backend.processes.IRRNProcess;
+import backend.pmanagement.CancellationToken;
+import backend.pmanagement.IProgressListener;
+import backend.pmanagement.ProgressAggregator;
+import backend.pmanagement.ResourceGovernor;
+import backend.pmanagement.Threads;
 import backend.processes.ProcessFactory;
+import backend.rasterio.FileFingerprint;
+import backend.rasterio.FootprintCache;
+import backend.rasterio.IOScheduler;
 import backend.rasterio.RasterDataset;
-import backend.tasks.*;
+import backend.rrn.RRN;
+import backend.tasks.CostModel;
+import backend.tasks.LeasingTaskProvider;
+import backend.tasks.ResultJournal;
+import backend.tasks.SplittingTaskProvider;
+import backend.tasks.TaskOrdering;
 
 public class Controller {
 
+    private static final int DEFAULT_PROCESS_COUNT = 4;
+
+    private List<RasterDataset> datasets;
+    private IGroupingPolicy grouping;
+    private FootprintCache footprints;
+    private double min_overlap;
     private GraphBuilder graph;
-    private Collection<IRRNTask> tasks;
-    private Collection<IRRNProcess> processes;
-    private ITaskProvider task_provider;
+    private List<ComponentJob> jobs;
     private int process_count;
-    private TaskScheduler task_scheduler;
+    private String output_path;
+    private TaskOrdering.POLICY task_ordering;
+    private String journal_path;
+    private ResultJournal journal;
+    private final List<IProgressListener> progress_listeners;
+    private ProgressAggregator progress;
+    // Port to serve tasks to remote workers on, negative to run locally
+    private int cluster_port;
+    // Address coordinator listens on, null for loopback
+    private String cluster_bind;
+    // Shared secret of coordinator and workers
+    private String cluster_token;
+    // Number of parts tasks of coordinator are split into, 0 to serve them in order
+    private int partitions;
+    private Coordinator coordinator;
+    private long min_lease_millis;
+    private double split_pixels;
+    // Token of current run, see execute(CancellationToken)
+    private CancellationToken token;
+    private long started_nanos;
+    private RunReport report;
+    // Jobs are built for plan only, see plan()
+    private boolean planning;
+    // Controller is one of jobs of daemon, child JVMs are kept warm for next jobs
+    private final boolean resident;
 
     Logger log = Logger.getLogger(Controller.class.getName());
 
@@ -27,28 +70,82 @@ public class Controller {
      * Initializes programm structure.
      */
     public Controller() {
-        process_count = 4;
+        this(new FootprintCache(DEFAULT_PROCESS_COUNT, FootprintCache.DEFAULT_SIZE), false);
+    }
+
+    /**
+     * Controller of single job of daemon. Jobs share footprints of images, fingerprints, GDAL and child JVMs,
+     * so next job does not compute them again. CPU is shared fairly between running jobs
+     * @param footprints footprint cache, shared by all jobs of daemon
+     * @param resident idle child JVMs are not stopped, when run ends
+     */
+    public Controller(FootprintCache footprints, boolean resident) {
+        this.resident = resident;
+        process_count = DEFAULT_PROCESS_COUNT;
+        datasets = new ArrayList<>();
+        grouping = GroupingFactory.by_file();
+        this.footprints = footprints;
+        min_overlap = 0;
+        task_ordering = TaskOrdering.POLICY.LARGEST_FIRST;
+        progress_listeners = new ArrayList<>();
+        cluster_port = -1;
+        min_lease_millis = LeasingTaskProvider.DEFAULT_MIN_LEASE_MILLIS;
+        split_pixels = SplittingTaskProvider.DEFAULT_SPLIT_PIXELS;
+        add_progress_listener(new IProgressListener() {
+            // Log progress every LOG_PERIOD, UI gets every snapshot
+            private static final long LOG_PERIOD_NANOS = 30_000_000_000L;
+            private long last_log = System.nanoTime();
+
+            @Override
+            public void on_progress(ProgressAggregator.Snapshot snapshot) {
+                long now = System.nanoTime();
+                if (snapshot.finished || now-last_log > LOG_PERIOD_NANOS) {
+                    last_log = now;
+                    log.info("Progress: "+snapshot);
+                }
+            }
+        });
     }
 
     // ##################################### GRAPH #####################################
 
     public void add_file(String path) throws IOException {
-        get_graph().add_file(RasterDataset.from_file(path));
+        RasterDataset ds = RasterDataset.from_file(path);
+        datasets.add(ds);
+        if (graph_valid()) graph.add_file(ds);
 
-        // invalidate (reset) or validate tasks
-        invalidate_tasks();
+        // invalidate (reset) jobs, since components may have changed
+        invalidate_jobs();
     }
 
     private void invalidate_graph() {
         graph = null;
-        invalidate_tasks();
+        invalidate_jobs();
     }
 
     /**
      * Initialize graph builder here
      */
     private void validate_graph() {
-        graph = new GraphBuilder();
+        graph = GraphBuilder.from_datasets(datasets,grouping,footprints,min_overlap);
+    }
+
+    /**
+     * Set minimal number of valid overlapping pixels for images to be connected
+     */
+    public void set_min_overlap(double pixels) {
+        min_overlap = pixels;
+        invalidate_graph();
+    }
+
+    /**
+     * Set how files are grouped into super-nodes
+     * @param type one of: file, regex, metadata, groups. See {@link GroupingFactory#from_spec(String, String)}
+     * @param value regex, metadata item or groups file
+     */
+    public void set_grouping(String type, String value) throws IOException {
+        grouping = GroupingFactory.from_spec(type,value);
+        invalidate_graph();
     }
 
     private boolean graph_valid() {
@@ -65,142 +162,418 @@ public class Controller {
     }
 
 
-    // ###################################### TASKS ######################################
+    // ###################################### JOBS #######################################
 
-    private boolean tasks_valid() {
-        return tasks != null;
+    private boolean jobs_valid() {
+        return jobs != null;
     }
 
-    private void invalidate_tasks() {
-        tasks = null;
-
-        // task provider depends on tasks, so invalidate it
-        invalidate_task_provider();
+    private void invalidate_jobs() {
+        jobs = null;
     }
 
     /**
-     * Initialize tasks here
+     * Split graph into connected components and create independent job for each of them.
+     * Processes are shared between jobs in proportion to their task count,
+     * but each job gets at least one
      */
-    private void validate_tasks() {
-        int task_num = get_graph().get_results_size();
-        RasterDataset[] source = new RasterDataset[task_num];
-        RasterDataset[] target = new RasterDataset[task_num];
-        double[] weights = new double[task_num];
-        get_graph().get_results(source,target,weights);
-        tasks = new ArrayList<IRRNTask>();
+    private void validate_jobs() {
+        // Content fingerprints of previous run, so unchanged inputs are not hashed again
+        if (output_path != null) FileFingerprint.load_cache(get_fingerprints_path());
+        // Throughput measured by previous run, each job refines it's own copy
+        CostModel calibrated = output_path == null ? new CostModel() : CostModel.load(get_cost_model_path());
+
+        List<GraphBuilder> components = get_graph().get_components();
+        jobs = new ArrayList<>(components.size());
+
+        int total_tasks = 0;
+        for (int i = 0; i != components.size(); ++i) {
+            ComponentJob job = new ComponentJob(i, components.get(i),
+                    get_component_output_path(i, components.size()), calibrated.copy());
+            job.set_task_ordering(task_ordering);
+            job.set_min_lease_millis(min_lease_millis);
+            job.set_split_pixels(split_pixels);
+            job.set_cpu_owner(this);
+            job.set_journal(planning ? null : get_journal());
+            total_tasks += job.get_tasks().size();
+            jobs.add(job);
+        }
 
-        for (int i = 0; i != task_num; ++i) {
-            IRRNTask t = TaskFactory.get_task();
-            t.set_source(source[i]);
-            t.set_target(target[i]);
-            tasks.add(t);
+        for (ComponentJob job : jobs) {
+            int n = total_tasks == 0 ? 1 :
+                    (int)Math.round((double)get_process_count()*job.get_tasks().size()/total_tasks);
+            job.set_process_count(Math.max(1, n));
         }
     }
 
-    private Collection<IRRNTask> get_tasks() {
-        if (!tasks_valid()) validate_tasks();
-        return tasks;
+    private List<ComponentJob> get_jobs() {
+        if (!jobs_valid()) validate_jobs();
+        return jobs;
+    }
+
+    /**
+     * Output of first component is written to output path itself, others are suffixed by component number
+     */
+    private String get_component_output_path(int component_id, int n_components) {
+        if (output_path == null || component_id == 0 || n_components == 1) return output_path;
+        return output_path+"_component_"+component_id;
+    }
+
+    public void set_process_count(int n) {
+        invalidate_jobs();
+        process_count = n;
+    }
+
+    public int get_process_count() {
+        return process_count;
+    }
+
+    /**
+     * Set order in which tasks are queued
+     * @param name 'dfs' for depth-first order of spanning tree or 'curve' for Hilbert curve order of overlaps
+     */
+    public void set_task_ordering(String name) {
+        invalidate_jobs();
+        task_ordering = TaskOrdering.from_string(name);
     }
 
-    // ################################## Task Provider ###################################
+    /**
+     * Shortest time task may run, before it is considered hung and retried by other process
+     */
+    public void set_task_timeout(double seconds) {
+        invalidate_jobs();
+        min_lease_millis = (long)(seconds*1000);
+    }
+
+    /**
+     * Overlap, tasks are split into strips at, see {@link SplittingTaskProvider}. 0 disables splitting
+     */
+    public void set_split_pixels(double pixels) {
+        invalidate_jobs();
+        split_pixels = pixels;
+    }
 
-    private void invalidate_task_provider() {
-        task_provider = null;
-        // processes depend on task provider, so invalidate them
-        invalidate_processes();
+    public void set_output_path(String path) {
+        invalidate_jobs();
+        output_path = path;
     }
 
+    // ##################################### JOURNAL #####################################
+
     /**
-     * Initialize task provider here
+     * Set journal file, results are written to and restored from.
+     * By default journal is kept next to output as output_path.journal
      */
-    private void validate_task_provider() {
-        task_provider = new TaskProvider();
-        task_provider.set_tasks(get_tasks());
+    public void set_journal_path(String path) {
+        invalidate_jobs();
+        close_journal();
+        journal_path = path;
     }
 
-    private boolean task_provider_valid() {
-        return task_provider != null;
+    private String get_journal_path() {
+        if (journal_path != null) return journal_path;
+        if (output_path == null) return null;
+        return output_path+".journal";
     }
 
-    private ITaskProvider get_task_provider() {
-        if (!task_provider_valid()) validate_task_provider();
-        return task_provider;
+    private ResultJournal get_journal() {
+        String path = get_journal_path();
+        if (journal != null && journal.get_path().equals(path)) return journal;
+
+        close_journal();
+        if (path == null) return null;
+        try {
+            journal = ResultJournal.open(path);
+        } catch (IOException ex) {
+            log.severe("Could not open journal "+path+", run will not be resumable: "+ex.getMessage());
+        }
+        return journal;
     }
 
-    // ##################################### PROCESSES #####################################
+    private void close_journal() {
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (IOException ex) {
+            log.warning("Could not close journal: "+ex.getMessage());
+        }
+        journal = null;
+    }
 
-    private boolean processes_valid() {
-        return processes != null;
+    public String get_output_path() {
+        return output_path;
     }
 
-    private void invalidate_processes() {
-        processes = null;
-        // task scheduler depends on processes, so invalidate it
-        invalidate_task_scheduler();
+    /**
+     * Content fingerprints of inputs are kept next to output, so unchanged inputs are not hashed on next run
+     */
+    private String get_fingerprints_path() {
+        return output_path+".fingerprints";
     }
 
     /**
-     * Write code for creating processes in here
+     * Cost model, fitted to task durations of run, is kept next to output, so next run and it's plan start calibrated
      */
-    private void validate_processes() {
-        processes = new ArrayList<>();
+    private String get_cost_model_path() {
+        return output_path+".costmodel";
+    }
 
-        for (int i = 0; i != get_process_count(); ++i) {
-            IRRNProcess new_proc = ProcessFactory.get_process();
-            new_proc.set_task_provider(get_task_provider());
-            processes.add(new_proc);
+    private void save_cost_model() {
+        // Job, that measured most tasks, has best fit
+        ComponentJob best = null;
+        for (ComponentJob job : get_jobs()) {
+            if (best == null || job.get_cost_model().num_observations() > best.get_cost_model().num_observations()) {
+                best = job;
+            }
+        }
+        if (best == null || best.get_cost_model().num_observations() == 0) return;
+        try {
+            best.get_cost_model().save(get_cost_model_path());
+        } catch (IOException ex) {
+            log.warning("Could not save cost model: "+ex.getMessage());
         }
     }
 
-    private Collection<IRRNProcess> get_processes() {
-        if (!processes_valid()) validate_processes();
-        return processes;
+    /**
+     * Bound concurrency of whole process, shared by all jobs, readers and writers
+     * @param io_per_device number of concurrent reads or writes on each storage device, 0 to keep current
+     * @param memory_bytes bytes of block buffers held at once, 0 to keep current
+     */
+    public void set_resource_limits(int io_per_device, long memory_bytes) {
+        if (io_per_device > 0) ResourceGovernor.get().set_io_per_device(io_per_device);
+        if (memory_bytes > 0) ResourceGovernor.get().set_memory_bytes(memory_bytes);
     }
 
-    public void set_process_count(int n) {
-        invalidate_processes();
-        process_count = n;
+    /**
+     * Set read policy of storage device, path is stored on
+     * @param concurrency number of concurrent reads
+     * @param window number of pending reads reordered for sequential access, see {@link IOScheduler.DevicePolicy}
+     */
+    public void set_device_policy(String path, int concurrency, int window) {
+        IOScheduler.get().set_policy(path, new IOScheduler.DevicePolicy(concurrency,window));
     }
 
-    public int get_process_count() {
-        return process_count;
+    /**
+     * Compute tasks in pool of child JVMs with their own heap and GDAL cache, recycled after number of tasks
+     * @param heap_mb heap of child JVM, 0 to compute tasks on threads of this JVM
+     */
+    public void set_child_jvms(int heap_mb, int gdal_cache_mb, int tasks_per_child) {
+        invalidate_jobs();
+        if (heap_mb > 0) {
+            ProcessFactory.use_child_jvms(heap_mb, gdal_cache_mb, tasks_per_child);
+        } else {
+            ProcessFactory.use_threads();
+        }
     }
 
-    // ################################ PROCESSES MANAGEMENT ###############################
+    /**
+     * Run processes and block producers on platform or virtual threads, see {@link Threads}
+     * @param name 'platform' or 'virtual'
+     */
+    public void set_thread_mode(String name) {
+        invalidate_jobs();
+        Threads.set_mode(Threads.from_string(name));
+    }
 
-    private void invalidate_task_scheduler() {
-        task_scheduler = null;
+    /**
+     * Serve tasks to remote workers, see {@link backend.cluster.Worker}, instead of processing them locally
+     * @param bind_address address of interface to listen on, "0.0.0.0" for all, null for loopback only
+     * @param port port to listen on, negative to process locally
+     * @param token shared secret, workers must present it to get tasks
+     */
+    public void set_cluster(String bind_address, int port, String token) {
+        invalidate_jobs();
+        cluster_bind = bind_address;
+        cluster_port = port;
+        cluster_token = token;
     }
 
-    private void validate_task_scheduler() {
-        task_scheduler = new TaskScheduler();
-        task_scheduler.set_processes( get_processes() );
+    /**
+     * Split tasks served to remote workers into parts, which share fewest images,
+     * so each worker reads mostly images on it's own storage
+     * @param k number of parts, usually number of worker nodes, 0 to serve tasks in order
+     */
+    public void set_partitions(int k) {
+        partitions = k;
     }
 
-    private boolean task_scheduler_valid() {
-        return task_scheduler != null;
+    // ####################################### PLAN ######################################
+
+    /**
+     * Plan run without reading pixels: bytes to read, peak memory, estimated time and critical path,
+     * see {@link RunPlan}. Overlaps are bounding box overlaps, since valid data footprints need pixels.
+     * Journal is not consulted, plan covers all tasks
+     */
+    public RunPlan plan() {
+        FootprintCache run_footprints = footprints;
+        footprints = null;
+        planning = true;
+        invalidate_graph();
+        try {
+            RunPlan plan = new RunPlan(get_process_count(), RRN.read_threads(), RRN.STRIP_READ_BUFFER,
+                    ResourceGovernor.get().get_memory().get_capacity(),
+                    output_path == null ? new CostModel() : CostModel.load(get_cost_model_path()));
+            for (ComponentJob job : get_jobs()) job.plan(plan);
+            return plan;
+        } finally {
+            footprints = run_footprints;
+            planning = false;
+            invalidate_graph();
+        }
     }
 
-    private TaskScheduler get_task_scheduler() {
-        if (!task_provider_valid()) validate_task_scheduler();
-        return task_scheduler;
+    /**
+     * Write plan as JSON, see {@link #plan()}
+     * @param filename output file, "-" for standard output
+     */
+    public void save_plan(String filename) throws IOException {
+        plan().save(filename);
     }
 
     // ##################################### INTERFACE #####################################
 
+    /**
+     * Subscribe to progress, pushed at fixed rate during execution
+     */
+    public void add_progress_listener(IProgressListener listener) {
+        progress_listeners.add(listener);
+    }
+
     /**
      * Execute current task scheduler
      */
     public void execute() {
-        get_task_scheduler().execute();
+        execute(new CancellationToken());
+    }
+
+    /**
+     * Execute current task scheduler, run stops when token is cancelled: processes, readers,
+     * writers and coordinator are stopped, and {@link #join()} returns in bounded time with partial report
+     */
+    public void execute(CancellationToken token) {
+        this.token = token;
+        started_nanos = System.nanoTime();
+        report = null;
+        for (Map.Entry<String,List<RasterDataset>> device : IOScheduler.group_by_device(datasets).entrySet()) {
+            log.info(String.format("%d images on %s, %s", device.getValue().size(), device.getKey(),
+                    IOScheduler.get().get_policy(device.getKey())));
+        }
+        progress = new ProgressAggregator();
+        for (IProgressListener l : progress_listeners) progress.add_listener(l);
+        for (ComponentJob job : get_jobs()) {
+            progress.add_tasks(job.get_tasks());
+            job.add_listener(progress);
+        }
+        progress.start();
+
+        if (cluster_port >= 0) {
+            try {
+                InetAddress bind = cluster_bind == null ? InetAddress.getLoopbackAddress() :
+                        InetAddress.getByName(cluster_bind);
+                coordinator = new Coordinator(bind, cluster_port, Coordinator.DEFAULT_LEASE_MILLIS, cluster_token);
+            } catch (IOException | IllegalArgumentException ex) {
+                log.severe("Could not listen on port "+cluster_port+", processing locally: "+ex.getMessage());
+            }
+        }
+        for (ComponentJob job : get_jobs()) {
+            job.set_remote(coordinator != null);
+            if (coordinator != null) coordinator.add_provider(job.get_task_provider());
+        }
+        if (coordinator != null && partitions > 0) {
+            PartitionPlan plan = new PartitionPlan();
+            for (ComponentJob job : get_jobs()) job.partition(partitions, plan);
+            coordinator.set_plan(plan);
+        }
+
+        // Jobs are started before coordinator, so they see every finished task
+        for (ComponentJob job : get_jobs()) {
+            job.execute();
+        }
+        if (coordinator != null) coordinator.start();
+
+        final Coordinator run_coordinator = coordinator;
+        final List<ComponentJob> run_jobs = get_jobs();
+        token.on_cancel(new Runnable() {
+            @Override
+            public void run() {
+                if (run_coordinator != null) {
+                    try {
+                        run_coordinator.close();
+                    } catch (IOException ex) {
+                        log.warning("Could not close coordinator: "+ex.getMessage());
+                    }
+                }
+                for (ComponentJob job : run_jobs) job.cancel();
+            }
+        });
+    }
+
+    /**
+     * Cancel current run, see {@link #execute(CancellationToken)}
+     */
+    public void cancel(String reason) {
+        if (token != null) token.cancel(reason);
     }
 
     public boolean is_running() {
-        return get_task_scheduler().is_running();
+        if (coordinator != null) return !coordinator.is_done();
+        for (ComponentJob job : get_jobs()) {
+            if (job.is_running()) return true;
+        }
+        return false;
     }
 
     public void join() {
-        get_task_scheduler().join();
+        if (coordinator != null) {
+            try {
+                coordinator.await_done();
+                coordinator.close();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (IOException ex) {
+                log.warning("Could not close coordinator: "+ex.getMessage());
+            }
+            coordinator = null;
+        }
+        for (ComponentJob job : get_jobs()) {
+            job.join();
+        }
+        if (progress != null) progress.stop();
+        if (output_path != null) {
+            FileFingerprint.save_cache(get_fingerprints_path());
+            save_cost_model();
+        }
+        ResourceGovernor.get().log_metrics();
+        if (!resident) ProcessFactory.shutdown();
+
+        report = make_report();
+        if (report.is_cancelled()) {
+            log.warning("Run "+report+", finished tasks are journaled, rerun resumes from them");
+        } else {
+            log.info("Run "+report);
+        }
+    }
+
+    private RunReport make_report() {
+        int tasks_total = 0;
+        int tasks_finished = 0;
+        int images_total = 0;
+        int images_written = 0;
+        for (ComponentJob job : get_jobs()) {
+            tasks_total += job.num_tasks_total();
+            tasks_finished += job.num_tasks_processed();
+            images_total += job.get_file_count();
+            images_written += job.num_images_written();
+        }
+        return new RunReport(token == null ? null : token.get_reason(), tasks_total, tasks_finished,
+                images_total, images_written, (System.nanoTime()-started_nanos)*1e-9);
+    }
+
+    /**
+     * Report of last run, null until it is joined
+     */
+    public RunReport get_report() {
+        return report;
     }
 
     /**
@@ -208,8 +581,13 @@ public class Controller {
      * @return
      */
     public double get_progress() {
-        int total_tasks = get_task_provider().num_tasks_total();
-        int processed_tasks = get_task_provider().num_tasks_processed();
+        int total_tasks = 0;
+        int processed_tasks = 0;
+        for (ComponentJob job : get_jobs()) {
+            total_tasks += job.num_tasks_total();
+            processed_tasks += job.num_tasks_processed();
+        }
+        if (total_tasks == 0) return 1;
         return (double)processed_tasks/total_tasks;
     }
 }
@@ -0,0 +1,125 @@
+package backend;
+
+import backend.rrn.RRNResult;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Record of outputs written by previous run of component: reference group,
+ * and for each input image it's fingerprint, key of tree edge to it's parent and coefficients it was written with.
+ * Used to rewrite only outputs affected by changed inputs
+ */
+public class OutputManifest {
+
+    private static Logger log = Logger.getLogger(OutputManifest.class.getName());
+
+    public static class Entry {
+        public final String fingerprint;
+        public final String edge_key;
+        public final RRNResult coefficients;
+
+        public Entry(String fingerprint, String edge_key, RRNResult coefficients) {
+            this.fingerprint = fingerprint;
+            this.edge_key = edge_key;
+            this.coefficients = coefficients;
+        }
+    }
+
+    private final String path;
+    private String reference;
+    private final Map<String,Entry> entries;
+
+    private OutputManifest(String path) {
+        this.path = path;
+        this.entries = new HashMap<>();
+    }
+
+    /**
+     * Load manifest, empty one if file does not exist or is unreadable
+     */
+    public static OutputManifest load(String path) {
+        OutputManifest ret = new OutputManifest(path);
+        File f = new File(path);
+        if (!f.exists()) return ret;
+
+        // Lines are tab separated, since paths and keys may contain spaces
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(f),StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length == 2 && fields[0].equals("reference")) {
+                    ret.reference = fields[1];
+                } else if (fields.length == 5) {
+                    RRNResult coefs = new RRNResult();
+                    coefs.coefs_source = parse(fields[3]);
+                    coefs.intercept_source = parse(fields[4]);
+                    ret.entries.put(fields[0],new Entry(fields[1],fields[2],coefs));
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            log.warning("Could not load manifest "+path+", all outputs will be rewritten: "+ex.getMessage());
+            ret.reference = null;
+            ret.entries.clear();
+        }
+        return ret;
+    }
+
+    public void save() throws IOException {
+        File tmp = new File(path+".tmp");
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp),StandardCharsets.UTF_8)) {
+            if (reference != null) w.write("reference\t"+reference+"\n");
+            for (Map.Entry<String,Entry> e : entries.entrySet()) {
+                Entry v = e.getValue();
+                w.write(e.getKey()+"\t"+v.fingerprint+"\t"+v.edge_key+"\t"+
+                        format(v.coefficients.coefs_source)+"\t"+format(v.coefficients.intercept_source)+"\n");
+            }
+        }
+
+        File target = new File(path);
+        if (target.exists() && !target.delete() || !tmp.renameTo(target)) {
+            throw new IOException("Could not replace "+path);
+        }
+    }
+
+    public String get_reference() {
+        return reference;
+    }
+
+    public void set_reference(String reference) {
+        this.reference = reference;
+    }
+
+    /**
+     * @param filename input image
+     * @return entry or null if image was not written by previous run
+     */
+    public Entry get(String filename) {
+        return entries.get(filename);
+    }
+
+    public void put(String filename, Entry entry) {
+        entries.put(filename,entry);
+    }
+
+    private static String format(double[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i != values.length; ++i) {
+            if (i != 0) sb.append(',');
+            sb.append(Double.toString(values[i]));
+        }
+        return sb.toString();
+    }
+
+    private static double[] parse(String values) {
+        String[] parts = values.split(",");
+        double[] ret = new double[parts.length];
+        for (int i = 0; i != parts.length; ++i) {
+            ret[i] = Double.parseDouble(parts[i]);
+        }
+        return ret;
+    }
+}
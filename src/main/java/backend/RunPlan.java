@@ -0,0 +1,274 @@
+package backend;
+
+import backend.tasks.CostModel;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Estimate of run, made from image headers without reading pixels, see {@link Controller#save_plan(String)}.
+ *
+ * Each task reads it's overlap once per IR-MAD iteration. Memory of process is block buffers of it's reader
+ * plus pixel matrices of block being computed, readers of all processes are bounded by memory budget.
+ * Time of task comes from {@link CostModel}, calibrated by previous runs. Task split into strips
+ * takes time of single strip per iteration, when there are enough processes.
+ *
+ * Critical path is chain of tasks from reference to group, which coefficients are known last
+ * with unlimited processes: coefficients of group need all tasks on it's path to reference
+ */
+public class RunPlan {
+
+    public static class TaskPlan {
+        public final int component;
+        public final String name;
+        // Groups task connects, child gets coefficients relative to parent
+        public final String child;
+        public final String parent;
+        public final int pairs;
+        public final int n_bands;
+        public final double overlap_pixels;
+        // Bytes of source and target pixel, all bands
+        public final int bytes_per_pixel;
+        public final long block_pixels;
+        public final int strips;
+        public final int iterations;
+        public final double seconds;
+
+        public TaskPlan(int component, String name, String child, String parent, int pairs, int n_bands,
+                        double overlap_pixels, int bytes_per_pixel, long block_pixels,
+                        int strips, int iterations, double seconds) {
+            this.component = component;
+            this.name = name;
+            this.child = child;
+            this.parent = parent;
+            this.pairs = pairs;
+            this.n_bands = n_bands;
+            this.overlap_pixels = overlap_pixels;
+            this.bytes_per_pixel = bytes_per_pixel;
+            this.block_pixels = block_pixels;
+            this.strips = strips;
+            this.iterations = iterations;
+            this.seconds = seconds;
+        }
+
+        public double bytes_per_pass() {
+            return overlap_pixels*bytes_per_pixel;
+        }
+
+        public double bytes() {
+            return bytes_per_pass()*iterations;
+        }
+
+        /**
+         * Time with a process for each strip
+         */
+        public double parallel_seconds() {
+            return seconds/strips;
+        }
+
+        long reader_bytes(int reader_threads, int reader_buffer) {
+            // Queued blocks and blocks being read
+            return (reader_threads+reader_buffer)*block_pixels*bytes_per_pixel;
+        }
+
+        long compute_bytes() {
+            // Source and target matrices, band buffer and weights, doubles
+            return block_pixels*(2L*n_bands+2)*8;
+        }
+    }
+
+    private final int processes;
+    private final int reader_threads;
+    private final int reader_buffer;
+    private final long memory_budget;
+    private final CostModel model;
+    private final List<TaskPlan> tasks = new ArrayList<>();
+
+    /**
+     * @param processes number of processes, computing tasks at once
+     * @param reader_threads threads of reader of each process
+     * @param reader_buffer blocks queued by reader of each process
+     * @param memory_budget bytes of block buffers of whole run, see {@link backend.pmanagement.ResourceGovernor}
+     * @param model model, times of tasks are estimated by
+     */
+    public RunPlan(int processes, int reader_threads, int reader_buffer, long memory_budget, CostModel model) {
+        this.processes = Math.max(1, processes);
+        this.reader_threads = reader_threads;
+        this.reader_buffer = reader_buffer;
+        this.memory_budget = memory_budget;
+        this.model = model;
+    }
+
+    /**
+     * Add task. Tasks of component are added in depth-first order from reference, parent group before child
+     */
+    public void add_task(TaskPlan t) {
+        tasks.add(t);
+    }
+
+    public List<TaskPlan> get_tasks() {
+        return Collections.unmodifiableList(tasks);
+    }
+
+    // ##################################### TOTALS #####################################
+
+    public double total_bytes() {
+        double ret = 0;
+        for (TaskPlan t : tasks) ret += t.bytes();
+        return ret;
+    }
+
+    public double total_seconds() {
+        double ret = 0;
+        for (TaskPlan t : tasks) ret += t.seconds;
+        return ret;
+    }
+
+    /**
+     * Memory of processes running largest tasks at once, readers are bounded by memory budget
+     */
+    public long peak_memory_bytes() {
+        List<Long> reader = new ArrayList<>();
+        List<Long> compute = new ArrayList<>();
+        for (TaskPlan t : tasks) {
+            reader.add(t.reader_bytes(reader_threads, reader_buffer));
+            compute.add(t.compute_bytes());
+        }
+        return Math.min(sum_largest(reader, processes), memory_budget)+sum_largest(compute, processes);
+    }
+
+    private static long sum_largest(List<Long> values, int n) {
+        values.sort(Collections.<Long>reverseOrder());
+        long ret = 0;
+        for (int i = 0; i != Math.min(n, values.size()); ++i) ret += values.get(i);
+        return ret;
+    }
+
+    /**
+     * Predicted wall time of all tasks on processes, largest first, strips of split task in parallel
+     */
+    public double makespan_seconds() {
+        List<Double> costs = new ArrayList<>();
+        for (TaskPlan t : tasks) {
+            for (int i = 0; i != t.strips; ++i) costs.add(t.seconds/t.strips);
+        }
+        return CostModel.makespan(costs, processes);
+    }
+
+    /**
+     * Tasks of critical path, from reference
+     */
+    public List<TaskPlan> critical_path() {
+        // Time coefficients of each group are known at, and task, that gives them
+        Map<String,Double> finish = new HashMap<>();
+        Map<String,TaskPlan> via = new HashMap<>();
+        String last = null;
+        for (TaskPlan t : tasks) {
+            String parent = t.component+"/"+t.parent;
+            String child = t.component+"/"+t.child;
+            Double start = finish.get(parent);
+            double end = Math.max(start == null ? 0 : start, t.parallel_seconds());
+            finish.put(child, end);
+            via.put(child, t);
+            if (last == null || end > finish.get(last)) last = child;
+        }
+
+        LinkedList<TaskPlan> ret = new LinkedList<>();
+        while (last != null && via.containsKey(last)) {
+            TaskPlan t = via.get(last);
+            ret.addFirst(t);
+            last = t.component+"/"+t.parent;
+        }
+        return ret;
+    }
+
+    public double critical_path_seconds() {
+        double ret = 0;
+        for (TaskPlan t : critical_path()) ret = Math.max(ret, t.parallel_seconds());
+        return ret;
+    }
+
+    // ###################################### JSON ######################################
+
+    public String to_json() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"settings\": {");
+        field(sb, "processes", processes, true);
+        field(sb, "reader_threads", reader_threads, false);
+        field(sb, "reader_buffer_blocks", reader_buffer, false);
+        field(sb, "memory_budget_bytes", memory_budget, false);
+        field(sb, "expected_iterations", model.get_expected_iterations(), false);
+        field(sb, "seconds_per_unit", model.get_seconds_per_unit(), false);
+        field(sb, "overhead_seconds", model.get_overhead(), false);
+        sb.append("},\n  \"totals\": {");
+        field(sb, "tasks", tasks.size(), true);
+        field(sb, "bytes", total_bytes(), false);
+        field(sb, "peak_memory_bytes", peak_memory_bytes(), false);
+        field(sb, "compute_seconds", total_seconds(), false);
+        field(sb, "makespan_seconds", makespan_seconds(), false);
+        field(sb, "critical_path_seconds", critical_path_seconds(), false);
+        sb.append("},\n  \"critical_path\": [");
+        List<TaskPlan> path = critical_path();
+        for (int i = 0; i != path.size(); ++i) {
+            sb.append(i == 0 ? "" : ", ").append(quote(path.get(i).name));
+        }
+        sb.append("],\n  \"tasks\": [");
+        for (int i = 0; i != tasks.size(); ++i) {
+            TaskPlan t = tasks.get(i);
+            sb.append(i == 0 ? "\n    {" : ",\n    {");
+            field(sb, "component", t.component, true);
+            sb.append(", \"name\": ").append(quote(t.name));
+            field(sb, "pairs", t.pairs, false);
+            field(sb, "bands", t.n_bands, false);
+            field(sb, "overlap_pixels", t.overlap_pixels, false);
+            field(sb, "strips", t.strips, false);
+            field(sb, "bytes_per_pass", t.bytes_per_pass(), false);
+            field(sb, "bytes", t.bytes(), false);
+            field(sb, "peak_memory_bytes", t.reader_bytes(reader_threads, reader_buffer)+t.compute_bytes(), false);
+            field(sb, "seconds", t.seconds, false);
+            sb.append('}');
+        }
+        sb.append(tasks.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Write plan as JSON, to standard output if path is "-"
+     */
+    public void save(String path) throws IOException {
+        if (path.equals("-")) {
+            System.out.print(to_json());
+            System.out.flush();
+            return;
+        }
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(path),StandardCharsets.UTF_8)) {
+            w.write(to_json());
+        }
+    }
+
+    private static void field(StringBuilder sb, String name, double value, boolean first) {
+        sb.append(first ? "" : ", ").append('"').append(name).append("\": ");
+        // Whole numbers are written without fraction, JSON has no NaN or infinity
+        if (Double.isNaN(value) || Double.isInfinite(value)) sb.append("null");
+        else if (value == Math.rint(value) && Math.abs(value) < 1e15) sb.append((long)value);
+        else sb.append(value);
+    }
+
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i != s.length(); ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int)c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
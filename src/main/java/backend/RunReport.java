@@ -0,0 +1,37 @@
+package backend;
+
+/**
+ * What a run has done, made when it ends. Cancelled run tells how far it got,
+ * finished tasks are journaled and written images are in manifest, so next run resumes from there
+ */
+public class RunReport {
+
+    // Reason run was cancelled with, null if it ran to the end
+    public final String cancel_reason;
+    public final int tasks_total;
+    public final int tasks_finished;
+    public final int images_total;
+    public final int images_written;
+    public final double seconds;
+
+    public RunReport(String cancel_reason, int tasks_total, int tasks_finished,
+                     int images_total, int images_written, double seconds) {
+        this.cancel_reason = cancel_reason;
+        this.tasks_total = tasks_total;
+        this.tasks_finished = tasks_finished;
+        this.images_total = images_total;
+        this.images_written = images_written;
+        this.seconds = seconds;
+    }
+
+    public boolean is_cancelled() {
+        return cancel_reason != null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s after %.1fs: %d of %d tasks finished, %d of %d images written",
+                is_cancelled() ? "cancelled ("+cancel_reason+")" : "finished", seconds,
+                tasks_finished, tasks_total, images_written, images_total);
+    }
+}
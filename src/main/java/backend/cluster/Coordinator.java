@@ -0,0 +1,588 @@
+package backend.cluster;
+
+import backend.rrn.RRNResult;
+import backend.tasks.IRRNTask;
+import backend.tasks.ITaskProvider;
+import backend.tasks.ResultJournal;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves tasks of local task providers to remote workers over TCP, see {@link Protocol}.
+ *
+ * Each grabbed task is leased to worker for limited time, worker extends lease by heartbeats.
+ * Tasks of expired leases and of disconnected workers are queued again and given to next worker asking.
+ * Result of task, which lease was lost, is ignored.
+ *
+ * With {@link PartitionPlan} set, each part is given to worker, which local storage holds most of it's images,
+ * and boundary tasks to worker owning one of their parts. Idle workers steal from other parts.
+ * Bytes of images read by workers from storage of other nodes are counted.
+ *
+ * Workers must know shared token of coordinator, connections not starting with HELLO of that token
+ * are closed. Leases are bound to worker, that took them, so other connections can not report their results.
+ * Token is sent in plain text, so network between coordinator and workers must be trusted.
+ *
+ * Coordinator must be the only consumer of it's providers
+ */
+public class Coordinator implements Closeable {
+
+    private static Logger log = Logger.getLogger(Coordinator.class.getName());
+
+    public static final long DEFAULT_LEASE_MILLIS = 60_000;
+
+    // Time worker waits before asking again, when all tasks are leased
+    private static final long WAIT_MILLIS = 200;
+
+    // Task failed by this many workers is released without result
+    public static final int MAX_ATTEMPTS = 3;
+
+    private static class Lease {
+        final int id;
+        final IRRNTask task;
+        final ITaskProvider provider;
+        final String worker;
+        final int attempt;
+        long deadline;
+
+        Lease(int id, IRRNTask task, ITaskProvider provider, String worker, int attempt, long deadline) {
+            this.id = id;
+            this.task = task;
+            this.provider = provider;
+            this.worker = worker;
+            this.attempt = attempt;
+            this.deadline = deadline;
+        }
+    }
+
+    private final long lease_millis;
+    private final byte[] token;
+    private final ServerSocket server;
+    private final List<ITaskProvider> providers = new CopyOnWriteArrayList<>();
+
+    // Guarded by this
+    private final Map<Integer,Lease> leases = new HashMap<>();
+    private final Deque<Lease> requeued = new ArrayDeque<>();
+    private int next_lease_id;
+
+    private static class Pending {
+        final IRRNTask task;
+        final ITaskProvider provider;
+
+        Pending(IRRNTask task, ITaskProvider provider) {
+            this.task = task;
+            this.provider = provider;
+        }
+    }
+
+    // Guarded by this
+    private PartitionPlan plan;
+    private final Map<Integer,Deque<Pending>> part_queues = new HashMap<>();
+    private final Deque<Pending> boundary = new ArrayDeque<>();
+    private final Map<Integer,String> part_owner = new HashMap<>();
+    // Mount points of each connected worker, true for local ones
+    private final Map<String,Map<String,Boolean>> mounts = new HashMap<>();
+    private final Map<String,Long> file_sizes = new HashMap<>();
+    private long input_bytes;
+    private long cross_node_bytes;
+
+    private Thread acceptor;
+    private Thread reaper;
+    private volatile boolean closed;
+
+    /**
+     * Listen on loopback interface, for workers on this node only
+     * @param port port to listen on, 0 for any free port
+     * @param token shared secret of workers, see {@link Protocol#HELLO}
+     */
+    public Coordinator(int port, long lease_millis, String token) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port, lease_millis, token);
+    }
+
+    /**
+     * @param bind_address address of interface to listen on, null for all interfaces
+     * @param port port to listen on, 0 for any free port
+     * @param token shared secret of workers, see {@link Protocol#HELLO}
+     */
+    public Coordinator(InetAddress bind_address, int port, long lease_millis, String token) throws IOException {
+        if (token == null || token.isEmpty()) {
+            throw new IllegalArgumentException("Coordinator requires token of workers");
+        }
+        this.lease_millis = lease_millis;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+        this.server = new ServerSocket(port, 0, bind_address);
+    }
+
+    public int get_port() {
+        return server.getLocalPort();
+    }
+
+    public void add_provider(ITaskProvider provider) {
+        providers.add(provider);
+    }
+
+    /**
+     * Serve tasks by parts of plan. Must be set before start
+     */
+    public synchronized void set_plan(PartitionPlan plan) {
+        this.plan = plan;
+    }
+
+    // ##################################### LIFECYCLE #####################################
+
+    public void start() {
+        if (plan != null) queue_planned();
+
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept_loop();
+            }
+        }, "coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        reaper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                reap_loop();
+            }
+        }, "coordinator leases");
+        reaper.setDaemon(true);
+        reaper.start();
+
+        log.info("Coordinator listening on "+server.getLocalSocketAddress());
+    }
+
+    /**
+     * No queued tasks and no leased ones
+     */
+    public synchronized boolean is_done() {
+        if (!requeued.isEmpty() || !leases.isEmpty()) return false;
+        for (ITaskProvider p : providers) {
+            if (p.num_tasks_queued() != 0 || p.num_tasks_processing() != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Wait until all tasks are finished, or until coordinator is closed
+     */
+    public synchronized void await_done() throws InterruptedException {
+        while (!is_done() && !closed) {
+            wait(WAIT_MILLIS);
+        }
+    }
+
+    /**
+     * Total size of images in leased tasks
+     */
+    public synchronized long get_input_bytes() {
+        return input_bytes;
+    }
+
+    /**
+     * Size of images in leased tasks, not stored locally on worker they were leased to
+     */
+    public synchronized long get_cross_node_bytes() {
+        return cross_node_bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            synchronized (this) {
+                log.info(String.format("Cross-node bytes: %d of %d read (%.1f%%)", cross_node_bytes, input_bytes,
+                        input_bytes == 0 ? 0 : 100.0*cross_node_bytes/input_bytes));
+            }
+        }
+        closed = true;
+        server.close();
+        if (reaper != null) reaper.interrupt();
+    }
+
+    private void accept_loop() {
+        while (!closed) {
+            try {
+                final Socket socket = server.accept();
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "coordinator "+socket.getRemoteSocketAddress());
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException ex) {
+                if (!closed) log.log(Level.WARNING,"Accept failed",ex);
+            }
+        }
+    }
+
+    private void reap_loop() {
+        try {
+            while (!closed) {
+                Thread.sleep(Math.max(1,lease_millis/4));
+                expire_leases();
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    // ################################### CONNECTIONS ###################################
+
+    private void serve(Socket socket) {
+        String worker = socket.getRemoteSocketAddress().toString();
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(),StandardCharsets.UTF_8));
+             Writer out = new OutputStreamWriter(s.getOutputStream(),StandardCharsets.UTF_8)) {
+
+            // Connection is served only after worker presents token
+            String line = in.readLine();
+            if (line == null) return;
+            String[] hello = line.split(Protocol.SEP,3);
+            if (!hello[0].equals(Protocol.HELLO) || hello.length < 3 || !is_token(hello[2])) {
+                log.warning("Connection of "+worker+" rejected, no valid token");
+                out.write(Protocol.ERROR+Protocol.SEP+"not authenticated\n");
+                out.flush();
+                return;
+            }
+            worker = hello[1]+" "+worker;
+            log.info("Worker connected: "+worker);
+            out.write(hello(worker)+"\n");
+            out.flush();
+
+            while ((line = in.readLine()) != null) {
+                String[] msg = line.split(Protocol.SEP,3);
+                String reply;
+                switch (msg[0]) {
+                    case Protocol.MOUNTS:
+                        reply = mounts(worker, line.split(Protocol.SEP));
+                        break;
+                    case Protocol.GRAB:
+                        reply = grab(worker);
+                        break;
+                    case Protocol.HEARTBEAT:
+                        reply = heartbeat(worker, Integer.parseInt(msg[1]));
+                        break;
+                    case Protocol.RESULT:
+                        reply = result(worker, Integer.parseInt(msg[1]), ResultJournal.decode(msg.length > 2 ? msg[2] : ""));
+                        break;
+                    case Protocol.FAIL:
+                        log.warning("Worker "+worker+" failed task: "+(msg.length > 2 ? msg[2] : ""));
+                        reply = fail(worker, Integer.parseInt(msg[1]));
+                        break;
+                    default:
+                        reply = Protocol.ERROR+Protocol.SEP+"unknown message "+msg[0];
+                }
+                out.write(reply+"\n");
+                out.flush();
+            }
+        } catch (SocketException ex) {
+            log.fine("Connection of "+worker+" closed: "+ex.getMessage());
+        } catch (IOException | RuntimeException ex) {
+            log.log(Level.WARNING,"Connection of "+worker+" failed",ex);
+        }
+        worker_lost(worker);
+    }
+
+    // Compared in constant time, so response time does not tell how much of token was guessed
+    private boolean is_token(String s) {
+        return MessageDigest.isEqual(token, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // ###################################### LEASES ######################################
+
+    synchronized String grab(String worker) {
+        // Workers of cancelled run stop asking
+        if (closed) return Protocol.DONE;
+
+        Lease prev = requeued.poll();
+        IRRNTask task = null;
+        ITaskProvider provider = null;
+        int attempt = 1;
+
+        if (prev != null) {
+            task = prev.task;
+            provider = prev.provider;
+            attempt = prev.attempt+1;
+        } else {
+            // Tasks queued after plan was made, i.e. strips of next iteration, are served unplanned
+            Pending next = plan == null ? null : next_planned(worker);
+            if (next == null) next = next_queued();
+            if (next != null) {
+                task = next.task;
+                provider = next.provider;
+            }
+        }
+
+        if (task == null) {
+            return is_done() ? Protocol.DONE : Protocol.WAIT+Protocol.SEP+WAIT_MILLIS;
+        }
+
+        Lease lease = new Lease(next_lease_id++, task, provider, worker, attempt,
+                System.currentTimeMillis()+lease_millis);
+        leases.put(lease.id,lease);
+        count_input(worker, task);
+        return Protocol.encode_task(lease.id,lease_millis,task);
+    }
+
+    /**
+     * Lease of given id, if it is held by worker
+     */
+    private Lease get_lease(String worker, int id) {
+        Lease lease = leases.get(id);
+        return lease == null || !lease.worker.equals(worker) ? null : lease;
+    }
+
+    synchronized String heartbeat(String worker, int id) {
+        Lease lease = get_lease(worker, id);
+        if (lease == null) return Protocol.LOST;
+        lease.deadline = System.currentTimeMillis()+lease_millis;
+        return Protocol.OK;
+    }
+
+    synchronized String result(String worker, int id, RRNResult res) {
+        Lease lease = get_lease(worker, id);
+        if (lease == null) return Protocol.LOST;
+        leases.remove(id);
+        lease.task.set_result(res);
+        lease.provider.release(lease.task);
+        notifyAll();
+        return Protocol.OK;
+    }
+
+    synchronized String fail(String worker, int id) {
+        Lease lease = get_lease(worker, id);
+        if (lease == null) return Protocol.LOST;
+        leases.remove(id);
+        if (lease.attempt >= MAX_ATTEMPTS) {
+            log.severe("Task "+lease.task+" failed "+lease.attempt+" times, giving up");
+            lease.provider.release(lease.task);
+            notifyAll();
+        } else {
+            requeued.add(lease);
+        }
+        return Protocol.OK;
+    }
+
+    private synchronized void expire_leases() {
+        long now = System.currentTimeMillis();
+        Iterator<Lease> it = leases.values().iterator();
+        while (it.hasNext()) {
+            Lease lease = it.next();
+            if (lease.deadline < now) {
+                log.warning("Lease of "+lease.task+" by "+lease.worker+" expired, task queued again");
+                it.remove();
+                requeued.add(lease);
+            }
+        }
+    }
+
+    private synchronized void worker_lost(String worker) {
+        mounts.remove(worker);
+        part_owner.values().removeAll(Collections.singleton(worker));
+        Iterator<Lease> it = leases.values().iterator();
+        while (it.hasNext()) {
+            Lease lease = it.next();
+            if (lease.worker.equals(worker)) {
+                log.warning("Worker "+worker+" disconnected, "+lease.task+" queued again");
+                it.remove();
+                requeued.add(lease);
+            }
+        }
+        notifyAll();
+    }
+
+    // #################################### LOCALITY ####################################
+
+    synchronized String hello(String worker) {
+        mounts.put(worker, new HashMap<String,Boolean>());
+        return Protocol.OK;
+    }
+
+    synchronized String mounts(String worker, String[] msg) {
+        Map<String,Boolean> m = new HashMap<>();
+        for (int i = 1; i < msg.length; ++i) {
+            if (msg[i].length() > 1) m.put(msg[i].substring(1), msg[i].charAt(0) == '+');
+        }
+        mounts.put(worker, m);
+        return Protocol.OK;
+    }
+
+    /**
+     * Task of first provider, that has queued one
+     */
+    private Pending next_queued() {
+        // Provider is only asked when it has queued task, so grab does not block
+        for (ITaskProvider p : providers) {
+            if (p.num_tasks_queued() > 0) {
+                IRRNTask task = p.grab();
+                if (task != null) return new Pending(task, p);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Take all tasks from providers and queue them by parts of plan
+     */
+    private synchronized void queue_planned() {
+        for (ITaskProvider p : providers) {
+            while (p.num_tasks_queued() > 0) {
+                IRRNTask t = p.grab();
+                if (t == null) break;
+                int[] parts = plan.get_parts(t);
+                if (parts == null || parts.length > 1) {
+                    boundary.add(new Pending(t, p));
+                } else {
+                    Deque<Pending> q = part_queues.get(parts[0]);
+                    if (q == null) {
+                        q = new ArrayDeque<>();
+                        part_queues.put(parts[0], q);
+                    }
+                    q.add(new Pending(t, p));
+                }
+            }
+        }
+        log.info(String.format("%d tasks in %d parts, %d boundary tasks",
+                count_queued(), part_queues.size(), boundary.size()));
+    }
+
+    private int count_queued() {
+        int ret = boundary.size();
+        for (Deque<Pending> q : part_queues.values()) ret += q.size();
+        return ret;
+    }
+
+    /**
+     * Next task of worker's parts, boundary task of it's parts, task of newly claimed part,
+     * or task stolen from other part, in that order
+     */
+    private Pending next_planned(String worker) {
+        for (Map.Entry<Integer,String> e : part_owner.entrySet()) {
+            if (worker.equals(e.getValue())) {
+                Pending p = part_queues.get(e.getKey()).poll();
+                if (p != null) return p;
+            }
+        }
+
+        Iterator<Pending> it = boundary.iterator();
+        while (it.hasNext()) {
+            Pending p = it.next();
+            int[] parts = plan.get_parts(p.task);
+            if (parts == null) continue;
+            for (int part : parts) {
+                if (worker.equals(part_owner.get(part))) {
+                    it.remove();
+                    return p;
+                }
+            }
+        }
+
+        Integer claimed = claim_part(worker);
+        if (claimed != null) {
+            part_owner.put(claimed, worker);
+            log.info(String.format("Part %d with %d tasks assigned to %s",
+                    claimed, part_queues.get(claimed).size(), worker));
+            return part_queues.get(claimed).poll();
+        }
+
+        if (!boundary.isEmpty()) return boundary.poll();
+
+        // Steal from end of largest queue, parts without owner first
+        Deque<Pending> victim = null;
+        boolean victim_owned = true;
+        for (Map.Entry<Integer,Deque<Pending>> e : part_queues.entrySet()) {
+            if (e.getValue().isEmpty()) continue;
+            boolean owned = part_owner.containsKey(e.getKey());
+            if (victim == null || victim_owned && !owned ||
+                    owned == victim_owned && e.getValue().size() > victim.size()) {
+                victim = e.getValue();
+                victim_owned = owned;
+            }
+        }
+        return victim == null ? null : victim.pollLast();
+    }
+
+    /**
+     * Part without owner, worker stores most bytes of, among parts no other connected worker stores more of
+     */
+    private Integer claim_part(String worker) {
+        Integer best = null;
+        long best_bytes = -1;
+        for (Map.Entry<Integer,Deque<Pending>> e : part_queues.entrySet()) {
+            int part = e.getKey();
+            if (e.getValue().isEmpty() || part_owner.containsKey(part)) continue;
+            long bytes = local_bytes(worker, part);
+            if (bytes <= best_bytes) continue;
+            boolean others_better = false;
+            for (String other : mounts.keySet()) {
+                if (!other.equals(worker) && local_bytes(other, part) > bytes) {
+                    others_better = true;
+                    break;
+                }
+            }
+            if (!others_better) {
+                best = part;
+                best_bytes = bytes;
+            }
+        }
+        return best;
+    }
+
+    private long local_bytes(String worker, int part) {
+        long ret = 0;
+        for (String f : plan.get_files(part)) {
+            if (is_local(worker, f)) ret += file_size(f);
+        }
+        return ret;
+    }
+
+    /**
+     * File is local to worker, if it's deepest mount point, reported by worker, is local
+     */
+    boolean is_local(String worker, String filename) {
+        Map<String,Boolean> m = mounts.get(worker);
+        if (m == null) return false;
+        String best = null;
+        for (String root : m.keySet()) {
+            if (is_under(filename, root) && (best == null || root.length() > best.length())) best = root;
+        }
+        return best != null && m.get(best);
+    }
+
+    private static boolean is_under(String filename, String root) {
+        if (!filename.startsWith(root)) return false;
+        return filename.length() == root.length() || root.endsWith(File.separator) ||
+                filename.startsWith(File.separator, root.length());
+    }
+
+    private long file_size(String filename) {
+        Long size = file_sizes.get(filename);
+        if (size == null) {
+            size = new File(filename).length();
+            file_sizes.put(filename, size);
+        }
+        return size;
+    }
+
+    private void count_input(String worker, IRRNTask task) {
+        for (int i = 0; i != task.n_pairs(); ++i) {
+            for (String f : new String[]{task.get_source(i).get_filename(), task.get_target(i).get_filename()}) {
+                long size = file_size(f);
+                input_bytes += size;
+                if (!is_local(worker, f)) cross_node_bytes += size;
+            }
+        }
+    }
+}
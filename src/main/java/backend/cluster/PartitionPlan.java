@@ -0,0 +1,75 @@
+package backend.cluster;
+
+import backend.tasks.IRRNTask;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Parts of task graph, used by {@link Coordinator} to keep tasks on nodes their images are stored on.
+ * Task with both groups in same part belongs to that part,
+ * boundary task belongs to parts of both of it's groups
+ */
+public class PartitionPlan {
+
+    private final Map<IRRNTask,int[]> task_parts = new HashMap<>();
+    private final Map<Integer,Set<String>> part_files = new HashMap<>();
+    private int n_parts;
+
+    /**
+     * Reserve parts for one more graph
+     * @return id of first reserved part
+     */
+    public int add_parts(int n) {
+        int first = n_parts;
+        n_parts += n;
+        return first;
+    }
+
+    public int n_parts() {
+        return n_parts;
+    }
+
+    /**
+     * @param child_part part of child group of task
+     * @param parent_part part of parent group of task
+     */
+    public void put(IRRNTask task, int child_part, int parent_part) {
+        task_parts.put(task, child_part == parent_part ? new int[]{child_part} : new int[]{child_part,parent_part});
+        add_files(child_part, task, true);
+        add_files(parent_part, task, false);
+    }
+
+    private void add_files(int part, IRRNTask task, boolean sources) {
+        Set<String> files = part_files.get(part);
+        if (files == null) {
+            files = new HashSet<>();
+            part_files.put(part,files);
+        }
+        for (int i = 0; i != task.n_pairs(); ++i) {
+            files.add((sources ? task.get_source(i) : task.get_target(i)).get_filename());
+        }
+    }
+
+    /**
+     * @return parts of task, null if task is not planned
+     */
+    public int[] get_parts(IRRNTask task) {
+        return task_parts.get(task);
+    }
+
+    public boolean is_boundary(IRRNTask task) {
+        int[] parts = task_parts.get(task);
+        return parts != null && parts.length > 1;
+    }
+
+    /**
+     * Images of groups in part
+     */
+    public Set<String> get_files(int part) {
+        Set<String> files = part_files.get(part);
+        return files == null ? new HashSet<String>() : files;
+    }
+}
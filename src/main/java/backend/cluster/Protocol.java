@@ -0,0 +1,56 @@
+package backend.cluster;
+
+import backend.rrn.Strip;
+import backend.tasks.IRRNTask;
+
+/**
+ * Line based protocol between {@link Coordinator} and {@link RemoteTaskProvider}.
+ * Fields are tab separated, every request of worker gets single line reply:
+ *
+ * HELLO name token           -> OK | ERROR
+ * MOUNTS +root -root ...     -> OK
+ * GRAB                       -> TASK id lease_millis name strip source target ... | WAIT millis | DONE
+ * HEARTBEAT id               -> OK | LOST
+ * RESULT id field=values ... -> OK | LOST
+ * FAIL id message            -> OK | LOST
+ *
+ * HELLO must be first request of connection and carry token of coordinator, otherwise connection is closed
+ * after ERROR reply. LOST means lease of task has expired and task was given to another worker.
+ * Strip is {@link Strip#encode()}, or {@link #NO_STRIP} for whole overlap.
+ * MOUNTS lists mount points of worker, local ones prefixed by + and network ones by -.
+ * Images are passed by path, so workers must see same file system as coordinator
+ */
+final class Protocol {
+
+    static final String SEP = "\t";
+
+    static final String HELLO = "HELLO";
+    static final String GRAB = "GRAB";
+    static final String HEARTBEAT = "HEARTBEAT";
+    static final String RESULT = "RESULT";
+    static final String FAIL = "FAIL";
+    static final String MOUNTS = "MOUNTS";
+
+    static final String OK = "OK";
+    static final String TASK = "TASK";
+    static final String WAIT = "WAIT";
+    static final String DONE = "DONE";
+    static final String LOST = "LOST";
+    static final String ERROR = "ERROR";
+
+    static final String NO_STRIP = "-";
+
+    private Protocol() {
+    }
+
+    static String encode_task(int id, long lease_millis, IRRNTask task) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(TASK).append(SEP).append(id).append(SEP).append(lease_millis).append(SEP).append(task.get_name());
+        sb.append(SEP).append(task.get_strip() == null ? NO_STRIP : task.get_strip().encode());
+        for (int i = 0; i != task.n_pairs(); ++i) {
+            sb.append(SEP).append(task.get_source(i).get_filename());
+            sb.append(SEP).append(task.get_target(i).get_filename());
+        }
+        return sb.toString();
+    }
+}
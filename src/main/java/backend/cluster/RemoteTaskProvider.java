@@ -0,0 +1,277 @@
+package backend.cluster;
+
+import backend.rasterio.RasterDataset;
+import backend.rrn.Strip;
+import backend.tasks.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Task provider of worker, that takes tasks from {@link Coordinator} and uploads their results on release.
+ * Leases of running tasks are kept alive by heartbeats from background thread.
+ * All processes of worker share single connection
+ */
+public class RemoteTaskProvider implements ITaskProvider, Closeable {
+
+    private static Logger log = Logger.getLogger(RemoteTaskProvider.class.getName());
+
+    private final Socket socket;
+    private final BufferedReader in;
+    private final Writer out;
+
+    // Lease id of each running task
+    private final Map<IRRNTask,Integer> leases = new ConcurrentHashMap<>();
+
+    private final AtomicInteger grabbed = new AtomicInteger();
+    private final AtomicInteger processed = new AtomicInteger();
+    private final TaskEvents events = new TaskEvents();
+
+    private Thread heartbeat;
+    private volatile long lease_millis = Coordinator.DEFAULT_LEASE_MILLIS;
+    private volatile boolean closed;
+
+    public RemoteTaskProvider(String host, int port, String name, String token) throws IOException {
+        this(host, port, name, token, Collections.<String>emptyList());
+    }
+
+    /**
+     * @param token shared secret of coordinator
+     * @param mounts mount points of worker, local ones prefixed by + and network ones by -,
+     *               coordinator gives worker tasks, which images are on it's local mounts
+     */
+    public RemoteTaskProvider(String host, int port, String name, String token, Collection<String> mounts)
+            throws IOException {
+        socket = new Socket(host,port);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(),StandardCharsets.UTF_8));
+        out = new OutputStreamWriter(socket.getOutputStream(),StandardCharsets.UTF_8);
+        String reply = request(Protocol.HELLO+Protocol.SEP+name+Protocol.SEP+token);
+        if (!reply.equals(Protocol.OK)) {
+            socket.close();
+            throw new IOException("Coordinator rejected worker: "+reply);
+        }
+        if (!mounts.isEmpty()) {
+            StringBuilder sb = new StringBuilder(Protocol.MOUNTS);
+            for (String m : mounts) sb.append(Protocol.SEP).append(m);
+            request(sb.toString());
+        }
+
+        heartbeat = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                heartbeat_loop();
+            }
+        }, "heartbeat");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+    }
+
+    /**
+     * Send request and wait for reply
+     */
+    private synchronized String request(String msg) throws IOException {
+        out.write(msg+"\n");
+        out.flush();
+        String reply = in.readLine();
+        if (reply == null) throw new EOFException("Coordinator closed connection");
+        return reply;
+    }
+
+    private void heartbeat_loop() {
+        try {
+            while (!closed) {
+                Thread.sleep(Math.max(1,lease_millis/3));
+                for (Map.Entry<IRRNTask,Integer> e : leases.entrySet()) {
+                    if (request(Protocol.HEARTBEAT+Protocol.SEP+e.getValue()).equals(Protocol.LOST)) {
+                        log.warning("Lease of "+e.getKey()+" lost, it's result will be ignored");
+                    }
+                }
+            }
+        } catch (InterruptedException ignored) {
+        } catch (IOException ex) {
+            if (!closed) log.log(Level.WARNING,"Heartbeat failed",ex);
+        }
+    }
+
+    @Override
+    public void set_tasks(Collection<IRRNTask> tasks) {
+        throw new UnsupportedOperationException("Tasks of remote provider are given by coordinator");
+    }
+
+    /**
+     * Should return NULL as a poison pill of no grab element!
+     * Returns null when coordinator has no more tasks or connection is lost
+     */
+    @Override
+    public IRRNTask grab() {
+        try {
+            while (true) {
+                String[] reply = request(Protocol.GRAB).split(Protocol.SEP);
+                switch (reply[0]) {
+                    case Protocol.TASK:
+                        IRRNTask t = open_task(reply);
+                        if (t != null) {
+                            grabbed.incrementAndGet();
+                            events.task_started(t);
+                            return t;
+                        }
+                        break;
+                    case Protocol.WAIT:
+                        Thread.sleep(Long.parseLong(reply[1]));
+                        break;
+                    case Protocol.DONE:
+                        return null;
+                    default:
+                        throw new IOException("Unexpected reply "+reply[0]);
+                }
+            }
+        } catch (IOException ex) {
+            log.log(Level.SEVERE,"Lost connection to coordinator",ex);
+            return null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Single request of task, coordinator's WAIT or DONE give null
+     */
+    @Override
+    public IRRNTask try_grab() {
+        try {
+            String[] reply = request(Protocol.GRAB).split(Protocol.SEP);
+            switch (reply[0]) {
+                case Protocol.TASK:
+                    IRRNTask t = open_task(reply);
+                    if (t != null) {
+                        grabbed.incrementAndGet();
+                        events.task_started(t);
+                    }
+                    return t;
+                case Protocol.WAIT:
+                case Protocol.DONE:
+                    return null;
+                default:
+                    throw new IOException("Unexpected reply "+reply[0]);
+            }
+        } catch (IOException ex) {
+            log.log(Level.SEVERE,"Lost connection to coordinator",ex);
+            return null;
+        }
+    }
+
+    /**
+     * Build task from TASK reply, report failure to coordinator if images can not be opened
+     */
+    private IRRNTask open_task(String[] reply) throws IOException {
+        int id = Integer.parseInt(reply[1]);
+        lease_millis = Long.parseLong(reply[2]);
+
+        IRRNTask t = TaskFactory.get_task();
+        t.set_name(reply[3]);
+        if (!reply[4].equals(Protocol.NO_STRIP)) t.set_strip(Strip.decode(reply[4]));
+        try {
+            for (int i = 5; i+1 < reply.length; i += 2) {
+                t.add_pair(RasterDataset.from_file(reply[i]),RasterDataset.from_file(reply[i+1]));
+            }
+        } catch (IOException ex) {
+            close_datasets(t);
+            request(Protocol.FAIL+Protocol.SEP+id+Protocol.SEP+ex.getMessage());
+            return null;
+        }
+
+        leases.put(t,id);
+        return t;
+    }
+
+    private static void close_datasets(IRRNTask t) {
+        for (int i = 0; i != t.n_pairs(); ++i) {
+            t.get_source(i).delete();
+            t.get_target(i).delete();
+        }
+    }
+
+    /**
+     * Upload result of task
+     */
+    @Override
+    public void release(IRRNTask task) {
+        Integer id = leases.remove(task);
+        if (id == null) throw new IllegalArgumentException("Task "+task+" was not grabbed from this provider");
+        close_datasets(task);
+
+        try {
+            String msg = task.get_result() == null ?
+                    Protocol.FAIL+Protocol.SEP+id+Protocol.SEP+"no result" :
+                    Protocol.RESULT+Protocol.SEP+id+Protocol.SEP+ResultJournal.encode(task.get_result());
+            if (request(msg).equals(Protocol.LOST)) {
+                log.warning("Lease of "+task+" lost, result ignored by coordinator");
+            }
+        } catch (IOException ex) {
+            log.log(Level.SEVERE,"Could not upload result of "+task,ex);
+        }
+
+        processed.incrementAndGet();
+        events.task_finished(task);
+    }
+
+    @Override
+    public void spawn(IRRNTask task) {
+        throw new UnsupportedOperationException("Remote provider does not support subtasks");
+    }
+
+    @Override
+    public int num_tasks_total() {
+        return grabbed.get();
+    }
+
+    @Override
+    public int num_tasks_queued() {
+        return 0;
+    }
+
+    @Override
+    public int num_tasks_processing() {
+        return leases.size();
+    }
+
+    @Override
+    public int num_tasks_processed() {
+        return processed.get();
+    }
+
+    @Override
+    public double locality_hit_rate() {
+        return 0;
+    }
+
+    @Override
+    public void add_listener(ITaskListener listener) {
+        events.add(listener);
+    }
+
+    @Override
+    public void set_cost_model(CostModel model) {
+    }
+
+    @Override
+    public double makespan() {
+        return 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        heartbeat.interrupt();
+        socket.close();
+    }
+}
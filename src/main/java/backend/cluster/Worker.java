@@ -0,0 +1,100 @@
+package backend.cluster;
+
+import backend.pmanagement.TaskScheduler;
+import backend.processes.IRRNProcess;
+import backend.processes.ProcessFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystems;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Worker JVM: runs usual RRN processes on tasks taken from {@link Coordinator}.
+ *
+ * Usage: Worker host port [n_processes [local_root ...]]
+ *
+ * Token of coordinator is taken from {@value #TOKEN_ENV} environment variable, so it is not seen in process list.
+ * Worker reports it's mount points to coordinator, so it gets tasks of images on it's local storage.
+ * Without local roots given, they are detected from file systems of this node
+ */
+public class Worker {
+
+    private static Logger log = Logger.getLogger(Worker.class.getName());
+
+    public static final String TOKEN_ENV = "PRRN_CLUSTER_TOKEN";
+
+    private static final Set<String> NETWORK_TYPES = new HashSet<>(Arrays.asList(
+            "nfs", "nfs4", "cifs", "smbfs", "smb3", "9p", "fuse.sshfs", "ceph", "glusterfs", "fuse.glusterfs",
+            "lustre", "gpfs", "beegfs", "afs", "davfs"));
+
+    private static final Set<String> PSEUDO_TYPES = new HashSet<>(Arrays.asList(
+            "proc", "sysfs", "devtmpfs", "devpts", "cgroup", "cgroup2", "securityfs", "debugfs",
+            "tracefs", "mqueue", "pstore", "bpf", "autofs", "configfs", "fusectl", "hugetlbfs", "binfmt_misc"));
+
+    /**
+     * Process tasks of coordinator until it has no more
+     */
+    public static void run(String host, int port, String token, int n_processes) throws IOException {
+        run(host, port, token, n_processes, detect_mounts());
+    }
+
+    /**
+     * @param token shared secret of coordinator
+     * @param mounts mount points, local ones prefixed by + and network ones by -
+     */
+    public static void run(String host, int port, String token, int n_processes, List<String> mounts)
+            throws IOException {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        try (RemoteTaskProvider provider = new RemoteTaskProvider(host,port,name,token,mounts)) {
+            List<IRRNProcess> processes = new ArrayList<>();
+            for (int i = 0; i != n_processes; ++i) {
+                IRRNProcess p = ProcessFactory.get_process();
+                p.set_task_provider(provider);
+                processes.add(p);
+            }
+
+            TaskScheduler scheduler = new TaskScheduler();
+            scheduler.set_processes(processes);
+            scheduler.execute();
+            scheduler.join();
+
+            log.info(String.format("Worker %s finished, %d tasks processed",name,provider.num_tasks_processed()));
+        }
+    }
+
+    /**
+     * Mount points of file systems of this node, network file systems are not local
+     */
+    static List<String> detect_mounts() {
+        List<String> ret = new ArrayList<>();
+        for (FileStore store : FileSystems.getDefault().getFileStores()) {
+            // FileStore has no accessor for mount point, it is printed as "mount (device)"
+            String s = store.toString();
+            int paren = s.lastIndexOf(" (");
+            if (paren <= 0 || PSEUDO_TYPES.contains(store.type())) continue;
+            ret.add((NETWORK_TYPES.contains(store.type()) ? "-" : "+")+s.substring(0,paren));
+        }
+        return ret;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: Worker host port [n_processes [local_root ...]]");
+            System.exit(1);
+        }
+        String token = System.getenv(TOKEN_ENV);
+        if (token == null || token.isEmpty()) {
+            System.err.println(TOKEN_ENV+" must be set to token of coordinator");
+            System.exit(1);
+        }
+        int n_processes = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        List<String> mounts = new ArrayList<>();
+        for (int i = 3; i < args.length; ++i) mounts.add("+"+args[i]);
+        if (mounts.isEmpty()) mounts = detect_mounts();
+        run(args[0],Integer.parseInt(args[1]),token,n_processes,mounts);
+        System.exit(0);
+    }
+}
@@ -1,10 +1,13 @@
 package backend.graph;
 
+import backend.rasterio.FootprintCache;
 import backend.rasterio.RasterDataset;
 
 import backend.rasterio.RasterGrid;
 import org.jgrapht.DirectedGraph;
+import org.jgrapht.Graphs;
 import org.jgrapht.UndirectedGraph;
+import org.jgrapht.alg.ConnectivityInspector;
 import org.jgrapht.alg.KruskalMinimumSpanningTree;
 import org.jgrapht.ext.DOTExporter;
 import org.jgrapht.ext.IntegerNameProvider;
@@ -24,55 +27,349 @@ public class GraphBuilder {
 
     private static Logger log = Logger.getLogger(GraphBuilder.class.getName());
 
-    DefaultDirectedWeightedGraph<RasterDataset,DefaultWeightedEdge> graph;
-    UndirectedGraph<RasterDataset,DefaultWeightedEdge> undirected_graph;
+    DefaultDirectedWeightedGraph<RasterGroup,DefaultWeightedEdge> graph;
+    UndirectedGraph<RasterGroup,DefaultWeightedEdge> undirected_graph;
+
+    // Decides which super-node each file belongs to
+    private final IGroupingPolicy grouping;
+    private final Map<String,RasterGroup> groups;
+
+    // Overlapping image pairs behind each edge.
+    // First element of pair belongs to source vertex of edge, second one to target
+    private final Map<DefaultWeightedEdge,List<RasterDataset[]>> edge_pairs;
+
+    // Group all coefficients are propagated to. Chosen automatically if not set
+    private RasterGroup reference;
+
+    // Valid data footprints. If not set, bounding box overlap is used
+    private FootprintCache footprints;
+
+    // Pairs with less valid overlapping pixels than this are not connected
+    private double min_overlap;
 
     public GraphBuilder() {
-        graph = new DefaultDirectedWeightedGraph<RasterDataset, DefaultWeightedEdge>(DefaultWeightedEdge.class);
+        this(GroupingFactory.by_file());
+    }
+
+    public GraphBuilder(IGroupingPolicy grouping) {
+        graph = new DefaultDirectedWeightedGraph<RasterGroup, DefaultWeightedEdge>(DefaultWeightedEdge.class);
         undirected_graph = new AsUndirectedGraph<>(graph);
+        this.grouping = grouping;
+        groups = new HashMap<>();
+        edge_pairs = new HashMap<>();
+        min_overlap = 0;
+    }
+
+    /**
+     * Use valid data footprints to weight edges. Must be set before adding files
+     * @param footprints footprint cache or null to use bounding box overlap
+     */
+    public void set_footprints(FootprintCache footprints) {
+        this.footprints = footprints;
+    }
+
+    /**
+     * Set minimal number of overlapping valid pixels for images to be connected.
+     * Must be set before adding files
+     */
+    public void set_min_overlap(double min_overlap) {
+        this.min_overlap = min_overlap;
     }
 
+    /**
+     * Add file to it's group and connect it to overlapping images of other groups.
+     * Overlaps inside of group do not produce edges, overlaps between two groups are
+     * summed into single edge
+     * @param ds1 file to add
+     */
     public void add_file(RasterDataset ds1) {
-        graph.addVertex( ds1 );
-
-        for (RasterDataset ds2 : vertices()) {
-            if (ds1.equals(ds2)) continue;
-            RasterGrid intersection_grid = ds1.grid().intersection(ds2.grid());
-            double weight = intersection_grid.get_width()*intersection_grid.get_height();
-            if (weight > 0) {
-                DefaultWeightedEdge e = graph.addEdge(ds1,ds2);
-                graph.setEdgeWeight(e,weight);
+        RasterGroup g1 = get_or_create_group(grouping.get_group_key(ds1));
+
+        for (RasterGroup g2 : vertices()) {
+            if (g1.equals(g2)) continue;
+
+            for (RasterDataset ds2 : g2.get_datasets()) {
+                double weight = overlap_weight(ds1,ds2);
+                if (weight > 0 && weight >= min_overlap) {
+                    add_pair(g1,ds1,g2,ds2,weight);
+                }
             }
         }
+
+        g1.add_dataset(ds1);
     }
 
     /**
-     * Get size of results arrays
+     * Number of pixels valid in both images.
+     * Falls back to bounding box overlap if footprints are not available
+     */
+    private double overlap_weight(RasterDataset ds1, RasterDataset ds2) {
+        RasterGrid intersection_grid = ds1.grid().intersection(ds2.grid());
+        if (intersection_grid == null) return 0;
+
+        if (footprints != null) {
+            try {
+                return footprints.get(ds1).overlap_pixels(footprints.get(ds2));
+            } catch (IOException ex) {
+                log.warning(String.format("Using bounding box overlap of %s and %s. Reason: %s",
+                        ds1, ds2, ex.getMessage()));
+            }
+        }
+
+        return intersection_grid.get_width()*intersection_grid.get_height();
+    }
+
+    RasterGroup get_or_create_group(String key) {
+        RasterGroup g = groups.get(key);
+        if (g == null) {
+            g = new RasterGroup(key);
+            groups.put(key,g);
+            graph.addVertex(g);
+        }
+        return g;
+    }
+
+    private DefaultWeightedEdge get_edge(RasterGroup g1, RasterGroup g2) {
+        DefaultWeightedEdge e = graph.getEdge(g1,g2);
+        if (e == null) e = graph.getEdge(g2,g1);
+        return e;
+    }
+
+    /**
+     * Record overlapping pair of images and add it's weight to edge between their groups
+     */
+    void add_pair(RasterGroup g1, RasterDataset ds1, RasterGroup g2, RasterDataset ds2, double weight) {
+        DefaultWeightedEdge e = get_edge(g1,g2);
+        if (e == null) {
+            e = graph.addEdge(g1,g2);
+            graph.setEdgeWeight(e,0);
+            edge_pairs.put(e,new ArrayList<RasterDataset[]>());
+        }
+        graph.setEdgeWeight(e,graph.getEdgeWeight(e)+weight);
+
+        if (graph.getEdgeSource(e).equals(g1)) {
+            edge_pairs.get(e).add(new RasterDataset[]{ds1,ds2});
+        } else {
+            edge_pairs.get(e).add(new RasterDataset[]{ds2,ds1});
+        }
+    }
+
+    /**
+     * Get overlapping image pairs between two adjacent groups
+     * @param source group to take first element of each pair from
+     * @param target group to take second element of each pair from
+     * @return pairs {source image, target image}
+     */
+    public List<RasterDataset[]> get_pairs(RasterGroup source, RasterGroup target) {
+        DefaultWeightedEdge e = get_edge(source,target);
+        if (e == null) return new ArrayList<>();
+
+        List<RasterDataset[]> pairs = edge_pairs.get(e);
+        if (graph.getEdgeSource(e).equals(source)) return new ArrayList<>(pairs);
+
+        List<RasterDataset[]> ret = new ArrayList<>(pairs.size());
+        for (RasterDataset[] p : pairs) {
+            ret.add(new RasterDataset[]{p[1],p[0]});
+        }
+        return ret;
+    }
+
+    /**
+     * Get size of results arrays: number of edges of spanning tree, not of whole graph,
+     * overlaps closing cycles are not computed
      * @return
      */
     public int get_results_size() {
+        build_graph();
         return edge_count();
     }
 
     /**
-     * Populate results array
+     * Populate results array.
+     * Edges are oriented towards reference image: target of each edge
+     * is one step closer to {@link #get_reference()} than it's source.
+     * Edges are listed in depth-first order from reference, so consecutive
+     * edges mostly share a vertex, which is friendly to file and block caches
      * @param source
      * @param target
      * @param weights
      */
-    public void get_results( RasterDataset[] source, RasterDataset[] target, double[] weights ) {
+    public void get_results( RasterGroup[] source, RasterGroup[] target, double[] weights ) {
 
         build_graph();
 
+        // Parent of each vertex in spanning tree, rooted at reference
+        Map<RasterGroup,RasterGroup> parent = new HashMap<>();
+        List<RasterGroup> order = depth_first_order(get_reference(), parent);
+
         int i = 0;
-        for (DefaultWeightedEdge e : edges()) {
-            source[i] = graph.getEdgeSource(e);
-            target[i] = graph.getEdgeTarget(e);
-            weights[i] = graph.getEdgeWeight(e);
+        for (RasterGroup v : order) {
+            RasterGroup p = parent.get(v);
+            if (p == null) continue; // root
+            source[i] = v;
+            target[i] = p;
+            weights[i] = graph.getEdgeWeight(get_edge(v,p));
             i += 1;
         }
     }
 
+    // ################################### COMPONENTS ###################################
+
+    /**
+     * Split graph into connected components.
+     * Images of different components do not overlap, so there is no way to normalize them
+     * to common reference. Each component should be processed as independent job
+     * @return graph builder for each connected component, largest first
+     */
+    public List<GraphBuilder> get_components() {
+        ConnectivityInspector<RasterGroup,DefaultWeightedEdge> inspector =
+                new ConnectivityInspector<>(undirected_graph);
+
+        List<Set<RasterGroup>> vertex_sets = inspector.connectedSets();
+        Collections.sort(vertex_sets, new Comparator<Set<RasterGroup>>() {
+            @Override
+            public int compare(Set<RasterGroup> o1, Set<RasterGroup> o2) {
+                return Integer.compare(o2.size(),o1.size());
+            }
+        });
+
+        List<GraphBuilder> ret = new ArrayList<>(vertex_sets.size());
+        for (Set<RasterGroup> vertex_set : vertex_sets) {
+            ret.add(sub_graph(vertex_set));
+        }
+
+        if (ret.size() > 1) {
+            log.warning(String.format("Images form %d disconnected groups, each will be processed separately",
+                    ret.size()));
+        }
+
+        return ret;
+    }
+
+    /**
+     * Create graph builder containing only specified vertices and edges between them
+     * @param vertex_set vertices to keep
+     * @return new graph builder
+     */
+    private GraphBuilder sub_graph(Set<RasterGroup> vertex_set) {
+        GraphBuilder ret = new GraphBuilder(grouping);
+        ret.footprints = footprints;
+        ret.min_overlap = min_overlap;
+
+        for (RasterGroup g : vertex_set) {
+            ret.groups.put(g.get_key(),g);
+            ret.graph.addVertex(g);
+        }
+
+        for (DefaultWeightedEdge e : graph.edgeSet()) {
+            RasterGroup src = graph.getEdgeSource(e);
+            RasterGroup tgt = graph.getEdgeTarget(e);
+            if (vertex_set.contains(src) && vertex_set.contains(tgt)) {
+                DefaultWeightedEdge new_e = ret.graph.addEdge(src,tgt);
+                ret.graph.setEdgeWeight(new_e,graph.getEdgeWeight(e));
+                ret.edge_pairs.put(new_e,edge_pairs.get(e));
+            }
+        }
+
+        if (reference != null && vertex_set.contains(reference)) {
+            ret.reference = reference;
+        }
+
+        return ret;
+    }
+
+    // ################################### REFERENCE ####################################
+
+    public void set_reference(RasterGroup g) {
+        if (!graph.containsVertex(g)) {
+            throw new IllegalArgumentException("Reference "+g+" is not part of graph");
+        }
+        reference = g;
+    }
+
+    /**
+     * Get reference image. If not set explicitly, center of spanning tree is used,
+     * so longest chain of coefficient propagation is as short as possible
+     * @return reference group or null if graph is empty
+     */
+    public RasterGroup get_reference() {
+        if (reference == null) {
+            reference = find_tree_center();
+        }
+        return reference;
+    }
+
+    /**
+     * Find center of spanning tree by stripping leaves layer by layer
+     * @return vertex with minimal eccentricity
+     */
+    private RasterGroup find_tree_center() {
+        if (vertices_count() == 0) return null;
+
+        build_graph();
+
+        Map<RasterGroup,Integer> degree = new HashMap<>();
+        ArrayDeque<RasterGroup> leaves = new ArrayDeque<>();
+        for (RasterGroup v : vertices()) {
+            int d = undirected_graph.degreeOf(v);
+            degree.put(v,d);
+            if (d <= 1) leaves.add(v);
+        }
+
+        int remaining = vertices_count();
+        while (remaining > 2) {
+            int layer_size = leaves.size();
+            remaining -= layer_size;
+            for (int i = 0; i != layer_size; ++i) {
+                RasterGroup leaf = leaves.poll();
+                for (RasterGroup n : Graphs.neighborListOf(undirected_graph,leaf)) {
+                    int d = degree.get(n)-1;
+                    degree.put(n,d);
+                    if (d == 1) leaves.add(n);
+                }
+            }
+        }
+
+        // One or two vertices left, both are equally good
+        return leaves.peek();
+    }
+
+    /**
+     * Depth-first traversal of spanning tree from root.
+     * Vertices not reachable from root (if graph is a forest) are traversed
+     * from the first unvisited vertex of each tree
+     * @param root vertex to start from
+     * @param out_parent output for parent of each visited vertex, roots have none
+     * @return vertices in order of visiting
+     */
+    private List<RasterGroup> depth_first_order(RasterGroup root, Map<RasterGroup,RasterGroup> out_parent) {
+        List<RasterGroup> order = new ArrayList<>(vertices_count());
+        Set<RasterGroup> visited = new HashSet<>();
+        ArrayDeque<RasterGroup> stack = new ArrayDeque<>();
+
+        List<RasterGroup> roots = new ArrayList<>();
+        if (root != null) roots.add(root);
+        roots.addAll(vertices());
+
+        for (RasterGroup r : roots) {
+            if (visited.contains(r)) continue;
+            visited.add(r);
+            stack.push(r);
+
+            while (!stack.isEmpty()) {
+                RasterGroup v = stack.pop();
+                order.add(v);
+                for (RasterGroup n : Graphs.neighborListOf(undirected_graph,v)) {
+                    if (visited.contains(n)) continue;
+                    visited.add(n);
+                    out_parent.put(n,v);
+                    stack.push(n);
+                }
+            }
+        }
+        return order;
+    }
+
     public int vertices_count() {
         return graph.vertexSet().size();
     }
@@ -81,32 +378,50 @@ public class GraphBuilder {
         return graph.edgeSet().size();
     }
 
-    Collection<RasterDataset> vertices() {
+    public Collection<RasterGroup> vertices() {
         return graph.vertexSet();
     }
 
+    /**
+     * Get number of files in all groups
+     */
+    public int file_count() {
+        int ret = 0;
+        for (RasterGroup g : vertices()) {
+            ret += g.size();
+        }
+        return ret;
+    }
+
     Collection<DefaultWeightedEdge> edges() {
         return graph.edgeSet();
     }
 
 
-    private DirectedGraph<RasterDataset,DefaultWeightedEdge> get_graph() {
+    private DirectedGraph<RasterGroup,DefaultWeightedEdge> get_graph() {
         return graph;
     }
 
-    private UndirectedGraph<RasterDataset,DefaultWeightedEdge> get_undirected_graph() {
+    private UndirectedGraph<RasterGroup,DefaultWeightedEdge> get_undirected_graph() {
         return undirected_graph;
     }
 
     /**
      * Finds adjacent images and record them to graph. build spanning tree.
+     * Tree maximizes total overlap, so coefficients are estimated on largest valid overlaps
      */
     private void build_graph() {
-        log.info(String.format("Building graph for %d vertices, %d edges",
-                vertices_count(),edge_count()));
+        log.info(String.format("Building graph for %d vertices (%d files), %d edges",
+                vertices_count(),file_count(),edge_count()));
 
-        MinimumSpanningTree<RasterDataset,DefaultWeightedEdge> min_span_tree =
-                new KruskalMinimumSpanningTree<>(graph);
+        // Kruskal finds minimum tree, so negate weights to get maximum one
+        Map<DefaultWeightedEdge,Double> negated_weights = new HashMap<>();
+        for (DefaultWeightedEdge e : graph.edgeSet()) {
+            negated_weights.put(e,-graph.getEdgeWeight(e));
+        }
+
+        MinimumSpanningTree<RasterGroup,DefaultWeightedEdge> min_span_tree =
+                new KruskalMinimumSpanningTree<>(new AsWeightedGraph<>(graph,negated_weights));
 
         Set<DefaultWeightedEdge> min_edge_set = min_span_tree.getMinimumSpanningTreeEdgeSet();
 
@@ -118,6 +433,9 @@ public class GraphBuilder {
             }
         }
         graph.removeAllEdges(edges_for_deletion);
+        for (DefaultWeightedEdge e : edges_for_deletion) {
+            edge_pairs.remove(e);
+        }
     }
 
     public void save_graph_dot(String filename) {
@@ -125,8 +443,8 @@ public class GraphBuilder {
         // Make sure graph is builded
         build_graph();
 
-        IntegerNameProvider<RasterDataset> p1=new IntegerNameProvider<RasterDataset>();
-        StringNameProvider<RasterDataset> p2=new StringNameProvider<RasterDataset>();
+        IntegerNameProvider<RasterGroup> p1=new IntegerNameProvider<RasterGroup>();
+        StringNameProvider<RasterGroup> p2=new StringNameProvider<RasterGroup>();
 
         DOTExporter graphviz_exporter = new DOTExporter(p1,p2,null);
 
@@ -141,7 +459,24 @@ public class GraphBuilder {
     }
 
     public static GraphBuilder from_datasets( Collection<RasterDataset> datasets ) {
-        GraphBuilder gbuilder = new GraphBuilder();
+        return from_datasets(datasets,GroupingFactory.by_file());
+    }
+
+    public static GraphBuilder from_datasets( Collection<RasterDataset> datasets, IGroupingPolicy grouping ) {
+        return from_datasets(datasets,grouping,null,0);
+    }
+
+    /**
+     * Build graph weighted by valid data overlap.
+     * Footprints of all datasets are computed in parallel before any edge is added
+     */
+    public static GraphBuilder from_datasets( Collection<RasterDataset> datasets, IGroupingPolicy grouping,
+                                              FootprintCache footprints, double min_overlap) {
+        GraphBuilder gbuilder = new GraphBuilder(grouping);
+        gbuilder.set_footprints(footprints);
+        gbuilder.set_min_overlap(min_overlap);
+        if (footprints != null) footprints.prefetch(datasets);
+
         for (RasterDataset ds : datasets) {
             gbuilder.add_file(ds);
         }
@@ -0,0 +1,239 @@
+package backend.graph;
+
+import java.util.*;
+
+/**
+ * Multilevel k-way graph partitioning, in the manner of METIS:
+ * graph is coarsened by heavy edge matching, coarsest graph is partitioned greedily,
+ * and partition is projected back level by level, refined by boundary moves at each level.
+ *
+ * Minimises total weight of cut edges, keeping weight of each part within imbalance of average
+ */
+public class GraphPartitioner {
+
+    // Coarsening stops at this many vertices per part
+    private static final int COARSEST_PER_PART = 8;
+    // Coarsening stops when level shrinks graph by less than this fraction
+    private static final double MIN_SHRINK = 0.05;
+    private static final int REFINE_PASSES = 8;
+
+    /**
+     * Weighted undirected graph in adjacency form
+     */
+    private static class Level {
+        final int n;
+        final double[] vwgt;
+        final List<Map<Integer,Double>> adj;
+        // Vertex of coarser level each vertex was merged into
+        int[] coarse_map;
+
+        Level(int n, double[] vwgt) {
+            this.n = n;
+            this.vwgt = vwgt;
+            this.adj = new ArrayList<>(n);
+            for (int i = 0; i != n; ++i) adj.add(new HashMap<Integer,Double>());
+        }
+
+        void add_edge(int u, int v, double w) {
+            if (u == v) return;
+            Double prev = adj.get(u).get(v);
+            adj.get(u).put(v, prev == null ? w : prev+w);
+            adj.get(v).put(u, prev == null ? w : prev+w);
+        }
+    }
+
+    /**
+     * @param n number of vertices
+     * @param vwgt weight of each vertex, i.e. estimated cost
+     * @param eu first vertex of each edge
+     * @param ev second vertex of each edge
+     * @param ewgt weight of each edge, i.e. bytes shipped when edge is cut
+     * @param k number of parts
+     * @param imbalance allowed excess of part weight over average, i.e. 0.1 for 10%
+     * @return part of each vertex, from 0 to k-1
+     */
+    public static int[] partition(int n, double[] vwgt, int[] eu, int[] ev, double[] ewgt, int k, double imbalance) {
+        if (k < 1) throw new IllegalArgumentException("Number of parts must be positive");
+        int[] ret = new int[n];
+        if (k == 1 || n == 0) return ret;
+
+        Level finest = new Level(n, vwgt.clone());
+        for (int i = 0; i != eu.length; ++i) finest.add_edge(eu[i],ev[i],ewgt[i]);
+
+        // Coarsen
+        Random rand = new Random(n*31L+eu.length);
+        Deque<Level> levels = new ArrayDeque<>();
+        Level cur = finest;
+        while (cur.n > k*COARSEST_PER_PART) {
+            Level coarse = coarsen(cur, rand);
+            if (coarse.n > cur.n*(1-MIN_SHRINK)) break;
+            levels.push(cur);
+            cur = coarse;
+        }
+
+        double total = 0;
+        double max_vertex = 0;
+        for (double w : vwgt) {
+            total += w;
+            max_vertex = Math.max(max_vertex,w);
+        }
+        double cap = Math.max((1+imbalance)*total/k, max_vertex);
+
+        // Partition coarsest graph, then project and refine
+        int[] part = initial_partition(cur, k, cap);
+        refine(cur, part, k, cap);
+        while (!levels.isEmpty()) {
+            Level fine = levels.pop();
+            int[] fine_part = new int[fine.n];
+            for (int v = 0; v != fine.n; ++v) fine_part[v] = part[fine.coarse_map[v]];
+            part = fine_part;
+            refine(fine, part, k, cap);
+        }
+        return part;
+    }
+
+    /**
+     * Total weight of edges between different parts
+     */
+    public static double cut(int[] part, int[] eu, int[] ev, double[] ewgt) {
+        double ret = 0;
+        for (int i = 0; i != eu.length; ++i) {
+            if (part[eu[i]] != part[ev[i]]) ret += ewgt[i];
+        }
+        return ret;
+    }
+
+    // ##################################### LEVELS #####################################
+
+    /**
+     * Merge each vertex with unmatched neighbour it shares heaviest edge with
+     */
+    private static Level coarsen(Level fine, Random rand) {
+        int[] order = new int[fine.n];
+        for (int i = 0; i != fine.n; ++i) order[i] = i;
+        for (int i = fine.n-1; i > 0; --i) {
+            int j = rand.nextInt(i+1);
+            int t = order[i]; order[i] = order[j]; order[j] = t;
+        }
+
+        int[] match = new int[fine.n];
+        Arrays.fill(match,-1);
+        for (int v : order) {
+            if (match[v] != -1) continue;
+            int best = v;
+            double best_w = -1;
+            for (Map.Entry<Integer,Double> e : fine.adj.get(v).entrySet()) {
+                if (match[e.getKey()] == -1 && e.getValue() > best_w) {
+                    best = e.getKey();
+                    best_w = e.getValue();
+                }
+            }
+            match[v] = best;
+            match[best] = v;
+        }
+
+        fine.coarse_map = new int[fine.n];
+        int n_coarse = 0;
+        for (int v = 0; v != fine.n; ++v) {
+            if (match[v] >= v) {
+                fine.coarse_map[v] = n_coarse;
+                fine.coarse_map[match[v]] = n_coarse;
+                n_coarse += 1;
+            }
+        }
+
+        double[] vwgt = new double[n_coarse];
+        for (int v = 0; v != fine.n; ++v) vwgt[fine.coarse_map[v]] += fine.vwgt[v];
+
+        Level coarse = new Level(n_coarse, vwgt);
+        for (int u = 0; u != fine.n; ++u) {
+            for (Map.Entry<Integer,Double> e : fine.adj.get(u).entrySet()) {
+                // Each edge is seen from both ends, add it once
+                if (e.getKey() > u) coarse.add_edge(fine.coarse_map[u],fine.coarse_map[e.getKey()],e.getValue());
+            }
+        }
+        return coarse;
+    }
+
+    /**
+     * Assign heaviest vertices first, each to part it is most connected to, that still has room
+     */
+    private static int[] initial_partition(Level g, int k, double cap) {
+        Integer[] order = new Integer[g.n];
+        for (int i = 0; i != g.n; ++i) order[i] = i;
+        final double[] vwgt = g.vwgt;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(vwgt[b],vwgt[a]);
+            }
+        });
+
+        int[] part = new int[g.n];
+        Arrays.fill(part,-1);
+        double[] load = new double[k];
+        for (int v : order) {
+            double[] conn = new double[k];
+            for (Map.Entry<Integer,Double> e : g.adj.get(v).entrySet()) {
+                if (part[e.getKey()] >= 0) conn[part[e.getKey()]] += e.getValue();
+            }
+
+            int best = -1;
+            for (int p = 0; p != k; ++p) {
+                if (load[p]+g.vwgt[v] > cap) continue;
+                if (best == -1 || conn[p] > conn[best] || conn[p] == conn[best] && load[p] < load[best]) best = p;
+            }
+            if (best == -1) {
+                best = 0;
+                for (int p = 1; p != k; ++p) if (load[p] < load[best]) best = p;
+            }
+            part[v] = best;
+            load[best] += g.vwgt[v];
+        }
+        return part;
+    }
+
+    /**
+     * Greedily move boundary vertices to neighbouring part with positive gain in cut,
+     * or with zero gain if it improves balance
+     */
+    private static void refine(Level g, int[] part, int k, double cap) {
+        double[] load = new double[k];
+        for (int v = 0; v != g.n; ++v) load[part[v]] += g.vwgt[v];
+
+        for (int pass = 0; pass != REFINE_PASSES; ++pass) {
+            int moves = 0;
+            for (int v = 0; v != g.n; ++v) {
+                Map<Integer,Double> conn = new HashMap<>();
+                for (Map.Entry<Integer,Double> e : g.adj.get(v).entrySet()) {
+                    int p = part[e.getKey()];
+                    Double prev = conn.get(p);
+                    conn.put(p, prev == null ? e.getValue() : prev+e.getValue());
+                }
+                int own = part[v];
+                double internal = conn.containsKey(own) ? conn.get(own) : 0;
+
+                int best = own;
+                double best_gain = 0;
+                for (Map.Entry<Integer,Double> e : conn.entrySet()) {
+                    int p = e.getKey();
+                    if (p == own || load[p]+g.vwgt[v] > cap) continue;
+                    double gain = e.getValue()-internal;
+                    boolean balances = load[p]+g.vwgt[v] < load[own];
+                    if (gain > best_gain || gain == best_gain && gain >= 0 && balances && best == own) {
+                        best = p;
+                        best_gain = gain;
+                    }
+                }
+
+                if (best != own) {
+                    load[own] -= g.vwgt[v];
+                    load[best] += g.vwgt[v];
+                    part[v] = best;
+                    moves += 1;
+                }
+            }
+            if (moves == 0) break;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package backend.graph;
+
+import backend.rasterio.RasterDataset;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Creates grouping policies for {@link GraphBuilder}.
+ * Images that do not match any group always form a group of their own
+ */
+public class GroupingFactory {
+
+    /**
+     * Regex matching acquisition id of Landsat 8 product names.
+     * LC08_L1TP_191029_20170401_..._TILE_4746_4812.TIF -> LC08_L1TP_191029_20170401
+     */
+    public static final String LANDSAT_SCENE_REGEX = "^(L[COTEM]0\\d_[A-Z0-9]{4}_\\d{6}_\\d{8})";
+
+    /**
+     * No grouping, each file is a separate vertex
+     */
+    public static IGroupingPolicy by_file() {
+        return new FileGrouping();
+    }
+
+    /**
+     * Group by regular expression, applied to file name (without directory).
+     * If expression has capturing group, first group is used as key, whole match otherwise
+     * @param regex regular expression
+     */
+    public static IGroupingPolicy by_regex(String regex) {
+        return new RegexGrouping(Pattern.compile(regex));
+    }
+
+    /**
+     * Group by value of GDAL metadata item, i.e. ACQUISITION_DATE
+     * @param item name of metadata item
+     */
+    public static IGroupingPolicy by_metadata(String item) {
+        return new MetadataGrouping(item);
+    }
+
+    /**
+     * Group by explicit file to group mapping
+     * @param groups map from file path to group name
+     */
+    public static IGroupingPolicy by_groups(Map<String,String> groups) {
+        return new ExplicitGrouping(groups);
+    }
+
+    /**
+     * Read explicit groups from text file. Each line has format path,group
+     * @param filename file to read mapping from
+     */
+    public static IGroupingPolicy by_groups_file(String filename) throws IOException {
+        Map<String,String> groups = new HashMap<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int sep = line.lastIndexOf(',');
+                if (sep < 0) continue;
+                groups.put(line.substring(0,sep).trim(),line.substring(sep+1).trim());
+            }
+        }
+        return by_groups(groups);
+    }
+
+    /**
+     * Create policy from it's textual description
+     * @param type one of: file, regex, metadata, groups
+     * @param value regex, metadata item or groups file name; ignored for type 'file'
+     */
+    public static IGroupingPolicy from_spec(String type, String value) throws IOException {
+        if (type == null || type.equals("file")) return by_file();
+        if (type.equals("regex")) return by_regex(value == null ? LANDSAT_SCENE_REGEX : value);
+        if (type.equals("metadata")) return by_metadata(value);
+        if (type.equals("groups")) return by_groups_file(value);
+        throw new IllegalArgumentException("Unknown grouping type: "+type);
+    }
+
+    //########################## Policies ####################################################
+
+    private static class FileGrouping implements IGroupingPolicy {
+        @Override
+        public String get_group_key(RasterDataset ds) {
+            return ds.get_filename();
+        }
+    }
+
+    private static class RegexGrouping implements IGroupingPolicy {
+
+        private final Pattern pattern;
+
+        RegexGrouping(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        public String get_group_key(RasterDataset ds) {
+            String name = Paths.get(ds.get_filename()).getFileName().toString();
+            Matcher m = pattern.matcher(name);
+            if (!m.find()) return ds.get_filename();
+            return m.groupCount() > 0 ? m.group(1) : m.group();
+        }
+    }
+
+    private static class MetadataGrouping implements IGroupingPolicy {
+
+        private final String item;
+
+        MetadataGrouping(String item) {
+            this.item = item;
+        }
+
+        @Override
+        public String get_group_key(RasterDataset ds) {
+            String value = ds.dataset().GetMetadataItem(item);
+            if (value == null || value.isEmpty()) return ds.get_filename();
+            return item+"="+value;
+        }
+    }
+
+    private static class ExplicitGrouping implements IGroupingPolicy {
+
+        private final Map<String,String> groups;
+
+        ExplicitGrouping(Map<String,String> groups) {
+            this.groups = groups;
+        }
+
+        @Override
+        public String get_group_key(RasterDataset ds) {
+            String group = groups.get(ds.get_filename());
+            if (group == null) return ds.get_filename();
+            return group;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package backend.graph;
+
+import backend.rasterio.RasterDataset;
+
+/**
+ * Decides which super-node ({@link RasterGroup}) image belongs to.
+ * Images with equal keys are merged into one vertex of overlap graph
+ */
+public interface IGroupingPolicy {
+
+    /**
+     * @param ds image to get group key for
+     * @return key of group, never null
+     */
+    String get_group_key(RasterDataset ds);
+
+}
@@ -0,0 +1,60 @@
+package backend.graph;
+
+import backend.rasterio.RasterDataset;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Super-node of overlap graph.
+ * Contains images sharing same radiometric response (i.e. tiles cut from same acquisition),
+ * so a single set of normalization coefficients is estimated for the whole group.
+ * Groups are identified by their key, see {@link IGroupingPolicy}
+ */
+public class RasterGroup {
+
+    private final String key;
+    private final List<RasterDataset> datasets;
+
+    public RasterGroup(String key) {
+        this.key = key;
+        this.datasets = new ArrayList<>();
+    }
+
+    public String get_key() {
+        return key;
+    }
+
+    void add_dataset(RasterDataset ds) {
+        datasets.add(ds);
+    }
+
+    public List<RasterDataset> get_datasets() {
+        return Collections.unmodifiableList(datasets);
+    }
+
+    public int size() {
+        return datasets.size();
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == null) return false;
+        if (other == this) return true;
+        if (!(other instanceof RasterGroup))return false;
+
+        return key.equals(((RasterGroup) other).key);
+    }
+
+    @Override
+    public String toString() {
+        if (datasets.size() == 1) return datasets.get(0).toString();
+        return String.format("%s (%d)",key,datasets.size());
+    }
+}
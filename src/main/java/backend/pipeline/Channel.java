@@ -0,0 +1,84 @@
+package backend.pipeline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue between stages of {@link Pipeline}.
+ * Producer blocks while channel is full, so slow stage holds back stages before it.
+ * Channel ends, when all of it's producers have closed it
+ */
+public class Channel<T> {
+
+    // Marks end of items, passed on from consumer to consumer
+    private static final Object END = new Object();
+
+    private final String name;
+    private final BlockingQueue<Object> queue;
+    private final AtomicInteger producers = new AtomicInteger();
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong blocked_nanos = new AtomicLong();
+
+    Channel(String name, int capacity) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public String get_name() {
+        return name;
+    }
+
+    /**
+     * Register producer, which must {@link #close()} channel, when it has no more items
+     */
+    public void open() {
+        producers.incrementAndGet();
+    }
+
+    /**
+     * Producer has no more items, channel ends when last producer closes it
+     */
+    public void close() throws InterruptedException {
+        if (producers.decrementAndGet() == 0) queue.put(END);
+    }
+
+    /**
+     * Add item, waiting while channel is full
+     */
+    public void put(T item) throws InterruptedException {
+        if (!queue.offer(item)) {
+            long start = System.nanoTime();
+            queue.put(item);
+            blocked_nanos.addAndGet(System.nanoTime()-start);
+        }
+        items.incrementAndGet();
+    }
+
+    /**
+     * Take item, waiting while channel is empty
+     * @return null when channel has ended
+     */
+    @SuppressWarnings("unchecked")
+    public T take() throws InterruptedException {
+        Object item = queue.take();
+        if (item == END) {
+            // Let other consumers see the end too
+            queue.put(END);
+            return null;
+        }
+        return (T)item;
+    }
+
+    public long num_items() {
+        return items.get();
+    }
+
+    /**
+     * Time producers waited for space in channel, seconds
+     */
+    public double blocked_time() {
+        return blocked_nanos.get()*1e-9;
+    }
+}
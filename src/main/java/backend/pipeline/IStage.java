@@ -0,0 +1,21 @@
+package backend.pipeline;
+
+/**
+ * Step of {@link Pipeline}, that turns items of input channel into items of output channel
+ * @param <I> input item
+ * @param <O> output item
+ */
+public interface IStage<I,O> {
+
+    /**
+     * Process single item. Called concurrently, when stage runs on several threads
+     * @param out output channel, null if stage is last
+     */
+    void process(I item, Channel<O> out) throws Exception;
+
+    /**
+     * Called once after all items are processed, before output channel is closed
+     * @param out output channel, null if stage is last
+     */
+    void finish(Channel<O> out) throws Exception;
+}
@@ -0,0 +1,138 @@
+package backend.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stages connected by bounded channels, each stage runs on it's own threads,
+ * so item moves to next stage as soon as it is ready, rather than after all items of stage are done.
+ *
+ * Stage ends, when it's input channel ends, and then closes it's output channel,
+ * so end of first channel passes through whole pipeline
+ */
+public class Pipeline {
+
+    private static Logger log = Logger.getLogger(Pipeline.class.getName());
+
+    private class StageRunner<I,O> {
+        final String name;
+        final Channel<I> in;
+        final Channel<O> out;
+        final IStage<I,O> stage;
+        final List<Thread> threads = new ArrayList<>();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicLong items = new AtomicLong();
+        final AtomicLong busy_nanos = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+
+        StageRunner(String name, Channel<I> in, Channel<O> out, IStage<I,O> stage, int n_threads) {
+            this.name = name;
+            this.in = in;
+            this.out = out;
+            this.stage = stage;
+            for (int i = 0; i != n_threads; ++i) {
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        run_thread();
+                    }
+                }, Pipeline.this.name+" "+name+" "+i);
+                t.setDaemon(true);
+                threads.add(t);
+            }
+            running.set(n_threads);
+            if (out != null) out.open();
+        }
+
+        void run_thread() {
+            try {
+                I item;
+                while ((item = in.take()) != null) {
+                    long start = System.nanoTime();
+                    try {
+                        stage.process(item, out);
+                    } catch (InterruptedException ex) {
+                        throw ex;
+                    } catch (Exception ex) {
+                        // Item is lost, others still go through
+                        failures.incrementAndGet();
+                        log.log(Level.SEVERE, "Stage "+name+" failed on "+item, ex);
+                    }
+                    busy_nanos.addAndGet(System.nanoTime()-start);
+                    items.incrementAndGet();
+                }
+
+                if (running.decrementAndGet() == 0) {
+                    try {
+                        stage.finish(out);
+                    } catch (InterruptedException ex) {
+                        throw ex;
+                    } catch (Exception ex) {
+                        log.log(Level.SEVERE, "Stage "+name+" failed to finish", ex);
+                    }
+                    if (out != null) out.close();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final String name;
+    private final List<StageRunner<?,?>> stages = new ArrayList<>();
+    private final List<Channel<?>> channels = new ArrayList<>();
+
+    public Pipeline(String name) {
+        this.name = name;
+    }
+
+    public <T> Channel<T> channel(String name, int capacity) {
+        Channel<T> ret = new Channel<>(name, Math.max(capacity,1));
+        channels.add(ret);
+        return ret;
+    }
+
+    /**
+     * @param in channel to take items from
+     * @param out channel to put items to, null if stage is last
+     */
+    public <I,O> void stage(String name, Channel<I> in, Channel<O> out, int n_threads, IStage<I,O> stage) {
+        stages.add(new StageRunner<>(name, in, out, stage, Math.max(n_threads,1)));
+    }
+
+    public void start() {
+        for (StageRunner<?,?> s : stages) {
+            for (Thread t : s.threads) t.start();
+        }
+    }
+
+    /**
+     * Wait until all stages end. First channel must be closed by it's producers for that
+     */
+    public void join() throws InterruptedException {
+        for (StageRunner<?,?> s : stages) {
+            for (Thread t : s.threads) t.join();
+        }
+        for (StageRunner<?,?> s : stages) {
+            log.info(String.format("%s stage %s: %d items, %d failed, busy %.2fs on %d threads",
+                    name, s.name, s.items.get(), s.failures.get(), s.busy_nanos.get()*1e-9, s.threads.size()));
+        }
+        for (Channel<?> c : channels) {
+            log.fine(String.format("%s channel %s: %d items, producers blocked %.2fs",
+                    name, c.get_name(), c.num_items(), c.blocked_time()));
+        }
+    }
+
+    /**
+     * Stop all stages, items in channels are dropped
+     */
+    public void cancel() {
+        for (StageRunner<?,?> s : stages) {
+            for (Thread t : s.threads) t.interrupt();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package backend.pipeline;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Bounded lock-free transport from one or many producers to single consumer.
+ *
+ * Slots are allocated once and their items are recycled: producer fills item of it's own, claims slot
+ * and exchanges item with one in slot, which consumer has finished with, and fills that one next.
+ * Items are identified by sequence numbers, slot of sequence is sequence modulo capacity.
+ * Producers claim sequences by moving cursor, in batches if they have several items, and publish them
+ * by marking slots. Consumer takes published items in order, item stays in use until next {@link #take()}.
+ *
+ * Stream ends, when all producers are done and consumer has taken all published items.
+ * Waiting side spins, then yields and parks or keeps spinning, see {@link WAIT}
+ */
+public class RingBuffer<T> {
+
+    public enum WAIT {
+        // Lowest hand-off latency, waiting thread keeps it's core busy
+        BUSY_SPIN,
+        // Spin briefly, then yield, then park for short periods
+        PARK
+    }
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    private final Object[] slots;
+    private final int mask;
+    // Sequence published in each slot, consumer waits for it
+    private final AtomicLongArray published;
+    private final boolean single_producer;
+    private final WAIT wait;
+
+    // Next sequence to claim
+    private final AtomicLong cursor = new AtomicLong();
+    // All sequences below are finished by consumer, their slots may be claimed again
+    private final AtomicLong consumed = new AtomicLong();
+
+    // Consumer state, only accessed by consumer
+    private long next;
+    // Sequences below are known to be published, so consumer checks slots once per batch
+    private long available_to;
+
+    private final AtomicInteger producers = new AtomicInteger();
+    private volatile Throwable error;
+    private volatile boolean closed;
+    private volatile Thread waiting_consumer;
+
+    /**
+     * @param capacity number of slots, rounded up to power of two
+     * @param factory creates initial items of slots
+     * @param single_producer only one thread claims sequences, which is then done without compare-and-set
+     * @param wait how waiting side waits
+     */
+    public RingBuffer(int capacity, Supplier<T> factory, boolean single_producer, WAIT wait) {
+        int size = Integer.highestOneBit(Math.max(1,capacity)-1)<<1;
+        if (size <= 0) size = 1;
+        slots = new Object[size];
+        mask = size-1;
+        published = new AtomicLongArray(size);
+        for (int i = 0; i != size; ++i) {
+            slots[i] = factory.get();
+            published.set(i,-1);
+        }
+        this.single_producer = single_producer;
+        this.wait = wait;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    // ##################################### PRODUCER #####################################
+
+    /**
+     * Register producer, which must call {@link #producer_done(Throwable)}, when it has no more items
+     */
+    public void add_producer() {
+        producers.incrementAndGet();
+    }
+
+    /**
+     * Producer has published all of it's items
+     * @param error failure of producer, null if it finished normally. Consumer gets it from {@link #take()}
+     */
+    public void producer_done(Throwable error) {
+        if (error != null) this.error = error;
+        producers.decrementAndGet();
+        wake_consumer();
+    }
+
+    /**
+     * Claim n consecutive sequences, waiting while consumer has not finished items in their slots
+     * @return first claimed sequence
+     * @throws InterruptedException producer is interrupted or buffer is closed
+     */
+    public long claim(int n) throws InterruptedException {
+        if (n < 1 || n > slots.length) throw new IllegalArgumentException("Can not claim "+n+" of "+slots.length+" slots");
+        int tries = 0;
+        while (true) {
+            long c = cursor.get();
+            if (c+n-slots.length > consumed.get()) {
+                if (closed) throw new InterruptedException("Ring buffer is closed");
+                idle(tries++);
+                continue;
+            }
+            if (single_producer) {
+                cursor.lazySet(c+n);
+                return c;
+            }
+            if (cursor.compareAndSet(c, c+n)) return c;
+        }
+    }
+
+    /**
+     * Put item into slot of claimed sequence
+     * @return item, that was in slot, consumer has finished with it
+     */
+    @SuppressWarnings("unchecked")
+    public T exchange(long seq, T item) {
+        int i = (int)seq & mask;
+        T prev = (T)slots[i];
+        slots[i] = item;
+        return prev;
+    }
+
+    /**
+     * Item in slot of claimed sequence, to be filled in place
+     */
+    @SuppressWarnings("unchecked")
+    public T get(long seq) {
+        return (T)slots[(int)seq & mask];
+    }
+
+    /**
+     * Publish n claimed sequences starting from first, consumer may take them from now on
+     */
+    public void publish(long first, int n) {
+        for (long s = first; s != first+n; ++s) {
+            published.lazySet((int)s & mask, s);
+        }
+        wake_consumer();
+    }
+
+    private void wake_consumer() {
+        Thread t = waiting_consumer;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    // ##################################### CONSUMER #####################################
+
+    /**
+     * Take next item. Item returned by previous call is finished, it's slot may be reused by producers
+     * @return next item, or null if stream ended or buffer is closed
+     * @throws InterruptedException consumer is interrupted
+     * @throws IllegalStateException producer failed, see {@link #producer_done(Throwable)}
+     */
+    public T take() throws InterruptedException {
+        consumed.lazySet(next);
+        if (closed) return null;
+        int tries = 0;
+        while (next >= available_to && !poll_published()) {
+            if (closed) return null;
+            Throwable e = error;
+            if (e != null) throw new IllegalStateException("Producer failed: "+e.getMessage(), e);
+            // Producer publishes before it is done, so nothing more will come
+            if (producers.get() == 0 && !poll_published()) return null;
+            if (wait == WAIT.PARK && tries >= SPIN_TRIES+YIELD_TRIES) {
+                waiting_consumer = Thread.currentThread();
+                if (!poll_published()) idle(tries++);
+                waiting_consumer = null;
+            } else {
+                idle(tries++);
+            }
+        }
+        return get(next++);
+    }
+
+    /**
+     * Find published sequences after next
+     * @return next sequence is published
+     */
+    private boolean poll_published() {
+        long s = Math.max(next, available_to);
+        long end = next+slots.length;
+        while (s != end && published.get((int)s & mask) == s) ++s;
+        available_to = s;
+        return next < available_to;
+    }
+
+    /**
+     * Stop waiting producers and consumer. Producers must be stopped, before items are drained
+     */
+    public void close() {
+        closed = true;
+        wake_consumer();
+    }
+
+    /**
+     * Pass published items, consumer has not taken, to action, i.e. to release their memory
+     */
+    public void drain(Consumer<T> action) {
+        poll_published();
+        while (next < available_to) action.accept(get(next++));
+        consumed.lazySet(next);
+    }
+
+    private void idle(int tries) throws InterruptedException {
+        if (Thread.interrupted()) throw new InterruptedException();
+        if (tries < SPIN_TRIES) return;
+        if (wait == WAIT.BUSY_SPIN) {
+            // Let other threads run on oversubscribed cores now and then
+            if (tries % SPIN_TRIES == 0) Thread.yield();
+        } else if (tries < SPIN_TRIES+YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+    }
+}
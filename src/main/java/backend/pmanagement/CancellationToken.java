@@ -0,0 +1,79 @@
+package backend.pmanagement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tells all parts of a run to stop. Parts, which block, register callback, that unblocks them,
+ * i.e. interrupts their threads or closes their sockets. Others check {@link #is_cancelled()}
+ * between units of work, i.e. tasks or strips.
+ *
+ * Token is cancelled once, later calls of {@link #cancel(String)} are ignored
+ */
+public class CancellationToken {
+
+    private static Logger log = Logger.getLogger(CancellationToken.class.getName());
+
+    private volatile String reason;
+    // Guarded by this
+    private final List<Runnable> callbacks = new ArrayList<>();
+
+    /**
+     * Cancel and run registered callbacks on calling thread
+     * @param reason told in logs and in report of run
+     */
+    public void cancel(String reason) {
+        List<Runnable> to_run;
+        synchronized (this) {
+            if (this.reason != null) return;
+            this.reason = reason == null ? "cancelled" : reason;
+            to_run = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        log.warning("Cancelling: "+this.reason);
+        for (Runnable r : to_run) run(r);
+    }
+
+    public boolean is_cancelled() {
+        return reason != null;
+    }
+
+    /**
+     * Reason, token was cancelled with, null if it was not
+     */
+    public String get_reason() {
+        return reason;
+    }
+
+    /**
+     * Run callback on cancellation, or right away if token is already cancelled
+     */
+    public void on_cancel(Runnable callback) {
+        synchronized (this) {
+            if (reason == null) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        run(callback);
+    }
+
+    /**
+     * @throws CancellationException if token is cancelled
+     */
+    public void throw_if_cancelled() {
+        if (reason != null) throw new CancellationException(reason);
+    }
+
+    private static void run(Runnable callback) {
+        // Failed callback must not keep others from releasing their resources
+        try {
+            callback.run();
+        } catch (RuntimeException ex) {
+            log.log(Level.WARNING, "Cancellation callback failed", ex);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package backend.pmanagement;
+
+/**
+ * Receives coalesced progress of run, see {@link ProgressAggregator}
+ */
+public interface IProgressListener {
+
+    void on_progress(ProgressAggregator.Snapshot snapshot);
+
+}
@@ -0,0 +1,228 @@
+package backend.pmanagement;
+
+import backend.tasks.IRRNTask;
+import backend.tasks.ITaskListener;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects task events of all providers and processes and coalesces them at fixed rate
+ * into progress, throughput and ETA, pushed to subscribed {@link IProgressListener}s.
+ *
+ * Progress is measured in overlap pixels, so it moves per block rather than per whole task.
+ * Blocks of attempts and strips count to their origin, see {@link IRRNTask#get_origin()},
+ * task counts no more than it's overlap, even if blocks of it are read again by retries and duplicates
+ */
+public class ProgressAggregator implements ITaskListener {
+
+    private static Logger log = Logger.getLogger(ProgressAggregator.class.getName());
+
+    public static final long DEFAULT_PERIOD_MILLIS = 100;
+
+    // Weight of last period in smoothed throughput
+    private static final double RATE_SMOOTHING = 0.3;
+
+    /**
+     * Progress at some moment
+     */
+    public static class Snapshot {
+        public final int tasks_total;
+        public final int tasks_finished;
+        public final int tasks_running;
+        public final long pixels_total;
+        public final long pixels_processed;
+        public final double pixels_per_second;
+        // Estimated seconds remaining, negative if unknown
+        public final double eta_seconds;
+        public final boolean finished;
+
+        Snapshot(int tasks_total, int tasks_finished, int tasks_running, long pixels_total, long pixels_processed,
+                 double pixels_per_second, double eta_seconds, boolean finished) {
+            this.tasks_total = tasks_total;
+            this.tasks_finished = tasks_finished;
+            this.tasks_running = tasks_running;
+            this.pixels_total = pixels_total;
+            this.pixels_processed = pixels_processed;
+            this.pixels_per_second = pixels_per_second;
+            this.eta_seconds = eta_seconds;
+            this.finished = finished;
+        }
+
+        /**
+         * Fraction from 0 to 1
+         */
+        public double progress() {
+            if (finished) return 1;
+            if (pixels_total > 0) return Math.min(1,(double)pixels_processed/pixels_total);
+            if (tasks_total > 0) return (double)tasks_finished/tasks_total;
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.1f%%, %d of %d tasks, %d running, %.3g pixels/s, ETA %s",
+                    progress()*100, tasks_finished, tasks_total, tasks_running, pixels_per_second,
+                    eta_seconds < 0 ? "unknown" : String.format("%.0fs",eta_seconds));
+        }
+    }
+
+    private final long period_millis;
+    private final List<IProgressListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger tasks_total = new AtomicInteger();
+    private final AtomicInteger tasks_finished = new AtomicInteger();
+    private final AtomicInteger tasks_running = new AtomicInteger();
+    private final AtomicLong pixels_total = new AtomicLong();
+    private final AtomicLong pixels_processed = new AtomicLong();
+
+    // Pixels reported by blocks of each running task, topped up to it's overlap on finish
+    private final Map<IRRNTask,AtomicLong> task_pixels = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService timer;
+    private long last_tick_nanos;
+    private long last_tick_pixels;
+    private double rate;
+
+    public ProgressAggregator() {
+        this(DEFAULT_PERIOD_MILLIS);
+    }
+
+    public ProgressAggregator(long period_millis) {
+        this.period_millis = period_millis;
+    }
+
+    public void add_listener(IProgressListener listener) {
+        listeners.add(listener);
+    }
+
+    public void remove_listener(IProgressListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Account tasks of run. Tasks that already have result (i.e. restored from journal) count as finished
+     */
+    public void add_tasks(Collection<IRRNTask> tasks) {
+        for (IRRNTask t : tasks) {
+            long px = (long)t.get_overlap_pixels();
+            tasks_total.incrementAndGet();
+            pixels_total.addAndGet(px);
+            if (t.get_result() != null) {
+                tasks_finished.incrementAndGet();
+                pixels_processed.addAndGet(px);
+            }
+        }
+    }
+
+    // ##################################### EVENTS #####################################
+
+    @Override
+    public void task_started(IRRNTask task) {
+        tasks_running.incrementAndGet();
+        task_pixels.put(task,new AtomicLong());
+    }
+
+    @Override
+    public void block_processed(IRRNTask task, long pixels) {
+        while (task.get_origin() != null) task = task.get_origin();
+        AtomicLong done = task_pixels.get(task);
+        // Task, that is not running, is counted on finish
+        if (done == null) return;
+        long overlap = (long)task.get_overlap_pixels();
+        long prev;
+        long next;
+        do {
+            prev = done.get();
+            next = Math.max(prev, Math.min(overlap, prev+pixels));
+        } while (!done.compareAndSet(prev, next));
+        pixels_processed.addAndGet(next-prev);
+    }
+
+    @Override
+    public void task_finished(IRRNTask task) {
+        tasks_running.decrementAndGet();
+        tasks_finished.incrementAndGet();
+        AtomicLong done = task_pixels.remove(task);
+        long reported = done == null ? 0 : done.get();
+        long remaining = (long)task.get_overlap_pixels()-reported;
+        if (remaining > 0) pixels_processed.addAndGet(remaining);
+    }
+
+    // ##################################### TICKS #####################################
+
+    /**
+     * Start pushing snapshots to listeners every period
+     */
+    public synchronized void start() {
+        if (timer != null) return;
+        last_tick_nanos = System.nanoTime();
+        last_tick_pixels = pixels_processed.get();
+        rate = 0;
+
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r,"progress");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        timer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                publish(tick(false));
+            }
+        }, period_millis, period_millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop timer and push final snapshot
+     */
+    public void stop() {
+        synchronized (this) {
+            if (timer == null) return;
+            timer.shutdown();
+            try {
+                timer.awaitTermination(period_millis*10,TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            timer = null;
+        }
+        publish(tick(true));
+    }
+
+    private synchronized Snapshot tick(boolean finished) {
+        long now = System.nanoTime();
+        long pixels = pixels_processed.get();
+        double dt = (now-last_tick_nanos)*1e-9;
+        if (dt > 0) {
+            double current = (pixels-last_tick_pixels)/dt;
+            rate = rate == 0 ? current : RATE_SMOOTHING*current+(1-RATE_SMOOTHING)*rate;
+        }
+        last_tick_nanos = now;
+        last_tick_pixels = pixels;
+
+        long remaining = Math.max(0,pixels_total.get()-pixels);
+        double eta = finished ? 0 : rate > 0 ? remaining/rate : -1;
+        return new Snapshot(tasks_total.get(), tasks_finished.get(), tasks_running.get(),
+                pixels_total.get(), pixels, rate, eta, finished);
+    }
+
+    private void publish(Snapshot s) {
+        for (IProgressListener l : listeners) {
+            try {
+                l.on_progress(s);
+            } catch (RuntimeException ex) {
+                log.log(Level.WARNING,"Progress listener failed",ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package backend.pmanagement;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide budget of CPU permits, I/O permits per storage device and memory bytes.
+ *
+ * Compute threads, block readers and writers acquire from single instance,
+ * so total concurrency stays bounded regardless of number of processes and readers.
+ * Every acquisition that had to wait is counted, so oversubscription shows up in {@link #log_metrics()}.
+ *
+ * Acquisitions may name their owner, i.e. job of daemon. Owners share contended budget fairly:
+ * waiting owner, holding least, is granted first, no matter how many threads each owner runs
+ */
+public class ResourceGovernor {
+
+    private static Logger log = Logger.getLogger(ResourceGovernor.class.getName());
+
+    public static final int DEFAULT_IO_PER_DEVICE = 2;
+    public static final long DEFAULT_MEMORY_BYTES = Runtime.getRuntime().maxMemory()/2;
+
+    private static final ResourceGovernor instance = new ResourceGovernor(
+            Runtime.getRuntime().availableProcessors(), DEFAULT_IO_PER_DEVICE, DEFAULT_MEMORY_BYTES);
+
+    /**
+     * Counting budget with usage metrics.
+     * Request larger than capacity is granted when nothing else is held, so it never blocks forever
+     */
+    public static class Budget {
+
+        /**
+         * Amount held and number of waiting acquisitions of single owner
+         */
+        private static class Share {
+            long held;
+            int waiting;
+        }
+
+        // Lock and condition instead of monitor, virtual thread waiting on them does not pin it's carrier
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition released = lock.newCondition();
+
+        private final String name;
+        private long capacity;
+        private long in_use;
+
+        private long peak;
+        private long acquisitions;
+        private long waits;
+        private long wait_nanos;
+        // Shares of owners, that hold or wait for budget. Null owner is single anonymous one
+        private final Map<Object,Share> shares = new HashMap<>();
+
+        Budget(String name, long capacity) {
+            this.name = name;
+            this.capacity = capacity;
+        }
+
+        public void acquire(long amount) throws InterruptedException {
+            acquire(null, amount);
+        }
+
+        public void release(long amount) {
+            release(null, amount);
+        }
+
+        /**
+         * Acquire on behalf of owner, see {@link ResourceGovernor}
+         */
+        public void acquire(Object owner, long amount) throws InterruptedException {
+            lock.lock();
+            try {
+                acquire_locked(owner, amount);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void acquire_locked(Object owner, long amount) throws InterruptedException {
+            acquisitions += 1;
+            Share share = shares.get(owner);
+            if (share == null) {
+                share = new Share();
+                shares.put(owner,share);
+            }
+            if (!can_grant(share, amount)) {
+                waits += 1;
+                share.waiting += 1;
+                long start = System.nanoTime();
+                try {
+                    while (!can_grant(share, amount)) {
+                        released.await();
+                    }
+                } finally {
+                    share.waiting -= 1;
+                    wait_nanos += System.nanoTime()-start;
+                    // Interrupted owner may hold nothing
+                    if (share.held == 0 && share.waiting == 0) shares.remove(owner);
+                }
+            }
+            shares.put(owner,share);
+            share.held += amount;
+            in_use += amount;
+            peak = Math.max(peak,in_use);
+        }
+
+        /**
+         * Acquire on behalf of owner only if it is granted without waiting
+         * @return true if acquired
+         */
+        public boolean try_acquire(Object owner, long amount) {
+            lock.lock();
+            try {
+                Share share = shares.get(owner);
+                if (share == null) share = new Share();
+                if (!can_grant(share, amount)) return false;
+                acquisitions += 1;
+                shares.put(owner,share);
+                share.held += amount;
+                in_use += amount;
+                peak = Math.max(peak,in_use);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void release(Object owner, long amount) {
+            lock.lock();
+            try {
+                Share share = shares.get(owner);
+                if (share == null || share.held < amount) {
+                    throw new IllegalStateException("Released more "+name+" than acquired");
+                }
+                share.held -= amount;
+                if (share.held == 0 && share.waiting == 0) shares.remove(owner);
+                in_use -= amount;
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean can_grant(Share share, long amount) {
+            if (in_use+amount > capacity && in_use > 0) return false;
+            // Other waiting owner, holding less, goes first
+            for (Share other : shares.values()) {
+                if (other != share && other.waiting > 0 && other.held < share.held) return false;
+            }
+            return true;
+        }
+
+        /**
+         * Amount held by owner
+         */
+        public long get_held(Object owner) {
+            lock.lock();
+            try {
+                Share share = shares.get(owner);
+                return share == null ? 0 : share.held;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void set_capacity(long capacity) {
+            lock.lock();
+            try {
+                this.capacity = capacity;
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public long get_capacity() {
+            lock.lock();
+            try {
+                return capacity;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public long get_in_use() {
+            lock.lock();
+            try {
+                return in_use;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public long get_peak() {
+            lock.lock();
+            try {
+                return peak;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Number of acquisitions that had to wait for other holders to release
+         */
+        public long get_waits() {
+            lock.lock();
+            try {
+                return waits;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public String toString() {
+            lock.lock();
+            try {
+                return String.format("%s: capacity %d, peak %d, %d of %d acquisitions waited %.2fs total",
+                        name, capacity, peak, waits, acquisitions, wait_nanos*1e-9);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final Budget cpu;
+    private final Budget memory;
+    private final Map<String,Budget> io;
+    private volatile int io_per_device;
+
+    // Device of each file, resolving file store is a system call
+    private final Map<String,String> file_devices;
+
+    public ResourceGovernor(int cpu_permits, int io_per_device, long memory_bytes) {
+        this.cpu = new Budget("cpu", cpu_permits);
+        this.memory = new Budget("memory", memory_bytes);
+        this.io = new ConcurrentHashMap<>();
+        this.io_per_device = io_per_device;
+        this.file_devices = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Governor shared by whole process
+     */
+    public static ResourceGovernor get() {
+        return instance;
+    }
+
+    // ##################################### LIMITS #####################################
+
+    public void set_cpu_permits(int n) {
+        cpu.set_capacity(n);
+    }
+
+    /**
+     * Set number of concurrent reads or writes allowed on each storage device
+     */
+    public void set_io_per_device(int n) {
+        io_per_device = n;
+        for (Budget b : io.values()) {
+            b.set_capacity(n);
+        }
+    }
+
+    public void set_memory_bytes(long bytes) {
+        memory.set_capacity(bytes);
+    }
+
+    // ################################### ACQUISITION ###################################
+
+    public void acquire_cpu() throws InterruptedException {
+        cpu.acquire(1);
+    }
+
+    public void release_cpu() {
+        cpu.release(1);
+    }
+
+    /**
+     * Acquire CPU permit on behalf of owner, owners share CPU permits fairly
+     */
+    public void acquire_cpu(Object owner) throws InterruptedException {
+        cpu.acquire(owner, 1);
+    }
+
+    public void release_cpu(Object owner) {
+        cpu.release(owner, 1);
+    }
+
+    /**
+     * Take idle CPU permit, if there is one and no other owner waits for it
+     * @return true if permit is taken, it must be released by {@link #release_cpu(Object)}
+     */
+    public boolean try_acquire_cpu(Object owner) {
+        return cpu.try_acquire(owner, 1);
+    }
+
+    /**
+     * Acquire I/O permit of device, file is stored on
+     */
+    public void acquire_io(String filename) throws InterruptedException {
+        io_budget(device_of(filename)).acquire(1);
+    }
+
+    public void release_io(String filename) {
+        io_budget(device_of(filename)).release(1);
+    }
+
+    public void acquire_memory(long bytes) throws InterruptedException {
+        memory.acquire(bytes);
+    }
+
+    public void release_memory(long bytes) {
+        memory.release(bytes);
+    }
+
+    private Budget io_budget(String device) {
+        Budget b = io.get(device);
+        if (b == null) {
+            Budget created = new Budget("io "+device, io_per_device);
+            b = io.putIfAbsent(device,created);
+            if (b == null) b = created;
+        }
+        return b;
+    }
+
+    /**
+     * Storage device of file, as identified by it's file store.
+     * Files that do not exist yet are attributed to device of nearest existing parent
+     */
+    public String device_of(String filename) {
+        String device = file_devices.get(filename);
+        if (device != null) return device;
+
+        device = "unknown";
+        Path path = Paths.get(filename).toAbsolutePath();
+        while (path != null && !Files.exists(path)) {
+            path = path.getParent();
+        }
+        if (path != null) {
+            try {
+                FileStore store = Files.getFileStore(path);
+                device = store.toString();
+            } catch (IOException ex) {
+                log.fine("Could not resolve file store of "+filename+": "+ex.getMessage());
+            }
+        }
+
+        file_devices.put(filename,device);
+        return device;
+    }
+
+    // ##################################### METRICS #####################################
+
+    public Budget get_cpu() {
+        return cpu;
+    }
+
+    public Budget get_memory() {
+        return memory;
+    }
+
+    public Map<String,Budget> get_io() {
+        return io;
+    }
+
+    public void log_metrics() {
+        log.info(cpu.toString());
+        log.info(memory.toString());
+        for (Budget b : io.values()) {
+            log.info(b.toString());
+        }
+    }
+}
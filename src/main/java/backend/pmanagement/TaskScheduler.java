@@ -3,6 +3,7 @@ package backend.pmanagement;
 import backend.processes.IRRNProcess;
 
 import java.util.Collection;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Logger;
 
 public class TaskScheduler {
@@ -11,6 +12,9 @@ public class TaskScheduler {
     private static Logger log = Logger.getLogger(backend.pmanagement.TaskScheduler.class.getName());
     private Collection<IRRNProcess> processes;
 
+    // Pool all processes of this scheduler run on
+    private ExecutorService pool;
+
     public TaskScheduler() {
 
     }
@@ -20,9 +24,11 @@ public class TaskScheduler {
     }
 
     public void execute() {
-        if (processes == null) return;
+        if (processes == null || processes.isEmpty()) return;
 
+        pool = Threads.new_pool(processes.size(), "rrn process");
         for (IRRNProcess p : processes) {
+            p.set_executor(pool);
             p.start();
         }
     }
@@ -38,9 +44,23 @@ public class TaskScheduler {
     }
 
     public void join() {
+        if (processes == null) return;
         for (IRRNProcess p : processes) {
             p.join();
         }
+        if (pool != null) pool.shutdown();
+    }
+
+    /**
+     * Stop all processes, see {@link IRRNProcess#cancel()}. Threads, that do not stop, are left to pool,
+     * which accepts no more work
+     */
+    public void cancel() {
+        if (processes == null) return;
+        for (IRRNProcess p : processes) {
+            p.cancel();
+        }
+        if (pool != null) pool.shutdown();
     }
 
 }
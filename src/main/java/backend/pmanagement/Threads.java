@@ -0,0 +1,136 @@
+package backend.pmanagement;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Threads, processes and block producers run on.
+ *
+ * Processes and producers mostly wait: for reads of {@link backend.rasterio.IOScheduler}, for queues
+ * and for permits of {@link ResourceGovernor}. In virtual mode they run on virtual threads, so a wait
+ * does not hold an OS thread and readers can afford many producers. Waits they do are on futures,
+ * parking ring buffers and {@link java.util.concurrent.locks.ReentrantLock} conditions, never on monitors,
+ * which would pin carrier thread on JDK 21. GDAL reads still run on platform threads of device queues,
+ * and computation is bounded by CPU permits, so carrier threads are not pinned by native code.
+ *
+ * Virtual threads need JDK 21, they are looked up by reflection, on older JDK platform threads are used
+ */
+public class Threads {
+
+    private static Logger log = Logger.getLogger(Threads.class.getName());
+
+    public enum MODE {
+        PLATFORM,
+        VIRTUAL
+    }
+
+    // Thread.ofVirtual(), Thread.Builder.name(String) and Thread.Builder.unstarted(Runnable), null if not supported
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_UNSTARTED;
+
+    static {
+        Method of_virtual = null;
+        Method name = null;
+        Method unstarted = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class);
+            unstarted = builder.getMethod("unstarted", Runnable.class);
+            of_virtual = Thread.class.getMethod("ofVirtual");
+            // Preview JDK throws, unless preview features are enabled
+            of_virtual.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            of_virtual = null;
+        }
+        OF_VIRTUAL = of_virtual;
+        BUILDER_NAME = name;
+        BUILDER_UNSTARTED = unstarted;
+    }
+
+    private static volatile MODE mode = MODE.PLATFORM;
+
+    private Threads() {
+    }
+
+    public static boolean virtual_supported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Set mode of threads, created from now on. Virtual mode falls back to platform threads,
+     * if JDK does not support them
+     */
+    public static void set_mode(MODE m) {
+        if (m == MODE.VIRTUAL && !virtual_supported()) {
+            log.warning("Virtual threads need JDK 21 or newer, using platform threads");
+            m = MODE.PLATFORM;
+        }
+        mode = m;
+    }
+
+    public static MODE get_mode() {
+        return mode;
+    }
+
+    public static boolean is_virtual() {
+        return mode == MODE.VIRTUAL;
+    }
+
+    /**
+     * Mode from it's name: 'platform' or 'virtual'
+     */
+    public static MODE from_string(String name) {
+        switch (name.toLowerCase()) {
+            case "platform": return MODE.PLATFORM;
+            case "virtual": return MODE.VIRTUAL;
+            default: throw new IllegalArgumentException("Unknown thread mode "+name+", expected platform or virtual");
+        }
+    }
+
+    /**
+     * Unstarted thread of current mode. Virtual thread is always daemon
+     */
+    public static Thread new_thread(Runnable r, String name) {
+        if (is_virtual()) {
+            try {
+                Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name);
+                return (Thread)BUILDER_UNSTARTED.invoke(builder, r);
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException(ex);
+            } catch (InvocationTargetException ex) {
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+        return new Thread(r, name);
+    }
+
+    /**
+     * Factory of threads of current mode, named 'name #n'
+     */
+    public static ThreadFactory factory(final String name) {
+        final AtomicInteger n = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new_thread(r, name+" #"+n.incrementAndGet());
+                if (!t.isDaemon()) t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Pool of n processes. Virtual threads are not pooled, each submitted process gets it's own
+     */
+    public static ExecutorService new_pool(int n, String name) {
+        if (is_virtual()) return Executors.newCachedThreadPool(factory(name));
+        return new ForkJoinPool(n);
+    }
+}
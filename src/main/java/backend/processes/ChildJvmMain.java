@@ -0,0 +1,107 @@
+package backend.processes;
+
+import backend.pmanagement.ResourceGovernor;
+import backend.rasterio.RasterDataset;
+import backend.rrn.RRN;
+import backend.rrn.RRNResult;
+import backend.rrn.Strip;
+import backend.tasks.ResultJournal;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Child JVM of {@link ChildJvmPool}, computes tasks read from stdin, one per line,
+ * until stdin is closed. Fields are tab separated:
+ *
+ * TASK name strip source target source target ... -> BLOCK pixels ... then RESULT field=values ... | FAIL type message
+ *
+ * Strip is {@link Strip#encode()}, or {@link #NO_STRIP} for whole overlap.
+ * BLOCK lines report progress while task is computed
+ */
+public final class ChildJvmMain {
+
+    private static Logger log = Logger.getLogger(ChildJvmMain.class.getName());
+
+    static final String SEP = "\t";
+
+    static final String TASK = "TASK";
+    static final String BLOCK = "BLOCK";
+    static final String RESULT = "RESULT";
+    static final String FAIL = "FAIL";
+    static final String NO_STRIP = "-";
+
+    // CPU permits of child's governor. Child computes single task on permit of parent's process, task holds
+    // the permit, so IR-MAD helpers and reduction forks of child do not take cores, parent did not grant
+    static final String CPU_PERMITS_PROPERTY = "prrn.cpu_permits";
+
+    private ChildJvmMain() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Replies go to stdout only, anything else printed there would break protocol
+        final PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), false, "UTF-8");
+        System.setOut(System.err);
+        ResourceGovernor.get().set_cpu_permits(Integer.getInteger(CPU_PERMITS_PROPERTY, 1));
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] msg = line.split(SEP);
+            String reply = msg[0].equals(TASK) ?
+                    run_task(msg, out) : FAIL+SEP+IllegalArgumentException.class.getName()+SEP+"unknown message "+msg[0];
+            synchronized (out) {
+                out.print(reply+"\n");
+                out.flush();
+            }
+        }
+    }
+
+    private static String run_task(String[] msg, final PrintStream out) {
+        List<RasterDataset> opened = new ArrayList<>();
+        try {
+            Strip strip = msg[2].equals(NO_STRIP) ? null : Strip.decode(msg[2]);
+            int n_pairs = (msg.length-3)/2;
+            RasterDataset[] source = new RasterDataset[n_pairs];
+            RasterDataset[] target = new RasterDataset[n_pairs];
+            for (int i = 0; i != n_pairs; ++i) {
+                source[i] = RasterDataset.from_file(msg[3+2*i]);
+                opened.add(source[i]);
+                target[i] = RasterDataset.from_file(msg[4+2*i]);
+                opened.add(target[i]);
+            }
+
+            // Task holds the only permit, so nothing computes beside it
+            ResourceGovernor.get().acquire_cpu();
+            RRNResult res;
+            try {
+                res = RRN.calculate(source, target, strip, new LongConsumer() {
+                    @Override
+                    public void accept(long pixels) {
+                        synchronized (out) {
+                            out.print(BLOCK+SEP+pixels+"\n");
+                            out.flush();
+                        }
+                    }
+                });
+            } finally {
+                ResourceGovernor.get().release_cpu();
+            }
+            return RESULT+SEP+ResultJournal.encode(res);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return FAIL+SEP+ex.getClass().getName()+SEP+"interrupted";
+        } catch (IOException | RuntimeException | OutOfMemoryError ex) {
+            log.log(Level.WARNING, "Task "+msg[1]+" failed", ex);
+            String message = String.valueOf(ex.getMessage()).replace('\n',' ').replace('\t',' ');
+            return FAIL+SEP+ex.getClass().getName()+SEP+message;
+        } finally {
+            for (RasterDataset ds : opened) ds.delete();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package backend.processes;
+
+import backend.rrn.RRNResult;
+import backend.tasks.IRRNTask;
+import backend.tasks.ITaskListener;
+import backend.tasks.ResultJournal;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Pool of child JVMs, that compute tasks on their own heap and GDAL block cache, see {@link ChildJvmMain}.
+ * Child is started on first demand, and replaced by new one after given number of tasks,
+ * so native heap fragmentation and cache growth of long runs do not accumulate.
+ * Crash of child fails only the task it was computing
+ */
+class ChildJvmPool implements Closeable {
+
+    private static Logger log = Logger.getLogger(ChildJvmPool.class.getName());
+
+    private static final long BORROW_POLL_MILLIS = 100;
+
+    /**
+     * Connection to single child JVM over it's stdin and stdout
+     */
+    class Child implements Closeable {
+        private final Process process;
+        private final BufferedReader in;
+        private final Writer out;
+        private int tasks;
+
+        Child() throws IOException {
+            List<String> cmd = new ArrayList<>();
+            cmd.add(new File(new File(System.getProperty("java.home"),"bin"),"java").getPath());
+            cmd.add("-Xmx"+heap_mb+"m");
+            String library_path = System.getProperty("java.library.path");
+            if (library_path != null) cmd.add("-Djava.library.path="+library_path);
+            cmd.add("-D"+ChildJvmMain.CPU_PERMITS_PROPERTY+"=1");
+            cmd.add("-cp");
+            cmd.add(class_path);
+            cmd.add(main_class);
+
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.environment().put("GDAL_CACHEMAX", Integer.toString(gdal_cache_mb));
+            // Child logs to stderr, stdout carries replies only
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = pb.start();
+            in = new BufferedReader(new InputStreamReader(process.getInputStream(),StandardCharsets.UTF_8));
+            out = new OutputStreamWriter(process.getOutputStream(),StandardCharsets.UTF_8);
+            spawned.incrementAndGet();
+        }
+
+        /**
+         * Compute task in child
+         * @throws IOException child died or broke protocol, it must not be used anymore
+         * @throws RuntimeException task failed in child, child is still usable
+         */
+        RRNResult run(IRRNTask task, ITaskListener listener) throws IOException {
+            tasks += 1;
+            StringBuilder sb = new StringBuilder(ChildJvmMain.TASK);
+            sb.append(ChildJvmMain.SEP).append(task.get_name());
+            sb.append(ChildJvmMain.SEP).append(task.get_strip() == null ? ChildJvmMain.NO_STRIP : task.get_strip().encode());
+            for (int i = 0; i != task.n_pairs(); ++i) {
+                sb.append(ChildJvmMain.SEP).append(task.get_source(i).get_filename());
+                sb.append(ChildJvmMain.SEP).append(task.get_target(i).get_filename());
+            }
+            out.write(sb.append('\n').toString());
+            out.flush();
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] reply = line.split(ChildJvmMain.SEP,3);
+                switch (reply[0]) {
+                    case ChildJvmMain.BLOCK:
+                        listener.block_processed(task, Long.parseLong(reply[1]));
+                        break;
+                    case ChildJvmMain.RESULT:
+                        return ResultJournal.decode(reply.length > 1 ? reply[1] : "");
+                    case ChildJvmMain.FAIL:
+                        throw child_error(reply[1], reply.length > 2 ? reply[2] : "");
+                    default:
+                        throw new IOException("Unexpected reply of child JVM: "+line);
+                }
+            }
+            throw new EOFException("Child JVM exited"+(process.isAlive() ? "" : " with code "+process.exitValue()));
+        }
+
+        boolean is_alive() {
+            return process.isAlive();
+        }
+
+        @Override
+        public void close() {
+            try {
+                // Child exits when it's input ends
+                out.close();
+            } catch (IOException ignored) {
+            }
+            process.destroy();
+        }
+    }
+
+    private final int size;
+    private final int heap_mb;
+    private final int gdal_cache_mb;
+    private final int tasks_per_child;
+    private final String class_path;
+    private final String main_class;
+
+    private final BlockingQueue<Child> idle = new LinkedBlockingQueue<>();
+    // Children started and not closed yet
+    private final AtomicInteger live = new AtomicInteger();
+    private final AtomicInteger spawned = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * @param size maximum number of children
+     * @param heap_mb maximum heap of child
+     * @param gdal_cache_mb GDAL block cache of child
+     * @param tasks_per_child child is replaced after this many tasks
+     */
+    ChildJvmPool(int size, int heap_mb, int gdal_cache_mb, int tasks_per_child) {
+        this(size, heap_mb, gdal_cache_mb, tasks_per_child,
+                System.getProperty("java.class.path"), ChildJvmMain.class.getName());
+    }
+
+    ChildJvmPool(int size, int heap_mb, int gdal_cache_mb, int tasks_per_child, String class_path, String main_class) {
+        this.size = size;
+        this.heap_mb = heap_mb;
+        this.gdal_cache_mb = gdal_cache_mb;
+        this.tasks_per_child = tasks_per_child;
+        this.class_path = class_path;
+        this.main_class = main_class;
+    }
+
+    /**
+     * Take idle child, start new one if pool is not full, or wait for one
+     */
+    Child borrow() throws IOException, InterruptedException {
+        while (true) {
+            if (closed) throw new IOException("Child JVM pool is closed");
+            Child c = idle.poll();
+            if (c != null) return c;
+
+            if (live.incrementAndGet() <= size) {
+                try {
+                    return new Child();
+                } catch (IOException ex) {
+                    live.decrementAndGet();
+                    throw ex;
+                }
+            }
+            live.decrementAndGet();
+            // Closed child frees a place without returning to idle, so look again after a while
+            c = idle.poll(BORROW_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (c != null) return c;
+        }
+    }
+
+    /**
+     * Return child after task. Broken child, or one that computed enough tasks, is closed
+     * @param healthy child answered last task
+     */
+    void give_back(Child c, boolean healthy) {
+        if (closed || !healthy || !c.is_alive() || c.tasks >= tasks_per_child) {
+            if (healthy && !closed) log.fine("Recycling child JVM after "+c.tasks+" tasks");
+            c.close();
+            live.decrementAndGet();
+            return;
+        }
+        idle.add(c);
+    }
+
+    boolean has_settings(int heap_mb, int gdal_cache_mb, int tasks_per_child) {
+        return !closed && this.heap_mb == heap_mb && this.gdal_cache_mb == gdal_cache_mb &&
+                this.tasks_per_child == tasks_per_child;
+    }
+
+    /**
+     * Number of children started so far
+     */
+    int num_spawned() {
+        return spawned.get();
+    }
+
+    /**
+     * Stop idle children, pool stays usable and starts new ones on demand
+     */
+    void stop_idle() {
+        Child c;
+        while ((c = idle.poll()) != null) {
+            c.close();
+            live.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Child c;
+        while ((c = idle.poll()) != null) {
+            c.close();
+            live.decrementAndGet();
+        }
+    }
+
+    /**
+     * Error of task failed in child. Type is kept when it can be, so failure is classified right
+     */
+    private static RuntimeException child_error(String type, String message) {
+        try {
+            Class<?> c = Class.forName(type);
+            if (RuntimeException.class.isAssignableFrom(c)) {
+                return (RuntimeException)c.getConstructor(String.class).newInstance(message);
+            }
+            if (IOException.class.isAssignableFrom(c)) {
+                return new UncheckedIOException(message, new IOException(type+": "+message));
+            }
+        } catch (ReflectiveOperationException | LinkageError ignored) {
+        }
+        return new RuntimeException(type+": "+message);
+    }
+}
@@ -0,0 +1,18 @@
+package backend.processes;
+
+/**
+ * Process, that computes tasks in child JVMs of pool, see {@link ChildJvmPool}
+ */
+class ChildJvmProcess extends RRNProcess {
+
+    private final ChildJvmPool pool;
+
+    ChildJvmProcess(ChildJvmPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    protected RRNThread create_thread() {
+        return new ChildJvmThread(task_provider, events, pool);
+    }
+}
@@ -0,0 +1,72 @@
+package backend.processes;
+
+import backend.rrn.RRNResult;
+import backend.tasks.IRRNTask;
+import backend.tasks.ITaskListener;
+import backend.tasks.ITaskProvider;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.logging.Logger;
+
+/**
+ * Thread, that computes each task in child JVM of pool, rather than in own JVM
+ */
+class ChildJvmThread extends RRNThread {
+
+    private static Logger log = Logger.getLogger(ChildJvmThread.class.getName());
+
+    private final ChildJvmPool pool;
+    // Child computing current task
+    private volatile ChildJvmPool.Child current;
+
+    public ChildJvmThread(ITaskProvider task_provider, ITaskListener listener, ChildJvmPool pool) {
+        super(task_provider, listener);
+        this.pool = pool;
+    }
+
+    /**
+     * Crash of child is reported as I/O error, so task is retried, see {@link backend.tasks.RetryPolicy}
+     */
+    @Override
+    protected RRNResult compute(IRRNTask task) {
+        ChildJvmPool.Child child;
+        try {
+            child = pool.borrow();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not start child JVM", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for child JVM");
+        }
+
+        boolean healthy = false;
+        current = child;
+        try {
+            if (is_cancelled()) throw new IllegalStateException("Cancelled");
+            RRNResult res = child.run(task, listener);
+            healthy = true;
+            return res;
+        } catch (IOException ex) {
+            log.warning("Child JVM failed on "+task+": "+ex.getMessage());
+            throw new UncheckedIOException("Child JVM failed", ex);
+        } catch (RuntimeException ex) {
+            // Task failed, child reported it and goes on
+            healthy = true;
+            throw ex;
+        } finally {
+            current = null;
+            pool.give_back(child, healthy && !is_cancelled());
+        }
+    }
+
+    /**
+     * Child is killed, it's task is not waited for
+     */
+    @Override
+    public void cancel() {
+        super.cancel();
+        ChildJvmPool.Child c = current;
+        if (c != null) c.close();
+    }
+}
@@ -1,16 +1,42 @@
 package backend.processes;
 
+import backend.tasks.ITaskListener;
 import backend.tasks.ITaskProvider;
 
+import java.util.concurrent.ExecutorService;
+
 public interface IRRNProcess {
 
     void set_task_provider(ITaskProvider prov);
     ITaskProvider get_task_provider();
 
+    /**
+     * Set executor to run process on. Must be called before {@link #start()}
+     * @param executor shared executor, i.e. pool of task scheduler
+     */
+    void set_executor(ExecutorService executor);
+
+    /**
+     * Owner, CPU permits of process are acquired on behalf of, i.e. job of daemon.
+     * Processes of different owners share CPU fairly, see {@link backend.pmanagement.ResourceGovernor}
+     */
+    void set_cpu_owner(Object owner);
+
+    /**
+     * Subscribe to block-processed events of tasks, computed by this process
+     */
+    void add_listener(ITaskListener listener);
+
     void start();
 
     void join();
 
+    /**
+     * Stop process: no more tasks are grabbed, current one is interrupted and released without result.
+     * {@link #join()} returns without waiting for it
+     */
+    void cancel();
+
     boolean is_running();
 
 }
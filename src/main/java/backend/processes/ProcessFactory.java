@@ -2,8 +2,45 @@ package backend.processes;
 
 public class ProcessFactory {
 
-    public static IRRNProcess get_process() {
-        return new RRNProcess();
+    public static final int DEFAULT_CHILD_HEAP_MB = 1024;
+    public static final int DEFAULT_CHILD_GDAL_CACHE_MB = 256;
+    public static final int DEFAULT_TASKS_PER_CHILD = 200;
+
+    // Child JVMs processes compute tasks in, null to compute them on threads of this JVM
+    private static ChildJvmPool pool;
+
+    public static synchronized IRRNProcess get_process() {
+        if (pool == null) return new RRNProcess();
+        return new ChildJvmProcess(pool);
+    }
+
+    /**
+     * Compute tasks of processes, created from now on, in pool of child JVMs, see {@link ChildJvmPool}.
+     * Each process uses one child at a time, so there are no more children than processes
+     * @param heap_mb maximum heap of child
+     * @param gdal_cache_mb GDAL block cache of child
+     * @param tasks_per_child child is replaced after this many tasks
+     */
+    public static synchronized void use_child_jvms(int heap_mb, int gdal_cache_mb, int tasks_per_child) {
+        // Warm children of pool with same settings are kept, i.e. for next job of daemon
+        if (pool != null && pool.has_settings(heap_mb, gdal_cache_mb, tasks_per_child)) return;
+        if (pool != null) pool.close();
+        pool = new ChildJvmPool(Integer.MAX_VALUE, heap_mb, gdal_cache_mb, tasks_per_child);
+    }
+
+    /**
+     * Compute tasks of processes, created from now on, on threads of this JVM
+     */
+    public static synchronized void use_threads() {
+        if (pool != null) pool.close();
+        pool = null;
+    }
+
+    /**
+     * Stop idle child JVMs, new ones are started on demand
+     */
+    public static synchronized void shutdown() {
+        if (pool != null) pool.stop_idle();
     }
 
 }
@@ -1,7 +1,17 @@
 package backend.processes;
 
+import backend.pmanagement.Threads;
+import backend.tasks.ITaskListener;
 import backend.tasks.ITaskProvider;
+import backend.tasks.TaskEvents;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -10,9 +20,17 @@ import java.util.logging.Logger;
 class RRNProcess implements IRRNProcess {
 
     Logger log = Logger.getLogger(RRNProcess.class.getName());
+
+    private static final long JOIN_POLL_MILLIS = 1000;
+
     ITaskProvider task_provider;
 
-    Thread t;
+    TaskEvents events = new TaskEvents();
+
+    ExecutorService executor;
+    Object cpu_owner;
+    Future<?> future;
+    RRNThread thread;
 
     @Override
     public void set_task_provider(ITaskProvider prov) {
@@ -21,34 +39,88 @@ class RRNProcess implements IRRNProcess {
 
     @Override
     public ITaskProvider get_task_provider() {
-        return null;
+        return task_provider;
+    }
+
+    @Override
+    public void set_executor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void set_cpu_owner(Object owner) {
+        cpu_owner = owner;
+    }
+
+    @Override
+    public void add_listener(ITaskListener listener) {
+        events.add(listener);
     }
 
     @Override
     public void start() {
         log.info("Process start");
 
-        // Spawn process and thread
-        t = new Thread(new RRNThread(task_provider));
-        t.start();
+        if (executor == null) {
+            // Process was not given a pool, run it on it's own
+            executor = Executors.newSingleThreadExecutor(Threads.factory("rrn process"));
+        }
+
+        thread = create_thread();
+        thread.set_cpu_owner(cpu_owner);
+        future = executor.submit(thread);
     }
 
+    /**
+     * Runnable computing tasks of this process
+     */
+    protected RRNThread create_thread() {
+        return new RRNThread(task_provider,events);
+    }
+
+    /**
+     * Wait until process finishes, or until task provider has no more work,
+     * process may be stuck on task, which lease has expired and which was finished by other process.
+     * Cancelled process is not waited for
+     */
     @Override
     public void join() {
-        if (t == null) return;
+        if (future == null) return;
 
         try {
-            t.join();
+            while (true) {
+                try {
+                    future.get(JOIN_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    if (thread.is_cancelled()) {
+                        log.warning("Cancelled process is still running, not waiting for it");
+                        break;
+                    }
+                    if (thread.is_busy() &&
+                            task_provider.num_tasks_queued() == 0 && task_provider.num_tasks_processing() == 0) {
+                        log.warning("Process is stuck on abandoned task, not waiting for it");
+                        break;
+                    }
+                }
+            }
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.log(Level.SEVERE, "Process failed", e.getCause());
         }
 
         log.info("Process joined");
     }
 
+    @Override
+    public void cancel() {
+        if (thread != null) thread.cancel();
+    }
+
     @Override
     public boolean is_running() {
-        if (t == null) return false;
-        return t.isAlive();
+        if (future == null) return false;
+        return !future.isDone();
     }
 }
@@ -1,38 +1,137 @@
 package backend.processes;
 
+import backend.pmanagement.ResourceGovernor;
 import backend.rasterio.RasterDataset;
 import backend.rrn.RRN;
 import backend.rrn.RRNResult;
 import backend.tasks.IRRNTask;
+import backend.tasks.ITaskListener;
 import backend.tasks.ITaskProvider;
 
 import java.util.Random;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 class RRNThread implements Runnable {
 
+    private static Logger log = Logger.getLogger(RRNThread.class.getName());
+
     public static final Random rand = new Random();
 
     ITaskProvider task_provider;
+    ITaskListener listener;
+    // Owner of CPU permits, see ResourceGovernor
+    private volatile Object cpu_owner;
+    // Thread is computing a task
+    private volatile boolean busy;
+    private volatile boolean cancelled;
+    // Thread running this, guarded by this
+    private Thread runner;
 
-    public RRNThread(ITaskProvider task_provider) {
+    public RRNThread(ITaskProvider task_provider, ITaskListener listener) {
         this.task_provider = task_provider;
+        this.listener = listener;
+    }
+
+    /**
+     * Owner, CPU permits are acquired on behalf of. Threads of different owners share CPU fairly
+     */
+    public void set_cpu_owner(Object owner) {
+        cpu_owner = owner;
     }
 
     @Override
     public void run() {
+        synchronized (this) {
+            if (cancelled) return;
+            runner = Thread.currentThread();
+        }
+        try {
+            run_tasks();
+        } finally {
+            synchronized (this) {
+                runner = null;
+                // Interrupt of cancel must not leak to next job of pool thread
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private void run_tasks() {
         // Use this variable to read tasks from task provider
         IRRNTask current_task;
 
-        // Grab tasks until queue is empty!
-        while ((current_task = task_provider.grab()) != null) {
-            RasterDataset source = current_task.get_source();
-            RasterDataset target = current_task.get_target();
+        // Grab tasks until queue is empty, or until cancelled
+        while (!cancelled && (current_task = task_provider.grab()) != null) {
+            busy = true;
+            RRNResult res = null;
 
-            RRNResult res = RRN.calculate(source,target);
+            // Compute only while holding CPU permit, so total number of busy threads stays bounded
+            boolean acquired = false;
+            Object owner = cpu_owner;
+            try {
+                ResourceGovernor.get().acquire_cpu(owner);
+                acquired = true;
+                res = compute(current_task);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException | OutOfMemoryError ex) {
+                if (cancelled) {
+                    log.fine("Task "+current_task+" cancelled: "+ex);
+                } else {
+                    // Failed task is released without result, so provider does not wait for it forever
+                    log.log(Level.SEVERE,"Task "+current_task+" failed",ex);
+                    current_task.set_error(ex);
+                }
+            } finally {
+                if (acquired) ResourceGovernor.get().release_cpu(owner);
+            }
             current_task.set_result(res);
 
             // release task, so task provider knows it's done
             task_provider.release(current_task);
+            busy = false;
+            if (Thread.currentThread().isInterrupted()) return;
+        }
+    }
+
+    /**
+     * Stop grabbing tasks and interrupt current one, it is released without result.
+     * Thread blocked in reader, I/O queue or on memory of {@link ResourceGovernor} is woken up
+     */
+    public void cancel() {
+        synchronized (this) {
+            cancelled = true;
+            if (runner != null) runner.interrupt();
         }
     }
+
+    public boolean is_cancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Compute result of task, reporting processed blocks to listener
+     */
+    protected RRNResult compute(final IRRNTask task) {
+        // Statistics of all overlapping pairs are pooled into single result
+        RasterDataset[] source = new RasterDataset[task.n_pairs()];
+        RasterDataset[] target = new RasterDataset[task.n_pairs()];
+        for (int i = 0; i != task.n_pairs(); ++i) {
+            source[i] = task.get_source(i);
+            target[i] = task.get_target(i);
+        }
+
+        return RRN.calculate(source, target, task.get_strip(), new LongConsumer() {
+            @Override
+            public void accept(long pixels) {
+                listener.block_processed(task,pixels);
+            }
+        });
+    }
+
+    public boolean is_busy() {
+        return busy;
+    }
 }
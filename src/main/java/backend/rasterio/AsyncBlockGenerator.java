@@ -31,8 +31,10 @@ public class AsyncBlockGenerator {
     // Dataset to use as reference for block calculations
     // private final RasterDataset block_ref_ds;
 
-    // The only non-final variable. Make sure to access it in sync method
+    // The only non-final variables. Make sure to access them in sync method
     private int cur_block = -1;
+    // Block after last one to read
+    private int end_block;
 
     public AsyncBlockGenerator(RasterDataset[] i_datasets, RasterGrid i_read_grid,
                                int i_bxoff, int i_byoff, int i_bsizex, int i_bsizey) {
@@ -56,6 +58,7 @@ public class AsyncBlockGenerator {
         n_vertical_blocks   = get_n_blocks(read_grid.get_height(),byoff,bh);
 
         n_blocks = n_horizontal_blocks*n_vertical_blocks;
+        end_block = n_blocks;
 
         // Calculate read area boundaries in terms of reference dataset
         ref_px_min = i_read_grid.wld2pix(read_grid.xMin,read_grid.yMin).round();
@@ -68,10 +71,18 @@ public class AsyncBlockGenerator {
 
     public synchronized int get_next_block_id() {
         cur_block += 1;
-        if (cur_block >= n_blocks) return -1;
+        if (cur_block >= end_block) return -1;
         return cur_block;
     }
 
+    /**
+     * Read only rows of blocks from first_row to end_row, exclusive. Must be called before first block is taken
+     */
+    public synchronized void set_block_rows(int first_row, int end_row) {
+        cur_block = Math.max(first_row,0)*n_horizontal_blocks-1;
+        end_block = Math.min(end_row,n_vertical_blocks)*n_horizontal_blocks;
+    }
+
     public RasterGrid get_grid() {
         return read_grid;
     }
@@ -1,6 +1,10 @@
 package backend.rasterio;
 
+import backend.pipeline.RingBuffer;
+import backend.pmanagement.ResourceGovernor;
+import backend.pmanagement.Threads;
 import backend.utils.BufferUtils;
+import backend.utils.TypeUtils;
 import backend.utils.Vec2d;
 import backend.utils.Vec2i;
 import org.gdal.gdal.Band;
@@ -10,31 +14,38 @@ import org.gdal.gdalconst.gdalconstConstants;
 import sun.awt.SunToolkit;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 /**
  * Class that will read from gdal dataset from parallel thread
- * and push result into queue or push null to queue as poison pill
+ * and publish result into ring buffer, recycling blocks consumer has finished with.
+ * Memory of each block is acquired from {@link ResourceGovernor}, buffers of recycled block are dropped
+ * when it's memory is released, so memory of ring slots is never used beyond budget,
+ * reads go through queue of file's device in {@link IOScheduler}
  */
 class BlockProducer implements Runnable {
 
-    public static final BlockInfo POISON_PILL = new BlockInfo();
-
     private static Logger log = Logger.getLogger(BlockProducer.class.getName());
 
     private final RasterDataset[] datasets;
     private final AsyncBlockGenerator block_gen;
-    private final BlockingQueue<BlockInfo> sink;
+    private final RingBuffer<BlockInfo> sink;
 
     // Number of bands to read
     public final int n_bands;
 
-    public BlockProducer(String[] i_files, AsyncBlockGenerator i_block_gen, BlockingQueue<BlockInfo> i_sink)
+    public BlockProducer(String[] i_files, AsyncBlockGenerator i_block_gen, RingBuffer<BlockInfo> i_sink)
             throws IOException {
 
         int n_bands_min = -1;
@@ -54,8 +65,10 @@ class BlockProducer implements Runnable {
 
     }
 
-    private BlockInfo read_block(int block_id) {
-        BlockInfo info = new BlockInfo();
+    /**
+     * Read block into recycled info, it's buffers have been dropped on release and are allocated anew
+     */
+    private BlockInfo read_block(int block_id, final BlockInfo info) throws InterruptedException {
 
         info.totalxblocks = block_gen.get_n_horizontal_blocks();
         info.totalyblocks = block_gen.get_n_vertical_blocks();
@@ -73,13 +86,13 @@ class BlockProducer implements Runnable {
         info.grid = block_gen.get_grid().clone();
 
         // Get World coordinates of current block
-        info.world_tl = new Vec2d();
-        info.world_br = new Vec2d();
+        if (info.world_tl == null) info.world_tl = new Vec2d();
+        if (info.world_br == null) info.world_br = new Vec2d();
         block_gen.get_block_world_coordinates(block_id,info.world_tl,info.world_br);
 
         // Get pixel coordinates of current block
-        info.local_tl = new Vec2i();
-        info.local_br = new Vec2i();
+        if (info.local_tl == null) info.local_tl = new Vec2i();
+        if (info.local_br == null) info.local_br = new Vec2i();
         block_gen.get_block_pixel_coordinates(info.grid,block_id,info.local_tl,info.local_br);
 
         // Calculate width and height of current block
@@ -103,63 +116,145 @@ class BlockProducer implements Runnable {
         info.set_datasets_info(datasets.length,n_bands);
 
 
+        // Area of each dataset and whether it is masked, mask of first band is used, as for footprints
+        final int[] xoff = new int[datasets.length];
+        final int[] yoff = new int[datasets.length];
+        final int[] xsize = new int[datasets.length];
+        final int[] ysize = new int[datasets.length];
+        final boolean[] masked = new boolean[datasets.length];
+
+        // Memory of all datasets and masks of block is acquired at once, producer holding part of block
+        // while waiting for the rest would deadlock with other producers near the budget
+        long block_bytes = 0;
         for (int dataset_id = 0; dataset_id != datasets.length; ++dataset_id) {
             Dataset ds = datasets[dataset_id].dataset();
-            RasterGrid grid = datasets[dataset_id].grid();
-
-            // Get area to read
-            block_gen.get_block_pixel_coordinates(grid,block_id,ds_tl,ds_br);
-            int xoff = ds_tl.x;
-            int yoff = ds_tl.y;
-            int xsize = ds_br.x - ds_tl.x;
-            int ysize = ds_br.y - ds_tl.y;
-
+            block_gen.get_block_pixel_coordinates(datasets[dataset_id].grid(),block_id,ds_tl,ds_br);
+            xoff[dataset_id] = ds_tl.x;
+            yoff[dataset_id] = ds_tl.y;
+            xsize[dataset_id] = ds_br.x - ds_tl.x;
+            ysize[dataset_id] = ds_br.y - ds_tl.y;
+            masked[dataset_id] = (ds.GetRasterBand(1).GetMaskFlags() & gdalconstConstants.GMF_ALL_VALID) == 0;
+
+            long n_pixels = (long)xsize[dataset_id]*ysize[dataset_id];
+            if (masked[dataset_id]) block_bytes += n_pixels;
             for (int band_id = 0; band_id != n_bands; ++band_id) {
-                // Get current band
-                Band band = ds.GetRasterBand(band_id+1);
-
-                // get data type
-                int data_type = band.GetRasterDataType();
+                block_bytes += n_pixels*TypeUtils.get_size(ds.GetRasterBand(band_id+1).GetRasterDataType());
+            }
+        }
+        ResourceGovernor.get().acquire_memory(block_bytes);
+        info.n_bytes += block_bytes;
 
-                // Read data
-                ByteBuffer bb = BufferUtils.allocateDirect(data_type,xsize*ysize);
-                band.ReadRaster_Direct(xoff,yoff,xsize,ysize,xsize,ysize,data_type,bb,0,0);
+        List<Future<Void>> reads = new ArrayList<>(datasets.length);
+        for (int dataset_id = 0; dataset_id != datasets.length; ++dataset_id) {
+            final Dataset ds = datasets[dataset_id].dataset();
+
+            // Datasets on different devices are read concurrently
+            final int ds_id = dataset_id;
+            final int x = xoff[ds_id];
+            final int y = yoff[ds_id];
+            final int w = xsize[ds_id];
+            final int h = ysize[ds_id];
+            final boolean ds_masked = masked[ds_id];
+            reads.add(IOScheduler.get().submit(datasets[dataset_id].get_filename(), x, y, new Runnable() {
+                @Override
+                public void run() {
+                    for (int band_id = 0; band_id != n_bands; ++band_id) {
+                        // Get current band
+                        Band band = ds.GetRasterBand(band_id+1);
+
+                        // get data type
+                        int data_type = band.GetRasterDataType();
+
+                        // Read data
+                        ByteBuffer bb = BufferUtils.reuseDirect(info.get_data(ds_id,band_id),data_type,w*h);
+                        band.ReadRaster_Direct(x,y,w,h,w,h,data_type,bb,0,0);
+
+                        // Put data info BlockInfo
+                        info.set_data(ds_id,band_id,bb);
+                        info.set_data_type(ds_id,band_id,data_type);
+                    }
+
+                    ByteBuffer mask = null;
+                    if (ds_masked) {
+                        mask = BufferUtils.reuseDirect(info.get_mask_buffer(ds_id),gdalconstConstants.GDT_Byte,w*h);
+                        ds.GetRasterBand(1).GetMaskBand().ReadRaster_Direct(x,y,w,h,w,h,
+                                gdalconstConstants.GDT_Byte,mask,0,0);
+                    }
+                    info.set_mask(ds_id,mask);
+                }
+            }));
+        }
 
-                // Put data info BlockInfo
-                info.set_data(dataset_id,band_id,bb);
-                info.set_data_type(dataset_id,band_id,data_type);
+        boolean done = false;
+        try {
+            for (Future<Void> read : reads) {
+                try {
+                    read.get();
+                } catch (ExecutionException ex) {
+                    throw new RuntimeException("Failed to read block "+block_id, ex.getCause());
+                }
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                // Reads, that have not started, are dropped, memory of whole block is given back
+                for (Future<Void> read : reads) read.cancel(false);
+                release(info);
             }
         }
 
         return info;
     }
 
+    /**
+     * Give memory of block back to {@link ResourceGovernor}, block is not used anymore.
+     * It's buffers are dropped, so slot of ring does not keep memory, which is not reserved anymore
+     */
+    static void release(BlockInfo info) {
+        if (info == null) return;
+        info.drop_buffers();
+        if (info.n_bytes == 0) return;
+        ResourceGovernor.get().release_memory(info.n_bytes);
+        info.n_bytes = 0;
+    }
+
+    /**
+     * Reads blocks until generator ends or thread is interrupted, which happens when reader is closed.
+     * Producer is registered in sink before it runs. Datasets are deleted in any case
+     */
     @Override
     public void run() {
 
+        // Block being read, it is exchanged for block consumer has finished with
+        BlockInfo bi = new BlockInfo();
+        Throwable error = null;
         try {
 
             int block_n;
             while ( (block_n = block_gen.get_next_block_id()) >= 0 ) {
 
-                BlockInfo bi = read_block(block_n);
+                read_block(block_n, bi);
 
-                // Put current block into sink
-                sink.put(bi);
-                Thread.yield();
+                // Publish current block, consumer releases it from now on
+                long seq = sink.claim(1);
+                bi = sink.exchange(seq, bi);
+                sink.publish(seq, 1);
             }
 
-            // Put poison pill to indicate that current thread finished it's job
-            sink.put(POISON_PILL);
+        } catch (InterruptedException ex) {
+            // Reader was closed, consumer does not wait for this producer
+            log.fine("Block producer cancelled");
+        } catch (RuntimeException ex) {
+            // Consumer gets failure instead of truncated data
+            error = ex;
+        } finally {
+            release(bi);
+            sink.producer_done(error);
 
             // Delete all datasets
             for (int i = 0; i != datasets.length; ++i) {
                 datasets[i].delete();
             }
-
-        } catch (InterruptedException ex) {
-            // This should never happen!
-            throw new RuntimeException("Interrupted!");
         }
 
     }
@@ -203,7 +298,7 @@ class BlockProducer implements Runnable {
  *
  * This is next lvl of ImageReader
  */
-public class AsyncGdalReader {
+public class AsyncGdalReader implements Closeable {
 
     // Storage for datasets
     private final RasterDataset[] datasets;
@@ -217,20 +312,27 @@ public class AsyncGdalReader {
     // Threads
     private final Thread[] threads;
 
-    // Queue
-    private final BlockingQueue<BlockInfo> queue;
+    // Blocks published by producers, slots hold recycled blocks
+    private final RingBuffer<BlockInfo> ring;
 
-    // Number of running threads
-    // This value decreases every time next() recieves a null from queue
-    // If n_working_threads == 0 and queue is empty, job finished
-    // Poison pill were chosen over synchronized methods for simplicity
-    private int n_working_threads;
+    private boolean started;
 
     // Number of bands to read
     // This value is calculated on initialization by each BlockProducer
     // Just pull it here
     private final int n_bands;
 
+    // How consumer and producers wait for each other. Producers mostly wait for reads, so consumer parks
+    static final RingBuffer.WAIT WAIT_STRATEGY = RingBuffer.WAIT.PARK;
+
+    // Block returned by last call to next(), it's memory is released on the following call
+    private BlockInfo last_block;
+
+    private volatile boolean closed;
+
+    // Guards last_block. Lock, not monitor, consumer on virtual thread waits in ring.take() holding it
+    private final ReentrantLock consumer_lock = new ReentrantLock();
+
     /**
      * Constructior. creates AsyncGdalReader from datasets
      * @param i_datasets datasets to read from
@@ -242,7 +344,12 @@ public class AsyncGdalReader {
         producers = new BlockProducer[n_threads];
         threads = new Thread[n_threads];
 
-        queue = new ArrayBlockingQueue<BlockInfo>(buf_size);
+        ring = new RingBuffer<>(buf_size, new Supplier<BlockInfo>() {
+            @Override
+            public BlockInfo get() {
+                return new BlockInfo();
+            }
+        }, n_threads == 1, WAIT_STRATEGY);
 
         // Storage for datasets
         datasets = i_datasets;
@@ -258,15 +365,11 @@ public class AsyncGdalReader {
 
         // Spawn producers
         for (int i = 0; i != producers.length; ++i) {
-            producers[i] = new BlockProducer(filenames,block_gen,queue);
+            producers[i] = new BlockProducer(filenames,block_gen,ring);
         }
 
         // Get number of bands
         n_bands = producers[0].n_bands;
-
-        // Set number of working threads to -1
-        // To indicate that we have not started yet
-        n_working_threads = -1;
     }
 
     //###############################################################################################
@@ -279,27 +382,25 @@ public class AsyncGdalReader {
      * Get next block
      * Async method
      * Must call {@link #start()} before this one
-     * before calling this method
+     * before calling this method.
+     * Previously returned block is considered consumed, it's memory is returned to {@link ResourceGovernor}
+     * and it's buffers are dropped, block itself is reused by producers
      * @return file, containing pixel values from opened datasets or null of no more data to read.
+     * @throws IllegalStateException producer failed to read block
      */
-    public synchronized BlockInfo next() throws InterruptedException {
-
-        BlockInfo val;
-
-        do {
-            if (n_working_threads <= 0 && queue.size() == 0) return null; // Finished processing, return poison
-
-            // seems like some threads are working, or queue is not empty!
-            val = queue.take();
-            if (val == BlockProducer.POISON_PILL) { // repeat until we get an actual value
-                n_working_threads -= 1;
-            } else {
-                break;
-            }
-
-        } while (true);
-
-        return val;
+    public BlockInfo next() throws InterruptedException {
+        consumer_lock.lock();
+        try {
+            BlockProducer.release(last_block);
+            last_block = null;
+
+            // Block is recycled by producers after following call
+            if (closed || !started) return null;
+            last_block = ring.take();
+            return last_block;
+        } finally {
+            consumer_lock.unlock();
+        }
     }
 
     public int n_datasets() {
@@ -315,15 +416,56 @@ public class AsyncGdalReader {
      * until demanded
      */
     public void start() {
-        if (n_working_threads != -1) throw new IllegalThreadStateException();
-        // Spawn and run threds
+        if (started) throw new IllegalThreadStateException();
+        started = true;
+        // Spawn and run threds, each is registered before it starts, so consumer waits for all of them
         for (int i = 0; i != threads.length; ++i) {
-            threads[i] = new Thread(producers[i]);
+            ring.add_producer();
+            threads[i] = Threads.new_thread(producers[i], "block producer #"+i);
             threads[i].start();
         }
+    }
+
+    /**
+     * Stop reading, reader may be closed before all blocks are read. Producers are interrupted and
+     * waited for, so their datasets are deleted, memory of buffered blocks is returned to {@link ResourceGovernor}
+     * and their direct buffers become unreachable
+     */
+    @Override
+    public void close() {
+        closed = true;
+        ring.close();
+        for (Thread t : threads) {
+            if (t != null) t.interrupt();
+        }
+        boolean interrupted = false;
+        for (Thread t : threads) {
+            if (t == null) continue;
+            while (true) {
+                try {
+                    t.join();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
 
-        // Set number of working threads
-        n_working_threads = threads.length;
+        // Consumer waiting in next() is woken by closed ring, then blocks it has not taken are released
+        consumer_lock.lock();
+        try {
+            BlockProducer.release(last_block);
+            last_block = null;
+            ring.drain(new Consumer<BlockInfo>() {
+                @Override
+                public void accept(BlockInfo bi) {
+                    BlockProducer.release(bi);
+                }
+            });
+        } finally {
+            consumer_lock.unlock();
+        }
     }
 
     //########################## Private methods ####################################################
@@ -351,6 +493,20 @@ public class AsyncGdalReader {
         return ret;
     }
 
+    /**
+     * Reader of single strip of intersection of datasets, strips are equal parts by block rows
+     * @param strip index of strip, from 0 to n_strips-1
+     */
+    public static AsyncGdalReader from_datasets(RasterDataset[] ds, int strip, int n_strips,
+                                                int n_threads, int buf_size) throws IOException {
+        AsyncBlockGenerator block_gen = AsyncBlockGenerator.from_datasets(ds,
+                AsyncBlockGenerator.READ_AREA.INTERSECTION);
+        int rows = block_gen.get_n_vertical_blocks();
+        block_gen.set_block_rows((int)((long)rows*strip/n_strips), (int)((long)rows*(strip+1)/n_strips));
+
+        return new AsyncGdalReader(ds,block_gen,n_threads,buf_size);
+    }
+
     // creation
     static AsyncGdalReader from_datasets(RasterDataset[] ds) throws IOException {
 
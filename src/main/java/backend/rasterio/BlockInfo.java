@@ -6,6 +6,7 @@ import org.gdal.gdal.Dataset;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Class contains information about block,
@@ -19,6 +20,11 @@ public class BlockInfo {
     private ByteBuffer[] data;
     private Dataset[] datasets;
 
+    // Validity mask of each dataset, byte per pixel, 0 is nodata. Null if all pixels are valid
+    private ByteBuffer[] masks;
+    // Masks of previous contents, kept for reuse, when dataset turns out to be all valid
+    private ByteBuffer[] mask_buffers;
+
     private int[] data_types; // gdal data types for each dataset and band
 
     private int n_datasets;
@@ -41,14 +47,23 @@ public class BlockInfo {
     public Vec2i local_tl;
     public Vec2i local_br;
 
+    // Bytes of data, reserved from memory budget of ResourceGovernor
+    public long n_bytes;
+
+    /**
+     * Set shape of block. Buffers of block of same shape are kept, until they are dropped
+     */
     public void set_datasets_info(int n_datasets, int n_bands) {
 
+        if (data != null && this.n_datasets == n_datasets && this.n_bands == n_bands) return;
 
         this.n_bands = n_bands;
         this.n_datasets = n_datasets;
         data = new ByteBuffer[n_datasets*n_bands];
         data_types = new int[n_datasets*n_bands];
         datasets = new Dataset[n_datasets];
+        masks = new ByteBuffer[n_datasets];
+        mask_buffers = new ByteBuffer[n_datasets];
     }
 
     public void set_data_type(int dataset_id, int band_id, int data_type) {
@@ -116,6 +131,49 @@ public class BlockInfo {
         return this.data[band_id+dataset_id*n_bands];
     }
 
+    /**
+     * Set validity mask of dataset
+     * @param mask byte per pixel, 0 is nodata, or null if all pixels are valid
+     */
+    public void set_mask(int dataset_id, ByteBuffer mask) {
+
+        //Checks for overflow
+        if (dataset_id < 0)           throw new IndexOutOfBoundsException("Dataset id "+dataset_id+" cannot be below 0!");
+        if (dataset_id >= n_datasets) throw new IndexOutOfBoundsException("Dataset id "+dataset_id+" exceeds number of datasets: "+n_datasets);
+
+        masks[dataset_id] = mask;
+        if (mask != null) mask_buffers[dataset_id] = mask;
+    }
+
+    /**
+     * Validity mask of dataset, byte per pixel, 0 is nodata. Null if all pixels are valid
+     */
+    public ByteBuffer get_mask(int dataset_id) {
+
+        //Checks for overflow
+        if (dataset_id < 0)           throw new IndexOutOfBoundsException("Dataset id "+dataset_id+" cannot be below 0!");
+        if (dataset_id >= n_datasets) throw new IndexOutOfBoundsException("Dataset id "+dataset_id+" exceeds number of datasets: "+n_datasets);
+
+        return masks[dataset_id];
+    }
+
+    /**
+     * Mask buffer of previous contents of block, to be reused, may be null
+     */
+    public ByteBuffer get_mask_buffer(int dataset_id) {
+        return mask_buffers[dataset_id];
+    }
+
+    /**
+     * Drop data and mask buffers, so their direct memory is freed with them. Shape of block is kept
+     */
+    public void drop_buffers() {
+        if (data == null) return;
+        Arrays.fill(data, null);
+        Arrays.fill(masks, null);
+        Arrays.fill(mask_buffers, null);
+    }
+
     public int n_datasets() {
         return n_datasets;
     }
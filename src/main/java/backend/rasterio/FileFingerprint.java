@@ -0,0 +1,125 @@
+package backend.rasterio;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Identity of input file, that does not depend on it's path: SHA-1 of it's content.
+ *
+ * Hashing whole mosaic takes long, so fingerprints are cached by path, size and modification time,
+ * and cache can be kept between runs in file, see {@link #load_cache(String)}
+ */
+public class FileFingerprint {
+
+    private static Logger log = Logger.getLogger(FileFingerprint.class.getName());
+
+    private static final int BUFFER_SIZE = 1024*1024;
+
+    private static class Entry {
+        final long size;
+        final long modified;
+        final String fingerprint;
+
+        Entry(long size, long modified, String fingerprint) {
+            this.size = size;
+            this.modified = modified;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    private static final Map<String,Entry> cache = new ConcurrentHashMap<>();
+    private static String cache_path;
+
+    public static String of(String filename) throws IOException {
+        File f = new File(filename);
+        if (!f.isFile()) throw new FileNotFoundException(filename);
+
+        Entry e = cache.get(filename);
+        if (e == null || e.size != f.length() || e.modified != f.lastModified()) {
+            e = new Entry(f.length(), f.lastModified(), compute(f));
+            cache.put(filename,e);
+        }
+        return e.fingerprint;
+    }
+
+    private static String compute(File f) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        try (InputStream in = new FileInputStream(f)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                digest.update(buf,0,n);
+            }
+        }
+
+        return to_hex(digest.digest());
+    }
+
+    static String to_hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length*2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x",b));
+        }
+        return sb.toString();
+    }
+
+    // ###################################### CACHE ######################################
+
+    /**
+     * Load fingerprints of previous runs. Lines are "fingerprint size modified path"
+     */
+    public static synchronized void load_cache(String path) {
+        cache_path = path;
+        File f = new File(path);
+        if (!f.exists()) return;
+
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(f),StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] fields = line.split(" ",4);
+                if (fields.length != 4) continue;
+                cache.put(fields[3],new Entry(Long.parseLong(fields[1]),Long.parseLong(fields[2]),fields[0]));
+            }
+        } catch (IOException | NumberFormatException ex) {
+            log.warning("Could not load fingerprints from "+path+": "+ex.getMessage());
+        }
+    }
+
+    /**
+     * Save fingerprints to file, given to {@link #load_cache(String)}
+     */
+    public static synchronized void save_cache() {
+        if (cache_path != null) save_cache(cache_path);
+    }
+
+    /**
+     * Save fingerprints to given file, runs of daemon load and save their own files concurrently
+     */
+    public static synchronized void save_cache(String path) {
+        File tmp = new File(path+".tmp");
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp),StandardCharsets.UTF_8)) {
+            for (Map.Entry<String,Entry> e : cache.entrySet()) {
+                w.write(e.getValue().fingerprint+" "+e.getValue().size+" "+e.getValue().modified+" "+e.getKey()+"\n");
+            }
+        } catch (IOException ex) {
+            log.warning("Could not save fingerprints to "+path+": "+ex.getMessage());
+            return;
+        }
+
+        File target = new File(path);
+        if (target.exists() && !target.delete() || !tmp.renameTo(target)) {
+            log.warning("Could not replace "+path);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package backend.rasterio;
+
+import org.gdal.gdal.Band;
+import org.gdal.gdalconst.gdalconst;
+import org.gdal.gdalconst.gdalconstConstants;
+
+/**
+ * Low resolution bitmap of valid (non-nodata) pixels of image.
+ * Used to weight overlap graph edges by actual valid overlap instead of bounding box overlap:
+ * rotated scenes often have large bounding box intersection but little or no valid data in common.
+ *
+ * Footprint covers the whole grid of image, each cell covers
+ * (grid width / footprint width) x (grid height / footprint height) pixels
+ */
+public class Footprint {
+
+    // Grid of image this footprint describes (full resolution)
+    private final RasterGrid grid;
+
+    // Number of footprint cells
+    private final int width;
+    private final int height;
+
+    // Validity flag for each cell, row by row
+    private final boolean[] valid;
+
+    // World size of single cell
+    private final double cell_xsize;
+    private final double cell_ysize;
+
+    public Footprint(RasterGrid grid, int width, int height, boolean[] valid) {
+        if (valid.length != width*height) {
+            throw new IllegalArgumentException("Expected "+width*height+" cells, got "+valid.length);
+        }
+        this.grid = grid;
+        this.width = width;
+        this.height = height;
+        this.valid = valid;
+        this.cell_xsize = (grid.xMax-grid.xMin)/width;
+        this.cell_ysize = (grid.yMax-grid.yMin)/height;
+    }
+
+    public RasterGrid grid() {
+        return grid;
+    }
+
+    public int get_width() {
+        return width;
+    }
+
+    public int get_height() {
+        return height;
+    }
+
+    /**
+     * Check if point is inside of valid cell
+     * @param x world x coordinate
+     * @param y world y coordinate
+     * @return false if point is outside of grid or cell has no data
+     */
+    public boolean is_valid(double x, double y) {
+        if (x < grid.xMin || x >= grid.xMax || y <= grid.yMin || y > grid.yMax) return false;
+        int cx = (int)((x-grid.xMin)/cell_xsize);
+        int cy = (int)((grid.yMax-y)/cell_ysize);
+        if (cx >= width) cx = width-1;
+        if (cy >= height) cy = height-1;
+        return valid[cx+cy*width];
+    }
+
+    /**
+     * Count pixels valid in both footprints.
+     * Intersection is scanned with the cell size of finer footprint,
+     * so result is exact up to that resolution
+     * @param other footprint of comparable image
+     * @return number of full resolution pixels (of this image grid) valid in both images
+     */
+    public long overlap_pixels(Footprint other) {
+        double xmin = Math.max(grid.xMin,other.grid.xMin);
+        double xmax = Math.min(grid.xMax,other.grid.xMax);
+        double ymin = Math.max(grid.yMin,other.grid.yMin);
+        double ymax = Math.min(grid.yMax,other.grid.yMax);
+        if (xmin >= xmax || ymin >= ymax) return 0;
+
+        // Scan cells of finer footprint
+        Footprint fine = cell_xsize*cell_ysize <= other.cell_xsize*other.cell_ysize ? this : other;
+
+        int cx_beg = (int)Math.floor((xmin-fine.grid.xMin)/fine.cell_xsize);
+        int cx_end = (int)Math.ceil((xmax-fine.grid.xMin)/fine.cell_xsize);
+        int cy_beg = (int)Math.floor((fine.grid.yMax-ymax)/fine.cell_ysize);
+        int cy_end = (int)Math.ceil((fine.grid.yMax-ymin)/fine.cell_ysize);
+
+        double area = 0;
+        for (int cy = cy_beg; cy < cy_end; ++cy) {
+            // Clip cell to intersection
+            double cell_ymax = Math.min(fine.grid.yMax-cy*fine.cell_ysize, ymax);
+            double cell_ymin = Math.max(fine.grid.yMax-(cy+1)*fine.cell_ysize, ymin);
+            if (cell_ymin >= cell_ymax) continue;
+
+            for (int cx = cx_beg; cx < cx_end; ++cx) {
+                double cell_xmin = Math.max(fine.grid.xMin+cx*fine.cell_xsize, xmin);
+                double cell_xmax = Math.min(fine.grid.xMin+(cx+1)*fine.cell_xsize, xmax);
+                if (cell_xmin >= cell_xmax) continue;
+
+                double center_x = (cell_xmin+cell_xmax)/2;
+                double center_y = (cell_ymin+cell_ymax)/2;
+                if (is_valid(center_x,center_y) && other.is_valid(center_x,center_y)) {
+                    area += (cell_xmax-cell_xmin)*(cell_ymax-cell_ymin);
+                }
+            }
+        }
+
+        return Math.round(area/(grid.xRes*grid.yRes));
+    }
+
+    //########################## STATIC METHODS #####################################################
+
+    /**
+     * Footprint of image with no nodata pixels
+     */
+    public static Footprint full(RasterGrid grid) {
+        return new Footprint(grid,1,1,new boolean[]{true});
+    }
+
+    /**
+     * Build footprint from mask band of first band of dataset.
+     * Mask is read decimated, so GDAL uses overviews of mask if there are any
+     * @param ds dataset to build footprint for
+     * @param max_size maximal width and height of footprint in cells
+     * @return footprint of dataset
+     */
+    public static Footprint from_dataset(RasterDataset ds, int max_size) {
+        Band band = ds.dataset().GetRasterBand(1);
+
+        // Do not read anything if whole image is valid
+        if ((band.GetMaskFlags() & gdalconstConstants.GMF_ALL_VALID) != 0) {
+            return full(ds.grid());
+        }
+
+        int px_width = ds.grid().get_width();
+        int px_height = ds.grid().get_height();
+
+        double scale = Math.max(1.0, (double)Math.max(px_width,px_height)/max_size);
+        int width = Math.max(1, (int)Math.ceil(px_width/scale));
+        int height = Math.max(1, (int)Math.ceil(px_height/scale));
+
+        byte[] mask = new byte[width*height];
+        band.GetMaskBand().ReadRaster(0,0,px_width,px_height,width,height,gdalconst.GDT_Byte,mask);
+
+        boolean[] valid = new boolean[width*height];
+        for (int i = 0; i != valid.length; ++i) {
+            valid[i] = mask[i] != 0;
+        }
+
+        return new Footprint(ds.grid(),width,height,valid);
+    }
+}
@@ -0,0 +1,96 @@
+package backend.rasterio;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Computes {@link Footprint}s of images in parallel and keeps them for the whole run,
+ * so each image mask is read only once. Cache may outlive run, i.e. in daemon,
+ * footprint of file, that was modified since, is computed again
+ */
+public class FootprintCache {
+
+    private static Logger log = Logger.getLogger(FootprintCache.class.getName());
+
+    // Default maximal footprint size, in cells
+    public static final int DEFAULT_SIZE = 256;
+
+    private final ConcurrentHashMap<String,Future<Footprint>> cache;
+    private final ExecutorService executor;
+    private final int max_size;
+
+    public FootprintCache(int n_threads, int max_size) {
+        this.cache = new ConcurrentHashMap<>();
+        this.max_size = max_size;
+        this.executor = Executors.newFixedThreadPool(n_threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r,"footprint");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Start computation of footprints for all datasets in background
+     * @param datasets datasets to compute footprints for
+     */
+    public void prefetch(Collection<RasterDataset> datasets) {
+        for (RasterDataset ds : datasets) {
+            submit(ds.get_filename());
+        }
+    }
+
+    /**
+     * Get footprint of dataset, compute if it is not in cache yet.
+     * Blocks until footprint is computed
+     * @param ds dataset to get footprint for
+     * @return footprint
+     */
+    public Footprint get(RasterDataset ds) throws IOException {
+        try {
+            return submit(ds.get_filename()).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while computing footprint of "+ds.get_filename());
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compute footprint of "+ds.get_filename(), e.getCause());
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private Future<Footprint> submit(final String filename) {
+        File file = new File(filename);
+        String key = filename+" "+file.length()+" "+file.lastModified();
+        Future<Footprint> f = cache.get(key);
+        if (f != null) return f;
+
+        FutureTask<Footprint> task = new FutureTask<>(new Callable<Footprint>() {
+            @Override
+            public Footprint call() throws Exception {
+                // Open separate handle, gdal datasets must not be shared between threads
+                RasterDataset ds = RasterDataset.from_file(filename);
+                try {
+                    Footprint fp = Footprint.from_dataset(ds, max_size);
+                    log.fine(String.format("Footprint of %s: %dx%d", filename, fp.get_width(), fp.get_height()));
+                    return fp;
+                } finally {
+                    ds.delete();
+                }
+            }
+        });
+
+        f = cache.putIfAbsent(key,task);
+        if (f != null) return f;
+
+        executor.execute(task);
+        return task;
+    }
+}
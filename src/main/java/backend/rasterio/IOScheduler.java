@@ -0,0 +1,287 @@
+package backend.rasterio;
+
+import backend.pmanagement.ResourceGovernor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Schedules reads by storage device files are stored on.
+ *
+ * Each device has it's own queue and worker threads, so slow spinning disk does not
+ * hold reads from other disks. Queued reads are served in elevator order
+ * (by file, then by row and column offset, continuing from last served position),
+ * which turns concurrent requests of several readers into sequential runs.
+ */
+public class IOScheduler {
+
+    private static Logger log = Logger.getLogger(IOScheduler.class.getName());
+
+    // Time worker waits for more requests, when there are less than window of policy
+    private static final long LINGER_MILLIS = 2;
+
+    private static final IOScheduler instance = new IOScheduler();
+
+    /**
+     * Concurrency and reordering of single device
+     */
+    public static class DevicePolicy {
+
+        /**
+         * Number of concurrent reads
+         */
+        public final int concurrency;
+
+        /**
+         * Number of pending reads worker waits for before picking next one in elevator order.
+         * Larger window gives longer sequential runs on spinning disks at cost of latency
+         */
+        public final int window;
+
+        public DevicePolicy(int concurrency, int window) {
+            if (concurrency < 1) throw new IllegalArgumentException("Concurrency must be positive");
+            this.concurrency = concurrency;
+            this.window = Math.max(1,window);
+        }
+
+        public static DevicePolicy rotational() {
+            return new DevicePolicy(1,16);
+        }
+
+        public static DevicePolicy solid_state() {
+            return new DevicePolicy(ResourceGovernor.DEFAULT_IO_PER_DEVICE,1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("concurrency %d, window %d",concurrency,window);
+        }
+    }
+
+    /**
+     * Single read of file region
+     */
+    private static class ReadRequest {
+        final String filename;
+        final int yoff;
+        final int xoff;
+        final long seq;
+        final FutureTask<Void> task;
+
+        ReadRequest(String filename, int xoff, int yoff, long seq, FutureTask<Void> task) {
+            this.filename = filename;
+            this.xoff = xoff;
+            this.yoff = yoff;
+            this.seq = seq;
+            this.task = task;
+        }
+    }
+
+    private static final Comparator<ReadRequest> ELEVATOR_ORDER = new Comparator<ReadRequest>() {
+        @Override
+        public int compare(ReadRequest a, ReadRequest b) {
+            int c = a.filename.compareTo(b.filename);
+            if (c != 0) return c;
+            c = Integer.compare(a.yoff,b.yoff);
+            if (c != 0) return c;
+            c = Integer.compare(a.xoff,b.xoff);
+            if (c != 0) return c;
+            return Long.compare(a.seq,b.seq);
+        }
+    };
+
+    /**
+     * Pending reads and workers of single device
+     */
+    private class DeviceQueue implements Runnable {
+
+        final String device;
+        final DevicePolicy policy;
+        final TreeSet<ReadRequest> pending = new TreeSet<>(ELEVATOR_ORDER);
+        final Thread[] workers;
+
+        // Last served request, next one is taken after it
+        ReadRequest cursor;
+
+        DeviceQueue(String device, DevicePolicy policy) {
+            this.device = device;
+            this.policy = policy;
+            workers = new Thread[policy.concurrency];
+            for (int i = 0; i != workers.length; ++i) {
+                workers[i] = new Thread(this, "io "+device+" #"+i);
+                workers[i].setDaemon(true);
+                workers[i].start();
+            }
+        }
+
+        synchronized void add(ReadRequest r) {
+            pending.add(r);
+            notifyAll();
+        }
+
+        synchronized ReadRequest take() throws InterruptedException {
+            while (pending.isEmpty()) {
+                wait();
+            }
+            if (pending.size() < policy.window) {
+                wait(LINGER_MILLIS);
+                // Other worker of device may have taken pending reads meanwhile
+                while (pending.isEmpty()) {
+                    wait();
+                }
+            }
+
+            ReadRequest next = cursor == null ? null : pending.higher(cursor);
+            if (next == null) next = pending.first();
+            pending.remove(next);
+            cursor = next;
+            return next;
+        }
+
+        @Override
+        public void run() {
+            ResourceGovernor governor = ResourceGovernor.get();
+            try {
+                while (true) {
+                    ReadRequest r = take();
+                    // Worker survives failed request, otherwise reads of device would wait forever
+                    try {
+                        governor.acquire_io(r.filename);
+                        try {
+                            r.task.run();
+                        } finally {
+                            governor.release_io(r.filename);
+                        }
+                    } catch (RuntimeException ex) {
+                        log.log(Level.WARNING, "Read of "+r.filename+" failed", ex);
+                        r.task.cancel(false);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                log.warning("I/O worker of "+device+" interrupted");
+            }
+        }
+    }
+
+    private final Map<String,DeviceQueue> queues;
+    private final Map<String,DevicePolicy> policies;
+    private long next_seq;
+
+    IOScheduler() {
+        queues = new HashMap<>();
+        policies = new HashMap<>();
+    }
+
+    public static IOScheduler get() {
+        return instance;
+    }
+
+    /**
+     * Set policy of device, file is stored on. Must be called before first read from device.
+     * Note: total I/O concurrency is still bounded by {@link ResourceGovernor}
+     */
+    public synchronized void set_policy(String filename, DevicePolicy policy) {
+        String device = ResourceGovernor.get().device_of(filename);
+        if (queues.containsKey(device)) {
+            log.warning("Policy of "+device+" set after it was used, ignored");
+            return;
+        }
+        policies.put(device,policy);
+    }
+
+    public synchronized DevicePolicy get_policy(String device) {
+        DevicePolicy policy = policies.get(device);
+        if (policy == null) {
+            policy = is_rotational(device) ? DevicePolicy.rotational() : DevicePolicy.solid_state();
+            policies.put(device,policy);
+        }
+        return policy;
+    }
+
+    /**
+     * Queue read of region of file on it's device
+     * @param read reads region, executed on device worker thread
+     * @return future, completed after read
+     */
+    public Future<Void> submit(String filename, int xoff, int yoff, Runnable read) {
+        String device = ResourceGovernor.get().device_of(filename);
+        DeviceQueue queue;
+        long seq;
+        synchronized (this) {
+            queue = queues.get(device);
+            if (queue == null) {
+                queue = new DeviceQueue(device,get_policy(device));
+                queues.put(device,queue);
+                log.info("Reading from "+device+": "+queue.policy);
+            }
+            seq = next_seq++;
+        }
+
+        FutureTask<Void> task = new FutureTask<>(read,null);
+        queue.add(new ReadRequest(filename,xoff,yoff,seq,task));
+        return task;
+    }
+
+    /**
+     * Number of worker threads of file's device, that are alive
+     */
+    synchronized int live_workers(String filename) {
+        DeviceQueue queue = queues.get(ResourceGovernor.get().device_of(filename));
+        if (queue == null) return 0;
+        int ret = 0;
+        for (Thread t : queue.workers) {
+            if (t.isAlive()) ++ret;
+        }
+        return ret;
+    }
+
+    /**
+     * Group datasets by storage device they are stored on
+     */
+    public static Map<String,List<RasterDataset>> group_by_device(Collection<RasterDataset> datasets) {
+        Map<String,List<RasterDataset>> ret = new TreeMap<>();
+        for (RasterDataset ds : datasets) {
+            String device = ResourceGovernor.get().device_of(ds.get_filename());
+            List<RasterDataset> group = ret.get(device);
+            if (group == null) {
+                group = new ArrayList<>();
+                ret.put(device,group);
+            }
+            group.add(ds);
+        }
+        return ret;
+    }
+
+    // File store description looks like "/media/disk (/dev/sdb1)"
+    private static final Pattern BLOCK_DEVICE = Pattern.compile("\\(/dev/([^)]+)\\)");
+
+    /**
+     * Check linux sysfs, whether device is spinning disk. Unknown devices are considered solid state
+     */
+    static boolean is_rotational(String device) {
+        Matcher m = BLOCK_DEVICE.matcher(device);
+        if (!m.find()) return false;
+
+        try {
+            // Partitions have no queue, it is in parent device directory
+            Path dev = Paths.get("/sys/class/block",m.group(1)).toRealPath();
+            for (Path dir : new Path[] {dev, dev.getParent()}) {
+                Path flag = dir.resolve("queue").resolve("rotational");
+                if (Files.exists(flag)) {
+                    return new String(Files.readAllBytes(flag), StandardCharsets.US_ASCII).trim().equals("1");
+                }
+            }
+        } catch (IOException ignored) {
+        }
+        return false;
+    }
+}
@@ -0,0 +1,83 @@
+package backend.rasterio;
+
+import backend.pmanagement.ResourceGovernor;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.Driver;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconst;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Writes normalized copy of image: each band is transformed as gain*value + offset
+ */
+public class ImageNormalizer {
+
+    // Rows read and written at once
+    private static final int STRIP_ROWS = 256;
+
+    /**
+     * Writing stops between strips, when calling thread is interrupted,
+     * partly written file is removed then and {@link InterruptedIOException} is thrown
+     * @param source image to normalize
+     * @param gains gain of each band
+     * @param offsets offset of each band
+     * @param filename output GeoTIFF, Float32
+     */
+    public static void write(RasterDataset source, double[] gains, double[] offsets, String filename) throws IOException {
+        Dataset src = source.dataset();
+        int width = src.getRasterXSize();
+        int height = src.getRasterYSize();
+        int n_bands = Math.min(src.GetRasterCount(),gains.length);
+
+        Driver driver = gdal.GetDriverByName("GTiff");
+        Dataset dst = driver.Create(filename, width, height, n_bands, gdalconst.GDT_Float32);
+        if (dst == null) throw new IOException("Could not create "+filename);
+
+        ResourceGovernor governor = ResourceGovernor.get();
+        boolean complete = false;
+        try {
+            dst.SetGeoTransform(src.GetGeoTransform());
+            dst.SetProjection(src.GetProjection());
+
+            float[] buf = new float[width*STRIP_ROWS];
+            for (int b = 0; b != n_bands; ++b) {
+                Band in = src.GetRasterBand(b+1);
+                Band out = dst.GetRasterBand(b+1);
+                for (int y = 0; y < height; y += STRIP_ROWS) {
+                    if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+                    int rows = Math.min(STRIP_ROWS,height-y);
+
+                    governor.acquire_io(source.get_filename());
+                    try {
+                        in.ReadRaster(0,y,width,rows,buf);
+                    } finally {
+                        governor.release_io(source.get_filename());
+                    }
+
+                    for (int i = 0; i != width*rows; ++i) {
+                        buf[i] = (float)(gains[b]*buf[i]+offsets[b]);
+                    }
+
+                    governor.acquire_io(filename);
+                    try {
+                        out.WriteRaster(0,y,width,rows,buf);
+                    } finally {
+                        governor.release_io(filename);
+                    }
+                }
+            }
+            dst.FlushCache();
+            complete = true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing "+filename);
+        } finally {
+            dst.delete();
+            // Partial output would pass for written one on next run
+            if (!complete) driver.Delete(filename);
+        }
+    }
+}
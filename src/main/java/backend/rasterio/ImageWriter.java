@@ -1,5 +1,6 @@
 package backend.rasterio;
 
+import backend.pmanagement.ResourceGovernor;
 import org.gdal.gdal.*;
 import org.gdal.gdalconst.gdalconst;
 import sun.nio.ch.DirectBuffer;
@@ -7,14 +8,30 @@ import sun.nio.ch.DirectBuffer;
 import javax.xml.crypto.Data;
 import java.nio.*;
 import java.util.HashMap;
+import java.util.concurrent.CancellationException;
 
 public class ImageWriter {
 
 
+    /**
+     * Write bands, holding I/O permit of dataset's device
+     */
     public static void write(Dataset ds, ByteBuffer[] buf, int xoff, int yoff, int xsize, int ysize, int type) {
-        for (int b = 0; b != buf.length; ++b)
-            ds.GetRasterBand(b+1).WriteRaster_Direct(xoff, yoff, xsize, ysize, xsize, ysize, type , buf[b]);
-        ds.FlushCache();
+        ResourceGovernor governor = ResourceGovernor.get();
+        String filename = ds.GetDescription();
+        try {
+            governor.acquire_io(filename);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting to write "+filename);
+        }
+        try {
+            for (int b = 0; b != buf.length; ++b)
+                ds.GetRasterBand(b+1).WriteRaster_Direct(xoff, yoff, xsize, ysize, xsize, ysize, type , buf[b]);
+            ds.FlushCache();
+        } finally {
+            governor.release_io(filename);
+        }
     }
 
     public static void write(String filename, Object[] buf, int xoff, int yoff, int xsize, int ysize ) {
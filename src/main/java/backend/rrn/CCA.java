@@ -1,9 +1,7 @@
 package backend.rrn;
 
 import org.ejml.data.DMatrixRMaj;
-import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
-import static backend.utils.MatUtils.*;
 import static org.ejml.dense.row.CommonOps_DDRM.*;
 // custom math functions
 
@@ -36,6 +34,9 @@ import static org.ejml.dense.row.CommonOps_DDRM.*;
 
 public class CCA {
 
+    // Accumulated statistics, matrices below are views of it's arrays
+    public final CCAStats stats;
+
     // Usefull statistics that can be used by external users
     public double w_sum;
 
@@ -48,7 +49,7 @@ public class CCA {
 
 
     // Declared with computation speedup in mind
-    private DMatrixRMaj n_bands_vec_buf,n_bands_mat_buf,n_bands_mat_buf2;
+    private DMatrixRMaj n_bands_mat_buf,n_bands_mat_buf2;
 
     // Computition engines
     private Cov_comp cov_comp; // Covariance computation
@@ -63,11 +64,12 @@ public class CCA {
     public CCA(int i_n_bands) {
         this.n_bands = i_n_bands;
 
-        x_wsum = new DMatrixRMaj(n_bands,1);
-        xx_wsum = new DMatrixRMaj(n_bands,n_bands);
-        xy_wsum = new DMatrixRMaj(n_bands,n_bands);
-        yy_wsum = new DMatrixRMaj(n_bands,n_bands);
-        y_wsum = new DMatrixRMaj(n_bands,1);
+        stats = new CCAStats(n_bands);
+        x_wsum = DMatrixRMaj.wrap(n_bands,1,stats.x_wsum);
+        xx_wsum = DMatrixRMaj.wrap(n_bands,n_bands,stats.xx_wsum);
+        xy_wsum = DMatrixRMaj.wrap(n_bands,n_bands,stats.xy_wsum);
+        yy_wsum = DMatrixRMaj.wrap(n_bands,n_bands,stats.yy_wsum);
+        y_wsum = DMatrixRMaj.wrap(n_bands,1,stats.y_wsum);
 
         xx_cov = new DMatrixRMaj(n_bands,n_bands);
         xy_cov = new DMatrixRMaj(n_bands,n_bands);
@@ -82,7 +84,6 @@ public class CCA {
         regr_ret = new DMatrixRMaj(n_bands,2);
 
 
-        n_bands_vec_buf = new DMatrixRMaj(n_bands,1);
         n_bands_mat_buf = new DMatrixRMaj(n_bands, n_bands);
         n_bands_mat_buf2 = new DMatrixRMaj(n_bands,n_bands);
 
@@ -110,52 +111,56 @@ public class CCA {
 //        pull(new DMatrixRMaj(i_X),new DMatrixRMaj(i_Y));
 //    }
 
+    /**
+     * Add weighted pixels
+     * @param X source pixels, row per pixel, column per band
+     * @param Y target pixels
+     * @param w column of weights of rows
+     */
     public void push(DMatrixRMaj X, DMatrixRMaj Y, DMatrixRMaj w) {
+        stats.push(X, Y, w.data, 0, X.numRows);
+        w_sum = stats.w_sum;
+    }
 
-        //self.xy_wsum += np.transpose(x) @ ( y*w[:,np.newaxis] )
-        //self.xx_wsum += np.transpose(x) @ ( x*w[:,np.newaxis] )
-        //self.yy_wsum += np.transpose(y) @ ( y*w[:,np.newaxis] )
-
-        //self.w_sum += w.sum()
-
-        // x_wsum  += np.sum(x*w[:,np.newaxis],axis=0)[:,np.newaxis]
-        wsumCols(X,w,n_bands_vec_buf);
-        add(n_bands_vec_buf, x_wsum, x_wsum);
-
-        // y_wsum  += np.sum(y*w[:,np.newaxis],axis=0)[:,np.newaxis]
-        wsumCols(Y,w,n_bands_vec_buf);
-        add(n_bands_vec_buf, y_wsum, y_wsum);
-
-        // Calculate transpositions
-        DMatrixRMaj X_T = new DMatrixRMaj(X.numCols,X.numRows);
-        DMatrixRMaj Y_T = new DMatrixRMaj(Y.numCols,Y.numRows);
-        transpose(X,X_T);
-        transpose(Y,Y_T);
-
-        //self.xy_wsum += np.matmul(np.transpose(x),y)
-        mult(X_T,Y,n_bands_mat_buf);
-        add(n_bands_mat_buf, xy_wsum, xy_wsum);
-
-        //self.xx_wsum += np.matmul(np.transpose(x),x)
-        mult(X_T,X,n_bands_mat_buf);
-        add(n_bands_mat_buf, xx_wsum, xx_wsum);
+    /**
+     * Remove pixels, that were pushed before with same weights
+     */
+    public void pull(DMatrixRMaj X, DMatrixRMaj Y, DMatrixRMaj w) {
+        stats.pull(X, Y, w.data, 0, X.numRows);
+        w_sum = stats.w_sum;
+    }
 
-        //self.yy_wsum += np.matmul(np.transpose(y),y)
-        mult(Y_T,Y,n_bands_mat_buf);
-        add(n_bands_mat_buf, yy_wsum, yy_wsum);
+    /**
+     * Add statistics accumulated elsewhere, i.e. by {@link CCAReduction}
+     */
+    public void merge(CCAStats other) {
+        stats.merge(other);
+        w_sum = stats.w_sum;
+    }
 
-        //self.w_sum += np.shape(x)[0]
-        w_sum += elementSum(w);
+    /**
+     * Replace accumulated statistics, i.e. by ones merged from parts of overlap
+     */
+    public void set_statistics(CCAStats other) {
+        if (other.n_bands() != n_bands) throw new IllegalArgumentException("Statistics of different number of bands");
+        stats.set(other);
+        w_sum = stats.w_sum;
     }
 
-    public void pull(DMatrixRMaj i_X, DMatrixRMaj i_Y) {
-        throw new NotImplementedException();
+    /**
+     * Copy of accumulated statistics, see {@link CCAStats#merge(CCAStats)}
+     */
+    public RRNResult get_statistics() {
+        RRNResult ret = new RRNResult();
+        ret.set(stats);
+        return ret;
     }
 
 
     // Compute variables
 
     public void compute() {
+        w_sum = stats.w_sum;
         cov_comp.calc_cov(xx_wsum, x_wsum, x_wsum, w_sum,xx_cov);
         cov_comp.calc_cov(xy_wsum, x_wsum, y_wsum, w_sum,xy_cov);
         cov_comp.calc_cov(yy_wsum, y_wsum, y_wsum, w_sum,yy_cov);
@@ -0,0 +1,284 @@
+package backend.rrn;
+
+import backend.rasterio.BlockInfo;
+import backend.utils.BufferUtils;
+import backend.utils.TypeUtils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Accumulates weighted statistics of pixels, see {@link CCAStats}, straight from band-sequential buffers.
+ *
+ * Pixels are processed in tiles, that stay in cache: values of tile are converted to doubles once,
+ * weighted once, and single pass over tile updates sums, X^T W Y and upper triangles of symmetric X^T W X and Y^T W Y.
+ * Nodata pixels of either image weigh 0, their values are not used.
+ * Buffers are allocated once, so pushing blocks allocates nothing. Kernel is not thread-safe,
+ * each accumulating thread has it's own
+ */
+public class CCAKernel {
+
+    // Pixels of tile, values of tile of all bands, weighted and not, fit into L2 cache
+    public static final int TILE = 256;
+
+    private final int n_bands;
+
+    // Statistics accumulated so far, lower triangles of xx_wsum and yy_wsum are filled on flush
+    private final CCAStats acc;
+
+    // Tile of block, band-sequential, TILE values per band
+    private final double[] x_tile;
+    private final double[] y_tile;
+    // Weighted values of tile
+    private final double[] wx;
+    private final double[] wy;
+    private final double[] w = new double[TILE];
+    // 1 if pixel of tile is valid in both images, 0 if it is nodata in either
+    private final double[] valid = new double[TILE];
+    // Values of single pixel, to compute it's weight
+    private final double[] x_pixel;
+    private final double[] y_pixel;
+
+    public CCAKernel(int n_bands) {
+        this.n_bands = n_bands;
+        acc = new CCAStats(n_bands);
+        x_tile = new double[n_bands*TILE];
+        y_tile = new double[n_bands*TILE];
+        wx = new double[n_bands*TILE];
+        wy = new double[n_bands*TILE];
+        x_pixel = new double[n_bands];
+        y_pixel = new double[n_bands];
+    }
+
+    /**
+     * Push pixels of block with first dataset as source and second as target.
+     * Pixels masked in either dataset are skipped, see {@link BlockInfo#get_mask(int)}
+     * @param weights weights of iteration, null for all pixels weighting 1
+     */
+    public void push(BlockInfo block, IRMAD.Weights weights) {
+        int n_pixels = block.width*block.height;
+        if (n_pixels == 0) return;
+        for (int b = 0; b != n_bands; ++b) {
+            check_size(block, 0, b, n_pixels);
+            check_size(block, 1, b, n_pixels);
+        }
+        ByteBuffer x_mask = block.get_mask(0);
+        ByteBuffer y_mask = block.get_mask(1);
+        check_mask(x_mask, n_pixels);
+        check_mask(y_mask, n_pixels);
+
+        for (int first = 0; first < n_pixels; first += TILE) {
+            int count = Math.min(TILE, n_pixels-first);
+            for (int b = 0; b != n_bands; ++b) {
+                BufferUtils.toDoubleArr(block.get_data(0,b), block.get_data_type(0,b), first, count, x_tile, b*TILE);
+                BufferUtils.toDoubleArr(block.get_data(1,b), block.get_data_type(1,b), first, count, y_tile, b*TILE);
+            }
+            boolean masked = load_validity(x_mask, y_mask, first, count);
+            if (masked) clear_invalid(count);
+            accumulate(x_tile, y_tile, TILE, 0, count, weights, masked);
+        }
+    }
+
+    private static void check_size(BlockInfo block, int dataset_id, int band_id, int n_pixels) {
+        ByteBuffer data = block.get_data(dataset_id, band_id);
+        if (data.remaining()/TypeUtils.get_size(block.get_data_type(dataset_id, band_id)) != n_pixels) {
+            throw new IllegalStateException("Blocks of source and target differ in size, grids must be aligned");
+        }
+    }
+
+    private static void check_mask(ByteBuffer mask, int n_pixels) {
+        if (mask != null && mask.remaining() != n_pixels) {
+            throw new IllegalStateException("Mask of "+mask.remaining()+" pixels, block has "+n_pixels);
+        }
+    }
+
+    /**
+     * Push pixels of band-sequential arrays, value of band b of pixel p is at b*n_pixels+p
+     * @param x source values
+     * @param y target values
+     * @param weights weights of iteration, null for all pixels weighting 1
+     */
+    public void push(double[] x, double[] y, int n_pixels, IRMAD.Weights weights) {
+        push(x, y, null, null, n_pixels, weights);
+    }
+
+    /**
+     * Same as {@link #push(double[], double[], int, IRMAD.Weights)}, skipping masked pixels
+     * @param x_mask byte per pixel of source, 0 is nodata, null if all are valid
+     * @param y_mask same for target
+     */
+    public void push(double[] x, double[] y, ByteBuffer x_mask, ByteBuffer y_mask, int n_pixels,
+                     IRMAD.Weights weights) {
+        if (x.length < n_bands*n_pixels || y.length < n_bands*n_pixels) {
+            throw new IllegalArgumentException("Expected "+n_bands+" bands of "+n_pixels+" pixels");
+        }
+        check_mask(x_mask, n_pixels);
+        check_mask(y_mask, n_pixels);
+        for (int first = 0; first < n_pixels; first += TILE) {
+            int count = Math.min(TILE, n_pixels-first);
+            if (!load_validity(x_mask, y_mask, first, count)) {
+                accumulate(x, y, n_pixels, first, count, weights, false);
+                continue;
+            }
+            // Values of nodata pixels may be anything, even NaN, so they are replaced in copy of tile
+            for (int b = 0; b != n_bands; ++b) {
+                System.arraycopy(x, b*n_pixels+first, x_tile, b*TILE, count);
+                System.arraycopy(y, b*n_pixels+first, y_tile, b*TILE, count);
+            }
+            clear_invalid(count);
+            accumulate(x_tile, y_tile, TILE, 0, count, weights, true);
+        }
+    }
+
+    /**
+     * Fill validity of tile from masks
+     * @return some pixels of tile are not valid
+     */
+    private boolean load_validity(ByteBuffer x_mask, ByteBuffer y_mask, int first, int count) {
+        if (x_mask == null && y_mask == null) return false;
+        Arrays.fill(valid, 0, count, 1);
+        boolean x_masked = apply_mask(x_mask, first, count);
+        boolean y_masked = apply_mask(y_mask, first, count);
+        return x_masked || y_masked;
+    }
+
+    private boolean apply_mask(ByteBuffer mask, int first, int count) {
+        if (mask == null) return false;
+        boolean masked = false;
+        int pos = mask.position()+first;
+        for (int p = 0; p != count; ++p) {
+            if (mask.get(pos+p) == 0) {
+                valid[p] = 0;
+                masked = true;
+            }
+        }
+        return masked;
+    }
+
+    // Zero values of invalid pixels of tile, so they add nothing to products
+    private void clear_invalid(int count) {
+        for (int p = 0; p != count; ++p) {
+            if (valid[p] != 0) continue;
+            for (int b = 0; b != n_bands; ++b) {
+                x_tile[b*TILE+p] = 0;
+                y_tile[b*TILE+p] = 0;
+            }
+        }
+    }
+
+    /**
+     * Accumulate tile of count pixels, value of band b of pixel p is at b*stride+first+p
+     * @param masked invalid pixels of {@link #valid} weigh 0
+     */
+    private void accumulate(double[] x, double[] y, int stride, int first, int count, IRMAD.Weights weights,
+                            boolean masked) {
+        int n = n_bands;
+        if (weights == null) {
+            if (masked) {
+                System.arraycopy(valid, 0, w, 0, count);
+            } else {
+                Arrays.fill(w, 0, count, 1);
+            }
+        } else {
+            for (int p = 0; p != count; ++p) {
+                if (masked && valid[p] == 0) {
+                    w[p] = 0;
+                    continue;
+                }
+                for (int b = 0; b != n; ++b) {
+                    x_pixel[b] = x[b*stride+first+p];
+                    y_pixel[b] = y[b*stride+first+p];
+                }
+                w[p] = weights.weight(x_pixel, y_pixel);
+            }
+        }
+
+        double w_sum = 0;
+        for (int p = 0; p != count; ++p) w_sum += w[p];
+        acc.w_sum += w_sum;
+
+        // Weight tile once, sums of bands come along
+        for (int i = 0; i != n; ++i) {
+            int src = i*stride+first;
+            int dst = i*TILE;
+            double sx = 0;
+            double sy = 0;
+            for (int p = 0; p != count; ++p) {
+                double vx = w[p]*x[src+p];
+                double vy = w[p]*y[src+p];
+                wx[dst+p] = vx;
+                wy[dst+p] = vy;
+                sx += vx;
+                sy += vy;
+            }
+            acc.x_wsum[i] += sx;
+            acc.y_wsum[i] += sy;
+        }
+
+        double[] xx = acc.xx_wsum;
+        double[] xy = acc.xy_wsum;
+        double[] yy = acc.yy_wsum;
+        // Pairs of pixels are summed separately, so additions do not wait for each other
+        int even = count & ~1;
+        for (int i = 0; i != n; ++i) {
+            int wi = i*TILE;
+            // Below diagonal only X^T W Y is not symmetric
+            for (int j = 0; j != i; ++j) {
+                int yj = j*stride+first;
+                double sxy0 = 0, sxy1 = 0;
+                int p = 0;
+                for (; p != even; p += 2) {
+                    sxy0 += wx[wi+p]*y[yj+p];
+                    sxy1 += wx[wi+p+1]*y[yj+p+1];
+                }
+                if (p != count) sxy0 += wx[wi+p]*y[yj+p];
+                xy[i*n+j] += sxy0+sxy1;
+            }
+            for (int j = i; j != n; ++j) {
+                int vj = j*stride+first;
+                double sxx0 = 0, sxx1 = 0;
+                double sxy0 = 0, sxy1 = 0;
+                double syy0 = 0, syy1 = 0;
+                int p = 0;
+                for (; p != even; p += 2) {
+                    double vx0 = wx[wi+p], vx1 = wx[wi+p+1];
+                    double vy0 = y[vj+p], vy1 = y[vj+p+1];
+                    sxx0 += vx0*x[vj+p];
+                    sxx1 += vx1*x[vj+p+1];
+                    sxy0 += vx0*vy0;
+                    sxy1 += vx1*vy1;
+                    syy0 += wy[wi+p]*vy0;
+                    syy1 += wy[wi+p+1]*vy1;
+                }
+                if (p != count) {
+                    sxx0 += wx[wi+p]*x[vj+p];
+                    sxy0 += wx[wi+p]*y[vj+p];
+                    syy0 += wy[wi+p]*y[vj+p];
+                }
+                xx[i*n+j] += sxx0+sxx1;
+                xy[i*n+j] += sxy0+sxy1;
+                yy[i*n+j] += syy0+syy1;
+            }
+        }
+    }
+
+    /**
+     * Add statistics accumulated so far to given ones and start over
+     */
+    public void flush(CCAStats into) {
+        for (int i = 0; i != n_bands; ++i) {
+            for (int j = i+1; j != n_bands; ++j) {
+                acc.xx_wsum[j*n_bands+i] = acc.xx_wsum[i*n_bands+j];
+                acc.yy_wsum[j*n_bands+i] = acc.yy_wsum[i*n_bands+j];
+            }
+        }
+        into.merge(acc);
+
+        acc.w_sum = 0;
+        Arrays.fill(acc.x_wsum, 0);
+        Arrays.fill(acc.y_wsum, 0);
+        Arrays.fill(acc.xx_wsum, 0);
+        Arrays.fill(acc.xy_wsum, 0);
+        Arrays.fill(acc.yy_wsum, 0);
+    }
+}
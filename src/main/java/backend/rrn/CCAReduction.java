@@ -0,0 +1,94 @@
+package backend.rrn;
+
+import backend.pmanagement.ResourceGovernor;
+import org.ejml.data.DMatrixRMaj;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Weighted statistics of pixels, accumulated by fork/join.
+ *
+ * Rows of pixels are split in halves, until they are small enough. Each thread accumulates halves it has taken
+ * into statistics of it's own, so accumulators are not shared, and statistics of halves are merged on join.
+ * Half is forked only if there is idle CPU permit of {@link ResourceGovernor}, so busy process accumulates
+ * sequentially and does not take cores from other processes
+ */
+public class CCAReduction extends RecursiveTask<CCAStats> {
+
+    // Tasks are serializable as fork/join tasks, they are never serialized
+    private static final long serialVersionUID = 1L;
+
+    // Rows, that are not split further
+    public static final int LEAF_ROWS = 8192;
+
+    // Reductions of threads, that are not in fork/join pool
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private final DMatrixRMaj X;
+    private final DMatrixRMaj Y;
+    private final IRMAD.Weights weights;
+    // Weight of each row, shared, each task fills it's own rows
+    private final double[] w;
+    private final int from;
+    private final int to;
+
+    CCAReduction(DMatrixRMaj X, DMatrixRMaj Y, IRMAD.Weights weights, double[] w, int from, int to) {
+        this.X = X;
+        this.Y = Y;
+        this.weights = weights;
+        this.w = w;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Statistics of pixels, weighted by their no-change probability
+     * @param X source pixels, row per pixel, column per band
+     * @param Y target pixels
+     * @param weights weights of iteration, null for all pixels weighting 1
+     */
+    public static CCAStats reduce(DMatrixRMaj X, DMatrixRMaj Y, IRMAD.Weights weights) {
+        if (X.numRows != Y.numRows || X.numCols != Y.numCols) {
+            throw new IllegalArgumentException("Source and target pixels differ in size");
+        }
+        CCAReduction task = new CCAReduction(X, Y, weights, new double[X.numRows], 0, X.numRows);
+        if (X.numRows <= LEAF_ROWS) return task.compute();
+        // Inside of pool, i.e. of processes, halves are forked to it, so idle workers help
+        return ForkJoinTask.inForkJoinPool() ? task.invoke() : pool.invoke(task);
+    }
+
+    @Override
+    protected CCAStats compute() {
+        if (to-from <= LEAF_ROWS || !ResourceGovernor.get().try_acquire_cpu(null)) return accumulate(from, to);
+        try {
+            int mid = (from+to) >>> 1;
+            CCAReduction right = new CCAReduction(X, Y, weights, w, mid, to);
+            right.fork();
+            CCAStats ret = new CCAReduction(X, Y, weights, w, from, mid).compute();
+            ret.merge(right.join());
+            return ret;
+        } finally {
+            ResourceGovernor.get().release_cpu(null);
+        }
+    }
+
+    private CCAStats accumulate(int first, int end) {
+        int n_bands = X.numCols;
+        if (weights == null) {
+            for (int row = first; row < end; ++row) w[row] = 1;
+        } else {
+            double[] x = new double[n_bands];
+            double[] y = new double[n_bands];
+            for (int row = first; row < end; ++row) {
+                System.arraycopy(X.data, row*n_bands, x, 0, n_bands);
+                System.arraycopy(Y.data, row*n_bands, y, 0, n_bands);
+                w[row] = weights.weight(x, y);
+            }
+        }
+        CCAStats ret = new CCAStats(n_bands);
+        ret.push(X, Y, w, first, end);
+        return ret;
+    }
+}
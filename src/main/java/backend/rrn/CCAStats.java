@@ -0,0 +1,130 @@
+package backend.rrn;
+
+import org.ejml.data.DMatrixRMaj;
+
+/**
+ * Weighted sufficient statistics of overlap, enough to compute {@link CCA} without re-reading images.
+ *
+ * Statistics are weighted sums, so statistics of parts of overlap, accumulated by different threads,
+ * merge into statistics of whole overlap. x is source, y is target, products are row-major n_bands x n_bands.
+ * Statistics without arrays are empty, they hold no pixels
+ */
+public class CCAStats {
+
+    public double w_sum;
+    public double[] x_wsum;
+    public double[] y_wsum;
+    public double[] xx_wsum;
+    public double[] xy_wsum;
+    public double[] yy_wsum;
+
+    /**
+     * Empty statistics
+     */
+    public CCAStats() {
+    }
+
+    /**
+     * Zero statistics of n_bands
+     */
+    public CCAStats(int n_bands) {
+        x_wsum = new double[n_bands];
+        y_wsum = new double[n_bands];
+        xx_wsum = new double[n_bands*n_bands];
+        xy_wsum = new double[n_bands*n_bands];
+        yy_wsum = new double[n_bands*n_bands];
+    }
+
+    public boolean has_statistics() {
+        return x_wsum != null;
+    }
+
+    public int n_bands() {
+        return x_wsum == null ? 0 : x_wsum.length;
+    }
+
+    /**
+     * Add pixels of rows from..to
+     * @param X source pixels, row per pixel, column per band
+     * @param Y target pixels
+     * @param w weight of each row
+     */
+    public void push(DMatrixRMaj X, DMatrixRMaj Y, double[] w, int from, int to) {
+        accumulate(X, Y, w, from, to, 1);
+    }
+
+    /**
+     * Remove pixels of rows from..to, that were pushed before with same weights
+     */
+    public void pull(DMatrixRMaj X, DMatrixRMaj Y, double[] w, int from, int to) {
+        accumulate(X, Y, w, from, to, -1);
+    }
+
+    private void accumulate(DMatrixRMaj X, DMatrixRMaj Y, double[] w, int from, int to, double sign) {
+        int n = n_bands();
+        if (X.numCols != n || Y.numCols != n) throw new IllegalArgumentException("Statistics of different number of bands");
+        double[] x = X.data;
+        double[] y = Y.data;
+        for (int row = from; row < to; ++row) {
+            double wr = sign*w[row];
+            if (wr == 0) continue;
+            int r = row*n;
+            w_sum += wr;
+            for (int i = 0; i != n; ++i) {
+                double wx = wr*x[r+i];
+                double wy = wr*y[r+i];
+                x_wsum[i] += wx;
+                y_wsum[i] += wy;
+                int o = i*n;
+                for (int j = 0; j != n; ++j) {
+                    xx_wsum[o+j] += wx*x[r+j];
+                    xy_wsum[o+j] += wx*y[r+j];
+                    yy_wsum[o+j] += wy*y[r+j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Add statistics of other part of overlap. Statistics are weighted sums,
+     * so merged parts give same statistics as whole overlap
+     */
+    public void merge(CCAStats other) {
+        if (!other.has_statistics()) return;
+        if (!has_statistics()) {
+            set(other);
+            return;
+        }
+        w_sum += other.w_sum;
+        add(x_wsum, other.x_wsum);
+        add(y_wsum, other.y_wsum);
+        add(xx_wsum, other.xx_wsum);
+        add(xy_wsum, other.xy_wsum);
+        add(yy_wsum, other.yy_wsum);
+    }
+
+    /**
+     * Replace statistics by copy of other ones
+     */
+    public void set(CCAStats other) {
+        w_sum = other.w_sum;
+        x_wsum = copy(other.x_wsum, x_wsum);
+        y_wsum = copy(other.y_wsum, y_wsum);
+        xx_wsum = copy(other.xx_wsum, xx_wsum);
+        xy_wsum = copy(other.xy_wsum, xy_wsum);
+        yy_wsum = copy(other.yy_wsum, yy_wsum);
+    }
+
+    // Arrays are kept, if they fit, so views of them stay valid
+    private static double[] copy(double[] from, double[] to) {
+        if (from == null) return null;
+        if (to == null || to.length != from.length) return from.clone();
+        System.arraycopy(from, 0, to, 0, from.length);
+        return to;
+    }
+
+    private static void add(double[] to, double[] values) {
+        if (to.length != values.length) throw new IllegalArgumentException("Statistics of different number of bands");
+        for (int i = 0; i != to.length; ++i) to[i] += values[i];
+    }
+}
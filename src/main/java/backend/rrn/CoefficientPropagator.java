@@ -0,0 +1,163 @@
+package backend.rrn;
+
+import java.util.*;
+
+/**
+ * Composes coefficients of spanning tree edges into coefficients of each vertex relative to reference.
+ *
+ * Edge result normalizes child to parent: p = a*c + b, cumulative coefficients of parent
+ * normalize it to reference: r = A*p + B, so child is normalized to reference by A*a and A*b + B.
+ *
+ * Vertices, whose path to reference has no changed edge, keep their previous coefficients,
+ * so only subtrees below changed edges are re-propagated.
+ *
+ * @param <V> vertex type
+ */
+public class CoefficientPropagator<V> {
+
+    private final Map<V,RRNResult> cumulative;
+    private final Set<V> repropagated;
+
+    private final V[] children;
+    private final V[] parents;
+    private final RRNResult[] edges;
+    // Edges by their parent vertex
+    private final Map<V,List<Integer>> child_edges;
+
+    private CoefficientPropagator(V[] children, V[] parents) {
+        this.cumulative = new HashMap<>();
+        this.repropagated = new HashSet<>();
+        this.children = children;
+        this.parents = parents;
+        this.edges = new RRNResult[children.length];
+        this.child_edges = new HashMap<>();
+        for (int i = 0; i != children.length; ++i) {
+            List<Integer> list = child_edges.get(parents[i]);
+            if (list == null) {
+                list = new ArrayList<>();
+                child_edges.put(parents[i],list);
+            }
+            list.add(i);
+        }
+    }
+
+    /**
+     * @param reference vertex all coefficients are relative to
+     * @param n_bands number of bands of reference
+     * @param children child of each edge, edges are in depth-first order from reference, so parent goes first
+     * @param parents parent of each edge
+     * @param edges result of each edge, normalizing child to parent
+     * @param changed whether edge was recomputed or is new in tree
+     * @param previous coefficients of previous run, relative to same reference
+     */
+    public static <V> CoefficientPropagator<V> propagate(V reference, int n_bands,
+                                                         V[] children, V[] parents, RRNResult[] edges,
+                                                         boolean[] changed, Map<V,RRNResult> previous) {
+        CoefficientPropagator<V> ret = start(reference, n_bands, children, parents, changed, previous);
+        for (int i = 0; i != edges.length; ++i) {
+            if (edges[i] != null) ret.resolve(i, edges[i]);
+        }
+        return ret;
+    }
+
+    /**
+     * Start propagation, which results of edges are given one by one with {@link #resolve(int, RRNResult)}.
+     * Reference and vertices, which keep previous coefficients, are final right away.
+     * Parameters are same as of {@link #propagate}
+     */
+    public static <V> CoefficientPropagator<V> start(V reference, int n_bands, V[] children, V[] parents,
+                                                     boolean[] changed, Map<V,RRNResult> previous) {
+        CoefficientPropagator<V> ret = new CoefficientPropagator<>(children, parents);
+
+        if (previous.containsKey(reference)) {
+            ret.cumulative.put(reference,previous.get(reference));
+        } else {
+            ret.cumulative.put(reference,identity(n_bands));
+            ret.repropagated.add(reference);
+        }
+
+        for (int i = 0; i != children.length; ++i) {
+            V child = children[i];
+            boolean dirty = changed[i] || ret.repropagated.contains(parents[i]) || !previous.containsKey(child);
+            if (dirty) {
+                ret.repropagated.add(child);
+            } else {
+                ret.cumulative.put(child,previous.get(child));
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Give result of edge
+     * @return vertices, which coefficients became final, child of edge and those below it
+     */
+    public List<V> resolve(int edge, RRNResult result) {
+        edges[edge] = result;
+        List<V> ret = new ArrayList<>();
+
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(edge);
+        while (!stack.isEmpty()) {
+            int i = stack.pop();
+            V child = children[i];
+            RRNResult parent = cumulative.get(parents[i]);
+            if (!repropagated.contains(child) || cumulative.containsKey(child)) continue;
+            if (parent == null || !is_complete(edges[i])) continue;
+
+            cumulative.put(child,compose(parent,edges[i]));
+            ret.add(child);
+            List<Integer> below = child_edges.get(child);
+            if (below != null) {
+                for (int j : below) stack.push(j);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Coefficients of vertex relative to reference, null if some edge on path to reference has no result
+     */
+    public RRNResult get(V vertex) {
+        return cumulative.get(vertex);
+    }
+
+    public Map<V,RRNResult> get_all() {
+        return cumulative;
+    }
+
+    /**
+     * Vertices which coefficients were computed in this run, rather than taken from previous one
+     */
+    public Set<V> get_repropagated() {
+        return repropagated;
+    }
+
+    public static RRNResult identity(int n_bands) {
+        RRNResult ret = new RRNResult();
+        ret.coefs_source = new double[n_bands];
+        ret.intercept_source = new double[n_bands];
+        Arrays.fill(ret.coefs_source,1);
+        return ret;
+    }
+
+    /**
+     * Apply inner transform, then outer one
+     */
+    public static RRNResult compose(RRNResult outer, RRNResult inner) {
+        int n_bands = Math.min(outer.coefs_source.length,inner.coefs_source.length);
+        RRNResult ret = new RRNResult();
+        ret.coefs_source = new double[n_bands];
+        ret.intercept_source = new double[n_bands];
+        for (int b = 0; b != n_bands; ++b) {
+            ret.coefs_source[b] = outer.coefs_source[b]*inner.coefs_source[b];
+            ret.intercept_source[b] = outer.coefs_source[b]*inner.intercept_source[b]+outer.intercept_source[b];
+        }
+        return ret;
+    }
+
+    private static boolean is_complete(RRNResult res) {
+        return res != null && res.coefs_source != null && res.intercept_source != null;
+    }
+}
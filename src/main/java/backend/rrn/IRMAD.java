@@ -1,5 +1,265 @@
 package backend.rrn;
 
+import org.ejml.data.DMatrixRMaj;
+
+import java.util.Arrays;
+
+/**
+ * Iteratively re-weighted multivariate alteration detection, after python_scripts/new_IRMAD.py.
+ *
+ * Each iteration pools weighted statistics of overlap into canonical variates, see {@link CCA}.
+ * Weight of pixel in next iteration is it's probability of no change: chi-square probability
+ * of standardized differences of canonical variates (MAD variates). Iterations end, when
+ * canonical correlations stop changing.
+ *
+ * Only statistics are needed to commit iteration, so parts of overlap may be accumulated
+ * independently and merged, see {@link CCAStats#merge(CCAStats)}
+ */
 public class IRMAD {
 
+    public static final int MAX_ITERATIONS = 20;
+    // Change of canonical correlations, iterations end at
+    public static final double TOLERANCE = 1e-3;
+
+    /**
+     * Parameters of no-change weights, computed from previous iteration
+     */
+    public static class Weights {
+        final int n_bands;
+        // Columns are coefficients of canonical variates, row-major n_bands x n_bands
+        final double[] a;
+        final double[] b;
+        // Mean and variance of each MAD variate
+        final double[] m_mean;
+        final double[] m_var;
+
+        Weights(double[] a, double[] b, double[] m_mean, double[] m_var) {
+            this.n_bands = m_mean.length;
+            this.a = a;
+            this.b = b;
+            this.m_mean = m_mean;
+            this.m_var = m_var;
+        }
+
+        /**
+         * Probability of no change of pixel
+         * @param x source values of each band
+         * @param y target values of each band
+         */
+        public double weight(double[] x, double[] y) {
+            double chi2 = 0;
+            for (int i = 0; i != n_bands; ++i) {
+                if (m_var[i] <= 0) continue;
+                double m = 0;
+                for (int j = 0; j != n_bands; ++j) {
+                    m += a[j*n_bands+i]*x[j]-b[j*n_bands+i]*y[j];
+                }
+                double z = m-m_mean[i];
+                chi2 += z*z/m_var[i];
+            }
+            return chi2_survival(chi2, n_bands);
+        }
+
+        /**
+         * Fields are space separated, values comma separated, same as {@link backend.tasks.ResultJournal#encode(RRNResult)}
+         */
+        public String encode() {
+            return "a="+join(a)+" b="+join(b)+" mean="+join(m_mean)+" var="+join(m_var);
+        }
+
+        public static Weights decode(String encoded) {
+            double[] a = null, b = null, mean = null, var = null;
+            for (String field : encoded.trim().split(" ")) {
+                int sep = field.indexOf('=');
+                if (sep < 0) continue;
+                double[] values = split(field.substring(sep+1));
+                switch (field.substring(0,sep)) {
+                    case "a": a = values; break;
+                    case "b": b = values; break;
+                    case "mean": mean = values; break;
+                    case "var": var = values; break;
+                }
+            }
+            if (a == null || b == null || mean == null || var == null) {
+                throw new IllegalArgumentException("Incomplete weights: "+encoded);
+            }
+            return new Weights(a, b, mean, var);
+        }
+
+        private static String join(double[] values) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i != values.length; ++i) {
+                if (i != 0) sb.append(',');
+                sb.append(Double.toString(values[i]));
+            }
+            return sb.toString();
+        }
+
+        private static double[] split(String values) {
+            String[] parts = values.split(",");
+            double[] ret = new double[parts.length];
+            for (int i = 0; i != parts.length; ++i) ret[i] = Double.parseDouble(parts[i]);
+            return ret;
+        }
+    }
+
+    private final int n_bands;
+    private int iteration;
+    private double[] correlations;
+    private double change = Double.NaN;
+    private Weights weights;
+
+    public IRMAD(int n_bands) {
+        this.n_bands = n_bands;
+    }
+
+    /**
+     * Finish iteration with statistics of whole overlap, weighted by {@link #get_weights()}
+     * @return true if no more iterations are needed
+     */
+    public boolean commit(RRNResult stats) {
+        CCA cca = new CCA(n_bands);
+        cca.set_statistics(stats);
+        cca.compute();
+
+        double[] u_var = new double[n_bands];
+        double[] v_var = new double[n_bands];
+        double[] uv_cov = new double[n_bands];
+        double[] m_mean = new double[n_bands];
+        double[] m_var = new double[n_bands];
+        double[] cor = new double[n_bands];
+        for (int i = 0; i != n_bands; ++i) {
+            u_var[i] = quadratic(cca.a, cca.xx_cov, cca.a, i);
+            v_var[i] = quadratic(cca.b, cca.yy_cov, cca.b, i);
+            uv_cov[i] = quadratic(cca.a, cca.xy_cov, cca.b, i);
+            cor[i] = uv_cov[i]/Math.sqrt(u_var[i])/Math.sqrt(v_var[i]);
+            m_var[i] = u_var[i]+v_var[i]-2*uv_cov[i];
+
+            double u_mean = 0;
+            double v_mean = 0;
+            for (int j = 0; j != n_bands; ++j) {
+                u_mean += cca.a.get(j,i)*stats.x_wsum[j];
+                v_mean += cca.b.get(j,i)*stats.y_wsum[j];
+            }
+            m_mean[i] = (u_mean-v_mean)/stats.w_sum;
+        }
+
+        if (correlations != null) {
+            double sq = 0;
+            for (int i = 0; i != n_bands; ++i) sq += (cor[i]-correlations[i])*(cor[i]-correlations[i]);
+            change = Math.sqrt(sq);
+        }
+        correlations = cor;
+        weights = new Weights(cca.a.data.clone(), cca.b.data.clone(), m_mean, m_var);
+        iteration += 1;
+        return is_converged();
+    }
+
+    public boolean is_converged() {
+        return iteration >= MAX_ITERATIONS || change < TOLERANCE;
+    }
+
+    /**
+     * Weights of next iteration, null before first one, when all pixels weight 1
+     */
+    public Weights get_weights() {
+        return weights;
+    }
+
+    /**
+     * Number of committed iterations
+     */
+    public int get_iteration() {
+        return iteration;
+    }
+
+    /**
+     * Change of canonical correlations by last iteration, NaN after first one
+     */
+    public double get_change() {
+        return change;
+    }
+
+    public double[] get_correlations() {
+        return correlations == null ? null : Arrays.copyOf(correlations, n_bands);
+    }
+
+    /**
+     * Gain and offset of each band, fitted by weighted least squares of target on source
+     * @param stats statistics of last iteration
+     * @return stats with coefficients set
+     */
+    public static RRNResult coefficients(RRNResult stats) {
+        int n = stats.x_wsum.length;
+        stats.coefs_source = new double[n];
+        stats.intercept_source = new double[n];
+        for (int i = 0; i != n; ++i) {
+            double mx = stats.x_wsum[i]/stats.w_sum;
+            double my = stats.y_wsum[i]/stats.w_sum;
+            double sxx = stats.xx_wsum[i*n+i]/stats.w_sum-mx*mx;
+            double sxy = stats.xy_wsum[i*n+i]/stats.w_sum-mx*my;
+            stats.coefs_source[i] = sxx > 0 ? sxy/sxx : 1;
+            stats.intercept_source[i] = my-stats.coefs_source[i]*mx;
+        }
+        return stats;
+    }
+
+    /**
+     * Push pixels into accumulator, weighted by their no-change probability
+     * @param X source pixels, row per pixel, column per band
+     * @param Y target pixels
+     * @param weights weights of iteration, null for all pixels weighting 1
+     */
+    public static void push(CCA cca, DMatrixRMaj X, DMatrixRMaj Y, Weights weights) {
+        cca.merge(CCAReduction.reduce(X, Y, weights));
+    }
+
+    // Column i of l times m times column i of r
+    private static double quadratic(DMatrixRMaj l, DMatrixRMaj m, DMatrixRMaj r, int i) {
+        int n = m.numRows;
+        double ret = 0;
+        for (int j = 0; j != n; ++j) {
+            for (int k = 0; k != n; ++k) {
+                ret += l.get(j,i)*m.get(j,k)*r.get(k,i);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Probability of chi-square variable with k degrees of freedom to exceed x
+     */
+    static double chi2_survival(double x, int k) {
+        if (x <= 0) return 1;
+        double half = x/2;
+        double sum;
+        double term;
+        if (k%2 == 0) {
+            term = Math.exp(-half);
+            sum = term;
+            for (int i = 1; i < k/2; ++i) {
+                term *= half/i;
+                sum += term;
+            }
+        } else {
+            sum = erfc(Math.sqrt(half));
+            term = Math.sqrt(2*x/Math.PI)*Math.exp(-half);
+            for (int i = 1; i <= (k-1)/2; ++i) {
+                sum += term;
+                term *= x/(2*i+1);
+            }
+        }
+        return Math.min(sum,1);
+    }
+
+    /**
+     * Complementary error function, Chebyshev approximation with relative error below 1.2e-7
+     */
+    private static double erfc(double x) {
+        double z = Math.abs(x);
+        double t = 1/(1+0.5*z);
+        double ans = t*Math.exp(-z*z-1.26551223+t*(1.00002368+t*(0.37409196+t*(0.09678418+
+                t*(-0.18628806+t*(0.27886807+t*(-1.13520398+t*(1.48851587+t*(-0.82215223+t*0.17087277)))))))));
+        return x >= 0 ? ans : 2-ans;
+    }
 }
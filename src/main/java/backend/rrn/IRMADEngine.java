@@ -0,0 +1,146 @@
+package backend.rrn;
+
+import backend.pmanagement.ResourceGovernor;
+import backend.pmanagement.Threads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Runs IR-MAD iterations over whole overlap of task, see {@link IRMAD}.
+ *
+ * Each iteration streams overlap in parts, strips of block rows: statistics of part are accumulated
+ * block by block, weighted by no-change probabilities of previous iteration, and statistics of parts
+ * are merged, so memory is bounded by blocks being read, not by size of images.
+ * Calling thread computes parts itself, idle cores help it: helper takes CPU permit only if nobody
+ * waits for it, so task does not take cores from other processes, and never waits for helpers to start
+ */
+public class IRMADEngine {
+
+    private static Logger log = Logger.getLogger(IRMADEngine.class.getName());
+
+    // Overlap of single part, parts are computed in parallel by idle cores
+    public static final double PART_PIXELS = 16e6;
+
+    private static final ExecutorService helpers = Executors.newCachedThreadPool(Threads.factory("irmad helper"));
+
+    /**
+     * Computes statistics of single part of overlap in given iteration
+     */
+    public interface IPartCalculator {
+        /**
+         * @param strip part of overlap, iteration and weights of it's pixels
+         * @return weighted statistics of part
+         */
+        RRNResult calculate(Strip strip);
+    }
+
+    private IRMADEngine() {
+    }
+
+    /**
+     * Number of parts of overlap of given size
+     */
+    public static int part_count(double overlap_pixels) {
+        int max_parts = 2*Runtime.getRuntime().availableProcessors();
+        return (int)Math.max(1, Math.min(max_parts, Math.ceil(overlap_pixels/PART_PIXELS)));
+    }
+
+    /**
+     * Iterate until canonical correlations converge
+     * @param n_parts number of parts of overlap, see {@link #part_count(double)}
+     * @return statistics of last iteration with coefficients
+     */
+    public static RRNResult calculate(IPartCalculator parts, int n_parts) {
+        IRMAD irmad = null;
+        int iteration = 0;
+        while (true) {
+            RRNResult stats = iteration(parts, n_parts, iteration, irmad == null ? null : irmad.get_weights());
+            if (stats.w_sum <= 0) throw new IllegalStateException("No valid overlapping pixels");
+            if (irmad == null) irmad = new IRMAD(stats.x_wsum.length);
+            if (irmad.commit(stats)) {
+                log.fine(String.format("IR-MAD converged after %d iterations, change of correlations %.2g",
+                        irmad.get_iteration(), irmad.get_change()));
+                return IRMAD.coefficients(stats);
+            }
+            iteration += 1;
+        }
+    }
+
+    /**
+     * Merged statistics of all parts in single iteration
+     */
+    static RRNResult iteration(final IPartCalculator parts, final int n_parts, final int iteration,
+                               final IRMAD.Weights weights) {
+        final RRNResult[] results = new RRNResult[n_parts];
+        final AtomicInteger next_part = new AtomicInteger();
+        Runnable compute_parts = new Runnable() {
+            @Override
+            public void run() {
+                int part;
+                while ((part = next_part.getAndIncrement()) < n_parts) {
+                    if (Thread.currentThread().isInterrupted()) throw new CancellationException("IR-MAD cancelled");
+                    results[part] = parts.calculate(new Strip(part, n_parts, iteration, weights));
+                }
+            }
+        };
+
+        List<Future<?>> helping = new ArrayList<>();
+        int n_helpers = Math.min(n_parts, Runtime.getRuntime().availableProcessors())-1;
+        for (int i = 0; i < n_helpers; ++i) helping.add(helpers.submit(helper(compute_parts, next_part, n_parts)));
+
+        boolean done = false;
+        try {
+            compute_parts.run();
+            for (Future<?> f : helping) {
+                try {
+                    f.get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+                    if (cause instanceof Error) throw (Error)cause;
+                    throw new IllegalStateException(cause);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("IR-MAD cancelled");
+                }
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                // Remaining parts are not taken, running ones are interrupted
+                next_part.set(n_parts);
+                for (Future<?> f : helping) f.cancel(true);
+            }
+        }
+
+        RRNResult merged = new RRNResult();
+        for (RRNResult r : results) merged.merge(r);
+        return merged;
+    }
+
+    /**
+     * Computes parts on idle CPU permit, gives up if there is none
+     */
+    private static Runnable helper(final Runnable compute_parts, final AtomicInteger next_part, final int n_parts) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (next_part.get() >= n_parts) return;
+                if (!ResourceGovernor.get().try_acquire_cpu(null)) return;
+                try {
+                    compute_parts.run();
+                } finally {
+                    ResourceGovernor.get().release_cpu(null);
+                }
+            }
+        };
+    }
+}
@@ -1,18 +1,134 @@
 package backend.rrn;
 
-import backend.rasterio.ImageReader;
+import backend.pmanagement.Threads;
+import backend.rasterio.AsyncGdalReader;
+import backend.rasterio.BlockInfo;
 import backend.rasterio.RasterDataset;
-import sun.reflect.generics.reflectiveObjects.NotImplementedException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.function.LongConsumer;
 
 public class RRN {
 
+    /**
+     * Parameters results depend on. Change on any change of algorithm,
+     * so journaled results of previous version are not reused
+     */
+    public static final String PARAMETERS = "rrn;version=2";
+
+    // Readers of single strip, parallelism comes from strips being computed by different processes
+    public static final int STRIP_READ_THREADS = 2;
+    public static final int STRIP_READ_BUFFER = 8;
+    // Producers of virtual threads only wait for device queues, more of them keep queues full.
+    // Each producer opens datasets on it's own, so they are not unbounded
+    public static final int VIRTUAL_READ_THREADS = 8;
+
+    /**
+     * Producers of reader of single strip, see {@link Threads}
+     */
+    public static int read_threads() {
+        return Threads.is_virtual() ? VIRTUAL_READ_THREADS : STRIP_READ_THREADS;
+    }
+
     public static RRNResult calculate(RasterDataset source, RasterDataset target) {
+        return calculate(new RasterDataset[] {source}, new RasterDataset[] {target});
+    }
+
+    /**
+     * Calculate single set of coefficients for multiple overlapping pairs.
+     * Used for groups of tiles sharing same radiometric response,
+     * statistics of each pair are pooled together
+     * @param source images of source group
+     * @param target overlapping images of target group, one for each source image
+     */
+    public static RRNResult calculate(RasterDataset[] source, RasterDataset[] target) {
+        return calculate(source, target, new LongConsumer() {
+            @Override
+            public void accept(long pixels) {
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #calculate(RasterDataset[], RasterDataset[])}, reporting progress
+     * @param on_block called with number of pixels of each processed block. Blocks are reported
+     *                 in first IR-MAD iteration only, so overlap is reported once
+     */
+    public static RRNResult calculate(RasterDataset[] source, RasterDataset[] target, LongConsumer on_block) {
+        if (source.length != target.length) {
+            throw new IllegalArgumentException("Number of source and target images must match");
+        }
+        if (source.length == 0) throw new IllegalArgumentException("No overlapping pairs to calculate");
+
+        // Parts are sized by largest overlap it may have, it's exact size needs valid pixels
+        double pixels = 0;
+        for (int i = 0; i != source.length; ++i) {
+            pixels += Math.min(size(source[i]), size(target[i]));
+        }
+        final RasterDataset[] source_images = source;
+        final RasterDataset[] target_images = target;
+        final LongConsumer progress = on_block;
+        return IRMADEngine.calculate(new IRMADEngine.IPartCalculator() {
+            @Override
+            public RRNResult calculate(Strip strip) {
+                return RRN.calculate(source_images, target_images, strip, progress);
+            }
+        }, IRMADEngine.part_count(pixels));
+    }
 
-        ImageReader reader = ImageReader.from_datasets(source,target);
+    /**
+     * Same as {@link #calculate(RasterDataset[], RasterDataset[], LongConsumer)} for whole overlap,
+     * or weighted statistics of single strip of each overlapping pair. Statistics of all strips
+     * of iteration are merged and committed to {@link IRMAD} by whoever split the task
+     * @param strip strip to compute statistics of, null for whole overlap
+     */
+    public static RRNResult calculate(RasterDataset[] source, RasterDataset[] target, Strip strip, LongConsumer on_block) {
+        if (strip == null) return calculate(source, target, on_block);
+        if (source.length != target.length) {
+            throw new IllegalArgumentException("Number of source and target images must match");
+        }
 
-        throw new NotImplementedException();
+        int n_bands = Integer.MAX_VALUE;
+        for (int i = 0; i != source.length; ++i) {
+            n_bands = Math.min(n_bands, source[i].dataset().GetRasterCount());
+            n_bands = Math.min(n_bands, target[i].dataset().GetRasterCount());
+        }
+
+        CCAKernel kernel = new CCAKernel(n_bands);
+        for (int i = 0; i != source.length; ++i) {
+            RasterDataset[] pair = {source[i], target[i]};
+            AsyncGdalReader reader;
+            try {
+                reader = AsyncGdalReader.from_datasets(pair, strip.index, strip.count,
+                        read_threads(), STRIP_READ_BUFFER);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Could not open "+source[i]+" and "+target[i], ex);
+            }
+
+            reader.start();
+            try {
+                BlockInfo block;
+                while ((block = reader.next()) != null) {
+                    kernel.push(block, strip.weights);
+                    // Later iterations read same blocks again, progress is counted by overlap
+                    if (strip.iteration == 0) on_block.accept((long)block.width*block.height);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while reading "+strip);
+            } finally {
+                reader.close();
+            }
+        }
+        RRNResult ret = new RRNResult();
+        kernel.flush(ret);
+        return ret;
+    }
 
-//        return new RRNResult();
+    private static double size(RasterDataset ds) {
+        return (double)ds.dataset().GetRasterXSize()*ds.dataset().GetRasterYSize();
     }
 
 }
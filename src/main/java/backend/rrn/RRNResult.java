@@ -1,11 +1,10 @@
 package backend.rrn;
 
-import java.util.ArrayList;
-
 /** This class represents result of RRN algorithm execution
  *
+ * Carries sufficient statistics of overlap, see {@link CCAStats}, so results can be pooled without re-reading images
  */
-public class RRNResult {
+public class RRNResult extends CCAStats {
     public double[] coefs_source;
     public double[] intercept_source;
 }
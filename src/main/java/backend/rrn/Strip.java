@@ -0,0 +1,43 @@
+package backend.rrn;
+
+/**
+ * Horizontal strip of overlap, one of count equal parts by block rows, in single IR-MAD iteration.
+ * Statistics of strips are computed independently, i.e. on different workers, and merged, see {@link IRMAD}
+ */
+public class Strip {
+
+    public final int index;
+    public final int count;
+    public final int iteration;
+    // Weights of pixels, null in first iteration
+    public final IRMAD.Weights weights;
+
+    public Strip(int index, int count, int iteration, IRMAD.Weights weights) {
+        if (index < 0 || index >= count) throw new IllegalArgumentException("Strip "+index+" of "+count);
+        this.index = index;
+        this.count = count;
+        this.iteration = iteration;
+        this.weights = weights;
+    }
+
+    /**
+     * Fields are space separated, so strip fits single field of tab separated protocols
+     */
+    public String encode() {
+        return index+"/"+count+"/"+iteration+(weights == null ? "" : " "+weights.encode());
+    }
+
+    public static Strip decode(String encoded) {
+        encoded = encoded.trim();
+        int sep = encoded.indexOf(' ');
+        String[] position = (sep < 0 ? encoded : encoded.substring(0,sep)).split("/");
+        IRMAD.Weights weights = sep < 0 ? null : IRMAD.Weights.decode(encoded.substring(sep+1));
+        return new Strip(Integer.parseInt(position[0]), Integer.parseInt(position[1]),
+                Integer.parseInt(position[2]), weights);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("strip %d/%d, iteration %d", index+1, count, iteration+1);
+    }
+}
@@ -0,0 +1,212 @@
+package backend.tasks;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+
+/**
+ * Estimates processing time of tasks.
+ *
+ * Work of task is valid overlap pixels x bands x expected IR-MAD iterations,
+ * time is estimated as overhead + work * seconds_per_unit.
+ * Both parameters are refined online by least squares fit of measured task durations,
+ * costs of assigned tasks, that have no result yet, are estimated again after each measurement.
+ * Refined cost grows with work as before, so queues ordered by cost keep their order.
+ * Fitted parameters are saved after run, so next run and it's plan start calibrated.
+ *
+ * Band count of task is read from image header, when it's cost is assigned,
+ * so measurements, made on worker threads, do not call GDAL
+ */
+public class CostModel {
+
+    private static Logger log = Logger.getLogger(CostModel.class.getName());
+
+    public static final int DEFAULT_ITERATIONS = 10;
+
+    // Initial guesses, used until there are enough measurements
+    private static final double INITIAL_SECONDS_PER_UNIT = 2e-9;
+    private static final double INITIAL_OVERHEAD = 0.05;
+
+    private final int expected_iterations;
+
+    private double seconds_per_unit;
+    private double overhead;
+
+    // Sums for online least squares fit of duration over work
+    private long n;
+    private double sum_w, sum_t, sum_ww, sum_wt;
+
+    // Tasks costs were assigned to and their band counts
+    private final Map<IRRNTask,Integer> band_counts = new IdentityHashMap<>();
+
+    public CostModel() {
+        this(DEFAULT_ITERATIONS);
+    }
+
+    public CostModel(int expected_iterations) {
+        this(expected_iterations, INITIAL_SECONDS_PER_UNIT, INITIAL_OVERHEAD);
+    }
+
+    public CostModel(int expected_iterations, double seconds_per_unit, double overhead) {
+        this.expected_iterations = expected_iterations;
+        this.seconds_per_unit = seconds_per_unit;
+        this.overhead = overhead;
+    }
+
+    /**
+     * Model starting from parameters, saved by {@link #save(String)}, or uncalibrated model if there are none
+     */
+    public static CostModel load(String path) {
+        File f = new File(path);
+        if (!f.exists()) return new CostModel();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(f),StandardCharsets.UTF_8))) {
+            String[] fields = br.readLine().trim().split(" ");
+            return new CostModel(DEFAULT_ITERATIONS, Double.parseDouble(fields[0]), Double.parseDouble(fields[1]));
+        } catch (IOException | RuntimeException ex) {
+            log.warning("Could not load cost model from "+path+": "+ex);
+            return new CostModel();
+        }
+    }
+
+    /**
+     * Save fitted parameters: "seconds_per_unit overhead"
+     */
+    public synchronized void save(String path) throws IOException {
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(path),StandardCharsets.UTF_8)) {
+            w.write(seconds_per_unit+" "+overhead+"\n");
+        }
+    }
+
+    /**
+     * Model with same parameters and no measurements, refined on it's own
+     */
+    public synchronized CostModel copy() {
+        return new CostModel(expected_iterations, seconds_per_unit, overhead);
+    }
+
+    /**
+     * Amount of work in task, pixel-band-iterations.
+     * Task derived from assigned one, i.e. it's strip or attempt, has band count of it's origin
+     */
+    public synchronized double work(IRRNTask t) {
+        Integer n_bands = null;
+        for (IRRNTask o = t; o != null && n_bands == null; o = o.get_origin()) {
+            n_bands = band_counts.get(o);
+        }
+        if (n_bands == null) n_bands = read_band_count(t);
+        return t.get_overlap_pixels()*n_bands*expected_iterations;
+    }
+
+    private static int read_band_count(IRRNTask t) {
+        if (t.n_pairs() > 0 && t.get_source(0).dataset() != null) {
+            return t.get_source(0).dataset().GetRasterCount();
+        }
+        return 1;
+    }
+
+    /**
+     * Estimated processing time of task, seconds
+     */
+    public synchronized double estimate(IRRNTask t) {
+        return overhead + work(t)*seconds_per_unit;
+    }
+
+    /**
+     * Set estimated cost of each task, it is refined by following measurements until task has result
+     */
+    public synchronized void assign(Collection<IRRNTask> tasks) {
+        for (IRRNTask t : tasks) {
+            band_counts.put(t, read_band_count(t));
+            t.set_cost(estimate(t));
+        }
+    }
+
+    /**
+     * Refine model by measured duration of task
+     * @param t processed task
+     * @param seconds time task took
+     */
+    public synchronized void observe(IRRNTask t, double seconds) {
+        double w = work(t);
+        n += 1;
+        sum_w += w;
+        sum_t += seconds;
+        sum_ww += w*w;
+        sum_wt += w*seconds;
+
+        double denom = n*sum_ww - sum_w*sum_w;
+        if (n >= 2 && denom > 0) {
+            double slope = (n*sum_wt - sum_w*sum_t)/denom;
+            double intercept = (sum_t - slope*sum_w)/n;
+            if (slope > 0) {
+                seconds_per_unit = slope;
+                overhead = Math.max(0,intercept);
+            }
+        } else if (w > 0) {
+            // Single measurement: keep overhead, fit throughput only
+            seconds_per_unit = Math.max(seconds-overhead,0)/w;
+        }
+
+        // Tasks, that are queued or running, are estimated by refined parameters
+        for (IRRNTask a : band_counts.keySet()) {
+            if (a.get_result() == null) a.set_cost(estimate(a));
+        }
+    }
+
+    public synchronized double get_seconds_per_unit() {
+        return seconds_per_unit;
+    }
+
+    public synchronized double get_overhead() {
+        return overhead;
+    }
+
+    public int get_expected_iterations() {
+        return expected_iterations;
+    }
+
+    /**
+     * Number of measured durations, model was refined by
+     */
+    public synchronized long num_observations() {
+        return n;
+    }
+
+    /**
+     * Predict makespan of tasks on n_workers, processing them largest first
+     * @return predicted wall time, seconds
+     */
+    public double predict_makespan(Collection<IRRNTask> tasks, int n_workers) {
+        List<Double> costs = new ArrayList<>(tasks.size());
+        for (IRRNTask t : tasks) {
+            costs.add(estimate(t));
+        }
+        return makespan(costs, n_workers);
+    }
+
+    /**
+     * Makespan of jobs of given durations on n_workers, processing them largest first
+     */
+    public static double makespan(List<Double> costs, int n_workers) {
+        costs = new ArrayList<>(costs);
+        costs.sort(null);
+
+        // Each next task goes to the least loaded worker
+        PriorityQueue<Double> loads = new PriorityQueue<>();
+        for (int i = 0; i != Math.max(1,n_workers); ++i) loads.add(0.0);
+
+        double makespan = 0;
+        for (int i = costs.size()-1; i >= 0; --i) {
+            double load = loads.poll() + costs.get(i);
+            makespan = Math.max(makespan,load);
+            loads.add(load);
+        }
+        return makespan;
+    }
+}
@@ -2,16 +2,69 @@ package backend.tasks;
 
 import backend.rasterio.*;
 import backend.rrn.RRNResult;
+import backend.rrn.Strip;
 
+/**
+ * Task of estimating normalization coefficients of source group relative to target group.
+ * Task holds all overlapping image pairs between two groups, their statistics are pooled
+ * into single result
+ */
 public interface IRRNTask {
 
-    void set_target(RasterDataset ds);
-    RasterDataset get_target();
+    void set_name(String name);
+    String get_name();
 
-    void set_source(RasterDataset ds);
-    RasterDataset get_source();
+    /**
+     * Add overlapping image pair
+     * @param source image of source group
+     * @param target image of target group
+     */
+    void add_pair(RasterDataset source, RasterDataset target);
+    int n_pairs();
+
+    RasterDataset get_source(int pair_id);
+    RasterDataset get_target(int pair_id);
+
+    /**
+     * Number of valid pixels overlapping between source and target, summed over all pairs
+     */
+    void set_overlap_pixels(double pixels);
+    double get_overlap_pixels();
+
+    /**
+     * Estimated processing time, see {@link CostModel}
+     */
+    void set_cost(double cost);
+    double get_cost();
+
+    /**
+     * Identity of edge, independent of file paths: fingerprints of all pairs and algorithm parameters.
+     * See {@link ResultJournal#task_key(IRRNTask, String)}
+     */
+    void set_key(String key);
+    String get_key();
+
+    /**
+     * Strip of overlap, this task computes statistics of, null for whole overlap.
+     * See {@link SplittingTaskProvider}
+     */
+    void set_strip(Strip strip);
+    Strip get_strip();
+
+    /**
+     * Task, this one was derived from, i.e. attempt or strip of it, null for task of run.
+     * Progress of derived task counts to it's origin, see {@link backend.pmanagement.ProgressAggregator}
+     */
+    void set_origin(IRRNTask origin);
+    IRRNTask get_origin();
 
     void set_result(RRNResult res);
     RRNResult get_result();
 
+    /**
+     * Error task failed with, see {@link RetryPolicy#classify(Throwable)}
+     */
+    void set_error(Throwable error);
+    Throwable get_error();
+
 }
@@ -0,0 +1,24 @@
+package backend.tasks;
+
+/**
+ * Receives task progress events from task providers and processes.
+ * Called from worker threads, so implementations must be thread safe and fast
+ */
+public interface ITaskListener {
+
+    /**
+     * Task was grabbed by worker
+     */
+    void task_started(IRRNTask task);
+
+    /**
+     * Block of task was processed
+     * @param pixels number of pixels in block
+     */
+    void block_processed(IRRNTask task, long pixels);
+
+    /**
+     * Task was released by worker
+     */
+    void task_finished(IRRNTask task);
+}
@@ -12,11 +12,45 @@ public interface ITaskProvider {
      */
     IRRNTask grab();
 
+    /**
+     * Grab queued task without waiting. Wrapping providers take tasks of underlying one by this,
+     * so they never wait inside of it for tasks they could serve themselves
+     * @return task or null if none is queued right now
+     */
+    IRRNTask try_grab();
+
     void release(IRRNTask task);
 
+    /**
+     * Queue subtask of currently processed task, i.e. strip of a large overlap.
+     * Must be called before parent task is released
+     * @param task task to add
+     */
+    void spawn(IRRNTask task);
+
     int num_tasks_total();
     int num_tasks_queued();
     int num_tasks_processing();
     int num_tasks_processed();
 
+    /**
+     * Fraction of grabbed tasks that share an image with previous task of the same worker
+     */
+    double locality_hit_rate();
+
+    /**
+     * Subscribe to task-started and task-finished events, emitted on grab and release
+     */
+    void add_listener(ITaskListener listener);
+
+    /**
+     * Model, refined by measured duration of each released task. May be null
+     */
+    void set_cost_model(CostModel model);
+
+    /**
+     * Wall time from first grab to last release, seconds
+     */
+    double makespan();
+
 }
@@ -0,0 +1,96 @@
+package backend.tasks;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Task provider decorator, that writes result of each task to {@link ResultJournal}
+ * before releasing it to underlying provider
+ */
+public class JournalingTaskProvider implements ITaskProvider {
+
+    private static Logger log = Logger.getLogger(JournalingTaskProvider.class.getName());
+
+    private final ITaskProvider provider;
+    private final ResultJournal journal;
+
+    public JournalingTaskProvider(ITaskProvider provider, ResultJournal journal) {
+        this.provider = provider;
+        this.journal = journal;
+    }
+
+    @Override
+    public void set_tasks(Collection<IRRNTask> tasks) {
+        provider.set_tasks(tasks);
+    }
+
+    @Override
+    public IRRNTask grab() {
+        return provider.grab();
+    }
+
+    @Override
+    public IRRNTask try_grab() {
+        return provider.try_grab();
+    }
+
+    @Override
+    public void release(IRRNTask task) {
+        if (task.get_result() != null && task.get_key() != null) {
+            try {
+                journal.append(task.get_key(),task.get_result());
+            } catch (IOException ex) {
+                // Result is still in memory, run goes on, it just won't be resumable
+                log.log(Level.SEVERE,"Could not journal result of "+task,ex);
+            }
+        }
+        provider.release(task);
+    }
+
+    @Override
+    public void spawn(IRRNTask task) {
+        provider.spawn(task);
+    }
+
+    @Override
+    public int num_tasks_total() {
+        return provider.num_tasks_total();
+    }
+
+    @Override
+    public int num_tasks_queued() {
+        return provider.num_tasks_queued();
+    }
+
+    @Override
+    public int num_tasks_processing() {
+        return provider.num_tasks_processing();
+    }
+
+    @Override
+    public int num_tasks_processed() {
+        return provider.num_tasks_processed();
+    }
+
+    @Override
+    public double locality_hit_rate() {
+        return provider.locality_hit_rate();
+    }
+
+    @Override
+    public void add_listener(ITaskListener listener) {
+        provider.add_listener(listener);
+    }
+
+    @Override
+    public void set_cost_model(CostModel model) {
+        provider.set_cost_model(model);
+    }
+
+    @Override
+    public double makespan() {
+        return provider.makespan();
+    }
+}
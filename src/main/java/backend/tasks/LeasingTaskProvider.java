@@ -0,0 +1,359 @@
+package backend.tasks;
+
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Task provider decorator, that runs tasks of underlying provider as leased attempts.
+ *
+ * Processes get copies of tasks, their origin is task of underlying provider. Attempt running longer than it's lease is abandoned and task is retried,
+ * failed attempt is retried after backoff, as long as {@link RetryPolicy} allows.
+ * When underlying provider has no more queued tasks, idle process gets speculative duplicate
+ * of slowest running task. First result of task is released to underlying provider, later ones are dropped,
+ * task out of attempts is released without result.
+ *
+ * Lease of attempt is estimated cost of task times {@link #LEASE_COST_FACTOR}, but not shorter than minimum lease
+ */
+public class LeasingTaskProvider implements ITaskProvider {
+
+    private static Logger log = Logger.getLogger(LeasingTaskProvider.class.getName());
+
+    public static final long DEFAULT_MIN_LEASE_MILLIS = 120_000;
+    public static final double LEASE_COST_FACTOR = 10;
+
+    // Running task is duplicated, when it runs this many times longer than estimated, and not sooner than
+    private static final double SPECULATE_COST_FACTOR = 1.5;
+    private static final long SPECULATE_MIN_NANOS = 1_000_000_000L;
+
+    private static final long IDLE_PARK_NANOS = 10_000_000;
+
+    /**
+     * Task of underlying provider, with all of it's attempts
+     */
+    private static class Entry {
+        final IRRNTask task;
+        final List<Attempt> running = new ArrayList<>();
+        int attempts;
+        boolean done;
+
+        Entry(IRRNTask task) {
+            this.task = task;
+        }
+    }
+
+    private static class Attempt {
+        final Entry entry;
+        final long started;
+        final long deadline;
+        // Lease ran out, failure of attempt is already handled
+        boolean expired;
+
+        Attempt(Entry entry, long started, long deadline) {
+            this.entry = entry;
+            this.started = started;
+            this.deadline = deadline;
+        }
+    }
+
+    private static class Retry {
+        final Entry entry;
+        final long not_before;
+
+        Retry(Entry entry, long not_before) {
+            this.entry = entry;
+            this.not_before = not_before;
+        }
+    }
+
+    private final ITaskProvider provider;
+    private final RetryPolicy policy;
+    private volatile long min_lease_millis = DEFAULT_MIN_LEASE_MILLIS;
+
+    // Guarded by this. Attempts by their copy of task
+    private final Map<IRRNTask,Attempt> attempts = new HashMap<>();
+    private final Deque<Retry> retries = new ArrayDeque<>();
+    private int n_retried;
+    private int n_expired;
+    private int n_speculated;
+    private int n_given_up;
+
+    public LeasingTaskProvider(ITaskProvider provider) {
+        this(provider, new RetryPolicy());
+    }
+
+    public LeasingTaskProvider(ITaskProvider provider, RetryPolicy policy) {
+        this.provider = provider;
+        this.policy = policy;
+    }
+
+    /**
+     * Shortest lease of attempt, cheap tasks get this one
+     */
+    public void set_min_lease_millis(long millis) {
+        min_lease_millis = millis;
+    }
+
+    @Override
+    public void set_tasks(Collection<IRRNTask> tasks) {
+        synchronized (this) {
+            attempts.clear();
+            retries.clear();
+            n_retried = n_expired = n_speculated = n_given_up = 0;
+        }
+        provider.set_tasks(tasks);
+    }
+
+    // ##################################### ATTEMPTS #####################################
+
+    /**
+     * Should return NULL as a poison pill of no grab element!
+     * Returns null when underlying provider has neither queued nor running tasks and no retries are pending,
+     * or when calling thread is interrupted
+     */
+    @Override
+    public IRRNTask grab() {
+        List<IRRNTask> given_up = new ArrayList<>();
+        while (true) {
+            IRRNTask t;
+            boolean finished;
+            synchronized (this) {
+                t = next_attempt(System.nanoTime(), given_up);
+                finished = t == null && retries.isEmpty() &&
+                        provider.num_tasks_queued() == 0 && provider.num_tasks_processing() == given_up.size();
+            }
+            release_given_up(given_up);
+
+            if (t != null) return t;
+            // Interrupted process is cancelled, it stops waiting for work
+            if (finished || Thread.currentThread().isInterrupted()) return null;
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    @Override
+    public IRRNTask try_grab() {
+        List<IRRNTask> given_up = new ArrayList<>();
+        IRRNTask t;
+        synchronized (this) {
+            t = next_attempt(System.nanoTime(), given_up);
+        }
+        release_given_up(given_up);
+        return t;
+    }
+
+    // Underlying provider is released outside of lock, it may be slow, i.e. journaling
+    private void release_given_up(List<IRRNTask> given_up) {
+        for (IRRNTask g : given_up) provider.release(g);
+        given_up.clear();
+    }
+
+    /**
+     * Retry, which backoff has passed, new task of underlying provider, or speculative duplicate, in that order
+     */
+    private IRRNTask next_attempt(long now, List<IRRNTask> given_up) {
+        expire_leases(now, given_up);
+
+        Iterator<Retry> it = retries.iterator();
+        while (it.hasNext()) {
+            Retry r = it.next();
+            if (r.not_before <= now) {
+                it.remove();
+                return start_attempt(r.entry, now);
+            }
+        }
+
+        IRRNTask t = provider.try_grab();
+        if (t != null) return start_attempt(new Entry(t), now);
+
+        if (retries.isEmpty()) return speculate(now);
+        return null;
+    }
+
+    private IRRNTask start_attempt(Entry entry, long now) {
+        IRRNTask copy = copy_of(entry.task);
+        long lease_millis = Math.max(min_lease_millis, (long)(entry.task.get_cost()*LEASE_COST_FACTOR*1000));
+        Attempt a = new Attempt(entry, now, now+lease_millis*1_000_000);
+        entry.attempts += 1;
+        entry.running.add(a);
+        attempts.put(copy,a);
+        return copy;
+    }
+
+    private static IRRNTask copy_of(IRRNTask task) {
+        IRRNTask copy = TaskFactory.get_task();
+        copy.set_name(task.get_name());
+        for (int i = 0; i != task.n_pairs(); ++i) copy.add_pair(task.get_source(i),task.get_target(i));
+        copy.set_overlap_pixels(task.get_overlap_pixels());
+        copy.set_cost(task.get_cost());
+        copy.set_key(task.get_key());
+        copy.set_strip(task.get_strip());
+        copy.set_origin(task);
+        return copy;
+    }
+
+    /**
+     * Duplicate of running task, that ran longest relative to it's estimated cost
+     */
+    private IRRNTask speculate(long now) {
+        Attempt slowest = null;
+        double slowest_ratio = 0;
+        for (Attempt a : attempts.values()) {
+            if (a.expired || a.entry.done || a.entry.running.size() != 1) continue;
+            long elapsed = now-a.started;
+            double estimate = Math.max(a.entry.task.get_cost(),1e-3)*1e9;
+            if (elapsed < SPECULATE_MIN_NANOS || elapsed < estimate*SPECULATE_COST_FACTOR) continue;
+            if (elapsed/estimate > slowest_ratio) {
+                slowest = a;
+                slowest_ratio = elapsed/estimate;
+            }
+        }
+        if (slowest == null) return null;
+
+        n_speculated += 1;
+        log.info(String.format("Task %s runs %.1f times longer than estimated, starting duplicate",
+                slowest.entry.task, slowest_ratio));
+        return start_attempt(slowest.entry, now);
+    }
+
+    private void expire_leases(long now, List<IRRNTask> given_up) {
+        for (Attempt a : attempts.values()) {
+            if (a.expired || a.entry.done || a.deadline >= now) continue;
+            a.expired = true;
+            a.entry.running.remove(a);
+            n_expired += 1;
+            log.warning(String.format("Attempt %d of %s exceeded it's lease of %.0f s, abandoned",
+                    a.entry.attempts, a.entry.task, (a.deadline-a.started)*1e-9));
+            IRRNTask t = fail(a.entry, RetryPolicy.FAILURE.TIMEOUT, null, now);
+            if (t != null) given_up.add(t);
+        }
+    }
+
+    /**
+     * Retry task or give it up
+     * @return task to release without result, if it is given up
+     */
+    private IRRNTask fail(Entry entry, RetryPolicy.FAILURE failure, Throwable error, long now) {
+        // Other attempt may still succeed
+        if (!entry.running.isEmpty()) return null;
+
+        if (policy.should_retry(failure, entry.attempts)) {
+            long delay = policy.backoff_millis(entry.attempts);
+            n_retried += 1;
+            log.warning(String.format("Attempt %d of %s failed (%s), retrying in %d ms",
+                    entry.attempts, entry.task, failure, delay));
+            retries.add(new Retry(entry, now+delay*1_000_000));
+            return null;
+        }
+
+        entry.done = true;
+        n_given_up += 1;
+        log.log(Level.SEVERE, String.format("Task %s failed (%s) after %d attempts, giving up",
+                entry.task, failure, entry.attempts), error);
+        entry.task.set_result(null);
+        entry.task.set_error(error);
+        return entry.task;
+    }
+
+    /**
+     * Accept first result of task, or handle failure of attempt
+     */
+    @Override
+    public void release(IRRNTask copy) {
+        IRRNTask finished = null;
+        synchronized (this) {
+            Attempt a = attempts.remove(copy);
+            if (a == null) throw new IllegalArgumentException("Task "+copy+" was not grabbed from this provider");
+            Entry e = a.entry;
+            e.running.remove(a);
+
+            if (e.done) {
+                log.fine("Result of "+copy+" dropped, task is already finished");
+            } else if (copy.get_result() != null) {
+                // Result of expired attempt is still accepted, if it comes first
+                e.done = true;
+                e.task.set_result(copy.get_result());
+                e.task.set_error(null);
+                finished = e.task;
+            } else if (!a.expired) {
+                finished = fail(e, RetryPolicy.classify(copy.get_error()), copy.get_error(), System.nanoTime());
+            }
+
+            if (finished != null) {
+                // Pending retry of task is not needed anymore
+                Iterator<Retry> it = retries.iterator();
+                while (it.hasNext()) {
+                    if (it.next().entry == e) it.remove();
+                }
+            }
+        }
+        if (finished != null) provider.release(finished);
+    }
+
+    @Override
+    public void spawn(IRRNTask task) {
+        provider.spawn(task);
+    }
+
+    // ###################################### STATS ######################################
+
+    @Override
+    public int num_tasks_total() {
+        return provider.num_tasks_total();
+    }
+
+    /**
+     * Queued tasks of underlying provider and pending retries
+     */
+    @Override
+    public synchronized int num_tasks_queued() {
+        return provider.num_tasks_queued()+retries.size();
+    }
+
+    @Override
+    public synchronized int num_tasks_processing() {
+        return Math.max(provider.num_tasks_processing()-retries.size(),0);
+    }
+
+    @Override
+    public int num_tasks_processed() {
+        return provider.num_tasks_processed();
+    }
+
+    public synchronized int num_retried() {
+        return n_retried;
+    }
+
+    public synchronized int num_expired() {
+        return n_expired;
+    }
+
+    public synchronized int num_speculated() {
+        return n_speculated;
+    }
+
+    public synchronized int num_given_up() {
+        return n_given_up;
+    }
+
+    @Override
+    public double locality_hit_rate() {
+        return provider.locality_hit_rate();
+    }
+
+    @Override
+    public void add_listener(ITaskListener listener) {
+        provider.add_listener(listener);
+    }
+
+    @Override
+    public void set_cost_model(CostModel model) {
+        provider.set_cost_model(model);
+    }
+
+    @Override
+    public double makespan() {
+        return provider.makespan();
+    }
+}
@@ -2,35 +2,109 @@ package backend.tasks;
 
 import backend.rasterio.RasterDataset;
 import backend.rrn.RRNResult;
+import backend.rrn.Strip;
+
+import java.util.ArrayList;
+import java.util.List;
 
 class RRNTask implements IRRNTask {
 
-    private RasterDataset source;
-    private RasterDataset target;
+    private String name;
+    private List<RasterDataset> sources;
+    private List<RasterDataset> targets;
+    private double overlap_pixels;
+    // Refined by cost model while task is queued
+    private volatile double cost;
+    private String key;
+    private Strip strip;
+    private IRRNTask origin;
     private RRNResult res;
+    private Throwable error;
 
     public RRNTask() {
+        sources = new ArrayList<>();
+        targets = new ArrayList<>();
+    }
+
+    @Override
+    public void set_name(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String get_name() {
+        return name;
+    }
+
+    @Override
+    public void add_pair(RasterDataset source, RasterDataset target) {
+        sources.add(source);
+        targets.add(target);
+    }
 
+    @Override
+    public int n_pairs() {
+        return sources.size();
     }
 
     @Override
-    public void set_target(RasterDataset ds) {
-        target = ds;
+    public RasterDataset get_source(int pair_id) {
+        return sources.get(pair_id);
     }
 
     @Override
-    public RasterDataset get_target() {
-        return target;
+    public RasterDataset get_target(int pair_id) {
+        return targets.get(pair_id);
     }
 
     @Override
-    public void set_source(RasterDataset ds) {
-        source = ds;
+    public void set_overlap_pixels(double pixels) {
+        overlap_pixels = pixels;
     }
 
     @Override
-    public RasterDataset get_source() {
-        return source;
+    public double get_overlap_pixels() {
+        return overlap_pixels;
+    }
+
+    @Override
+    public void set_cost(double cost) {
+        this.cost = cost;
+    }
+
+    @Override
+    public double get_cost() {
+        return cost;
+    }
+
+    @Override
+    public void set_key(String key) {
+        this.key = key;
+    }
+
+    @Override
+    public String get_key() {
+        return key;
+    }
+
+    @Override
+    public void set_strip(Strip strip) {
+        this.strip = strip;
+    }
+
+    @Override
+    public Strip get_strip() {
+        return strip;
+    }
+
+    @Override
+    public void set_origin(IRRNTask origin) {
+        this.origin = origin;
+    }
+
+    @Override
+    public IRRNTask get_origin() {
+        return origin;
     }
 
     @Override
@@ -42,4 +116,19 @@ class RRNTask implements IRRNTask {
     public RRNResult get_result() {
         return res;
     }
+
+    @Override
+    public void set_error(Throwable error) {
+        this.error = error;
+    }
+
+    @Override
+    public Throwable get_error() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return strip == null ? name : name+" ("+strip+")";
+    }
 }
@@ -0,0 +1,176 @@
+package backend.tasks;
+
+import backend.rasterio.FileFingerprint;
+import backend.rrn.RRNResult;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of task results, so run can be resumed after crash.
+ *
+ * Each line is "crc32 key field=values...", where crc32 is checksum of rest of line.
+ * Line is synced to disk before task is released. Lines with wrong checksum
+ * (i.e. torn by crash in the middle of write) are skipped on load.
+ */
+public class ResultJournal implements Closeable {
+
+    private static Logger log = Logger.getLogger(ResultJournal.class.getName());
+
+    private final String path;
+    private final Map<String,RRNResult> results;
+    private FileOutputStream out;
+
+    private ResultJournal(String path) {
+        this.path = path;
+        this.results = new HashMap<>();
+    }
+
+    /**
+     * Load existing journal, if any, and open it for appending
+     */
+    public static ResultJournal open(String path) throws IOException {
+        ResultJournal ret = new ResultJournal(path);
+        ret.load();
+        ret.out = new FileOutputStream(path,true);
+        return ret;
+    }
+
+    private void load() throws IOException {
+        File f = new File(path);
+        if (!f.exists()) return;
+
+        int skipped = 0;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(f),StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int sep = line.indexOf(' ');
+                if (sep < 0 || !line.substring(0,sep).equals(checksum(line.substring(sep+1)))) {
+                    skipped += 1;
+                    continue;
+                }
+                String body = line.substring(sep+1);
+                int key_end = body.indexOf(' ');
+                if (key_end < 0) {
+                    results.put(body,new RRNResult());
+                } else {
+                    results.put(body.substring(0,key_end),decode(body.substring(key_end+1)));
+                }
+            }
+        }
+
+        log.info(String.format("Loaded %d results from %s",results.size(),path));
+        if (skipped != 0) log.warning(String.format("Skipped %d corrupt lines of %s",skipped,path));
+    }
+
+    public String get_path() {
+        return path;
+    }
+
+    public synchronized RRNResult get(String key) {
+        return results.get(key);
+    }
+
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * Append result and sync it to disk
+     */
+    public synchronized void append(String key, RRNResult res) throws IOException {
+        String body = key+" "+encode(res);
+        String line = checksum(body)+" "+body+"\n";
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        out.getFD().sync();
+        results.put(key,res);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    // ###################################### KEYS ######################################
+
+    /**
+     * Identity of task: fingerprints of each source and target file and algorithm parameters.
+     * Same images under different paths give same key
+     */
+    public static String task_key(IRRNTask task, String parameters) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i != task.n_pairs(); ++i) {
+            if (i != 0) sb.append('+');
+            sb.append(FileFingerprint.of(task.get_source(i).get_filename()));
+            sb.append('>');
+            sb.append(FileFingerprint.of(task.get_target(i).get_filename()));
+        }
+        sb.append('|');
+        // Parameters may contain anything, keep key free of field separators
+        sb.append(parameters.replace(' ','_').replace('=',':'));
+        return sb.toString();
+    }
+
+    // ################################### SERIALIZATION ###################################
+
+    private static String checksum(String body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.getBytes(StandardCharsets.UTF_8));
+        return String.format("%08x",crc.getValue());
+    }
+
+    /**
+     * Encode result as space separated "field=values" list, values are comma separated
+     */
+    public static String encode(RRNResult res) {
+        StringBuilder sb = new StringBuilder();
+        append_field(sb,"coefs",res.coefs_source);
+        append_field(sb,"intercept",res.intercept_source);
+        append_field(sb,"w",new double[] {res.w_sum});
+        append_field(sb,"x",res.x_wsum);
+        append_field(sb,"y",res.y_wsum);
+        append_field(sb,"xx",res.xx_wsum);
+        append_field(sb,"xy",res.xy_wsum);
+        append_field(sb,"yy",res.yy_wsum);
+        return sb.toString().trim();
+    }
+
+    private static void append_field(StringBuilder sb, String name, double[] values) {
+        if (values == null) return;
+        sb.append(' ').append(name).append('=');
+        for (int i = 0; i != values.length; ++i) {
+            if (i != 0) sb.append(',');
+            sb.append(Double.toString(values[i]));
+        }
+    }
+
+    public static RRNResult decode(String encoded) {
+        RRNResult res = new RRNResult();
+        String[] fields = encoded.trim().split(" ");
+        for (int i = 0; i < fields.length; ++i) {
+            if (fields[i].isEmpty()) continue;
+            int sep = fields[i].indexOf('=');
+            String name = fields[i].substring(0,sep);
+            String[] parts = fields[i].substring(sep+1).split(",");
+            double[] values = new double[parts.length];
+            for (int j = 0; j != parts.length; ++j) {
+                values[j] = Double.parseDouble(parts[j]);
+            }
+
+            if (name.equals("coefs")) res.coefs_source = values;
+            else if (name.equals("intercept")) res.intercept_source = values;
+            else if (name.equals("w")) res.w_sum = values[0];
+            else if (name.equals("x")) res.x_wsum = values;
+            else if (name.equals("y")) res.y_wsum = values;
+            else if (name.equals("xx")) res.xx_wsum = values;
+            else if (name.equals("xy")) res.xy_wsum = values;
+            else if (name.equals("yy")) res.yy_wsum = values;
+        }
+        return res;
+    }
+}
@@ -0,0 +1,82 @@
+package backend.tasks;
+
+/**
+ * Decides, whether failed task is run again and after what delay.
+ *
+ * Errors of program or of data, i.e. mismatched grids, fail the same way every time and are not retried.
+ * Everything else, i.e. read errors of flaky storage, lack of memory or expired lease, is retried
+ * with exponential backoff, until attempts run out
+ */
+public class RetryPolicy {
+
+    public enum FAILURE {
+        // Attempt ran longer than it's lease
+        TIMEOUT,
+        TRANSIENT,
+        PERMANENT
+    }
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private static final Class<?>[] PERMANENT_ERRORS = {
+            IllegalArgumentException.class,
+            IllegalStateException.class,
+            IndexOutOfBoundsException.class,
+            ArithmeticException.class,
+            NullPointerException.class,
+            ClassCastException.class,
+            UnsupportedOperationException.class
+    };
+
+    private final int max_attempts;
+    private final long backoff_millis;
+
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BACKOFF_MILLIS);
+    }
+
+    /**
+     * @param max_attempts attempts of task, including first one
+     * @param backoff_millis delay before second attempt, doubled for each next one
+     */
+    public RetryPolicy(int max_attempts, long backoff_millis) {
+        if (max_attempts < 1) throw new IllegalArgumentException("Task needs at least one attempt");
+        this.max_attempts = max_attempts;
+        this.backoff_millis = backoff_millis;
+    }
+
+    public int get_max_attempts() {
+        return max_attempts;
+    }
+
+    /**
+     * @param error error attempt failed with, null if attempt gave no result without error
+     */
+    public static FAILURE classify(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            for (Class<?> c : PERMANENT_ERRORS) {
+                if (c.isInstance(t)) return FAILURE.PERMANENT;
+            }
+            if (t.getCause() == t) break;
+        }
+        return FAILURE.TRANSIENT;
+    }
+
+    /**
+     * @param attempts attempts made so far
+     */
+    public boolean should_retry(FAILURE failure, int attempts) {
+        return failure != FAILURE.PERMANENT && attempts < max_attempts;
+    }
+
+    /**
+     * Delay before next attempt
+     * @param attempts attempts made so far
+     */
+    public long backoff_millis(int attempts) {
+        int shift = Math.min(Math.max(attempts-1,0), 20);
+        return Math.min(backoff_millis << shift, MAX_BACKOFF_MILLIS);
+    }
+}
@@ -0,0 +1,301 @@
+package backend.tasks;
+
+import backend.rrn.IRMAD;
+import backend.rrn.RRNResult;
+import backend.rrn.Strip;
+
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Task provider decorator, that splits tasks with large overlap into horizontal strips.
+ *
+ * Strips are served as separate tasks, so they are computed by different processes or remote workers.
+ * Each strip returns weighted statistics of it's part of overlap, see {@link backend.rrn.RRN#calculate}.
+ * When all strips of iteration are released, their statistics are merged and committed to {@link IRMAD},
+ * strips of next iteration are queued with new weights. Converged task is released to underlying provider
+ * with coefficients, task with failed strip is released without result.
+ *
+ * Tasks with overlap below split threshold are passed through
+ */
+public class SplittingTaskProvider implements ITaskProvider {
+
+    private static Logger log = Logger.getLogger(SplittingTaskProvider.class.getName());
+
+    public static final double DEFAULT_SPLIT_PIXELS = 64e6;
+    public static final int MAX_STRIPS = 64;
+
+    private static final long IDLE_PARK_NANOS = 10_000_000;
+
+    /**
+     * Task of underlying provider, split into strips
+     */
+    private static class Split {
+        final IRRNTask task;
+        final int count;
+        // Created with first merged statistics, number of bands is not known before
+        IRMAD irmad;
+        RRNResult merged = new RRNResult();
+        int iteration;
+        int n_released;
+        boolean done;
+
+        Split(IRRNTask task, int count) {
+            this.task = task;
+            this.count = count;
+        }
+    }
+
+    private final ITaskProvider provider;
+    private volatile double split_pixels;
+
+    // Guarded by this. Splits by their strip tasks, queued and running
+    private final Deque<IRRNTask> queued = new ArrayDeque<>();
+    private final Map<IRRNTask,Split> splits = new HashMap<>();
+    private int n_split;
+    private int n_iterations;
+
+    public SplittingTaskProvider(ITaskProvider provider) {
+        this(provider, DEFAULT_SPLIT_PIXELS);
+    }
+
+    /**
+     * @param split_pixels overlap, tasks are split at, and maximum overlap of single strip. 0 to disable
+     */
+    public SplittingTaskProvider(ITaskProvider provider, double split_pixels) {
+        this.provider = provider;
+        this.split_pixels = split_pixels;
+    }
+
+    public void set_split_pixels(double pixels) {
+        split_pixels = pixels;
+    }
+
+    /**
+     * Number of strips of task
+     */
+    public static int strip_count(double overlap_pixels, double split_pixels) {
+        if (split_pixels <= 0 || overlap_pixels <= split_pixels) return 1;
+        return (int)Math.min(Math.ceil(overlap_pixels/split_pixels), MAX_STRIPS);
+    }
+
+    @Override
+    public void set_tasks(Collection<IRRNTask> tasks) {
+        synchronized (this) {
+            queued.clear();
+            splits.clear();
+            n_split = n_iterations = 0;
+        }
+        provider.set_tasks(tasks);
+    }
+
+    // ###################################### STRIPS ######################################
+
+    /**
+     * Should return NULL as a poison pill of no grab element!
+     * Strips of split tasks go first. Returns null when underlying provider has neither queued
+     * nor running tasks, or when calling thread is interrupted
+     */
+    @Override
+    public IRRNTask grab() {
+        while (true) {
+            boolean finished;
+            synchronized (this) {
+                finished = queued.isEmpty() && provider.num_tasks_queued() == 0 && provider.num_tasks_processing() == 0;
+            }
+            IRRNTask t = try_grab();
+            if (t != null) return t;
+
+            // Interrupted process is cancelled, it stops waiting for work
+            if (finished || Thread.currentThread().isInterrupted()) return null;
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Strip of split task, or new task of underlying provider, split if it is large
+     */
+    @Override
+    public IRRNTask try_grab() {
+        synchronized (this) {
+            IRRNTask strip = queued.poll();
+            if (strip != null) return strip;
+        }
+
+        IRRNTask t = provider.try_grab();
+        if (t == null) return null;
+        int count = strip_count(t.get_overlap_pixels(), split_pixels);
+        if (count == 1) return t;
+        return split(t, count);
+    }
+
+    /**
+     * Queue strips of first iteration
+     * @return first strip
+     */
+    private synchronized IRRNTask split(IRRNTask task, int count) {
+        n_split += 1;
+        log.info(String.format("Task %s with %.0f overlapping pixels split into %d strips",
+                task, task.get_overlap_pixels(), count));
+        queue_iteration(new Split(task, count));
+        return queued.poll();
+    }
+
+    private void queue_iteration(Split s) {
+        IRMAD.Weights weights = s.irmad == null ? null : s.irmad.get_weights();
+        for (int i = 0; i != s.count; ++i) {
+            IRRNTask strip = TaskFactory.get_task();
+            strip.set_name(s.task.get_name());
+            for (int p = 0; p != s.task.n_pairs(); ++p) strip.add_pair(s.task.get_source(p),s.task.get_target(p));
+            strip.set_overlap_pixels(s.task.get_overlap_pixels()/s.count);
+            strip.set_cost(s.task.get_cost()/s.count);
+            strip.set_key(s.task.get_key());
+            strip.set_strip(new Strip(i, s.count, s.iteration, weights));
+            strip.set_origin(s.task);
+            splits.put(strip,s);
+            queued.add(strip);
+        }
+    }
+
+    /**
+     * Merge statistics of strip, commit iteration when all strips of it are released
+     */
+    @Override
+    public void release(IRRNTask task) {
+        IRRNTask finished;
+        synchronized (this) {
+            Split s = splits.remove(task);
+            if (s == null) {
+                finished = task;
+            } else if (s.done) {
+                log.fine("Result of "+task+" dropped, task is already finished");
+                return;
+            } else if (task.get_result() == null || !task.get_result().has_statistics()) {
+                finished = fail(s, task.get_error() != null ? task.get_error() :
+                        new IllegalStateException("No statistics of "+task));
+            } else {
+                s.merged.merge(task.get_result());
+                s.n_released += 1;
+                if (s.n_released != s.count) return;
+                finished = commit(s);
+            }
+        }
+        if (finished != null) provider.release(finished);
+    }
+
+    /**
+     * Commit merged statistics of iteration
+     * @return task to release, if it converged or failed
+     */
+    private IRRNTask commit(Split s) {
+        RRNResult stats = s.merged;
+        try {
+            if (stats.w_sum <= 0) throw new IllegalStateException("No valid overlapping pixels");
+            if (s.irmad == null) s.irmad = new IRMAD(stats.x_wsum.length);
+            n_iterations += 1;
+            if (s.irmad.commit(stats)) {
+                log.info(String.format("Task %s converged after %d iterations, change of correlations %.2g",
+                        s.task, s.irmad.get_iteration(), s.irmad.get_change()));
+                s.done = true;
+                s.task.set_result(IRMAD.coefficients(stats));
+                s.task.set_error(null);
+                return s.task;
+            }
+        } catch (RuntimeException ex) {
+            return fail(s, ex);
+        }
+
+        log.fine(String.format("Task %s: iteration %d committed, change of correlations %.2g",
+                s.task, s.irmad.get_iteration(), s.irmad.get_change()));
+        s.iteration += 1;
+        s.merged = new RRNResult();
+        s.n_released = 0;
+        queue_iteration(s);
+        return null;
+    }
+
+    /**
+     * Give up split task, queued strips of it are dropped, running ones are dropped when released
+     */
+    private IRRNTask fail(Split s, Throwable error) {
+        log.log(Level.SEVERE, "Task "+s.task+" failed in iteration "+(s.iteration+1), error);
+        s.done = true;
+        Iterator<IRRNTask> it = queued.iterator();
+        while (it.hasNext()) {
+            IRRNTask strip = it.next();
+            if (splits.get(strip) == s) {
+                it.remove();
+                splits.remove(strip);
+            }
+        }
+        s.task.set_result(null);
+        s.task.set_error(error);
+        return s.task;
+    }
+
+    @Override
+    public void spawn(IRRNTask task) {
+        provider.spawn(task);
+    }
+
+    // ###################################### STATS ######################################
+
+    @Override
+    public int num_tasks_total() {
+        return provider.num_tasks_total();
+    }
+
+    /**
+     * Queued tasks of underlying provider and queued strips
+     */
+    @Override
+    public synchronized int num_tasks_queued() {
+        return provider.num_tasks_queued()+queued.size();
+    }
+
+    /**
+     * Split task counts as single processed task, until it converges
+     */
+    @Override
+    public int num_tasks_processing() {
+        return provider.num_tasks_processing();
+    }
+
+    @Override
+    public int num_tasks_processed() {
+        return provider.num_tasks_processed();
+    }
+
+    public synchronized int num_split() {
+        return n_split;
+    }
+
+    /**
+     * Number of committed iterations of all split tasks
+     */
+    public synchronized int num_iterations() {
+        return n_iterations;
+    }
+
+    @Override
+    public double locality_hit_rate() {
+        return provider.locality_hit_rate();
+    }
+
+    @Override
+    public void add_listener(ITaskListener listener) {
+        provider.add_listener(listener);
+    }
+
+    @Override
+    public void set_cost_model(CostModel model) {
+        provider.set_cost_model(model);
+    }
+
+    @Override
+    public double makespan() {
+        return provider.makespan();
+    }
+}
@@ -0,0 +1,35 @@
+package backend.tasks;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Forwards task events to all subscribed listeners
+ */
+public class TaskEvents implements ITaskListener {
+
+    private final List<ITaskListener> listeners = new CopyOnWriteArrayList<>();
+
+    public void add(ITaskListener listener) {
+        listeners.add(listener);
+    }
+
+    public void remove(ITaskListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void task_started(IRRNTask task) {
+        for (ITaskListener l : listeners) l.task_started(task);
+    }
+
+    @Override
+    public void block_processed(IRRNTask task, long pixels) {
+        for (ITaskListener l : listeners) l.block_processed(task,pixels);
+    }
+
+    @Override
+    public void task_finished(IRRNTask task) {
+        for (ITaskListener l : listeners) l.task_finished(task);
+    }
+}
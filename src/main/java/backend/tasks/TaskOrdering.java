@@ -0,0 +1,122 @@
+package backend.tasks;
+
+import backend.rasterio.RasterGrid;
+import backend.utils.CurveUtils;
+
+import java.util.*;
+
+/**
+ * Orders tasks before they are queued, so consecutive tasks touch
+ * same or nearby images and benefit from page cache and GDAL block cache
+ */
+public class TaskOrdering {
+
+    public enum POLICY {
+        /**
+         * Keep order tasks were given in. Tasks built by graph builder
+         * are in depth-first order of spanning tree
+         */
+        AS_IS,
+        /**
+         * Order by position of overlap centroid along Hilbert curve
+         */
+        SPACE_FILLING_CURVE,
+        /**
+         * Largest estimated cost first, see {@link CostModel}.
+         * Keeps few huge tasks from being grabbed last and dominating makespan
+         */
+        LARGEST_FIRST
+    }
+
+    // Hilbert curve order, centroids are snapped to 2^CURVE_ORDER x 2^CURVE_ORDER grid
+    private static final int CURVE_ORDER = 16;
+
+    public static List<IRRNTask> order(Collection<IRRNTask> tasks, POLICY policy) {
+        if (policy == POLICY.AS_IS) return new ArrayList<>(tasks);
+        if (policy == POLICY.SPACE_FILLING_CURVE) return curve_order(tasks);
+        if (policy == POLICY.LARGEST_FIRST) return largest_first_order(tasks);
+        throw new IllegalArgumentException("Not implemented for policy = "+policy.name());
+    }
+
+    public static POLICY from_string(String name) {
+        if (name.equals("dfs")) return POLICY.AS_IS;
+        if (name.equals("curve")) return POLICY.SPACE_FILLING_CURVE;
+        if (name.equals("lpt")) return POLICY.LARGEST_FIRST;
+        throw new IllegalArgumentException("Unknown task order: "+name);
+    }
+
+    private static List<IRRNTask> curve_order(Collection<IRRNTask> tasks) {
+        final Map<IRRNTask,double[]> centroids = new HashMap<>();
+        double xmin = Double.POSITIVE_INFINITY, xmax = Double.NEGATIVE_INFINITY;
+        double ymin = Double.POSITIVE_INFINITY, ymax = Double.NEGATIVE_INFINITY;
+
+        for (IRRNTask t : tasks) {
+            double[] c = centroid(t);
+            centroids.put(t,c);
+            xmin = Math.min(xmin,c[0]); xmax = Math.max(xmax,c[0]);
+            ymin = Math.min(ymin,c[1]); ymax = Math.max(ymax,c[1]);
+        }
+
+        int cells = (1 << CURVE_ORDER) - 1;
+        double xscale = xmax > xmin ? cells/(xmax-xmin) : 0;
+        double yscale = ymax > ymin ? cells/(ymax-ymin) : 0;
+
+        final Map<IRRNTask,Long> index = new HashMap<>();
+        for (IRRNTask t : tasks) {
+            double[] c = centroids.get(t);
+            int x = (int)((c[0]-xmin)*xscale);
+            int y = (int)((c[1]-ymin)*yscale);
+            index.put(t, CurveUtils.hilbert_index(CURVE_ORDER,x,y));
+        }
+
+        List<IRRNTask> ret = new ArrayList<>(tasks);
+        Collections.sort(ret, new Comparator<IRRNTask>() {
+            @Override
+            public int compare(IRRNTask o1, IRRNTask o2) {
+                return Long.compare(index.get(o1),index.get(o2));
+            }
+        });
+        return ret;
+    }
+
+    private static List<IRRNTask> largest_first_order(Collection<IRRNTask> tasks) {
+        List<IRRNTask> ret = new ArrayList<>(tasks);
+        Collections.sort(ret, new Comparator<IRRNTask>() {
+            @Override
+            public int compare(IRRNTask o1, IRRNTask o2) {
+                return Double.compare(o2.get_cost(),o1.get_cost());
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * Mean of centers of bounding box intersections of all pairs of task
+     * @return {x, y} in world coordinates
+     */
+    static double[] centroid(IRRNTask t) {
+        double x = 0, y = 0;
+        int n = 0;
+        for (int i = 0; i != t.n_pairs(); ++i) {
+            RasterGrid g1 = t.get_source(i).grid();
+            RasterGrid g2 = t.get_target(i).grid();
+            x += (Math.max(g1.xMin,g2.xMin)+Math.min(g1.xMax,g2.xMax))/2;
+            y += (Math.max(g1.yMin,g2.yMin)+Math.min(g1.yMax,g2.yMax))/2;
+            n += 1;
+        }
+        if (n == 0) return new double[]{0,0};
+        return new double[]{x/n,y/n};
+    }
+
+    /**
+     * Get names of all images task reads
+     */
+    static Set<String> files_of(IRRNTask t) {
+        Set<String> files = new HashSet<>();
+        for (int i = 0; i != t.n_pairs(); ++i) {
+            files.add(t.get_source(i).get_filename());
+            files.add(t.get_target(i).get_filename());
+        }
+        return files;
+    }
+}
@@ -5,59 +5,177 @@ import java.util.*;
 
 public class TaskProvider implements ITaskProvider {
 
+    // Number of queued tasks inspected for one sharing an image with previous task of worker
+    private static final int AFFINITY_WINDOW = 16;
+
     private List<IRRNTask> total_tasks;
-    private Queue<IRRNTask> input_queue;
-    private List<IRRNTask> processing_list;
+    private Deque<IRRNTask> input_queue;
+    // Processing tasks with their grab time, nanoseconds
+    private Map<IRRNTask,Long> processing_list;
     private Queue<IRRNTask> output_queue;
 
+    private TaskOrdering.POLICY ordering;
+
+    // Images read by each task, used to find tasks sharing an image
+    private Map<IRRNTask,Set<String>> task_files;
+    // Last task grabbed by each worker thread
+    private Map<Long,IRRNTask> last_task;
+
+    // Number of grabs that share an image with previous task of the same worker
+    private int locality_hits;
+    // Number of grabs by workers that already had a task
+    private int locality_grabs;
+
+    private CostModel cost_model;
+    private final TaskEvents events = new TaskEvents();
+    private long first_grab;
+    private long last_release;
+
     public TaskProvider() {
+        this(TaskOrdering.POLICY.AS_IS);
     }
 
+    public TaskProvider(TaskOrdering.POLICY ordering) {
+        this.ordering = ordering;
+    }
+
+    /**
+     * Grab next task. Prefers task, sharing an image with the previous task of calling thread,
+     * among first few tasks of queue
+     */
     @Override
     synchronized public IRRNTask grab() {
         if (input_queue.isEmpty()) return null;
-        IRRNTask next_task = input_queue.poll();
-        processing_list.add(next_task);
+
+        long worker = Thread.currentThread().getId();
+        IRRNTask prev_task = last_task.get(worker);
+
+        IRRNTask next_task = null;
+        if (prev_task != null) {
+            Set<String> prev_files = task_files.get(prev_task);
+
+            int inspected = 0;
+            Iterator<IRRNTask> it = input_queue.iterator();
+            while (it.hasNext() && inspected < AFFINITY_WINDOW) {
+                IRRNTask candidate = it.next();
+                if (!Collections.disjoint(prev_files,task_files.get(candidate))) {
+                    next_task = candidate;
+                    it.remove();
+                    break;
+                }
+                inspected += 1;
+            }
+
+            locality_grabs += 1;
+            if (next_task != null) locality_hits += 1;
+        }
+
+        if (next_task == null) next_task = input_queue.poll();
+
+        long now = System.nanoTime();
+        if (first_grab == 0) first_grab = now;
+        last_task.put(worker,next_task);
+        processing_list.put(next_task,now);
+        events.task_started(next_task);
         return next_task;
     }
 
+    /**
+     * Same as {@link #grab()}, which does not wait
+     */
+    @Override
+    public IRRNTask try_grab() {
+        return grab();
+    }
+
     @Override
     synchronized public void release(IRRNTask task) {
-        if (!processing_list.remove(task)) {
+        Long started = processing_list.remove(task);
+        if (started == null) {
             throw new InvalidParameterException();
         }
+        last_release = System.nanoTime();
+        if (cost_model != null) cost_model.observe(task,(last_release-started)*1e-9);
         output_queue.add(task);
+        events.task_finished(task);
     }
 
+    /**
+     * Put subtask in front of the queue.
+     * Note: workers that found queue empty before subtask was spawned have already quit,
+     * use {@link WorkStealingTaskProvider} if tasks spawn subtasks heavily
+     */
     @Override
-    public int num_tasks_total() {
+    synchronized public void spawn(IRRNTask task) {
+        total_tasks.add(task);
+        task_files.put(task,TaskOrdering.files_of(task));
+        input_queue.addFirst(task);
+    }
+
+    @Override
+    synchronized public int num_tasks_total() {
         return total_tasks.size();
     }
 
     @Override
-    public int num_tasks_queued() {
+    synchronized public int num_tasks_queued() {
         return input_queue.size();
     }
 
     @Override
-    public int num_tasks_processing() {
+    synchronized public int num_tasks_processing() {
         return processing_list.size();
     }
 
     @Override
-    public int num_tasks_processed() {
+    synchronized public int num_tasks_processed() {
         return output_queue.size();
     }
 
+    /**
+     * Fraction of grabs that share an image with previous task of the same worker.
+     * Higher values mean better use of page and block caches
+     */
+    @Override
+    synchronized public double locality_hit_rate() {
+        if (locality_grabs == 0) return 0;
+        return (double)locality_hits/locality_grabs;
+    }
+
+    @Override
+    public void add_listener(ITaskListener listener) {
+        events.add(listener);
+    }
+
+    @Override
+    synchronized public void set_cost_model(CostModel model) {
+        cost_model = model;
+    }
+
     @Override
-    public void set_tasks(Collection<IRRNTask> tasks) {
+    synchronized public double makespan() {
+        if (first_grab == 0 || last_release < first_grab) return 0;
+        return (last_release-first_grab)*1e-9;
+    }
+
+    @Override
+    synchronized public void set_tasks(Collection<IRRNTask> tasks) {
+        List<IRRNTask> ordered = TaskOrdering.order(tasks,ordering);
+
         total_tasks = new ArrayList<>(tasks.size());
         input_queue = new ArrayDeque<>(tasks.size());
-        processing_list = new ArrayList<>();
+        processing_list = new HashMap<>();
         output_queue = new ArrayDeque<>(tasks.size());
-        for (IRRNTask t : tasks) {
+        task_files = new HashMap<>();
+        last_task = new HashMap<>();
+        locality_hits = 0;
+        locality_grabs = 0;
+        first_grab = 0;
+        last_release = 0;
+        for (IRRNTask t : ordered) {
             total_tasks.add(t);
             input_queue.add(t);
+            task_files.put(t,TaskOrdering.files_of(t));
         }
     }
 }
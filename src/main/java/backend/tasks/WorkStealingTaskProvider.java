@@ -0,0 +1,249 @@
+package backend.tasks;
+
+import java.security.InvalidParameterException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free task provider based on work-stealing deques.
+ *
+ * Ordered tasks are split into contiguous chunks, one per worker deque,
+ * so each worker walks it's own part of the queue in locality order.
+ * Worker takes tasks from the head of it's own deque; when it is empty,
+ * it steals from the tail of another worker's deque, farthest from where that worker is.
+ * Subtasks spawned by a worker are pushed to the head of it's own deque
+ * and are processed next by the same worker, unless stolen.
+ *
+ * With {@link TaskOrdering.POLICY#LARGEST_FIRST} tasks are dealt round-robin instead,
+ * and stealing takes the head of victim's deque, so every grab gets
+ * one of the largest remaining tasks.
+ *
+ * All counters are atomic, so they can be read from any thread.
+ */
+public class WorkStealingTaskProvider implements ITaskProvider {
+
+    // Park time while waiting for running tasks to spawn subtasks
+    private static final long IDLE_PARK_NANOS = 50_000;
+
+    private final TaskOrdering.POLICY ordering;
+    private final int n_workers;
+
+    private ConcurrentLinkedDeque<IRRNTask>[] deques;
+    // Processing tasks with their grab time, nanoseconds
+    private Map<IRRNTask,Long> processing;
+
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger processing_count = new AtomicInteger();
+    private final AtomicInteger processed = new AtomicInteger();
+
+    // Deque index of each worker thread, assigned on first grab
+    private final AtomicInteger next_slot = new AtomicInteger();
+    private final ThreadLocal<Integer> slot = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            return Math.floorMod(next_slot.getAndIncrement(), n_workers);
+        }
+    };
+
+    // Locality metric, see ITaskProvider#locality_hit_rate()
+    private Map<IRRNTask,Set<String>> task_files;
+    private final ThreadLocal<IRRNTask> last_task = new ThreadLocal<>();
+    private final AtomicInteger locality_hits = new AtomicInteger();
+    private final AtomicInteger locality_grabs = new AtomicInteger();
+
+    private volatile CostModel cost_model;
+    private final TaskEvents events = new TaskEvents();
+    private final AtomicLong first_grab = new AtomicLong();
+    private final AtomicLong last_release = new AtomicLong();
+
+    public WorkStealingTaskProvider(int n_workers) {
+        this(n_workers, TaskOrdering.POLICY.AS_IS);
+    }
+
+    public WorkStealingTaskProvider(int n_workers, TaskOrdering.POLICY ordering) {
+        if (n_workers < 1) throw new IllegalArgumentException("Number of workers must be positive");
+        this.n_workers = n_workers;
+        this.ordering = ordering;
+    }
+
+    /**
+     * Empty deques, java has no arrays of generic type, so array of wildcard type is cast
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> ConcurrentLinkedDeque<T>[] new_deques(int n) {
+        ConcurrentLinkedDeque<T>[] deques = (ConcurrentLinkedDeque<T>[])new ConcurrentLinkedDeque<?>[n];
+        for (int i = 0; i != n; ++i) {
+            deques[i] = new ConcurrentLinkedDeque<>();
+        }
+        return deques;
+    }
+
+    @Override
+    public void set_tasks(Collection<IRRNTask> tasks) {
+        List<IRRNTask> ordered = TaskOrdering.order(tasks,ordering);
+
+        deques = new_deques(n_workers);
+        processing = new ConcurrentHashMap<>();
+        task_files = new ConcurrentHashMap<>();
+
+        // Contiguous chunks keep locality order inside of each deque,
+        // round-robin keeps every deque sorted from largest to smallest
+        int chunk = (ordered.size()+n_workers-1)/n_workers;
+        for (int i = 0; i != ordered.size(); ++i) {
+            IRRNTask t = ordered.get(i);
+            int deque = largest_first() ? i%n_workers : i/Math.max(chunk,1);
+            deques[deque].addLast(t);
+            task_files.put(t,TaskOrdering.files_of(t));
+        }
+
+        total.set(ordered.size());
+        queued.set(ordered.size());
+        processing_count.set(0);
+        processed.set(0);
+        locality_hits.set(0);
+        locality_grabs.set(0);
+        first_grab.set(0);
+        last_release.set(0);
+    }
+
+    private boolean largest_first() {
+        return ordering == TaskOrdering.POLICY.LARGEST_FIRST;
+    }
+
+    /**
+     * Should return NULL as a poison pill of no grab element!
+     * Returns null only when there are neither queued nor running tasks,
+     * since running tasks may still spawn subtasks, or when calling thread is interrupted
+     */
+    @Override
+    public IRRNTask grab() {
+        while (true) {
+            IRRNTask t = try_grab();
+            if (t != null) return t;
+
+            if (queued.get() == 0 && processing_count.get() == 0) return null;
+            // Interrupted process is cancelled, it stops waiting for subtasks
+            if (Thread.currentThread().isInterrupted()) return null;
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    @Override
+    public IRRNTask try_grab() {
+        int own = slot.get();
+        IRRNTask t = deques[own].pollFirst();
+        if (t == null) t = steal(own);
+        if (t == null) return null;
+
+        // Count task as processing before it leaves queued, so both are never 0 at once
+        processing_count.incrementAndGet();
+        queued.decrementAndGet();
+        long now = System.nanoTime();
+        first_grab.compareAndSet(0,now);
+        processing.put(t,now);
+        record_locality(t);
+        events.task_started(t);
+        return t;
+    }
+
+    private IRRNTask steal(int own) {
+        int start = ThreadLocalRandom.current().nextInt(n_workers);
+        for (int i = 0; i != n_workers; ++i) {
+            int victim = (start+i)%n_workers;
+            if (victim == own) continue;
+            IRRNTask t = largest_first() ? deques[victim].pollFirst() : deques[victim].pollLast();
+            if (t != null) return t;
+        }
+        return null;
+    }
+
+    private void record_locality(IRRNTask t) {
+        IRRNTask prev = last_task.get();
+        last_task.set(t);
+        if (prev == null) return;
+
+        locality_grabs.incrementAndGet();
+        Set<String> prev_files = task_files.get(prev);
+        Set<String> cur_files = task_files.get(t);
+        if (prev_files != null && cur_files != null && !Collections.disjoint(prev_files,cur_files)) {
+            locality_hits.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void release(IRRNTask task) {
+        Long started = processing.remove(task);
+        if (started == null) {
+            throw new InvalidParameterException();
+        }
+        long now = System.nanoTime();
+        last_release.accumulateAndGet(now,Math::max);
+        CostModel model = cost_model;
+        if (model != null) model.observe(task,(now-started)*1e-9);
+        processed.incrementAndGet();
+        processing_count.decrementAndGet();
+        events.task_finished(task);
+    }
+
+    /**
+     * Push subtask to the head of calling worker's deque
+     */
+    @Override
+    public void spawn(IRRNTask task) {
+        task_files.put(task,TaskOrdering.files_of(task));
+        total.incrementAndGet();
+        queued.incrementAndGet();
+        deques[slot.get()].addFirst(task);
+    }
+
+    @Override
+    public int num_tasks_total() {
+        return total.get();
+    }
+
+    @Override
+    public int num_tasks_queued() {
+        return queued.get();
+    }
+
+    @Override
+    public int num_tasks_processing() {
+        return processing_count.get();
+    }
+
+    @Override
+    public int num_tasks_processed() {
+        return processed.get();
+    }
+
+    @Override
+    public double locality_hit_rate() {
+        int grabs = locality_grabs.get();
+        if (grabs == 0) return 0;
+        return (double)locality_hits.get()/grabs;
+    }
+
+    @Override
+    public void add_listener(ITaskListener listener) {
+        events.add(listener);
+    }
+
+    @Override
+    public void set_cost_model(CostModel model) {
+        cost_model = model;
+    }
+
+    @Override
+    public double makespan() {
+        long first = first_grab.get();
+        long last = last_release.get();
+        if (first == 0 || last < first) return 0;
+        return (last-first)*1e-9;
+    }
+}
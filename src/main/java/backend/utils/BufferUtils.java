@@ -28,7 +28,19 @@ public class BufferUtils {
 
     }
 
-    private static ByteBuffer allocateDirectByte(int n_elems) {
+    /**
+     * Buffer of n_elems of type, reusing given one if it is large enough
+     * @param old buffer to reuse, may be null
+     */
+    public static ByteBuffer reuseDirect(ByteBuffer old, int gdal_type, int n_elems) {
+        int size = n_elems*TypeUtils.get_size(gdal_type);
+        if (old == null || old.capacity() < size) return allocateDirect(gdal_type, n_elems);
+        old.clear();
+        old.limit(size);
+        return old;
+    }
+
+        private static ByteBuffer allocateDirectByte(int n_elems) {
         ByteBuffer bbuf = ByteBuffer.allocateDirect(n_elems);
         bbuf.order(ByteOrder.nativeOrder());
         return bbuf;
@@ -45,6 +57,46 @@ public class BufferUtils {
         throw new IllegalArgumentException();
     }
 
+    /**
+     * Values of buffer of any gdal type, read without moving it's position
+     * @param out array of at least as many elements as buffer holds
+     */
+    public static void toDoubleArr(ByteBuffer bb, int gdal_type, double[] out) {
+        toDoubleArr(bb, gdal_type, 0, bb.remaining()/TypeUtils.get_size(gdal_type), out, 0);
+    }
+
+    /**
+     * Values first..first+n of buffer of any gdal type, read without moving it's position
+     * @param out array values are written to, starting from out_offset
+     */
+    public static void toDoubleArr(ByteBuffer bb, int gdal_type, int first, int n, double[] out, int out_offset) {
+        int pos = bb.position();
+        if (gdal_type == gdalconst.GDT_Byte) {
+            pos += first;
+            for (int i = 0; i != n; ++i) out[out_offset+i] = bb.get(pos+i) & 0xFF;
+        } else if (gdal_type == gdalconst.GDT_UInt16) {
+            pos += 2*first;
+            for (int i = 0; i != n; ++i) out[out_offset+i] = Short.toUnsignedInt(bb.getShort(pos+2*i));
+        } else if (gdal_type == gdalconst.GDT_Int16) {
+            pos += 2*first;
+            for (int i = 0; i != n; ++i) out[out_offset+i] = bb.getShort(pos+2*i);
+        } else if (gdal_type == gdalconst.GDT_UInt32) {
+            pos += 4*first;
+            for (int i = 0; i != n; ++i) out[out_offset+i] = Integer.toUnsignedLong(bb.getInt(pos+4*i));
+        } else if (gdal_type == gdalconst.GDT_Int32) {
+            pos += 4*first;
+            for (int i = 0; i != n; ++i) out[out_offset+i] = bb.getInt(pos+4*i);
+        } else if (gdal_type == gdalconst.GDT_Float32) {
+            pos += 4*first;
+            for (int i = 0; i != n; ++i) out[out_offset+i] = bb.getFloat(pos+4*i);
+        } else if (gdal_type == gdalconst.GDT_Float64) {
+            pos += 8*first;
+            for (int i = 0; i != n; ++i) out[out_offset+i] = bb.getDouble(pos+8*i);
+        } else {
+            throw new IllegalArgumentException("Unsupported gdal type "+gdal_type);
+        }
+    }
+
     public static long[] toLongArr(ByteBuffer bb, int gdal_type) {
         long[] ret = new long[bb.remaining()/TypeUtils.get_size(gdal_type)];
         if (gdal_type == gdalconst.GDT_UInt16) {
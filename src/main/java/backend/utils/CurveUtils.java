@@ -0,0 +1,35 @@
+package backend.utils;
+
+public class CurveUtils {
+
+    /**
+     * Position of point along Hilbert curve.
+     * Points close on the curve are close in space, so sorting by this index
+     * gives locality preserving order
+     * @param order curve order, coordinates must be within [0, 2^order)
+     * @param x x coordinate
+     * @param y y coordinate
+     * @return distance along the curve
+     */
+    public static long hilbert_index(int order, int x, int y) {
+        long d = 0;
+        for (long s = 1L << (order-1); s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += s * s * ((3 * rx) ^ ry);
+
+            // Rotate quadrant
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = (int)(s-1) - x;
+                    y = (int)(s-1) - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+}
@@ -0,0 +1,133 @@
+package frontend;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Thin client of {@link DaemonServer}: submits job and streams it's progress until it ends.
+ * Ctrl+C cancels submitted job, daemon keeps running
+ */
+public class DaemonClient {
+
+    private static Logger log = Logger.getLogger(DaemonClient.class.getName());
+
+    public static final String COMMAND = "submit";
+
+    private DaemonClient() {
+    }
+
+    /**
+     * Submit job: 'submit [port] args ...', args are same as of single run.
+     * Relative paths are resolved against working directory of client.
+     * Token of daemon is read from {@link DaemonServer#token_file(int)}
+     * @param listener gets progress of job
+     * @return status of job, see {@link DaemonServer}
+     */
+    public static int submit(String[] args, UI_Progress_listener listener) {
+        int first = 1;
+        int port = DaemonServer.DEFAULT_PORT;
+        if (args.length > 1 && !args[1].startsWith("-")) {
+            port = Integer.parseInt(args[1]);
+            first = 2;
+        }
+        String[] job_args = Arrays.copyOfRange(args, first, args.length);
+
+        String token;
+        try {
+            token = DaemonServer.read_token(DaemonServer.token_file(port));
+        } catch (IOException ex) {
+            log.severe("Could not read token of daemon on port "+port+", daemon must run as same user: "+
+                    ex.getMessage());
+            return DaemonServer.STATUS_FAILED;
+        }
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            return submit(socket, token, new File("").getAbsolutePath(), job_args, listener);
+        } catch (IOException ex) {
+            log.severe("Could not submit job to daemon on port "+port+": "+ex.getMessage());
+            return DaemonServer.STATUS_FAILED;
+        }
+    }
+
+    static int submit(Socket socket, String token, String working_dir, String[] args, UI_Progress_listener listener)
+            throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),StandardCharsets.UTF_8));
+        final Writer out = new OutputStreamWriter(socket.getOutputStream(),StandardCharsets.UTF_8);
+
+        StringBuilder sb = new StringBuilder(DaemonServer.RUN).append(DaemonServer.SEP).append(token);
+        sb.append(DaemonServer.SEP).append(working_dir);
+        for (String a : args) sb.append(DaemonServer.SEP).append(a);
+        out.write(sb.append('\n').toString());
+        out.flush();
+
+        // Ctrl+C cancels job, daemon leaves it's outputs and journal consistent
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread cancel_hook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    synchronized (out) {
+                        out.write(DaemonServer.CANCEL+"\n");
+                        out.flush();
+                    }
+                    done.await(UI.CANCEL_WAIT_SECONDS, TimeUnit.SECONDS);
+                } catch (IOException | InterruptedException ignored) {
+                }
+            }
+        }, "cancel job on shutdown");
+        Runtime.getRuntime().addShutdownHook(cancel_hook);
+
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] msg = line.split(DaemonServer.SEP,3);
+                switch (msg[0]) {
+                    case DaemonServer.PROGRESS:
+                        String[] values = line.split(DaemonServer.SEP);
+                        listener.on_progress(Double.parseDouble(values[1]), Double.parseDouble(values[2]),
+                                Double.parseDouble(values[3]), Boolean.parseBoolean(values[4]));
+                        break;
+                    case DaemonServer.DONE:
+                        int status = Integer.parseInt(msg[1]);
+                        String message = msg.length > 2 ? unescape(msg[2]) : "";
+                        if (status == DaemonServer.STATUS_FINISHED) {
+                            log.info("Job "+message);
+                        } else {
+                            System.out.println(message);
+                        }
+                        return status;
+                    default:
+                        throw new IOException("Unexpected reply of daemon: "+line);
+                }
+            }
+            throw new EOFException("Daemon closed connection before job ended");
+        } finally {
+            done.countDown();
+            try {
+                Runtime.getRuntime().removeShutdownHook(cancel_hook);
+            } catch (IllegalStateException ignored) {
+                // Already shutting down
+            }
+        }
+    }
+
+    private static String unescape(String message) {
+        StringBuilder sb = new StringBuilder(message.length());
+        for (int i = 0; i < message.length(); ++i) {
+            char c = message.charAt(i);
+            if (c == '\\' && i+1 < message.length()) {
+                c = message.charAt(++i);
+                sb.append(c == 'n' ? '\n' : c);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
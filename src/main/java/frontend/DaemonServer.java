@@ -0,0 +1,308 @@
+package frontend;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Long-running process, that runs mosaic jobs submitted by {@link DaemonClient} over local socket.
+ * Each job is configured from command line arguments, same as single run, and runs on it's own receiver.
+ * Receivers of daemon share warm state: GDAL drivers, footprints and fingerprints of images,
+ * child JVMs and JIT-compiled code. Jobs run concurrently, CPU is shared fairly between them.
+ * Options, that set state of whole process, see {@link UI#PROCESS_OPTIONS}, are given when daemon starts,
+ * job giving other values of them fails, since it would change them for running jobs.
+ *
+ * Line based protocol, fields are tab separated:
+ *
+ * RUN token working_dir arg arg ... -> PROGRESS progress pixels_per_second eta_seconds finished ...
+ *                                      then DONE status message
+ * CANCEL                            -> job stops, DONE follows
+ *
+ * Status is {@link #STATUS_FINISHED}, {@link #STATUS_FAILED} or {@link #STATUS_STOPPED}.
+ * Client, that disconnects, cancels it's job. Daemon only listens on loopback interface.
+ * Jobs run with permissions of daemon's owner, so client must present token of daemon, which is written
+ * to {@link #token_file(int)} readable by owner only
+ */
+public class DaemonServer implements Closeable {
+
+    private static Logger log = Logger.getLogger(DaemonServer.class.getName());
+
+    public static final String COMMAND = "daemon";
+    public static final int DEFAULT_PORT = 7341;
+
+    static final String SEP = "\t";
+
+    static final String RUN = "RUN";
+    static final String CANCEL = "CANCEL";
+    static final String PROGRESS = "PROGRESS";
+    static final String DONE = "DONE";
+
+    static final int STATUS_FINISHED = 0;
+    static final int STATUS_FAILED = 1;
+    static final int STATUS_STOPPED = 2;
+
+    private final ServerSocket server;
+    private final UI_Command_receiver_factory factory;
+    // Process-wide options daemon was started with
+    private final Map<String,String> process_settings;
+    private final byte[] token;
+    private volatile boolean closed;
+    // Receivers of running jobs, guarded by this
+    private final Set<UI_Command_receiver> running = new HashSet<>();
+    private int next_job_id;
+
+    /**
+     * @param process_settings process-wide options, daemon was started with, see {@link UI#PROCESS_OPTIONS}
+     * @param token secret, clients must present to submit jobs
+     */
+    public DaemonServer(int port, UI_Command_receiver_factory factory, Map<String,String> process_settings,
+                        String token) throws IOException {
+        this.server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        this.factory = factory;
+        this.process_settings = process_settings;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public int get_port() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Accept jobs until daemon is closed
+     */
+    public void serve() {
+        log.info("Daemon listening on port "+get_port());
+        while (!closed) {
+            try {
+                final Socket socket = server.accept();
+                final int id;
+                synchronized (this) {
+                    id = ++next_job_id;
+                }
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket, id);
+                    }
+                }, "daemon job "+id);
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException ex) {
+                if (!closed) log.log(Level.WARNING,"Accept failed",ex);
+            }
+        }
+    }
+
+    /**
+     * Number of jobs running now
+     */
+    public synchronized int num_running() {
+        return running.size();
+    }
+
+    /**
+     * Stop accepting jobs, cancel running ones and wait for them to stop
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException ex) {
+            log.warning("Could not close daemon socket: "+ex.getMessage());
+        }
+
+        UI_Command_receiver[] jobs;
+        synchronized (this) {
+            jobs = running.toArray(new UI_Command_receiver[0]);
+        }
+        for (UI_Command_receiver r : jobs) r.cancel("daemon stopped");
+
+        long deadline = System.nanoTime()+TimeUnit.SECONDS.toNanos(UI.CANCEL_WAIT_SECONDS);
+        synchronized (this) {
+            try {
+                while (!running.isEmpty() && System.nanoTime() < deadline) {
+                    wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline-System.nanoTime())));
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // ####################################### TOKEN ######################################
+
+    /**
+     * New random token
+     */
+    static String new_token() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder(2*bytes.length);
+        for (byte b : bytes) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    /**
+     * File of token of daemon on given port, in home directory of daemon's owner
+     */
+    public static Path token_file(int port) {
+        return Paths.get(System.getProperty("user.home"), ".prrn", "daemon-"+port+".token");
+    }
+
+    /**
+     * Write token to file, only owner may read it, where file system supports permissions
+     */
+    static void write_token(Path file, String token) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.deleteIfExists(file);
+        if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(file);
+        }
+        Files.write(file, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String read_token(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+    }
+
+    // ####################################### JOBS #######################################
+
+    private void serve(Socket socket, int id) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(),StandardCharsets.UTF_8));
+             Writer out = new OutputStreamWriter(s.getOutputStream(),StandardCharsets.UTF_8)) {
+
+            String line = in.readLine();
+            if (line == null) return;
+            String[] msg = line.split(SEP,-1);
+            if (!msg[0].equals(RUN) || msg.length < 3) {
+                done(out, STATUS_FAILED, "expected "+RUN+" token working_dir args");
+                return;
+            }
+            // Compared in constant time, so response time does not tell how much of token was guessed
+            if (!MessageDigest.isEqual(token, msg[1].getBytes(StandardCharsets.UTF_8))) {
+                log.warning("Job "+id+" rejected, no valid token");
+                done(out, STATUS_FAILED, "not authenticated, token of daemon is in "+token_file(get_port()));
+                return;
+            }
+            String[] args = Arrays.copyOfRange(msg, 3, msg.length);
+            log.info("Job "+id+" submitted: "+String.join(" ", args));
+            run_job(id, new File(msg[2]), args, in, out);
+        } catch (SocketException ex) {
+            log.fine("Connection of job "+id+" closed: "+ex.getMessage());
+        } catch (IOException | RuntimeException ex) {
+            log.log(Level.WARNING,"Connection of job "+id+" failed",ex);
+        }
+    }
+
+    private void run_job(int id, File working_dir, String[] args, final BufferedReader in, final Writer out)
+            throws IOException {
+        final UI_Command_receiver reciever = factory.create();
+        UI ui = new UI();
+        ui.setReciever(reciever);
+        ui.setBaseDir(working_dir);
+        ui.setProcessSettings(process_settings);
+        try {
+            ui.configure(args);
+        } catch (IllegalArgumentException ex) {
+            done(out, STATUS_FAILED, ex.getMessage());
+            return;
+        }
+
+        synchronized (this) {
+            if (closed) {
+                done(out, STATUS_STOPPED, "daemon is stopping");
+                return;
+            }
+            running.add(reciever);
+        }
+
+        // Client cancels by message or by disconnecting
+        final boolean[] finished = {false};
+        Thread watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String line;
+                    do {
+                        line = in.readLine();
+                    } while (line != null && !line.equals(CANCEL));
+                } catch (IOException ignored) {
+                }
+                synchronized (finished) {
+                    if (!finished[0]) reciever.cancel("cancelled by client");
+                }
+            }
+        }, "daemon job "+id+" client");
+        watcher.setDaemon(true);
+        watcher.start();
+
+        int status;
+        String message;
+        try {
+            ui.run(new UI_Progress_listener() {
+                @Override
+                public void on_progress(double progress, double pixels_per_second, double eta_seconds,
+                                        boolean finished) {
+                    try {
+                        send(out, PROGRESS+SEP+progress+SEP+pixels_per_second+SEP+eta_seconds+SEP+finished);
+                    } catch (IOException ex) {
+                        // Client is gone, watcher cancels job
+                        log.fine("Could not send progress of job: "+ex.getMessage());
+                    }
+                }
+            });
+            boolean complete = ui.plan_output != null || reciever.get_progress() >= 1;
+            status = complete ? STATUS_FINISHED : STATUS_STOPPED;
+            message = ui.plan_output != null ? "plan written to "+ui.plan_output :
+                    complete ? "finished" : "stopped, submit again to resume";
+        } catch (RuntimeException ex) {
+            log.log(Level.SEVERE,"Job "+id+" failed",ex);
+            status = STATUS_FAILED;
+            message = String.valueOf(ex.getMessage());
+        } finally {
+            synchronized (finished) {
+                finished[0] = true;
+            }
+            synchronized (this) {
+                running.remove(reciever);
+                notifyAll();
+            }
+        }
+        log.info("Job "+id+" "+message);
+        done(out, status, message);
+    }
+
+    /**
+     * Last message of job. Message may span lines, i.e. usage, line breaks are escaped
+     */
+    private static void done(Writer out, int status, String message) throws IOException {
+        send(out, DONE+SEP+status+SEP+String.valueOf(message).replace("\\","\\\\").replace("\n","\\n"));
+    }
+
+    private static void send(Writer out, String line) throws IOException {
+        synchronized (out) {
+            out.write(line+"\n");
+            out.flush();
+        }
+    }
+}
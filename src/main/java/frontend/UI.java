@@ -1,9 +1,17 @@
 package frontend;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.cli.*;
@@ -11,8 +19,23 @@ import org.apache.commons.cli.*;
 public class UI {
 
     UI_Command_receiver reciever;
+    // Creates receivers of daemon jobs, see DaemonServer
+    UI_Command_receiver_factory reciever_factory;
     Logger log = Logger.getLogger(UI.class.getName());
     String output_path;
+    // Plan is written here instead of running, see --plan
+    String plan_output;
+    // Directory relative paths are resolved against, working directory if null
+    File base_dir;
+
+    // Shared secret of coordinator and workers, see --coordinator
+    static final String CLUSTER_TOKEN_ENV = "PRRN_CLUSTER_TOKEN";
+
+    // Options, that set state of whole process, daemon takes them on start, see DaemonServer
+    static final String[] PROCESS_OPTIONS = {"io_per_device", "memory_mb", "device_policy", "child_jvm", "threads"};
+
+    // Process-wide settings of daemon, jobs may not change them. Null if not run by daemon
+    Map<String,String> process_settings;
 
     public UI() {
     }
@@ -21,6 +44,29 @@ public class UI {
         reciever = i_reciever;
     }
 
+    public void setRecieverFactory(UI_Command_receiver_factory factory) {
+        reciever_factory = factory;
+    }
+
+    /**
+     * Configure jobs of daemon, process-wide options of job must equal given ones, see {@link #PROCESS_OPTIONS}
+     */
+    public void setProcessSettings(Map<String,String> settings) {
+        process_settings = settings;
+    }
+
+    /**
+     * Resolve relative paths of arguments against given directory, i.e. working directory of daemon client
+     */
+    public void setBaseDir(File dir) {
+        base_dir = dir;
+    }
+
+    private String resolve(String path) {
+        if (base_dir == null || new File(path).isAbsolute()) return path;
+        return new File(base_dir, path).getPath();
+    }
+
     private Vector<String> getFilePaths(String path) {
         // Check if file is csv
         if (path.toLowerCase().endsWith(".txt")) {
@@ -32,7 +78,7 @@ public class UI {
             try {
                 br = new BufferedReader(new FileReader(path));
                 while ((line = br.readLine()) != null) {
-                    ret.add(line);
+                    ret.add(resolve(line));
                 }
                 return ret;
 
@@ -57,8 +103,108 @@ public class UI {
 
     }
 
+    /**
+     * Run mosaic from command line arguments. First argument 'daemon' starts daemon,
+     * 'submit' runs mosaic of remaining arguments in running daemon, see {@link DaemonServer}
+     */
     public void processArguments(String[] args) {
+        if (args.length > 0 && args[0].equals(DaemonServer.COMMAND)) {
+            serve(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals(DaemonClient.COMMAND)) {
+            int status = DaemonClient.submit(args, progress_bar());
+            if (status != 0) System.exit(status);
+            return;
+        }
+
+        try {
+            configure(args);
+        } catch (IllegalArgumentException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        if (plan_output != null) {
+            run(null);
+            return;
+        }
+
+        System.out.println("Executing operations");
+        System.out.println();
+        // Ctrl+C cancels run, outputs and journal are left consistent, so it can be resumed
+        final CountDownLatch joined = new CountDownLatch(1);
+        Thread cancel_hook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                reciever.cancel("interrupted");
+                try {
+                    joined.await(CANCEL_WAIT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }, "cancel on shutdown");
+        Runtime.getRuntime().addShutdownHook(cancel_hook);
+
+        run(progress_bar());
+        joined.countDown();
+        try {
+            Runtime.getRuntime().removeShutdownHook(cancel_hook);
+        } catch (IllegalStateException ignored) {
+            // Already shutting down
+        }
+    }
 
+    /**
+     * Serve jobs until process is stopped: 'daemon [port] [process-wide options]',
+     * options of {@link #PROCESS_OPTIONS} are set for all jobs
+     */
+    private void serve(String[] args) {
+        int first = 1;
+        int port = DaemonServer.DEFAULT_PORT;
+        if (args.length > 1 && !args[1].startsWith("-")) {
+            port = Integer.parseInt(args[1]);
+            first = 2;
+        }
+        Map<String,String> settings;
+        try {
+            settings = configure_process(Arrays.copyOfRange(args, first, args.length));
+        } catch (IllegalArgumentException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        final DaemonServer server;
+        final Path token_file = DaemonServer.token_file(port);
+        try {
+            String token = DaemonServer.new_token();
+            server = new DaemonServer(port, reciever_factory, settings, token);
+            DaemonServer.write_token(token_file, token);
+        } catch (IOException ex) {
+            log.severe("Could not start daemon on port "+port+": "+ex.getMessage());
+            System.exit(1);
+            return;
+        }
+        // Ctrl+C cancels running jobs, they are resumed from their journals when submitted again
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.close();
+                try {
+                    Files.deleteIfExists(token_file);
+                } catch (IOException ignored) {
+                }
+            }
+        }, "stop daemon"));
+        server.serve();
+    }
+
+    /**
+     * Options of single run
+     */
+    private static Options options() {
         Options options = new Options();
 
         Option input = new Option("i","input", true, "paths to geospatial dataset or " +
@@ -67,38 +213,274 @@ public class UI {
         input.setArgs(Option.UNLIMITED_VALUES);
         options.addOption(input);
 
-        Option output = new Option("o", "output",true, "output file");
+        Option output = new Option("o", "output",true, "output directory of normalized images. " +
+                "Only images affected by changed inputs are rewritten on next run");
         output.setRequired(true);
         options.addOption(output);
 
+        Option journal_option = new Option("j", "journal", true, "journal of finished tasks, " +
+                "interrupted run is resumed from it. output.journal by default");
+        journal_option.setRequired(false);
+        options.addOption(journal_option);
+
         Option graph_output_option = new Option("g", "graph_output",true, " .dot output of graph file");
         graph_output_option.setRequired(false);
         options.addOption(graph_output_option);
 
+        Option group_option = new Option("G", "group_by", true, "group tiles of same acquisition into " +
+                "single graph vertex: 'regex[=pattern]' (Landsat scene id by default), " +
+                "'metadata=ITEM' or 'groups=file.csv' with path,group lines");
+        group_option.setRequired(false);
+        options.addOption(group_option);
+
+        Option min_overlap_option = new Option("m", "min_overlap", true, "minimal number of valid " +
+                "overlapping pixels for images to be paired");
+        min_overlap_option.setRequired(false);
+        options.addOption(min_overlap_option);
+
+        Option task_order_option = new Option("t", "task_order", true, "order of task queue: " +
+                "'lpt' (largest estimated cost first, default), " +
+                "'dfs' (depth-first over spanning tree) or 'curve' (Hilbert curve over overlaps)");
+        task_order_option.setRequired(false);
+        options.addOption(task_order_option);
+
+        Option io_option = new Option(null, "io_per_device", true, "number of concurrent reads " +
+                "or writes on each storage device, 2 by default");
+        io_option.setRequired(false);
+        options.addOption(io_option);
+
+        Option memory_option = new Option(null, "memory_mb", true, "memory budget of block buffers, megabytes, " +
+                "half of heap by default");
+        memory_option.setRequired(false);
+        options.addOption(memory_option);
+
+        Option device_option = new Option(null, "device_policy", true, "read policy of device, path is " +
+                "stored on: 'path=concurrency[:window]'. Spinning disks default to 1:16, others to 2:1");
+        device_option.setRequired(false);
+        device_option.setArgs(Option.UNLIMITED_VALUES);
+        options.addOption(device_option);
+
+        Option child_option = new Option(null, "child_jvm", true, "compute tasks in child JVMs: " +
+                "'heap_mb[:gdal_cache_mb[:tasks_per_child]]', child is replaced after given number of tasks. " +
+                "256 MB of GDAL cache and 200 tasks by default");
+        child_option.setRequired(false);
+        options.addOption(child_option);
+
+        Option threads_option = new Option(null, "threads", true, "threads processes and block readers " +
+                "run on: 'platform' (default) or 'virtual', which needs JDK 21. Virtual threads do not hold " +
+                "OS threads while waiting for reads, so readers keep more reads in flight");
+        threads_option.setRequired(false);
+        options.addOption(threads_option);
+
+        Option timeout_option = new Option(null, "task_timeout", true, "seconds task may run, before it " +
+                "is considered hung and retried, longer for tasks estimated to be slow. 120 by default");
+        timeout_option.setRequired(false);
+        options.addOption(timeout_option);
+
+        Option split_option = new Option(null, "split_mpx", true, "split tasks with more overlapping " +
+                "megapixels into strips, computed by different processes. 64 by default, 0 disables splitting");
+        split_option.setRequired(false);
+        options.addOption(split_option);
+
+        Option coordinator_option = new Option(null, "coordinator", true, "serve tasks to remote workers " +
+                "on given port instead of processing locally. Coordinator and workers must share token in " +
+                CLUSTER_TOKEN_ENV+" environment variable. Start workers with " +
+                "'java backend.cluster.Worker host port [n_processes [local_root ...]]'");
+        coordinator_option.setRequired(false);
+        options.addOption(coordinator_option);
+
+        Option bind_option = new Option(null, "coordinator_bind", true, "address of interface coordinator " +
+                "listens on, 0.0.0.0 for all interfaces. Default is loopback, so only workers of this node connect");
+        bind_option.setRequired(false);
+        options.addOption(bind_option);
+
+        Option partitions_option = new Option(null, "partitions", true, "split tasks of coordinator into " +
+                "given number of parts with fewest shared images, each part is processed by worker " +
+                "storing most of it's images");
+        partitions_option.setRequired(false);
+        options.addOption(partitions_option);
+
+        Option plan_option = new Option(null, "plan", true, "write plan of run as JSON to file, '-' for " +
+                "standard output unless run by daemon, instead of running: bytes to read, peak memory, " +
+                "estimated time and critical path. Only image headers are read");
+        plan_option.setRequired(false);
+        options.addOption(plan_option);
+        return options;
+    }
+
+    private static CommandLine parse(Options options, String[] args) {
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
-        CommandLine cmd;
-
         try {
-            cmd = parser.parse(options, args);
+            return parser.parse(options, args);
         } catch (ParseException e) {
-            System.out.println(e.getMessage());
-            formatter.printHelp("utility-name", options);
+            StringWriter help = new StringWriter();
+            formatter.printHelp(new PrintWriter(help), formatter.getWidth(), "utility-name", null, options,
+                    formatter.getLeftPadding(), formatter.getDescPadding(), null);
+            throw new IllegalArgumentException(e.getMessage()+"\n"+help);
+        }
+    }
 
-            System.exit(1);
-            return;
+    /**
+     * Set process-wide options, see {@link #PROCESS_OPTIONS}, other options are not allowed
+     * @return values of options given
+     */
+    Map<String,String> configure_process(String[] args) {
+        Options options = options();
+        options.getOption("input").setRequired(false);
+        options.getOption("output").setRequired(false);
+        CommandLine cmd = parse(options, args);
+        for (Option o : cmd.getOptions()) {
+            if (!Arrays.asList(PROCESS_OPTIONS).contains(o.getLongOpt())) {
+                throw new IllegalArgumentException("Only options "+Arrays.toString(PROCESS_OPTIONS)+
+                        " are set for whole daemon, --"+o.getLongOpt()+" is given to jobs");
+            }
+        }
+        apply_process_options(cmd);
+        return process_settings(cmd);
+    }
+
+    private static Map<String,String> process_settings(CommandLine cmd) {
+        Map<String,String> ret = new LinkedHashMap<>();
+        for (String name : PROCESS_OPTIONS) {
+            if (cmd.hasOption(name)) ret.put(name, String.join(",", cmd.getOptionValues(name)));
+        }
+        return ret;
+    }
+
+    /**
+     * Process-wide options of job must be same as of daemon, job would change them for concurrent jobs
+     */
+    private void check_process_options(CommandLine cmd) {
+        for (Map.Entry<String,String> e : process_settings(cmd).entrySet()) {
+            String daemon_value = process_settings.get(e.getKey());
+            if (!e.getValue().equals(daemon_value)) {
+                throw new IllegalArgumentException("--"+e.getKey()+" is set for whole daemon"+
+                        (daemon_value == null ? "" : " to "+daemon_value)+", give it when starting daemon");
+            }
+        }
+    }
+
+    /**
+     * Apply options of {@link #PROCESS_OPTIONS} to receiver
+     */
+    private void apply_process_options(CommandLine cmd) {
+        String io_per_device = cmd.getOptionValue("io_per_device");
+        String memory_mb = cmd.getOptionValue("memory_mb");
+        String[] device_policies = cmd.getOptionValues("device_policy");
+        String child_jvm = cmd.getOptionValue("child_jvm");
+        String threads = cmd.getOptionValue("threads");
+
+        if (io_per_device != null || memory_mb != null) {
+            reciever.set_resource_limits(
+                    io_per_device == null ? 0 : Integer.parseInt(io_per_device),
+                    memory_mb == null ? 0 : Long.parseLong(memory_mb)*1024*1024);
+        }
+
+        if (child_jvm != null) {
+            String[] values = child_jvm.split(":");
+            reciever.set_child_jvms(Integer.parseInt(values[0]),
+                    values.length > 1 ? Integer.parseInt(values[1]) : 256,
+                    values.length > 2 ? Integer.parseInt(values[2]) : 200);
+        }
+
+        if (threads != null) {
+            reciever.set_thread_mode(threads);
+        }
+
+        if (device_policies != null) {
+            for (String policy : device_policies) {
+                int sep = policy.lastIndexOf('=');
+                if (sep < 0) {
+                    throw new IllegalArgumentException("Invalid device policy "+policy+
+                            ", expected path=concurrency[:window]");
+                }
+                String[] values = policy.substring(sep+1).split(":");
+                int concurrency = Integer.parseInt(values[0]);
+                int window = values.length > 1 ? Integer.parseInt(values[1]) : 1;
+                reciever.set_device_policy(resolve(policy.substring(0,sep)),concurrency,window);
+            }
+        }
+    }
+
+    /**
+     * Pass arguments to receiver: add files, set options and output
+     * @throws IllegalArgumentException arguments are invalid, message tells why
+     */
+    public void configure(String[] args) {
+        CommandLine cmd = parse(options(), args);
+
+        if (process_settings == null) {
+            apply_process_options(cmd);
+        } else {
+            check_process_options(cmd);
+            // Standard output of daemon is not the one of client
+            if ("-".equals(cmd.getOptionValue("plan"))) {
+                throw new IllegalArgumentException("--plan - writes to standard output of daemon, " +
+                        "give file to write plan to");
+            }
         }
 
         String[] input_args = cmd.getOptionValues("input");
-        String output_file_path = cmd.getOptionValue("output");
+        String output_file_path = resolve(cmd.getOptionValue("output"));
         String graph_output_file = cmd.getOptionValue("graph_output");
+        String journal_path = cmd.getOptionValue("journal");
+        String group_by = cmd.getOptionValue("group_by");
+        String min_overlap = cmd.getOptionValue("min_overlap");
+        String task_order = cmd.getOptionValue("task_order");
+        String task_timeout = cmd.getOptionValue("task_timeout");
+        String split_mpx = cmd.getOptionValue("split_mpx");
+        String coordinator_port = cmd.getOptionValue("coordinator");
+        String coordinator_bind = cmd.getOptionValue("coordinator_bind");
+        String partitions = cmd.getOptionValue("partitions");
+        String plan = cmd.getOptionValue("plan");
 
         log.info("Graph output: "+graph_output_file );
 
+        if (group_by != null) {
+            int sep = group_by.indexOf('=');
+            String type = sep < 0 ? group_by : group_by.substring(0,sep);
+            String value = sep < 0 ? null : group_by.substring(sep+1);
+            if (type.equals("groups") && value != null) value = resolve(value);
+            try {
+                reciever.set_grouping(type,value);
+            } catch (IOException | IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Invalid grouping "+group_by+": "+ex.getMessage(), ex);
+            }
+        }
+
+        if (min_overlap != null) {
+            reciever.set_min_overlap(Double.parseDouble(min_overlap));
+        }
+
+        if (task_order != null) {
+            reciever.set_task_ordering(task_order);
+        }
+
+        if (task_timeout != null) {
+            reciever.set_task_timeout(Double.parseDouble(task_timeout));
+        }
+
+        if (split_mpx != null) {
+            reciever.set_split_pixels(Double.parseDouble(split_mpx)*1e6);
+        }
+
+        if (coordinator_port != null) {
+            String token = System.getenv(CLUSTER_TOKEN_ENV);
+            if (token == null || token.isEmpty()) {
+                throw new IllegalArgumentException(CLUSTER_TOKEN_ENV+" must be set to serve tasks to workers");
+            }
+            reciever.set_cluster(coordinator_bind, Integer.parseInt(coordinator_port), token);
+        }
+
+        if (partitions != null) {
+            reciever.set_partitions(Integer.parseInt(partitions));
+        }
+
         HashSet<String> inputfiles = new HashSet<>();
 
         for (String fpath : input_args) {
-            inputfiles.addAll(getFilePaths(fpath));
+            inputfiles.addAll(getFilePaths(resolve(fpath)));
         }
 
         int max_input_files = 20;
@@ -118,26 +500,57 @@ public class UI {
         }
 
         output_path = output_file_path;
+        reciever.set_output_path(output_path);
+        if (journal_path != null) {
+            reciever.set_journal_path(resolve(journal_path));
+        }
 
         if (graph_output_file != null) {
-            reciever.save_graph(graph_output_file);
+            reciever.save_graph(resolve(graph_output_file));
         }
 
-        System.out.println("Executing operations");
-        reciever.execute();
+        plan_output = plan == null || plan.equals("-") ? plan : resolve(plan);
+    }
 
-        try {
-            System.out.println();
-            while (reciever.is_running()) {
-                Thread.sleep(10);
-                print_progress_bar("Processing...",reciever.get_progress());
+    /**
+     * Execute configured run and wait for it to end, or only write it's plan if --plan is given
+     * @param listener gets progress while run executes
+     */
+    public void run(UI_Progress_listener listener) {
+        if (plan_output != null) {
+            try {
+                reciever.save_plan(plan_output);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Could not write plan to "+plan_output, ex);
             }
-            final_progress_bar("Success!     ",reciever.get_progress());
-        } catch (InterruptedException ignored) {};
-
+            return;
+        }
+        reciever.add_progress_listener(listener);
+        reciever.execute();
         reciever.join();
     }
 
+    /**
+     * Progress bar on standard output
+     */
+    static UI_Progress_listener progress_bar() {
+        return new UI_Progress_listener() {
+            @Override
+            public void on_progress(double progress, double pixels_per_second, double eta_seconds, boolean finished) {
+                if (finished) {
+                    final_progress_bar(progress < 1 ? "Stopped      " : "Success!     ",progress);
+                } else {
+                    print_progress_bar("Processing...",progress);
+                    System.out.print(String.format(" %.3g px/s, ETA %s   ", pixels_per_second,
+                            eta_seconds < 0 ? "?" : String.format("%.0fs",eta_seconds)));
+                }
+            }
+        };
+    }
+
+    // Time run is given to stop, when process is interrupted
+    static final long CANCEL_WAIT_SECONDS = 30;
+
     private static final int progress_bar_size = 50;
     private static void print_progress_bar(String caption, double progress) {
         int ticks = (int)Math.round(progress*(float)progress_bar_size);
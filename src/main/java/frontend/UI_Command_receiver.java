@@ -7,9 +7,33 @@ public interface UI_Command_receiver {
     void add_file(String s) throws IOException;
     void execute();
     void set_process_count(int n);
+    void set_output_path(String path);
+    void set_journal_path(String path);
+    void set_task_ordering(String name);
+    void set_resource_limits(int io_per_device, long memory_bytes);
+    void set_device_policy(String path, int concurrency, int window);
+    void set_task_timeout(double seconds);
+    void set_split_pixels(double pixels);
+    void set_child_jvms(int heap_mb, int gdal_cache_mb, int tasks_per_child);
+    void set_thread_mode(String name);
+    void set_cluster(String bind_address, int port, String token);
+    void set_partitions(int k);
+    void set_min_overlap(double pixels);
+    void set_grouping(String type, String value) throws IOException;
     void save_graph(String filename);
 
+    /**
+     * Write plan of configured run as JSON without running it, "-" for standard output
+     */
+    void save_plan(String filename) throws IOException;
+
+    void add_progress_listener(UI_Progress_listener listener);
     boolean is_running();
     double get_progress();
     void join();
+
+    /**
+     * Stop current run, {@link #join()} returns soon after with partial results kept
+     */
+    void cancel(String reason);
 }
@@ -0,0 +1,10 @@
+package frontend;
+
+public interface UI_Command_receiver_factory {
+
+    /**
+     * Receiver of single job of daemon, see {@link DaemonServer}
+     */
+    UI_Command_receiver create();
+
+}
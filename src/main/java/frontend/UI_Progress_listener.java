@@ -0,0 +1,13 @@
+package frontend;
+
+public interface UI_Progress_listener {
+
+    /**
+     * @param progress fraction from 0 to 1
+     * @param pixels_per_second current throughput
+     * @param eta_seconds estimated time remaining, negative if unknown
+     * @param finished true for last call
+     */
+    void on_progress(double progress, double pixels_per_second, double eta_seconds, boolean finished);
+
+}
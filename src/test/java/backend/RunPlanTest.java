@@ -0,0 +1,72 @@
+package backend;
+
+import backend.tasks.CostModel;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RunPlanTest {
+
+    private static RunPlan.TaskPlan task(String child, String parent, double seconds, int strips) {
+        return new RunPlan.TaskPlan(0, child+" -> "+parent, child, parent, 1, 3,
+                1000, 6, 256*256, strips, 10, seconds);
+    }
+
+    // Reference r, chain r <- a <- b, and leaf c of r
+    private static RunPlan make_plan(int processes) {
+        RunPlan plan = new RunPlan(processes, 2, 8, Long.MAX_VALUE, new CostModel());
+        plan.add_task(task("a", "r", 3, 1));
+        plan.add_task(task("b", "a", 2, 1));
+        plan.add_task(task("c", "r", 4, 1));
+        return plan;
+    }
+
+    @Test
+    public void critical_path_follows_slowest_chain() {
+        List<RunPlan.TaskPlan> path = make_plan(4).critical_path();
+        assertEquals(1, path.size());
+        assertEquals("c -> r", path.get(0).name);
+
+        RunPlan plan = new RunPlan(4, 2, 8, Long.MAX_VALUE, new CostModel());
+        plan.add_task(task("a", "r", 3, 1));
+        plan.add_task(task("b", "a", 5, 1));
+        plan.add_task(task("c", "r", 2, 1));
+        path = plan.critical_path();
+        assertEquals(2, path.size());
+        assertEquals("a -> r", path.get(0).name);
+        assertEquals("b -> a", path.get(1).name);
+    }
+
+    @Test
+    public void totals_and_makespan() {
+        RunPlan plan = make_plan(2);
+        assertEquals(3*1000*6*10, plan.total_bytes(), 0);
+        assertEquals(9, plan.total_seconds(), 0);
+        // Largest first on two processes: 4 | 3+2
+        assertEquals(5, plan.makespan_seconds(), 1e-12);
+        // Readers of two processes plus their block matrices
+        long reader = (2+8)*256*256*6L;
+        long compute = 256*256*(2*3+2)*8L;
+        assertEquals(2*(reader+compute), plan.peak_memory_bytes());
+    }
+
+    @Test
+    public void memory_budget_bounds_readers() {
+        RunPlan plan = new RunPlan(2, 2, 8, 1000, new CostModel());
+        plan.add_task(task("a", "r", 1, 1));
+        assertEquals(1000+256*256*(2*3+2)*8L, plan.peak_memory_bytes());
+    }
+
+    @Test
+    public void json_has_totals_and_escaped_names() {
+        RunPlan plan = make_plan(2);
+        plan.add_task(task("q\"uote", "r", 1, 2));
+        String json = plan.to_json();
+        assertTrue(json.contains("\"makespan_seconds\": 5"));
+        assertTrue(json.contains("\"critical_path\": [\"c -> r\"]"));
+        assertTrue(json.contains("\"name\": \"q\\\"uote -> r\""));
+        assertTrue(json.contains("\"strips\": 2"));
+    }
+}
@@ -0,0 +1,201 @@
+package backend.cluster;
+
+import backend.rrn.RRNResult;
+import backend.tasks.*;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CoordinatorTest {
+
+    private static final String TOKEN = "secret";
+
+    private static List<IRRNTask> make_tasks(int n) {
+        List<IRRNTask> tasks = new ArrayList<>(n);
+        for (int i = 0; i != n; ++i) {
+            IRRNTask t = TaskFactory.get_task();
+            t.set_name("task "+i);
+            tasks.add(t);
+        }
+        return tasks;
+    }
+
+    private static RRNResult make_result(double gain) {
+        RRNResult res = new RRNResult();
+        res.coefs_source = new double[] {gain};
+        res.intercept_source = new double[] {0};
+        return res;
+    }
+
+    // Send single line and read reply
+    private static String send(Socket s, String line) throws IOException {
+        Writer out = new OutputStreamWriter(s.getOutputStream(),StandardCharsets.UTF_8);
+        out.write(line+"\n");
+        out.flush();
+        return new BufferedReader(new InputStreamReader(s.getInputStream(),StandardCharsets.UTF_8)).readLine();
+    }
+
+    @Test
+    public void workers_process_all_tasks() throws Exception {
+        List<IRRNTask> tasks = make_tasks(30);
+        ITaskProvider provider = new TaskProvider();
+        provider.set_tasks(tasks);
+
+        final Coordinator coordinator = new Coordinator(0, 5000, TOKEN);
+        coordinator.add_provider(provider);
+        coordinator.start();
+
+        Thread[] workers = new Thread[3];
+        for (int i = 0; i != workers.length; ++i) {
+            final int worker_id = i;
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try (RemoteTaskProvider remote = new RemoteTaskProvider("localhost",coordinator.get_port(),"w"+worker_id,TOKEN)) {
+                        IRRNTask t;
+                        while ((t = remote.grab()) != null) {
+                            t.set_result(make_result(worker_id+1));
+                            remote.release(t);
+                        }
+                    } catch (IOException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread w : workers) w.join();
+
+        assertTrue(coordinator.is_done());
+        assertEquals(30,provider.num_tasks_processed());
+        for (IRRNTask t : tasks) {
+            assertNotNull(t.get_result());
+            assertEquals(1,t.get_result().coefs_source.length);
+        }
+        coordinator.close();
+    }
+
+    @Test
+    public void expired_lease_is_given_to_other_worker() throws Exception {
+        List<IRRNTask> tasks = make_tasks(1);
+        ITaskProvider provider = new TaskProvider();
+        provider.set_tasks(tasks);
+
+        Coordinator coordinator = new Coordinator(0, 200, TOKEN);
+        coordinator.add_provider(provider);
+        coordinator.start();
+
+        // Worker that grabs task and hangs without heartbeats
+        try (Socket dead = new Socket("localhost",coordinator.get_port())) {
+            Writer out = new OutputStreamWriter(dead.getOutputStream(),StandardCharsets.UTF_8);
+            BufferedReader in = new BufferedReader(new InputStreamReader(dead.getInputStream(),StandardCharsets.UTF_8));
+            out.write(Protocol.HELLO+Protocol.SEP+"dead"+Protocol.SEP+TOKEN+"\n");
+            out.flush();
+            assertEquals(Protocol.OK,in.readLine());
+            out.write(Protocol.GRAB+"\n");
+            out.flush();
+            String[] reply = in.readLine().split(Protocol.SEP);
+            assertEquals(Protocol.TASK,reply[0]);
+
+            try (RemoteTaskProvider remote = new RemoteTaskProvider("localhost",coordinator.get_port(),"alive",TOKEN)) {
+                IRRNTask t = remote.grab();
+                assertNotNull(t);
+                assertEquals("task 0",t.get_name());
+                t.set_result(make_result(2));
+                remote.release(t);
+                assertNull(remote.grab());
+            }
+
+            // Late result of expired lease is ignored
+            out.write(Protocol.RESULT+Protocol.SEP+reply[1]+Protocol.SEP+"coefs=7.0\n");
+            out.flush();
+            assertEquals(Protocol.LOST,in.readLine());
+        }
+
+        assertEquals(2,tasks.get(0).get_result().coefs_source[0],0);
+        coordinator.close();
+    }
+
+    @Test
+    public void worker_processes_on_localhost() throws Exception {
+        // RRN of empty task fails, so it exercises retries too
+        List<IRRNTask> tasks = make_tasks(4);
+        ITaskProvider provider = new TaskProvider();
+        provider.set_tasks(tasks);
+
+        Coordinator coordinator = new Coordinator(0, 5000, TOKEN);
+        coordinator.add_provider(provider);
+        coordinator.start();
+
+        String java = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+        String classpath = System.getProperty("surefire.test.class.path",System.getProperty("java.class.path"));
+        List<Process> workers = new ArrayList<>();
+        for (int i = 0; i != 2; ++i) {
+            ProcessBuilder pb = new ProcessBuilder(java, "-cp", classpath, Worker.class.getName(),
+                    "localhost", Integer.toString(coordinator.get_port()), "1")
+                    .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.INHERIT);
+            pb.environment().put(Worker.TOKEN_ENV, TOKEN);
+            workers.add(pb.start());
+        }
+        for (Process p : workers) {
+            assertEquals(0,p.waitFor());
+        }
+
+        assertTrue(coordinator.is_done());
+        assertEquals(4,provider.num_tasks_processed());
+        coordinator.close();
+    }
+
+    @Test
+    public void results_of_unauthenticated_connections_are_rejected() throws Exception {
+        List<IRRNTask> tasks = make_tasks(1);
+        ITaskProvider provider = new TaskProvider();
+        provider.set_tasks(tasks);
+
+        Coordinator coordinator = new Coordinator(0, 5000, TOKEN);
+        coordinator.add_provider(provider);
+        coordinator.start();
+
+        try (RemoteTaskProvider remote = new RemoteTaskProvider("localhost",coordinator.get_port(),"w",TOKEN)) {
+            IRRNTask t = remote.grab();
+            assertNotNull(t);
+
+            // Lease ids are sequential, so first one is guessed
+            String forged = Protocol.RESULT+Protocol.SEP+0+Protocol.SEP+"coefs=7.0";
+            try (Socket s = new Socket("localhost",coordinator.get_port())) {
+                assertTrue(send(s, forged).startsWith(Protocol.ERROR));
+                assertNull(new BufferedReader(new InputStreamReader(s.getInputStream())).readLine());
+            }
+            try (Socket s = new Socket("localhost",coordinator.get_port())) {
+                assertTrue(send(s, Protocol.HELLO+Protocol.SEP+"x"+Protocol.SEP+"guess").startsWith(Protocol.ERROR));
+            }
+            // Authenticated worker can not report result of lease of other worker
+            try (Socket s = new Socket("localhost",coordinator.get_port())) {
+                assertEquals(Protocol.OK, send(s, Protocol.HELLO+Protocol.SEP+"x"+Protocol.SEP+TOKEN));
+                assertEquals(Protocol.LOST, send(s, forged));
+            }
+            assertNull(t.get_result());
+
+            t.set_result(make_result(2));
+            remote.release(t);
+        }
+
+        assertTrue(coordinator.is_done());
+        assertEquals(2,tasks.get(0).get_result().coefs_source[0],0);
+        coordinator.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void worker_with_wrong_token_is_rejected() throws Exception {
+        try (Coordinator coordinator = new Coordinator(0, 5000, TOKEN)) {
+            coordinator.start();
+            new RemoteTaskProvider("localhost",coordinator.get_port(),"w","guess").close();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package backend.graph;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class GraphBuilderTest {
+
+    // Groups connected by edge of given weight, pair images are not needed to build tree
+    private static void connect(GraphBuilder g, String a, String b, double weight) {
+        g.add_pair(g.get_or_create_group(a), null, g.get_or_create_group(b), null, weight);
+    }
+
+    @Test
+    public void results_of_cyclic_component_are_tree_edges() {
+        GraphBuilder g = new GraphBuilder();
+        connect(g, "a", "b", 10);
+        connect(g, "b", "c", 20);
+        connect(g, "c", "a", 5);
+        connect(g, "c", "d", 7);
+
+        int n = g.get_results_size();
+        assertEquals(g.vertices_count()-1, n);
+
+        RasterGroup[] source = new RasterGroup[n];
+        RasterGroup[] target = new RasterGroup[n];
+        double[] weights = new double[n];
+        g.get_results(source, target, weights);
+
+        Set<RasterGroup> sources = new HashSet<>();
+        for (int i = 0; i != n; ++i) {
+            assertNotNull(source[i]);
+            assertNotNull(target[i]);
+            assertTrue(sources.add(source[i]));
+        }
+        // Lightest edge of cycle is left out
+        for (int i = 0; i != n; ++i) assertNotEquals(5, weights[i], 0);
+        assertFalse(sources.contains(g.get_reference()));
+    }
+}
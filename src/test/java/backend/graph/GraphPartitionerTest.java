@@ -0,0 +1,82 @@
+package backend.graph;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GraphPartitionerTest {
+
+    private static int[] to_array(List<Integer> list) {
+        int[] ret = new int[list.size()];
+        for (int i = 0; i != ret.length; ++i) ret[i] = list.get(i);
+        return ret;
+    }
+
+    private static double[] ones(int n) {
+        double[] ret = new double[n];
+        java.util.Arrays.fill(ret,1);
+        return ret;
+    }
+
+    @Test
+    public void cliques_are_split_at_bridge() {
+        // Two cliques of 20 vertices, connected by single edge
+        List<Integer> eu = new ArrayList<>();
+        List<Integer> ev = new ArrayList<>();
+        for (int c = 0; c != 2; ++c) {
+            for (int i = 0; i != 20; ++i) {
+                for (int j = i+1; j != 20; ++j) {
+                    eu.add(c*20+i);
+                    ev.add(c*20+j);
+                }
+            }
+        }
+        eu.add(0);
+        ev.add(20);
+
+        int[] u = to_array(eu);
+        int[] v = to_array(ev);
+        double[] w = ones(u.length);
+        int[] part = GraphPartitioner.partition(40, ones(40), u, v, w, 2, 0.05);
+
+        assertEquals(1, GraphPartitioner.cut(part,u,v,w), 0);
+        for (int i = 1; i != 20; ++i) {
+            assertEquals(part[0],part[i]);
+            assertEquals(part[20],part[20+i]);
+        }
+    }
+
+    @Test
+    public void grid_parts_are_balanced() {
+        // 30x30 grid, 4 parts
+        int side = 30;
+        List<Integer> eu = new ArrayList<>();
+        List<Integer> ev = new ArrayList<>();
+        for (int y = 0; y != side; ++y) {
+            for (int x = 0; x != side; ++x) {
+                if (x+1 < side) { eu.add(y*side+x); ev.add(y*side+x+1); }
+                if (y+1 < side) { eu.add(y*side+x); ev.add((y+1)*side+x); }
+            }
+        }
+        int[] u = to_array(eu);
+        int[] v = to_array(ev);
+        double[] w = ones(u.length);
+        int n = side*side;
+        int[] part = GraphPartitioner.partition(n, ones(n), u, v, w, 4, 0.1);
+
+        int[] load = new int[4];
+        for (int p : part) load[p] += 1;
+        for (int l : load) assertTrue("Part of "+l+" vertices", l <= n/4*1.1+1);
+        // Quadrants cut 60 edges, random assignment cuts three quarters of 1740
+        assertTrue("Cut "+GraphPartitioner.cut(part,u,v,w), GraphPartitioner.cut(part,u,v,w) < 200);
+    }
+
+    @Test
+    public void single_part_keeps_all_vertices() {
+        int[] part = GraphPartitioner.partition(3, ones(3), new int[]{0,1}, new int[]{1,2}, ones(2), 1, 0.1);
+        assertArrayEquals(new int[]{0,0,0}, part);
+    }
+}
@@ -0,0 +1,91 @@
+package backend.pipeline;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PipelineTest {
+
+    @Test
+    public void items_pass_all_stages() throws Exception {
+        Pipeline p = new Pipeline("test");
+        Channel<Integer> numbers = p.channel("numbers", 2);
+        Channel<Integer> squares = p.channel("squares", 2);
+        final Set<Integer> seen = Collections.synchronizedSet(new HashSet<Integer>());
+        final boolean[] finished = new boolean[1];
+
+        p.stage("square", numbers, squares, 3, new IStage<Integer,Integer>() {
+            @Override
+            public void process(Integer item, Channel<Integer> out) throws InterruptedException {
+                out.put(item*item);
+            }
+
+            @Override
+            public void finish(Channel<Integer> out) {
+            }
+        });
+        p.stage("collect", squares, null, 1, new IStage<Integer,Void>() {
+            @Override
+            public void process(Integer item, Channel<Void> out) {
+                seen.add(item);
+            }
+
+            @Override
+            public void finish(Channel<Void> out) {
+                finished[0] = true;
+            }
+        });
+
+        numbers.open();
+        p.start();
+        for (int i = 0; i != 100; ++i) numbers.put(i);
+        numbers.close();
+        p.join();
+
+        assertEquals(100, seen.size());
+        assertTrue(seen.contains(99*99));
+        assertTrue(finished[0]);
+    }
+
+    @Test
+    public void item_reaches_last_stage_before_input_ends() throws Exception {
+        Pipeline p = new Pipeline("test");
+        Channel<Integer> in = p.channel("in", 1);
+        Channel<Integer> mid = p.channel("mid", 1);
+        final CountDownLatch written = new CountDownLatch(1);
+
+        p.stage("pass", in, mid, 1, new IStage<Integer,Integer>() {
+            @Override
+            public void process(Integer item, Channel<Integer> out) throws InterruptedException {
+                out.put(item);
+            }
+
+            @Override
+            public void finish(Channel<Integer> out) {
+            }
+        });
+        p.stage("write", mid, null, 1, new IStage<Integer,Void>() {
+            @Override
+            public void process(Integer item, Channel<Void> out) {
+                written.countDown();
+            }
+
+            @Override
+            public void finish(Channel<Void> out) {
+            }
+        });
+
+        in.open();
+        p.start();
+        in.put(1);
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        in.close();
+        p.join();
+    }
+}
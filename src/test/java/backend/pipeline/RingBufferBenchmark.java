@@ -0,0 +1,105 @@
+package backend.pipeline;
+
+import backend.pipeline.RingBufferTest.Item;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static backend.pipeline.RingBufferTest.ITEMS;
+import static backend.pipeline.RingBufferTest.start_producers;
+
+/**
+ * Run with -Pbenchmark, not part of unit tests
+ */
+public class RingBufferBenchmark {
+
+    // Hand-off through blocking queue with poison pill, as reader did before
+    private static final Item POISON = new Item();
+
+    private static double[] run_queue(int n_producers, final int n_items, int capacity) throws Exception {
+        final BlockingQueue<Item> queue = new ArrayBlockingQueue<>(capacity);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p != n_producers; ++p) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i != n_items; ++i) {
+                            Item item = new Item();
+                            item.value = i;
+                            item.published_nanos = System.nanoTime();
+                            queue.put(item);
+                        }
+                        queue.put(POISON);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            });
+            t.start();
+            producers.add(t);
+        }
+        long start = System.nanoTime();
+        long latency = 0;
+        int running = n_producers;
+        long n = 0;
+        while (running > 0) {
+            Item item = queue.take();
+            if (item == POISON) {
+                --running;
+                continue;
+            }
+            latency += System.nanoTime()-item.published_nanos;
+            ++n;
+        }
+        long elapsed = System.nanoTime()-start;
+        for (Thread t : producers) t.join();
+        return new double[] {n/(elapsed*1e-9), (double)latency/n};
+    }
+
+    private static double[] run_ring(int n_producers, int n_items, int capacity, RingBuffer.WAIT wait)
+            throws Exception {
+        RingBuffer<Item> ring = new RingBuffer<>(capacity, ITEMS, n_producers == 1, wait);
+        List<Thread> producers = start_producers(ring, n_producers, n_items, 1);
+        long start = System.nanoTime();
+        long latency = 0;
+        long n = 0;
+        Item item;
+        while ((item = ring.take()) != null) {
+            latency += System.nanoTime()-item.published_nanos;
+            ++n;
+        }
+        long elapsed = System.nanoTime()-start;
+        for (Thread t : producers) t.join();
+        return new double[] {n/(elapsed*1e-9), (double)latency/n};
+    }
+
+    /**
+     * Throughput and mean hand-off latency of blocking queue and ring buffer, single and 4 producers
+     */
+    @Test
+    public void hand_off() throws Exception {
+        int n_items = 200000;
+        int capacity = 64;
+
+        for (int n_producers : new int[] {1, 4}) {
+            // Warm up
+            for (int i = 0; i != 3; ++i) {
+                run_queue(n_producers, n_items/10, capacity);
+                run_ring(n_producers, n_items/10, capacity, RingBuffer.WAIT.PARK);
+                run_ring(n_producers, n_items/10, capacity, RingBuffer.WAIT.BUSY_SPIN);
+            }
+            double[] queue = run_queue(n_producers, n_items, capacity);
+            double[] park = run_ring(n_producers, n_items, capacity, RingBuffer.WAIT.PARK);
+            double[] spin = run_ring(n_producers, n_items, capacity, RingBuffer.WAIT.BUSY_SPIN);
+            System.out.println(String.format("%d producers, ArrayBlockingQueue:    %.0f items/s, latency %.0f ns",
+                    n_producers, queue[0], queue[1]));
+            System.out.println(String.format("%d producers, RingBuffer PARK:       %.0f items/s, latency %.0f ns",
+                    n_producers, park[0], park[1]));
+            System.out.println(String.format("%d producers, RingBuffer BUSY_SPIN:  %.0f items/s, latency %.0f ns",
+                    n_producers, spin[0], spin[1]));
+        }
+    }
+}
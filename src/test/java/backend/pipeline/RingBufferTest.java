@@ -0,0 +1,136 @@
+package backend.pipeline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class RingBufferTest {
+
+    // Recycled item: value set by producer, and time it was published at
+    static class Item {
+        long value;
+        long published_nanos;
+    }
+
+    static final Supplier<Item> ITEMS = new Supplier<Item>() {
+        @Override
+        public Item get() {
+            return new Item();
+        }
+    };
+
+    // Producers publishing values 0..n_items-1 of their own, each item offset by producer id
+    static List<Thread> start_producers(final RingBuffer<Item> ring, int n_producers,
+                                                final int n_items, final int batch) {
+        List<Thread> ret = new ArrayList<>();
+        for (int p = 0; p != n_producers; ++p) {
+            final long offset = (long)p*n_items;
+            ring.add_producer();
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Item[] own = new Item[batch];
+                    for (int i = 0; i != batch; ++i) own[i] = new Item();
+                    try {
+                        for (int i = 0; i < n_items; i += batch) {
+                            int n = Math.min(batch, n_items-i);
+                            for (int k = 0; k != n; ++k) own[k].value = offset+i+k;
+                            long seq = ring.claim(n);
+                            long now = System.nanoTime();
+                            for (int k = 0; k != n; ++k) {
+                                own[k].published_nanos = now;
+                                own[k] = ring.exchange(seq+k, own[k]);
+                            }
+                            ring.publish(seq, n);
+                        }
+                        ring.producer_done(null);
+                    } catch (InterruptedException ex) {
+                        ring.producer_done(ex);
+                    }
+                }
+            });
+            t.start();
+            ret.add(t);
+        }
+        return ret;
+    }
+
+    @Test
+    public void every_item_is_taken_once() throws Exception {
+        int n_producers = 4;
+        int n_items = 20000;
+        RingBuffer<Item> ring = new RingBuffer<>(16, ITEMS, false, RingBuffer.WAIT.PARK);
+        List<Thread> producers = start_producers(ring, n_producers, n_items, 3);
+
+        boolean[] seen = new boolean[n_producers*n_items];
+        long[] last = new long[n_producers];
+        Arrays.fill(last, -1);
+        Item item;
+        int n = 0;
+        while ((item = ring.take()) != null) {
+            assertFalse(seen[(int)item.value]);
+            seen[(int)item.value] = true;
+            // Items of each producer come in order
+            int p = (int)(item.value/n_items);
+            assertTrue(item.value > last[p]);
+            last[p] = item.value;
+            ++n;
+        }
+        for (Thread t : producers) t.join();
+        assertEquals(n_producers*n_items, n);
+    }
+
+    @Test
+    public void failed_producer_fails_consumer() throws Exception {
+        RingBuffer<Item> ring = new RingBuffer<>(4, ITEMS, true, RingBuffer.WAIT.PARK);
+        ring.add_producer();
+        ring.producer_done(new IllegalArgumentException("bad block"));
+        try {
+            ring.take();
+            fail();
+        } catch (IllegalStateException ex) {
+            assertEquals("bad block", ex.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void close_wakes_waiting_sides() throws Exception {
+        final RingBuffer<Item> ring = new RingBuffer<>(2, ITEMS, true, RingBuffer.WAIT.PARK);
+        ring.add_producer();
+        ring.publish(ring.claim(2), 2);
+
+        // Ring is full, so producer waits for consumer
+        final CountDownLatch stopped = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ring.claim(1);
+                } catch (InterruptedException ex) {
+                    stopped.countDown();
+                }
+            }
+        });
+        producer.start();
+        Thread.sleep(10);
+        ring.close();
+        assertTrue(stopped.await(5, TimeUnit.SECONDS));
+        assertNull(ring.take());
+
+        final List<Item> drained = new ArrayList<>();
+        ring.drain(new java.util.function.Consumer<Item>() {
+            @Override
+            public void accept(Item item) {
+                drained.add(item);
+            }
+        });
+        assertEquals(2, drained.size());
+    }
+}
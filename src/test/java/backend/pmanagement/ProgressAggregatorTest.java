@@ -0,0 +1,96 @@
+package backend.pmanagement;
+
+import backend.rrn.RRNResult;
+import backend.tasks.IRRNTask;
+import backend.tasks.LeasingTaskProvider;
+import backend.tasks.TaskFactory;
+import backend.tasks.TaskProvider;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class ProgressAggregatorTest {
+
+    private static IRRNTask make_task(double pixels) {
+        IRRNTask t = TaskFactory.get_task();
+        t.set_overlap_pixels(pixels);
+        return t;
+    }
+
+    @Test
+    public void progress_moves_per_block() throws InterruptedException {
+        final List<ProgressAggregator.Snapshot> snapshots = new CopyOnWriteArrayList<>();
+        ProgressAggregator aggregator = new ProgressAggregator(10);
+        aggregator.add_listener(new IProgressListener() {
+            @Override
+            public void on_progress(ProgressAggregator.Snapshot snapshot) {
+                snapshots.add(snapshot);
+            }
+        });
+
+        IRRNTask a = make_task(1000);
+        IRRNTask b = make_task(1000);
+        aggregator.add_tasks(Arrays.asList(a,b));
+        aggregator.start();
+
+        aggregator.task_started(a);
+        aggregator.block_processed(a,500);
+        Thread.sleep(50);
+
+        ProgressAggregator.Snapshot mid = snapshots.get(snapshots.size()-1);
+        assertEquals(0.25,mid.progress(),1e-9);
+        assertEquals(1,mid.tasks_running);
+
+        // Unreported pixels are accounted on finish
+        aggregator.task_finished(a);
+        aggregator.task_started(b);
+        aggregator.task_finished(b);
+        aggregator.stop();
+
+        ProgressAggregator.Snapshot last = snapshots.get(snapshots.size()-1);
+        assertTrue(last.finished);
+        assertEquals(2000,last.pixels_processed);
+        assertEquals(2,last.tasks_finished);
+        assertEquals(0,last.tasks_running);
+    }
+
+    @Test
+    public void blocks_of_attempts_count_to_task_once() throws InterruptedException {
+        final List<ProgressAggregator.Snapshot> snapshots = new CopyOnWriteArrayList<>();
+        ProgressAggregator aggregator = new ProgressAggregator(10);
+        aggregator.add_listener(new IProgressListener() {
+            @Override
+            public void on_progress(ProgressAggregator.Snapshot snapshot) {
+                snapshots.add(snapshot);
+            }
+        });
+
+        IRRNTask task = make_task(1000);
+        LeasingTaskProvider provider = new LeasingTaskProvider(new TaskProvider());
+        provider.add_listener(aggregator);
+        provider.set_tasks(Collections.singletonList(task));
+        aggregator.add_tasks(Collections.singletonList(task));
+        aggregator.start();
+
+        // Process reports blocks of copy, it's origin moves
+        IRRNTask copy = provider.grab();
+        assertNotSame(task, copy);
+        aggregator.block_processed(copy,400);
+        Thread.sleep(50);
+        assertEquals(0.4,snapshots.get(snapshots.size()-1).progress(),1e-9);
+
+        // Blocks read again do not count over overlap of task
+        aggregator.block_processed(copy,400);
+        aggregator.block_processed(copy,400);
+        copy.set_result(new RRNResult());
+        provider.release(copy);
+        aggregator.stop();
+
+        assertEquals(1000,snapshots.get(snapshots.size()-1).pixels_processed);
+    }
+}
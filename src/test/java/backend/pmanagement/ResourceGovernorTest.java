@@ -0,0 +1,104 @@
+package backend.pmanagement;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ResourceGovernorTest {
+
+    @Test
+    public void cpu_permits_bound_concurrency() throws InterruptedException {
+        final ResourceGovernor governor = new ResourceGovernor(2, 1, 1024);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger max_running = new AtomicInteger();
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i != threads.length; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j != 20; ++j) {
+                            governor.acquire_cpu();
+                            try {
+                                int n = running.incrementAndGet();
+                                max_running.accumulateAndGet(n,Math::max);
+                                Thread.sleep(1);
+                                running.decrementAndGet();
+                            } finally {
+                                governor.release_cpu();
+                            }
+                        }
+                    } catch (InterruptedException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) t.join();
+
+        assertTrue(max_running.get() <= 2);
+        assertEquals(2,governor.get_cpu().get_peak());
+        // 8 threads on 2 permits must have waited
+        assertTrue(governor.get_cpu().get_waits() > 0);
+        assertEquals(0,governor.get_cpu().get_in_use());
+    }
+
+    @Test
+    public void waiting_owner_holding_least_goes_first() throws InterruptedException {
+        final ResourceGovernor governor = new ResourceGovernor(2, 1, 1024);
+        governor.acquire_cpu("a");
+        governor.acquire_cpu("a");
+
+        Thread a = acquire_in_thread(governor, "a");
+        while (governor.get_cpu().get_waits() != 1) Thread.sleep(1);
+        Thread b = acquire_in_thread(governor, "b");
+        while (governor.get_cpu().get_waits() != 2) Thread.sleep(1);
+
+        // Owner with many threads does not get freed permit, owner holding nothing does
+        governor.release_cpu("a");
+        b.join(1000);
+        assertFalse(b.isAlive());
+        assertTrue(a.isAlive());
+        assertEquals(1, governor.get_cpu().get_held("b"));
+
+        governor.release_cpu("b");
+        a.join(1000);
+        assertFalse(a.isAlive());
+        assertEquals(2, governor.get_cpu().get_held("a"));
+    }
+
+    private static Thread acquire_in_thread(final ResourceGovernor governor, final Object owner) {
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    governor.acquire_cpu(owner);
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    @Test
+    public void oversized_memory_request_granted_when_idle() throws InterruptedException {
+        ResourceGovernor governor = new ResourceGovernor(1, 1, 100);
+        governor.acquire_memory(500);
+        assertEquals(500,governor.get_memory().get_in_use());
+        governor.release_memory(500);
+        assertEquals(0,governor.get_memory().get_waits());
+    }
+
+    @Test
+    public void files_on_same_store_share_device() {
+        ResourceGovernor governor = new ResourceGovernor(1, 1, 100);
+        String tmp = System.getProperty("java.io.tmpdir");
+        assertEquals(governor.device_of(tmp+"/a.tif"),governor.device_of(tmp+"/b.tif"));
+    }
+}
@@ -0,0 +1,73 @@
+package backend.pmanagement;
+
+import backend.processes.IRRNProcess;
+import backend.processes.ProcessFactory;
+import backend.tasks.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TaskSchedulerTest {
+
+    @Test
+    public void cancel_unblocks_processes_waiting_for_work() throws Exception {
+        IRRNTask task = TaskFactory.get_task();
+        task.set_name("task");
+        task.set_cost(1e-3);
+        LeasingTaskProvider provider = new LeasingTaskProvider(new TaskProvider());
+        provider.set_tasks(Collections.singletonList(task));
+        // Task never finishes, so processes wait for it to be retried or speculated
+        assertNotNull(provider.grab());
+
+        List<IRRNProcess> processes = new ArrayList<>();
+        for (int i = 0; i != 2; ++i) {
+            IRRNProcess p = ProcessFactory.get_process();
+            p.set_task_provider(provider);
+            processes.add(p);
+        }
+        final TaskScheduler scheduler = new TaskScheduler();
+        scheduler.set_processes(processes);
+        scheduler.execute();
+        assertTrue(scheduler.is_running());
+
+        CancellationToken token = new CancellationToken();
+        token.on_cancel(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.cancel();
+            }
+        });
+        long start = System.nanoTime();
+        token.cancel("test");
+        scheduler.join();
+
+        assertTrue((System.nanoTime()-start)*1e-9 < 2);
+        assertFalse(scheduler.is_running());
+    }
+
+    @Test
+    public void callback_runs_once() {
+        final AtomicInteger calls = new AtomicInteger();
+        Runnable count = new Runnable() {
+            @Override
+            public void run() {
+                calls.incrementAndGet();
+            }
+        };
+        CancellationToken token = new CancellationToken();
+        token.on_cancel(count);
+        token.cancel("first");
+        token.cancel("second");
+        assertEquals(1, calls.get());
+        assertEquals("first", token.get_reason());
+
+        // Registered after cancellation, runs right away
+        token.on_cancel(count);
+        assertEquals(2, calls.get());
+    }
+}
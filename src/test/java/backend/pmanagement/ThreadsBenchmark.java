@@ -0,0 +1,91 @@
+package backend.pmanagement;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Run with -Pbenchmark, not part of unit tests
+ */
+public class ThreadsBenchmark {
+
+    @After
+    public void reset_mode() {
+        Threads.set_mode(Threads.MODE.PLATFORM);
+    }
+
+    /**
+     * Workers, that wait for reads of device queue and compute under CPU permits, as processes do.
+     * @return tasks per second
+     */
+    private static double run_workers(int n_workers, int reads_per_worker) throws Exception {
+        // Device queue: few platform threads doing blocking reads
+        final ExecutorService device = Executors.newFixedThreadPool(16);
+        final Semaphore cpu = new Semaphore(Runtime.getRuntime().availableProcessors());
+        final AtomicLong sink = new AtomicLong();
+
+        ExecutorService pool = Threads.new_pool(n_workers, "worker");
+        List<Future<?>> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i != n_workers; ++i) {
+            workers.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int r = 0; r != reads_per_worker; ++r) {
+                        device.submit(new Callable<Void>() {
+                            @Override
+                            public Void call() throws InterruptedException {
+                                Thread.sleep(1);
+                                return null;
+                            }
+                        }).get();
+                        cpu.acquire();
+                        try {
+                            long acc = 0;
+                            for (int k = 0; k != 20000; ++k) acc += k*(long)k;
+                            sink.addAndGet(acc);
+                        } finally {
+                            cpu.release();
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> w : workers) w.get();
+        long elapsed = System.nanoTime()-start;
+        pool.shutdown();
+        device.shutdown();
+        return n_workers*(double)reads_per_worker/(elapsed*1e-9);
+    }
+
+    /**
+     * Blocks per second of 256 waiting workers on platform and, if JDK supports them, virtual threads
+     */
+    @Test
+    public void waiting_workers() throws Exception {
+        int n_workers = 256;
+        int reads = 10;
+
+        List<Threads.MODE> modes = new ArrayList<>();
+        modes.add(Threads.MODE.PLATFORM);
+        if (Threads.virtual_supported()) modes.add(Threads.MODE.VIRTUAL);
+
+        for (Threads.MODE mode : modes) {
+            Threads.set_mode(mode);
+            // Warm up
+            run_workers(n_workers, 2);
+            // Virtual threads are not counted by thread bean, only their carriers
+            ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+            double rate = run_workers(n_workers, reads);
+            System.out.println(String.format("%-8s threads: %.0f blocks/s, peak %d platform threads",
+                    mode, rate, ManagementFactory.getThreadMXBean().getPeakThreadCount()));
+        }
+        if (!Threads.virtual_supported()) System.out.println("Virtual threads are not supported by this JDK");
+    }
+}
@@ -0,0 +1,40 @@
+package backend.pmanagement;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ThreadsTest {
+
+    @After
+    public void reset_mode() {
+        Threads.set_mode(Threads.MODE.PLATFORM);
+    }
+
+    @Test
+    public void virtual_mode_falls_back_without_support() throws Exception {
+        Threads.set_mode(Threads.MODE.VIRTUAL);
+        assertEquals(Threads.virtual_supported() ? Threads.MODE.VIRTUAL : Threads.MODE.PLATFORM, Threads.get_mode());
+
+        final CountDownLatch ran = new CountDownLatch(1);
+        Thread t = Threads.factory("test").newThread(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        });
+        assertTrue(t.isDaemon());
+        assertEquals("test #1", t.getName());
+        t.start();
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknown_mode_is_rejected() {
+        Threads.from_string("green");
+    }
+}
@@ -0,0 +1,110 @@
+package backend.processes;
+
+import backend.rrn.RRNResult;
+import backend.tasks.*;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ChildJvmPoolTest {
+
+    /**
+     * Child answering like {@link ChildJvmMain}, without reading images:
+     * task "fail" fails, task "crash" kills child, others give result
+     */
+    public static class FakeChild {
+        public static void main(String[] args) throws IOException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), true, "UTF-8");
+            String line;
+            while ((line = in.readLine()) != null) {
+                String name = line.split(ChildJvmMain.SEP)[1];
+                if (name.equals("crash")) System.exit(3);
+                if (name.equals("fail")) {
+                    out.print(ChildJvmMain.FAIL+ChildJvmMain.SEP+IllegalArgumentException.class.getName()+
+                            ChildJvmMain.SEP+"bad grid\n");
+                } else {
+                    RRNResult res = new RRNResult();
+                    res.coefs_source = new double[] {2};
+                    res.intercept_source = new double[] {1};
+                    out.print(ChildJvmMain.BLOCK+ChildJvmMain.SEP+"10\n");
+                    out.print(ChildJvmMain.RESULT+ChildJvmMain.SEP+ResultJournal.encode(res)+"\n");
+                }
+                out.flush();
+            }
+        }
+    }
+
+    private static ChildJvmPool make_pool(int tasks_per_child) {
+        String classpath = System.getProperty("surefire.test.class.path",System.getProperty("java.class.path"));
+        return new ChildJvmPool(2, 64, 16, tasks_per_child, classpath, FakeChild.class.getName());
+    }
+
+    private static IRRNTask make_task(String name) {
+        IRRNTask t = TaskFactory.get_task();
+        t.set_name(name);
+        return t;
+    }
+
+    private static ITaskListener count_pixels(final AtomicLong pixels) {
+        return new ITaskListener() {
+            @Override
+            public void task_started(IRRNTask task) {
+            }
+
+            @Override
+            public void block_processed(IRRNTask task, long n) {
+                pixels.addAndGet(n);
+            }
+
+            @Override
+            public void task_finished(IRRNTask task) {
+            }
+        };
+    }
+
+    @Test
+    public void child_is_reused_then_recycled() throws Exception {
+        AtomicLong pixels = new AtomicLong();
+        try (ChildJvmPool pool = make_pool(2)) {
+            for (int i = 0; i != 4; ++i) {
+                ChildJvmPool.Child c = pool.borrow();
+                RRNResult res = c.run(make_task("task "+i), count_pixels(pixels));
+                pool.give_back(c, true);
+                assertEquals(2, res.coefs_source[0], 0);
+            }
+            assertEquals(2, pool.num_spawned());
+            assertEquals(40, pixels.get());
+        }
+    }
+
+    @Test
+    public void failure_and_crash_are_told_apart() throws Exception {
+        AtomicLong pixels = new AtomicLong();
+        try (ChildJvmPool pool = make_pool(100)) {
+            ChildJvmPool.Child c = pool.borrow();
+            try {
+                c.run(make_task("fail"), count_pixels(pixels));
+                fail();
+            } catch (IllegalArgumentException ex) {
+                assertEquals(RetryPolicy.FAILURE.PERMANENT, RetryPolicy.classify(ex));
+            }
+
+            try {
+                c.run(make_task("crash"), count_pixels(pixels));
+                fail();
+            } catch (EOFException ex) {
+                pool.give_back(c, false);
+            }
+
+            c = pool.borrow();
+            assertEquals(2, pool.num_spawned());
+            assertNotNull(c.run(make_task("task"), count_pixels(pixels)));
+            pool.give_back(c, true);
+        }
+    }
+}
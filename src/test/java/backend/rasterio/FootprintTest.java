@@ -0,0 +1,62 @@
+package backend.rasterio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FootprintTest {
+
+    private static RasterGrid grid(double xMin, double yMax, int width, int height) {
+        return new RasterGrid(xMin, xMin+width*30, yMax-height*30, yMax, 30, 30, "");
+    }
+
+    @Test
+    public void full_overlap_matches_bbox() {
+        Footprint f1 = Footprint.full(grid(0,3000,100,100));
+        Footprint f2 = Footprint.full(grid(1500,3000,100,100));
+
+        assertEquals(50*100, f1.overlap_pixels(f2));
+        assertEquals(50*100, f2.overlap_pixels(f1));
+    }
+
+    @Test
+    public void no_overlap() {
+        Footprint f1 = Footprint.full(grid(0,3000,100,100));
+        Footprint f2 = Footprint.full(grid(3000,3000,100,100));
+
+        assertEquals(0, f1.overlap_pixels(f2));
+    }
+
+    @Test
+    public void invalid_cells_are_excluded() {
+        // 4x4 cells, left half of second image has no data
+        boolean[] valid = new boolean[16];
+        for (int cy = 0; cy != 4; ++cy) {
+            for (int cx = 2; cx != 4; ++cx) {
+                valid[cx+cy*4] = true;
+            }
+        }
+
+        Footprint f1 = Footprint.full(grid(0,3000,100,100));
+        Footprint f2 = new Footprint(grid(1500,3000,100,100),4,4,valid);
+
+        // Intersection is left half of second image, which is empty
+        assertEquals(0, f1.overlap_pixels(f2));
+
+        Footprint f3 = new Footprint(grid(0,3000,100,100),4,4,valid);
+        // Only right half of f3 is valid
+        assertEquals(50*100, f3.overlap_pixels(f1));
+        assertEquals(50*100, f1.overlap_pixels(f3));
+    }
+
+    @Test
+    public void partial_cells() {
+        // Second image is shifted by a quarter of a cell
+        boolean[] valid = new boolean[]{true,false,false,true};
+        Footprint f1 = new Footprint(grid(0,3000,100,100),2,2,valid);
+        Footprint f2 = Footprint.full(grid(750,3000,100,100));
+
+        // Top-left cell is clipped by 25 pixels, bottom-right one is whole
+        assertEquals(25*50+50*50, f1.overlap_pixels(f2));
+    }
+}
@@ -0,0 +1,72 @@
+package backend.rasterio;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class IOSchedulerTest {
+
+    @Test
+    public void reads_served_in_elevator_order() throws Exception {
+        IOScheduler scheduler = new IOScheduler();
+        String file = System.getProperty("java.io.tmpdir")+"/io_scheduler_test.tif";
+        scheduler.set_policy(file, new IOScheduler.DevicePolicy(1,1));
+
+        // Block the only worker, so following reads queue up
+        final CountDownLatch gate = new CountDownLatch(1);
+        Future<Void> first = scheduler.submit(file, 0, 0, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.await();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        Thread.sleep(50);
+
+        final List<Integer> served = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Future<Void>> reads = new ArrayList<>();
+        for (final int row : new int[] {300, 100, 400, 200}) {
+            reads.add(scheduler.submit(file, 0, row, new Runnable() {
+                @Override
+                public void run() {
+                    served.add(row);
+                }
+            }));
+        }
+        gate.countDown();
+
+        first.get();
+        for (Future<Void> f : reads) f.get();
+        assertEquals(Arrays.asList(100,200,300,400),served);
+    }
+
+    @Test
+    public void lingering_workers_survive_emptied_queue() throws Exception {
+        IOScheduler scheduler = new IOScheduler();
+        String file = System.getProperty("java.io.tmpdir")+"/io_scheduler_linger_test.tif";
+        scheduler.set_policy(file, new IOScheduler.DevicePolicy(4,16));
+
+        // Every single read wakes all workers, all linger, only one of them gets the read
+        // and others find queue empty after lingering
+        for (int i = 0; i != 10; ++i) {
+            scheduler.submit(file, 0, i, new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get(10, TimeUnit.SECONDS);
+            Thread.sleep(20);
+        }
+        assertEquals(4, scheduler.live_workers(file));
+    }
+}
@@ -0,0 +1,50 @@
+package backend.rrn;
+
+import org.ejml.data.DMatrixRMaj;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static backend.rrn.CCAKernelTest.make_bands;
+import static backend.rrn.CCAKernelTest.to_rows;
+
+/**
+ * Run with -Pbenchmark, not part of unit tests
+ */
+public class CCAKernelBenchmark {
+
+    /**
+     * Pixel-bands per second of single thread: pixel matrices and row accumulation,
+     * as blocks were pushed before, and fused kernel on band-sequential values
+     */
+    @Test
+    public void kernel_throughput() {
+        int n_pixels = 1 << 18;
+        for (int n_bands : new int[] {4, 8}) {
+            double[][] bands = make_bands(n_bands, n_pixels);
+            CCAKernel kernel = new CCAKernel(n_bands);
+            CCAStats stats = new CCAStats(n_bands);
+
+            double rows = 0;
+            double fused = 0;
+            // First rounds warm up
+            for (int round = 0; round != 5; ++round) {
+                long start = System.nanoTime();
+                DMatrixRMaj X = to_rows(bands[0], n_bands, n_pixels);
+                DMatrixRMaj Y = to_rows(bands[1], n_bands, n_pixels);
+                double[] w = new double[n_pixels];
+                Arrays.fill(w, 1);
+                stats.push(X, Y, w, 0, n_pixels);
+                rows = (double)n_pixels*n_bands/((System.nanoTime()-start)*1e-9);
+
+                start = System.nanoTime();
+                kernel.push(bands[0], bands[1], n_pixels, null);
+                fused = (double)n_pixels*n_bands/((System.nanoTime()-start)*1e-9);
+                kernel.flush(stats);
+            }
+            System.out.println(String.format("%d bands, pixel matrices: %.0f Mpixel-bands/s", n_bands, rows*1e-6));
+            System.out.println(String.format("%d bands, fused kernel:   %.0f Mpixel-bands/s, speedup %.2f",
+                    n_bands, fused*1e-6, fused/rows));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package backend.rrn;
+
+import org.ejml.data.DMatrixRMaj;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CCAKernelTest {
+
+    // Band-sequential source and target, target is source times 2 plus 5 with noise
+    static double[][] make_bands(int n_bands, int n_pixels) {
+        Random rnd = new Random(7);
+        double[] x = new double[n_bands*n_pixels];
+        double[] y = new double[n_bands*n_pixels];
+        for (int i = 0; i != x.length; ++i) {
+            x[i] = rnd.nextDouble()*100;
+            y[i] = 2*x[i]+5+rnd.nextGaussian();
+        }
+        return new double[][] {x, y};
+    }
+
+    // Same pixels, row per pixel
+    static DMatrixRMaj to_rows(double[] bands, int n_bands, int n_pixels) {
+        DMatrixRMaj ret = new DMatrixRMaj(n_pixels,n_bands);
+        for (int b = 0; b != n_bands; ++b) {
+            for (int p = 0; p != n_pixels; ++p) ret.data[p*n_bands+b] = bands[b*n_pixels+p];
+        }
+        return ret;
+    }
+
+    private static IRMAD.Weights make_weights(int n_bands) {
+        double[] identity = new double[n_bands*n_bands];
+        for (int i = 0; i != n_bands; ++i) identity[i*n_bands+i] = 1;
+        double[] mean = new double[n_bands];
+        Arrays.fill(mean, -50);
+        double[] var = new double[n_bands];
+        Arrays.fill(var, 400);
+        return new IRMAD.Weights(identity, identity, mean, var);
+    }
+
+    private static void assert_stats_equal(CCAStats expected, CCAStats got) {
+        double tol = 1e-9*expected.w_sum;
+        assertEquals(expected.w_sum, got.w_sum, tol);
+        assertArrayEquals(expected.x_wsum, got.x_wsum, tol*100);
+        assertArrayEquals(expected.y_wsum, got.y_wsum, tol*100);
+        assertArrayEquals(expected.xx_wsum, got.xx_wsum, tol*1e5);
+        assertArrayEquals(expected.xy_wsum, got.xy_wsum, tol*1e5);
+        assertArrayEquals(expected.yy_wsum, got.yy_wsum, tol*1e5);
+    }
+
+    @Test
+    public void kernel_equals_row_accumulation() {
+        int n_bands = 5;
+        int n_pixels = 3*CCAKernel.TILE+41;
+        double[][] bands = make_bands(n_bands, n_pixels);
+        DMatrixRMaj X = to_rows(bands[0], n_bands, n_pixels);
+        DMatrixRMaj Y = to_rows(bands[1], n_bands, n_pixels);
+
+        for (IRMAD.Weights weights : new IRMAD.Weights[] {null, make_weights(n_bands)}) {
+            CCAStats expected = CCAReduction.reduce(X, Y, weights);
+
+            CCAKernel kernel = new CCAKernel(n_bands);
+            kernel.push(bands[0], bands[1], n_pixels, weights);
+            RRNResult got = new RRNResult();
+            kernel.flush(got);
+            assert_stats_equal(expected, got);
+        }
+    }
+
+    @Test
+    public void flush_starts_over() {
+        int n_bands = 3;
+        int n_pixels = 100;
+        double[][] bands = make_bands(n_bands, n_pixels);
+        CCAKernel kernel = new CCAKernel(n_bands);
+        kernel.push(bands[0], bands[1], n_pixels, null);
+        CCAStats first = new CCAStats();
+        kernel.flush(first);
+
+        kernel.push(bands[0], bands[1], n_pixels, null);
+        kernel.push(bands[0], bands[1], n_pixels, null);
+        CCAStats twice = new CCAStats(n_bands);
+        kernel.flush(twice);
+
+        CCAStats expected = new CCAStats();
+        expected.merge(first);
+        expected.merge(first);
+        assert_stats_equal(expected, twice);
+    }
+
+    @Test
+    public void nodata_border_is_not_accumulated() {
+        // 40x40 pair, source has nodata border of 3 pixels filled with 0, target of 5 pixels filled with NaN
+        int n_bands = 3;
+        int side = 40;
+        int n_pixels = side*side;
+        double[][] bands = make_bands(n_bands, n_pixels);
+        ByteBuffer x_mask = ByteBuffer.allocateDirect(n_pixels);
+        ByteBuffer y_mask = ByteBuffer.allocateDirect(n_pixels);
+        int n_valid = 0;
+        for (int p = 0; p != n_pixels; ++p) {
+            int col = p%side;
+            int row = p/side;
+            int border = Math.min(Math.min(col, row), Math.min(side-1-col, side-1-row));
+            x_mask.put(p, (byte)(border < 3 ? 0 : 255));
+            y_mask.put(p, (byte)(border < 5 ? 0 : 255));
+            for (int b = 0; b != n_bands; ++b) {
+                if (border < 3) bands[0][b*n_pixels+p] = 0;
+                if (border < 5) bands[1][b*n_pixels+p] = Double.NaN;
+            }
+            if (border >= 5) ++n_valid;
+        }
+
+        // Valid pixels only
+        double[] x = new double[n_bands*n_valid];
+        double[] y = new double[n_bands*n_valid];
+        int i = 0;
+        for (int p = 0; p != n_pixels; ++p) {
+            if (y_mask.get(p) == 0) continue;
+            for (int b = 0; b != n_bands; ++b) {
+                x[b*n_valid+i] = bands[0][b*n_pixels+p];
+                y[b*n_valid+i] = bands[1][b*n_pixels+p];
+            }
+            ++i;
+        }
+
+        for (IRMAD.Weights weights : new IRMAD.Weights[] {null, make_weights(n_bands)}) {
+            CCAKernel kernel = new CCAKernel(n_bands);
+            kernel.push(x, y, n_valid, weights);
+            CCAStats expected = new CCAStats();
+            kernel.flush(expected);
+
+            kernel.push(bands[0], bands[1], x_mask, y_mask, n_pixels, weights);
+            CCAStats got = new CCAStats();
+            kernel.flush(got);
+            assert_stats_equal(expected, got);
+        }
+    }
+}
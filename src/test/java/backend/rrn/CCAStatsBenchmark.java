@@ -0,0 +1,48 @@
+package backend.rrn;
+
+import org.ejml.data.DMatrixRMaj;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static backend.rrn.CCAStatsTest.N_BANDS;
+import static backend.rrn.CCAStatsTest.make_pixels;
+import static backend.rrn.CCAStatsTest.ones;
+
+/**
+ * Run with -Pbenchmark, not part of unit tests
+ */
+public class CCAStatsBenchmark {
+
+    /**
+     * Pixel-bands per second of single accumulator, and of reduction by pools of 1 to all cores
+     */
+    @Test
+    public void reduction_scaling() {
+        int n = 1 << 20;
+        DMatrixRMaj[] p = make_pixels(n);
+        double[] w = ones(n);
+
+        // Warm up
+        for (int i = 0; i != 3; ++i) {
+            new CCAStats(N_BANDS).push(p[0], p[1], w, 0, n);
+            new ForkJoinPool(1).invoke(new CCAReduction(p[0], p[1], null, new double[n], 0, n));
+        }
+
+        long start = System.nanoTime();
+        new CCAStats(N_BANDS).push(p[0], p[1], w, 0, n);
+        double single = (double)n*N_BANDS/((System.nanoTime()-start)*1e-9);
+        System.out.println(String.format("single accumulator:   %.0f Mpixel-bands/s", single*1e-6));
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            start = System.nanoTime();
+            pool.invoke(new CCAReduction(p[0], p[1], null, new double[n], 0, n));
+            double rate = (double)n*N_BANDS/((System.nanoTime()-start)*1e-9);
+            pool.shutdown();
+            System.out.println(String.format("reduction, %2d threads: %.0f Mpixel-bands/s, speedup %.2f",
+                    threads, rate*1e-6, rate/single));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package backend.rrn;
+
+import org.ejml.data.DMatrixRMaj;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class CCAStatsTest {
+
+    static final int N_BANDS = 4;
+
+    static DMatrixRMaj[] make_pixels(int n_pixels) {
+        Random rnd = new Random(5);
+        DMatrixRMaj X = new DMatrixRMaj(n_pixels,N_BANDS);
+        DMatrixRMaj Y = new DMatrixRMaj(n_pixels,N_BANDS);
+        for (int i = 0; i != X.data.length; ++i) {
+            X.data[i] = rnd.nextDouble()*100;
+            Y.data[i] = 2*X.data[i]+5+rnd.nextGaussian();
+        }
+        return new DMatrixRMaj[] {X, Y};
+    }
+
+    static double[] ones(int n) {
+        double[] ret = new double[n];
+        Arrays.fill(ret, 1);
+        return ret;
+    }
+
+    private static void assert_stats_equal(CCAStats expected, CCAStats got) {
+        double tol = 1e-9*Math.max(1, expected.w_sum);
+        assertEquals(expected.w_sum, got.w_sum, tol);
+        assertArrayEquals(expected.x_wsum, got.x_wsum, tol*100);
+        assertArrayEquals(expected.y_wsum, got.y_wsum, tol*100);
+        assertArrayEquals(expected.xx_wsum, got.xx_wsum, tol*1e5);
+        assertArrayEquals(expected.xy_wsum, got.xy_wsum, tol*1e5);
+        assertArrayEquals(expected.yy_wsum, got.yy_wsum, tol*1e5);
+    }
+
+    @Test
+    public void merged_parts_equal_whole() {
+        int n = 1000;
+        DMatrixRMaj[] p = make_pixels(n);
+        double[] w = ones(n);
+        CCAStats whole = new CCAStats(N_BANDS);
+        whole.push(p[0], p[1], w, 0, n);
+
+        CCAStats merged = new CCAStats();
+        for (int i = 0; i != 3; ++i) {
+            CCAStats part = new CCAStats(N_BANDS);
+            part.push(p[0], p[1], w, i*n/3, (i+1)*n/3);
+            merged.merge(part);
+        }
+        assert_stats_equal(whole, merged);
+    }
+
+    @Test
+    public void pull_removes_pushed_pixels() {
+        int n = 200;
+        DMatrixRMaj[] p = make_pixels(n);
+        double[] w = ones(n);
+        CCA head = new CCA(N_BANDS);
+        CCA all = new CCA(N_BANDS);
+        DMatrixRMaj W = DMatrixRMaj.wrap(n,1,w);
+        head.stats.push(p[0], p[1], w, 0, n/2);
+        all.push(p[0], p[1], W);
+        all.stats.pull(p[0], p[1], w, n/2, n);
+        assert_stats_equal(head.stats, all.stats);
+    }
+
+    @Test
+    public void reduction_equals_sequential_accumulation() {
+        int n = 5*CCAReduction.LEAF_ROWS+17;
+        DMatrixRMaj[] p = make_pixels(n);
+        double[] identity = new double[N_BANDS*N_BANDS];
+        for (int i = 0; i != N_BANDS; ++i) identity[i*N_BANDS+i] = 1;
+        double[] mean = new double[N_BANDS];
+        Arrays.fill(mean, -50);
+        double[] var = new double[N_BANDS];
+        Arrays.fill(var, 400);
+        IRMAD.Weights weights = new IRMAD.Weights(identity, identity, mean, var);
+
+        double[] w = new double[n];
+        double[] x = new double[N_BANDS];
+        double[] y = new double[N_BANDS];
+        for (int i = 0; i != n; ++i) {
+            System.arraycopy(p[0].data, i*N_BANDS, x, 0, N_BANDS);
+            System.arraycopy(p[1].data, i*N_BANDS, y, 0, N_BANDS);
+            w[i] = weights.weight(x, y);
+        }
+        CCAStats sequential = new CCAStats(N_BANDS);
+        sequential.push(p[0], p[1], w, 0, n);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        CCAStats reduced = pool.invoke(new CCAReduction(p[0], p[1], weights, new double[n], 0, n));
+        pool.shutdown();
+        assert_stats_equal(sequential, reduced);
+        assert_stats_equal(sequential, CCAReduction.reduce(p[0], p[1], weights));
+    }
+}
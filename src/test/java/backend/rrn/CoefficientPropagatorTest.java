@@ -0,0 +1,71 @@
+package backend.rrn;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CoefficientPropagatorTest {
+
+    private static RRNResult coefs(double gain, double offset) {
+        RRNResult ret = new RRNResult();
+        ret.coefs_source = new double[] {gain};
+        ret.intercept_source = new double[] {offset};
+        return ret;
+    }
+
+    // Chain c -> b -> a, a is reference, and leaf d -> a
+    private static final String[] children = {"b", "c", "d"};
+    private static final String[] parents  = {"a", "b", "a"};
+    private static final RRNResult[] edges = {coefs(2,1), coefs(3,-1), coefs(0.5,0)};
+
+    @Test
+    public void composes_along_path() {
+        CoefficientPropagator<String> p = CoefficientPropagator.propagate("a", 1, children, parents, edges,
+                new boolean[3], new HashMap<String,RRNResult>());
+
+        // c -> b: 3c-1, b -> a: 2b+1, so c -> a: 6c-1
+        assertEquals(6,p.get("c").coefs_source[0],1e-12);
+        assertEquals(-1,p.get("c").intercept_source[0],1e-12);
+        assertEquals(1,p.get("a").coefs_source[0],0);
+        assertEquals(4,p.get_repropagated().size());
+    }
+
+    @Test
+    public void only_subtree_of_changed_edge_repropagated() {
+        Map<String,RRNResult> previous = new HashMap<>();
+        previous.put("a",coefs(1,0));
+        previous.put("b",coefs(2,1));
+        previous.put("c",coefs(6,-1));
+        previous.put("d",coefs(0.5,0));
+
+        // Edge b -> a changed
+        RRNResult[] new_edges = {coefs(4,0), edges[1], edges[2]};
+        CoefficientPropagator<String> p = CoefficientPropagator.propagate("a", 1, children, parents, new_edges,
+                new boolean[] {true, false, false}, previous);
+
+        assertTrue(p.get_repropagated().contains("b"));
+        assertTrue(p.get_repropagated().contains("c"));
+        assertFalse(p.get_repropagated().contains("d"));
+        assertSame(previous.get("d"),p.get("d"));
+        assertEquals(12,p.get("c").coefs_source[0],1e-12);
+        assertEquals(-4,p.get("c").intercept_source[0],1e-12);
+    }
+
+    @Test
+    public void child_is_final_once_path_to_reference_is_resolved() {
+        CoefficientPropagator<String> p = CoefficientPropagator.start("a", 1, children, parents,
+                new boolean[3], new HashMap<String,RRNResult>());
+
+        // Edge c -> b comes first, c waits for b
+        assertTrue(p.resolve(1, edges[1]).isEmpty());
+        assertNull(p.get("c"));
+        assertEquals(Arrays.asList("b","c"), p.resolve(0, edges[0]));
+        assertEquals(6,p.get("c").coefs_source[0],1e-12);
+        assertEquals(Collections.singletonList("d"), p.resolve(2, edges[2]));
+    }
+}
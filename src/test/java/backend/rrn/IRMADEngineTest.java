@@ -0,0 +1,86 @@
+package backend.rrn;
+
+import org.ejml.data.DMatrixRMaj;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IRMADEngineTest {
+
+    private static final int N_PIXELS = 6000;
+    private static final int N_BANDS = 3;
+
+    /**
+     * Parts of in-memory overlap: target is source times 2 plus 5, except for changed pixels
+     */
+    private static class Overlap implements IRMADEngine.IPartCalculator {
+        final DMatrixRMaj X = new DMatrixRMaj(N_PIXELS,N_BANDS);
+        final DMatrixRMaj Y = new DMatrixRMaj(N_PIXELS,N_BANDS);
+
+        Overlap() {
+            Random rnd = new Random(2);
+            for (int i = 0; i != N_PIXELS; ++i) {
+                boolean changed = rnd.nextDouble() < 0.15;
+                for (int b = 0; b != N_BANDS; ++b) {
+                    double x = rnd.nextDouble()*100;
+                    X.set(i,b,x);
+                    Y.set(i,b,changed ? rnd.nextDouble()*300 : 2*x+5+rnd.nextGaussian()*0.5);
+                }
+            }
+        }
+
+        @Override
+        public RRNResult calculate(Strip strip) {
+            int first = strip.index*N_PIXELS/strip.count;
+            int end = (strip.index+1)*N_PIXELS/strip.count;
+            DMatrixRMaj x = new DMatrixRMaj(end-first,N_BANDS);
+            DMatrixRMaj y = new DMatrixRMaj(end-first,N_BANDS);
+            System.arraycopy(X.data, first*N_BANDS, x.data, 0, x.data.length);
+            System.arraycopy(Y.data, first*N_BANDS, y.data, 0, y.data.length);
+            CCA cca = new CCA(N_BANDS);
+            IRMAD.push(cca, x, y, strip.weights);
+            return cca.get_statistics();
+        }
+    }
+
+    @Test
+    public void parallel_parts_give_same_coefficients() {
+        Overlap overlap = new Overlap();
+        RRNResult whole = IRMADEngine.calculate(overlap, 1);
+        RRNResult parts = IRMADEngine.calculate(overlap, 8);
+
+        for (int b = 0; b != N_BANDS; ++b) {
+            // Changed pixels are weighted out, so fit follows unchanged ones
+            assertEquals(2, whole.coefs_source[b], 0.02);
+            assertEquals(5, whole.intercept_source[b], 1);
+            assertEquals(whole.coefs_source[b], parts.coefs_source[b], 1e-9);
+            assertEquals(whole.intercept_source[b], parts.intercept_source[b], 1e-6);
+        }
+    }
+
+    @Test
+    public void failed_part_fails_calculation() {
+        try {
+            IRMADEngine.calculate(new IRMADEngine.IPartCalculator() {
+                @Override
+                public RRNResult calculate(Strip strip) {
+                    if (strip.index == 3) throw new IllegalStateException("bad block");
+                    return new Overlap().calculate(strip);
+                }
+            }, 4);
+            fail();
+        } catch (IllegalStateException ex) {
+            assertEquals("bad block", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void parts_scale_with_overlap() {
+        assertEquals(1, IRMADEngine.part_count(1e6));
+        int max_parts = 2*Runtime.getRuntime().availableProcessors();
+        assertEquals(Math.min(3, max_parts), IRMADEngine.part_count(2.5*IRMADEngine.PART_PIXELS));
+        assertEquals(max_parts, IRMADEngine.part_count(1e12));
+    }
+}
@@ -0,0 +1,71 @@
+package backend.tasks;
+
+import backend.rrn.RRNResult;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CostModelTest {
+
+    private static IRRNTask make_task(double pixels) {
+        IRRNTask t = TaskFactory.get_task();
+        t.set_name("task "+pixels);
+        t.set_overlap_pixels(pixels);
+        return t;
+    }
+
+    @Test
+    public void observe_fits_throughput() {
+        CostModel model = new CostModel(1);
+        IRRNTask small = make_task(1e6);
+        IRRNTask large = make_task(4e6);
+
+        // 0.5s overhead, 1e-7 s per pixel
+        model.observe(small,0.5+0.1);
+        model.observe(large,0.5+0.4);
+
+        assertEquals(1e-7,model.get_seconds_per_unit(),1e-12);
+        assertEquals(0.5+0.9,model.estimate(make_task(9e6)),1e-6);
+    }
+
+    @Test
+    public void largest_first_makespan() {
+        CostModel model = new CostModel(1);
+        List<IRRNTask> tasks = new ArrayList<>();
+        for (double pixels : new double[]{1e9,1e9,1e9,1e9,4e9}) {
+            tasks.add(make_task(pixels));
+        }
+        model.assign(tasks);
+
+        // Large task alone on one worker, four small on the other
+        double small = model.estimate(tasks.get(0));
+        double large = model.estimate(tasks.get(4));
+        double expected = Math.max(large,4*small);
+        assertEquals(expected,model.predict_makespan(tasks,2),1e-9);
+
+        List<IRRNTask> ordered = TaskOrdering.order(tasks,TaskOrdering.POLICY.LARGEST_FIRST);
+        assertSame(tasks.get(4),ordered.get(0));
+    }
+
+    @Test
+    public void observe_refines_costs_of_queued_tasks() {
+        CostModel model = new CostModel(1);
+        List<IRRNTask> tasks = new ArrayList<>();
+        for (double pixels : new double[]{1e6,4e6,9e6}) {
+            tasks.add(make_task(pixels));
+        }
+        model.assign(tasks);
+        double done_cost = tasks.get(0).get_cost();
+        tasks.get(0).set_result(new RRNResult());
+
+        model.observe(tasks.get(0),0.5+0.1);
+        model.observe(tasks.get(1),0.5+0.4);
+
+        // Finished task keeps it's cost, queued one is estimated by fitted parameters
+        assertEquals(done_cost,tasks.get(0).get_cost(),0);
+        assertEquals(0.5+0.9,tasks.get(2).get_cost(),1e-6);
+    }
+}
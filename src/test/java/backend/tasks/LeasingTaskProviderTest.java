@@ -0,0 +1,112 @@
+package backend.tasks;
+
+import backend.rrn.RRNResult;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class LeasingTaskProviderTest {
+
+    private static IRRNTask make_task() {
+        IRRNTask t = TaskFactory.get_task();
+        t.set_name("task");
+        t.set_cost(1e-3);
+        return t;
+    }
+
+    private static RRNResult make_result(double gain) {
+        RRNResult res = new RRNResult();
+        res.coefs_source = new double[] {gain};
+        res.intercept_source = new double[] {0};
+        return res;
+    }
+
+    private static LeasingTaskProvider make_provider(IRRNTask task) {
+        LeasingTaskProvider provider = new LeasingTaskProvider(new TaskProvider(), new RetryPolicy(3, 10));
+        provider.set_tasks(Collections.singletonList(task));
+        return provider;
+    }
+
+    @Test
+    public void transient_failure_is_retried() {
+        IRRNTask task = make_task();
+        LeasingTaskProvider provider = make_provider(task);
+
+        IRRNTask a = provider.grab();
+        assertNotSame(task, a);
+        a.set_error(new RuntimeException("Failed to read block", new IOException("device not ready")));
+        provider.release(a);
+
+        IRRNTask b = provider.grab();
+        assertNotNull(b);
+        b.set_result(make_result(2));
+        provider.release(b);
+
+        assertNull(provider.grab());
+        assertEquals(2, task.get_result().coefs_source[0], 0);
+        assertEquals(1, provider.num_retried());
+    }
+
+    @Test
+    public void permanent_failure_is_given_up() {
+        IRRNTask task = make_task();
+        LeasingTaskProvider provider = make_provider(task);
+
+        IRRNTask a = provider.grab();
+        a.set_error(new IllegalArgumentException("Dataset grids must have equal projection"));
+        provider.release(a);
+
+        assertNull(provider.grab());
+        assertNull(task.get_result());
+        assertTrue(task.get_error() instanceof IllegalArgumentException);
+        assertEquals(0, provider.num_retried());
+        assertEquals(1, provider.num_given_up());
+    }
+
+    @Test
+    public void expired_attempt_is_retried_and_first_result_wins() throws Exception {
+        IRRNTask task = make_task();
+        LeasingTaskProvider provider = make_provider(task);
+        provider.set_min_lease_millis(50);
+
+        IRRNTask a = provider.grab();
+        Thread.sleep(100);
+        IRRNTask b = provider.grab();
+        assertNotNull(b);
+        assertEquals(1, provider.num_expired());
+
+        // Hung attempt comes back first, it's result is still taken
+        a.set_result(make_result(1));
+        provider.release(a);
+        b.set_result(make_result(2));
+        provider.release(b);
+
+        assertNull(provider.grab());
+        assertEquals(1, task.get_result().coefs_source[0], 0);
+    }
+
+    @Test
+    public void straggler_is_duplicated_when_queue_drains() throws Exception {
+        IRRNTask task = make_task();
+        LeasingTaskProvider provider = make_provider(task);
+
+        IRRNTask a = provider.grab();
+        Thread.sleep(1100);
+        IRRNTask b = provider.grab();
+        assertNotNull(b);
+        assertNotSame(a, b);
+        assertEquals(1, provider.num_speculated());
+
+        b.set_result(make_result(2));
+        provider.release(b);
+        a.set_result(make_result(1));
+        provider.release(a);
+
+        assertNull(provider.grab());
+        assertEquals(2, task.get_result().coefs_source[0], 0);
+        assertEquals(1, provider.num_tasks_processed());
+    }
+}
@@ -0,0 +1,65 @@
+package backend.tasks;
+
+import backend.rrn.RRNResult;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ResultJournalTest {
+
+    private static RRNResult make_result() {
+        RRNResult res = new RRNResult();
+        res.coefs_source = new double[] {1.5, 0.1/3};
+        res.intercept_source = new double[] {-2, 7e-12};
+        res.w_sum = 12345;
+        res.xy_wsum = new double[] {1, 2, 3, 4};
+        return res;
+    }
+
+    @Test
+    public void results_survive_reopen() throws IOException {
+        File f = File.createTempFile("journal",".journal");
+        f.delete();
+
+        ResultJournal journal = ResultJournal.open(f.getPath());
+        journal.append("a>b|rrn",make_result());
+        journal.close();
+
+        journal = ResultJournal.open(f.getPath());
+        RRNResult res = journal.get("a>b|rrn");
+        assertNotNull(res);
+        assertArrayEquals(make_result().coefs_source,res.coefs_source,0);
+        assertArrayEquals(make_result().intercept_source,res.intercept_source,0);
+        assertArrayEquals(make_result().xy_wsum,res.xy_wsum,0);
+        assertEquals(12345,res.w_sum,0);
+        assertNull(res.x_wsum);
+        journal.close();
+        f.delete();
+    }
+
+    @Test
+    public void torn_line_is_skipped() throws IOException {
+        File f = File.createTempFile("journal",".journal");
+        f.delete();
+
+        ResultJournal journal = ResultJournal.open(f.getPath());
+        journal.append("a>b|rrn",make_result());
+        journal.close();
+
+        // Crash in the middle of writing second line
+        try (FileOutputStream out = new FileOutputStream(f,true)) {
+            out.write("0badc0de c>d|rrn coefs=1.0,2".getBytes(StandardCharsets.UTF_8));
+        }
+
+        journal = ResultJournal.open(f.getPath());
+        assertEquals(1,journal.size());
+        assertNull(journal.get("c>d|rrn"));
+        journal.close();
+        f.delete();
+    }
+}
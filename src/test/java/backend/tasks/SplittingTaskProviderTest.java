@@ -0,0 +1,182 @@
+package backend.tasks;
+
+import backend.rrn.CCA;
+import backend.rrn.IRMAD;
+import backend.rrn.RRNResult;
+import backend.rrn.Strip;
+import org.ejml.data.DMatrixRMaj;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class SplittingTaskProviderTest {
+
+    private static final int N_PIXELS = 4000;
+    private static final int N_BANDS = 3;
+
+    // Target is source times 2 plus 5, except for changed pixels
+    private static DMatrixRMaj[] make_overlap() {
+        Random rnd = new Random(1);
+        DMatrixRMaj X = new DMatrixRMaj(N_PIXELS,N_BANDS);
+        DMatrixRMaj Y = new DMatrixRMaj(N_PIXELS,N_BANDS);
+        for (int i = 0; i != N_PIXELS; ++i) {
+            boolean changed = rnd.nextDouble() < 0.1;
+            for (int b = 0; b != N_BANDS; ++b) {
+                double x = rnd.nextDouble()*100;
+                X.set(i,b,x);
+                Y.set(i,b,changed ? rnd.nextDouble()*300 : 2*x+5+rnd.nextGaussian()*0.5);
+            }
+        }
+        return new DMatrixRMaj[] {X, Y};
+    }
+
+    // Statistics of rows of strip, as computed by worker
+    private static RRNResult compute(DMatrixRMaj[] overlap, Strip strip) {
+        int first = strip.index*N_PIXELS/strip.count;
+        int end = (strip.index+1)*N_PIXELS/strip.count;
+        DMatrixRMaj X = new DMatrixRMaj(end-first,N_BANDS);
+        DMatrixRMaj Y = new DMatrixRMaj(end-first,N_BANDS);
+        System.arraycopy(overlap[0].data, first*N_BANDS, X.data, 0, X.data.length);
+        System.arraycopy(overlap[1].data, first*N_BANDS, Y.data, 0, Y.data.length);
+        CCA cca = new CCA(N_BANDS);
+        IRMAD.push(cca, X, Y, strip.weights);
+        return cca.get_statistics();
+    }
+
+    private static IRRNTask make_task() {
+        IRRNTask t = TaskFactory.get_task();
+        t.set_name("large");
+        t.set_overlap_pixels(N_PIXELS);
+        t.set_cost(1);
+        return t;
+    }
+
+    @Test
+    public void merged_strips_equal_whole_overlap() {
+        DMatrixRMaj[] overlap = make_overlap();
+        RRNResult whole = compute(overlap, new Strip(0, 1, 0, null));
+        RRNResult merged = new RRNResult();
+        for (int i = 0; i != 7; ++i) merged.merge(compute(overlap, new Strip(i, 7, 0, null)));
+
+        assertEquals(whole.w_sum, merged.w_sum, 0);
+        assertArrayEquals(whole.x_wsum, merged.x_wsum, 1e-9*whole.w_sum);
+        assertArrayEquals(whole.xx_wsum, merged.xx_wsum, 1e-6*whole.w_sum);
+        assertArrayEquals(whole.xy_wsum, merged.xy_wsum, 1e-6*whole.w_sum);
+        assertArrayEquals(whole.yy_wsum, merged.yy_wsum, 1e-6*whole.w_sum);
+    }
+
+    @Test
+    public void iterations_are_coordinated_across_strips() {
+        DMatrixRMaj[] overlap = make_overlap();
+        IRRNTask task = make_task();
+        TaskProvider underlying = new TaskProvider();
+        SplittingTaskProvider provider = new SplittingTaskProvider(underlying, N_PIXELS/4.0);
+        provider.set_tasks(Collections.singletonList(task));
+
+        int iteration = 0;
+        IRRNTask strip;
+        while ((strip = provider.grab()) != null) {
+            assertNotSame(task, strip);
+            assertEquals(4, strip.get_strip().count);
+            // Next iteration starts only when all strips of previous one are released
+            assertTrue(strip.get_strip().iteration >= iteration);
+            iteration = strip.get_strip().iteration;
+            assertEquals(iteration == 0, strip.get_strip().weights == null);
+            strip.set_result(compute(overlap, strip.get_strip()));
+            provider.release(strip);
+        }
+
+        assertEquals(1, provider.num_split());
+        assertTrue(provider.num_iterations() > 1);
+        assertEquals(1, underlying.num_tasks_processed());
+        RRNResult res = task.get_result();
+        assertNotNull(res);
+        for (int b = 0; b != N_BANDS; ++b) {
+            assertEquals(2, res.coefs_source[b], 0.02);
+            assertEquals(5, res.intercept_source[b], 1);
+        }
+    }
+
+    @Test
+    public void failed_strip_fails_task() {
+        IRRNTask task = make_task();
+        SplittingTaskProvider provider = new SplittingTaskProvider(new TaskProvider(), N_PIXELS/2.0);
+        provider.set_tasks(Collections.singletonList(task));
+
+        IRRNTask first = provider.grab();
+        IRRNTask second = provider.grab();
+        first.set_error(new IllegalStateException("bad block"));
+        provider.release(first);
+        // Result of other strip comes too late
+        second.set_result(compute(make_overlap(), second.get_strip()));
+        provider.release(second);
+
+        assertNull(provider.grab());
+        assertNull(task.get_result());
+        assertEquals("bad block", task.get_error().getMessage());
+    }
+
+    @Test
+    public void small_task_is_passed_through() {
+        IRRNTask task = make_task();
+        SplittingTaskProvider provider = new SplittingTaskProvider(new TaskProvider(), N_PIXELS);
+        provider.set_tasks(Collections.singletonList(task));
+        assertSame(task, provider.grab());
+        assertNull(task.get_strip());
+    }
+
+    @Test
+    public void idle_workers_serve_strips_of_last_task() throws Exception {
+        // Single task, split in as many strips as there are workers, all racing for it
+        final int n_workers = 4;
+        final DMatrixRMaj[] overlap = make_overlap();
+        IRRNTask task = make_task();
+        final SplittingTaskProvider provider = new SplittingTaskProvider(
+                new WorkStealingTaskProvider(n_workers), N_PIXELS/(double)n_workers);
+        provider.set_tasks(Collections.singletonList(task));
+
+        // Strips of first iteration wait for each other, so each worker must take one
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch first_iteration = new CountDownLatch(n_workers);
+        final AtomicBoolean all_served = new AtomicBoolean(true);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i != n_workers; ++i) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        IRRNTask strip;
+                        while ((strip = provider.grab()) != null) {
+                            if (strip.get_strip().iteration == 0) {
+                                first_iteration.countDown();
+                                if (!first_iteration.await(5, TimeUnit.SECONDS)) all_served.set(false);
+                            }
+                            strip.set_result(compute(overlap, strip.get_strip()));
+                            provider.release(strip);
+                        }
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            });
+            t.start();
+            workers.add(t);
+        }
+        start.countDown();
+        for (Thread t : workers) {
+            t.join(30000);
+            assertFalse(t.isAlive());
+        }
+
+        assertTrue(all_served.get());
+        assertNotNull(task.get_result());
+    }
+}
@@ -0,0 +1,42 @@
+package backend.tasks;
+
+import org.junit.Test;
+
+import static backend.tasks.TaskProviderTest.make_tasks;
+import static backend.tasks.TaskProviderTest.run_workers;
+
+/**
+ * Run with -Pbenchmark, not part of unit tests
+ */
+public class TaskProviderBenchmark {
+
+    /**
+     * Throughput of 64 workers on 100k tiny tasks
+     */
+    @Test
+    public void task_throughput() throws Exception {
+        int n_tasks = 100000;
+        int n_workers = 64;
+
+        // Warm up both providers first
+        for (int i = 0; i != 3; ++i) {
+            ITaskProvider p1 = new TaskProvider();
+            p1.set_tasks(make_tasks(n_tasks));
+            run_workers(p1,n_workers,0,null);
+            ITaskProvider p2 = new WorkStealingTaskProvider(n_workers);
+            p2.set_tasks(make_tasks(n_tasks));
+            run_workers(p2,n_workers,0,null);
+        }
+
+        ITaskProvider locking = new TaskProvider();
+        locking.set_tasks(make_tasks(n_tasks));
+        long locking_time = run_workers(locking,n_workers,0,null);
+
+        ITaskProvider stealing = new WorkStealingTaskProvider(n_workers);
+        stealing.set_tasks(make_tasks(n_tasks));
+        long stealing_time = run_workers(stealing,n_workers,0,null);
+
+        System.out.println(String.format("TaskProvider:             %.0f tasks/s", n_tasks/(locking_time*1e-9)));
+        System.out.println(String.format("WorkStealingTaskProvider: %.0f tasks/s", n_tasks/(stealing_time*1e-9)));
+    }
+}
@@ -0,0 +1,118 @@
+package backend.tasks;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.*;
+
+public class TaskProviderTest {
+
+    static List<IRRNTask> make_tasks(int n) {
+        List<IRRNTask> tasks = new ArrayList<>(n);
+        for (int i = 0; i != n; ++i) {
+            IRRNTask t = TaskFactory.get_task();
+            t.set_name("task "+i);
+            tasks.add(t);
+        }
+        return tasks;
+    }
+
+    /**
+     * Run workers grabbing tasks until provider is empty. Failures of workers are asserted after they end,
+     * JUnit does not see assertions failing in other threads
+     * @param split_every every n-th task spawns a subtask, 0 to disable
+     * @return wall time, nanoseconds
+     */
+    static long run_workers(final ITaskProvider provider, int n_workers, final int split_every,
+                                    final Set<IRRNTask> seen) throws InterruptedException {
+        final Queue<String> failures = new ConcurrentLinkedQueue<>();
+        Thread[] workers = new Thread[n_workers];
+        for (int i = 0; i != n_workers; ++i) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        IRRNTask t;
+                        int n = 0;
+                        while ((t = provider.grab()) != null) {
+                            if (seen != null && !seen.add(t)) failures.add(t.get_name()+" grabbed twice");
+                            if (split_every > 0 && ++n % split_every == 0 && !t.get_name().startsWith("sub")) {
+                                IRRNTask sub = TaskFactory.get_task();
+                                sub.set_name("sub of "+t.get_name());
+                                provider.spawn(sub);
+                            }
+                            provider.release(t);
+                        }
+                    } catch (RuntimeException ex) {
+                        failures.add(ex.toString());
+                    }
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        for (Thread w : workers) w.start();
+        for (Thread w : workers) w.join();
+        long time = System.nanoTime()-start;
+        assertTrue(failures.toString(), failures.isEmpty());
+        return time;
+    }
+
+    @Test
+    public void task_provider_processes_each_task_once() throws Exception {
+        ITaskProvider provider = new TaskProvider();
+        provider.set_tasks(make_tasks(10000));
+
+        Set<IRRNTask> seen = Collections.newSetFromMap(new ConcurrentHashMap<IRRNTask, Boolean>());
+        run_workers(provider,8,0,seen);
+
+        assertEquals(10000, seen.size());
+        assertEquals(10000, provider.num_tasks_processed());
+        assertEquals(0, provider.num_tasks_processing());
+        assertEquals(0, provider.num_tasks_queued());
+    }
+
+    @Test
+    public void work_stealing_processes_each_task_once() throws Exception {
+        ITaskProvider provider = new WorkStealingTaskProvider(8);
+        provider.set_tasks(make_tasks(10000));
+
+        Set<IRRNTask> seen = Collections.newSetFromMap(new ConcurrentHashMap<IRRNTask, Boolean>());
+        run_workers(provider,8,0,seen);
+
+        assertEquals(10000, seen.size());
+        assertEquals(10000, provider.num_tasks_processed());
+        assertEquals(0, provider.num_tasks_processing());
+        assertEquals(0, provider.num_tasks_queued());
+    }
+
+    @Test
+    public void work_stealing_processes_subtasks() throws Exception {
+        ITaskProvider provider = new WorkStealingTaskProvider(8);
+        provider.set_tasks(make_tasks(1000));
+
+        Set<IRRNTask> seen = Collections.newSetFromMap(new ConcurrentHashMap<IRRNTask, Boolean>());
+        run_workers(provider,8,1,seen);
+
+        // Each original task spawns exactly one subtask
+        assertEquals(2000, seen.size());
+        assertEquals(2000, provider.num_tasks_total());
+        assertEquals(2000, provider.num_tasks_processed());
+    }
+
+    @Test
+    public void work_stealing_with_more_workers_than_tasks() throws Exception {
+        ITaskProvider provider = new WorkStealingTaskProvider(16);
+        provider.set_tasks(make_tasks(3));
+
+        run_workers(provider,16,0,null);
+        assertEquals(3, provider.num_tasks_processed());
+    }
+}
@@ -0,0 +1,38 @@
+package backend.utils;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CurveUtilsTest {
+
+    @Test
+    public void hilbert_order1() throws Exception {
+        assertEquals(0, CurveUtils.hilbert_index(1,0,0));
+        assertEquals(1, CurveUtils.hilbert_index(1,0,1));
+        assertEquals(2, CurveUtils.hilbert_index(1,1,1));
+        assertEquals(3, CurveUtils.hilbert_index(1,1,0));
+    }
+
+    @Test
+    public void hilbert_consecutive_are_adjacent() throws Exception {
+        int order = 4;
+        int size = 1 << order;
+        Map<Long,Vec2i> points = new HashMap<>();
+        for (int x = 0; x != size; ++x) {
+            for (int y = 0; y != size; ++y) {
+                Vec2i prev = points.put(CurveUtils.hilbert_index(order,x,y),new Vec2i(x,y));
+                assertNull(prev);
+            }
+        }
+
+        for (long d = 1; d != size*size; ++d) {
+            Vec2i p1 = points.get(d-1);
+            Vec2i p2 = points.get(d);
+            assertEquals(1, Math.abs(p1.x-p2.x)+Math.abs(p1.y-p2.y));
+        }
+    }
+}
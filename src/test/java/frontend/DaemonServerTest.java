@@ -0,0 +1,226 @@
+package frontend;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DaemonServerTest {
+
+    private static final String TOKEN = "secret";
+
+    /**
+     * Receiver, that accepts any files and reports half and full progress.
+     * Job of output "hang" runs until cancelled
+     */
+    private static class FakeReceiver implements UI_Command_receiver {
+        final List<String> files = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        UI_Progress_listener listener;
+        String output;
+        String thread_mode;
+        int child_jvm;
+        volatile double progress;
+
+        @Override public void add_file(String s) { files.add(s); }
+        @Override public void execute() { }
+        @Override public void set_process_count(int n) { }
+        @Override public void set_output_path(String path) { output = path; }
+        @Override public void set_journal_path(String path) { }
+        @Override public void set_task_ordering(String name) { }
+        @Override public void set_resource_limits(int io_per_device, long memory_bytes) { }
+        @Override public void set_device_policy(String path, int concurrency, int window) { }
+        @Override public void set_task_timeout(double seconds) { }
+        @Override public void set_split_pixels(double pixels) { }
+        @Override public void set_child_jvms(int heap_mb, int gdal_cache_mb, int tasks_per_child) {
+            child_jvm = heap_mb;
+        }
+        @Override public void set_thread_mode(String name) { thread_mode = name; }
+        @Override public void set_cluster(String bind_address, int port, String token) { }
+        @Override public void set_partitions(int k) { }
+        @Override public void set_min_overlap(double pixels) { }
+        @Override public void set_grouping(String type, String value) { }
+        @Override public void save_graph(String filename) { }
+        @Override public void save_plan(String filename) { }
+        @Override public void add_progress_listener(UI_Progress_listener l) { listener = l; }
+        @Override public boolean is_running() { return false; }
+        @Override public double get_progress() { return progress; }
+
+        @Override
+        public void join() {
+            listener.on_progress(0.5, 100, 1, false);
+            if (output.endsWith("hang")) {
+                try {
+                    cancelled.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                progress = 1;
+            }
+            listener.on_progress(progress, 100, 0, true);
+        }
+
+        @Override
+        public void cancel(String reason) {
+            cancelled.countDown();
+        }
+    }
+
+    private static class Factory implements UI_Command_receiver_factory {
+        final List<FakeReceiver> created = Collections.synchronizedList(new ArrayList<FakeReceiver>());
+
+        @Override
+        public UI_Command_receiver create() {
+            FakeReceiver r = new FakeReceiver();
+            created.add(r);
+            return r;
+        }
+    }
+
+    private static class Progress implements UI_Progress_listener {
+        final List<Double> values = new ArrayList<>();
+
+        @Override
+        public void on_progress(double progress, double pixels_per_second, double eta_seconds, boolean finished) {
+            values.add(progress);
+        }
+    }
+
+    private static DaemonServer start(Factory factory) throws IOException {
+        return start(factory, Collections.<String,String>emptyMap());
+    }
+
+    private static DaemonServer start(Factory factory, Map<String,String> settings) throws IOException {
+        final DaemonServer server = new DaemonServer(0, factory, settings, TOKEN);
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.serve();
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        return server;
+    }
+
+    private static Socket connect(DaemonServer server) throws IOException {
+        return new Socket(InetAddress.getLoopbackAddress(), server.get_port());
+    }
+
+    @Test
+    public void job_streams_progress_and_resolves_paths() throws Exception {
+        Factory factory = new Factory();
+        try (DaemonServer server = start(factory); Socket s = connect(server)) {
+            Progress progress = new Progress();
+            int status = DaemonClient.submit(s, TOKEN, "/data", new String[] {"-i", "a.tif", "-o", "out"}, progress);
+
+            assertEquals(DaemonServer.STATUS_FINISHED, status);
+            assertEquals(2, progress.values.size());
+            assertEquals(1, progress.values.get(1), 0);
+            FakeReceiver r = factory.created.get(0);
+            assertEquals(new java.io.File("/data", "a.tif").getPath(), r.files.get(0));
+            assertEquals(new java.io.File("/data", "out").getPath(), r.output);
+        }
+    }
+
+    @Test
+    public void invalid_arguments_fail_job() throws Exception {
+        try (DaemonServer server = start(new Factory()); Socket s = connect(server)) {
+            int status = DaemonClient.submit(s, TOKEN, "/data", new String[] {"-o", "out"}, new Progress());
+            assertEquals(DaemonServer.STATUS_FAILED, status);
+        }
+    }
+
+    @Test
+    public void disconnected_client_cancels_job() throws Exception {
+        Factory factory = new Factory();
+        try (DaemonServer server = start(factory)) {
+            Socket s = connect(server);
+            s.getOutputStream().write((DaemonServer.RUN+"\t"+TOKEN+"\t/data\t-i\ta.tif\t-o\thang\n").getBytes("UTF-8"));
+            s.getOutputStream().flush();
+            while (server.num_running() == 0) Thread.sleep(1);
+            s.close();
+
+            assertTrue(factory.created.get(0).cancelled.await(5, TimeUnit.SECONDS));
+            while (server.num_running() != 0) Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void job_can_not_change_process_settings() throws Exception {
+        Factory factory = new Factory();
+        try (DaemonServer server = start(factory, Collections.singletonMap("threads", "platform"))) {
+            String[] same = {"-i", "a.tif", "-o", "out", "--threads", "platform"};
+            String[] other = {"-i", "a.tif", "-o", "out", "--threads", "virtual"};
+            String[] not_set = {"-i", "a.tif", "-o", "out", "--child_jvm", "512"};
+            try (Socket s = connect(server)) {
+                int status = DaemonClient.submit(s, TOKEN, "/data", same, new Progress());
+                assertEquals(DaemonServer.STATUS_FINISHED, status);
+            }
+            try (Socket s = connect(server)) {
+                int status = DaemonClient.submit(s, TOKEN, "/data", other, new Progress());
+                assertEquals(DaemonServer.STATUS_FAILED, status);
+            }
+            try (Socket s = connect(server)) {
+                int status = DaemonClient.submit(s, TOKEN, "/data", not_set, new Progress());
+                assertEquals(DaemonServer.STATUS_FAILED, status);
+            }
+        }
+        // Settings of daemon are not applied again by jobs
+        for (FakeReceiver r : factory.created) {
+            assertNull(r.thread_mode);
+            assertEquals(0, r.child_jvm);
+        }
+    }
+
+    @Test
+    public void job_can_not_write_plan_to_standard_output() throws Exception {
+        Factory factory = new Factory();
+        try (DaemonServer server = start(factory); Socket s = connect(server)) {
+            String[] args = {"-i", "a.tif", "-o", "out", "--plan", "-"};
+            int status = DaemonClient.submit(s, TOKEN, "/data", args, new Progress());
+            assertEquals(DaemonServer.STATUS_FAILED, status);
+        }
+    }
+
+    @Test
+    public void job_without_token_is_rejected() throws Exception {
+        Factory factory = new Factory();
+        try (DaemonServer server = start(factory); Socket s = connect(server)) {
+            int status = DaemonClient.submit(s, "guess", "/data", new String[] {"-i", "a.tif", "-o", "out"},
+                    new Progress());
+            assertEquals(DaemonServer.STATUS_FAILED, status);
+        }
+        assertTrue(factory.created.isEmpty());
+    }
+
+    @Test
+    public void token_file_is_readable_by_owner_only() throws Exception {
+        Path dir = Files.createTempDirectory("daemon_token");
+        Path file = dir.resolve("sub").resolve("daemon.token");
+        try {
+            DaemonServer.write_token(file, TOKEN);
+            assertEquals(TOKEN, DaemonServer.read_token(file));
+            if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(file));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(file.getParent());
+            Files.deleteIfExists(dir);
+        }
+    }
+}